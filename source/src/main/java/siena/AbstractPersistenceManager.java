@@ -1,11 +1,16 @@
 package siena;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import siena.core.BaseMany;
 import siena.core.BaseOne;
+import siena.core.DirtyTracker;
+import siena.core.IdentityMap;
+import siena.core.LazyTracker;
 import siena.core.Many4PM;
 import siena.core.One4PM;
 import siena.core.SienaIterablePerPage;
@@ -14,11 +19,16 @@ import siena.core.batch.Batch;
 import siena.core.options.PmOption;
 import siena.core.options.QueryOption;
 import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionState;
 
 public abstract class AbstractPersistenceManager implements PersistenceManager {
 	protected ThreadLocal<Map<Integer, PmOption>> options = new ThreadLocal<Map<Integer, PmOption>>();
+	// the snapshots of the fetched entities (null when the dirty tracking is disabled)
+	protected DirtyTracker dirtyTracker;
+	// the identity maps of the threads (null when the identity map is disabled)
+	protected ThreadLocal<IdentityMap> identityMaps;
 	
 	public <T> Query<T> createQuery(Class<T> clazz) {
 		return new BaseQuery<T>(this, clazz);
@@ -73,6 +83,152 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 		return list.get(0);
 	}
 
+	/**
+	 * loads the fields with a query on the keys of the object selecting only these fields
+	 */
+	public void loadField(Object obj, String... fieldNames) {
+		Class<?> clazz = obj.getClass();
+		ClassInfo info = ClassInfo.getClassInfo(clazz);
+		Query<?> query = createQuery(clazz);
+		for(Field key: info.keys){
+			Object value = Util.readField(obj, key);
+			if(value == null){
+				throw new SienaException("Can't load fields of "+clazz.getName()+": key "+key.getName()+" is null");
+			}
+			query.filter(key.getName(), value);
+		}
+		
+		List<?> res = query.fetchFields(fieldNames);
+		if(res.isEmpty()){
+			throw new SienaException("No such object");
+		}
+		List<Field> fields = new ArrayList<Field>();
+		for(String name: fieldNames){
+			Field field = Util.getField(clazz, name);
+			Util.setField(obj, field, Util.readField(res.get(0), field));
+			fields.add(field);
+		}
+		LazyTracker.setLoaded(obj, fields);
+		// the loaded fields are not modified
+		if(dirtyTracker != null){
+			dirtyTracker.snapshot(obj, fields);
+		}
+	}
+
+	/**
+	 * enables/disables the dirty tracking: update only writes the fields modified since the fetch
+	 * (see <code>DirtyTracker</code>)
+	 */
+	public void setDirtyTracking(boolean enabled) {
+		if(!enabled) {
+			dirtyTracker = null;
+		} else if(dirtyTracker == null) {
+			dirtyTracker = new DirtyTracker();
+		}
+	}
+
+	public DirtyTracker getDirtyTracker() {
+		return dirtyTracker;
+	}
+
+	/**
+	 * remembers the values of a fetched entity when the dirty tracking is enabled
+	 */
+	public <T> T track(T obj) {
+		if(dirtyTracker != null){
+			dirtyTracker.snapshot(obj);
+		}
+		return obj;
+	}
+
+	public <T> List<T> track(List<T> objects) {
+		if(dirtyTracker != null){
+			dirtyTracker.snapshot(objects);
+		}
+		return objects;
+	}
+
+	/**
+	 * enables/disables the identity map of each thread (see <code>IdentityMap</code>)
+	 */
+	public void setIdentityMap(boolean enabled) {
+		if(!enabled) {
+			identityMaps = null;
+		} else if(identityMaps == null) {
+			identityMaps = new ThreadLocal<IdentityMap>();
+		}
+	}
+
+	/**
+	 * @return the identity map of the current thread or null if the identity map is disabled
+	 */
+	public IdentityMap getIdentityMap() {
+		ThreadLocal<IdentityMap> maps = identityMaps;
+		if(maps == null) return null;
+		IdentityMap map = maps.get();
+		if(map == null){
+			map = new IdentityMap();
+			maps.set(map);
+		}
+		return map;
+	}
+
+	public void clearIdentityMap() {
+		ThreadLocal<IdentityMap> maps = identityMaps;
+		if(maps != null){
+			maps.remove();
+		}
+	}
+
+	/**
+	 * @return the instance of the fetched entity in the identity map (when enabled)
+	 */
+	public <T> T identify(T obj, Query<T> query) {
+		IdentityMap map = getIdentityMap();
+		if(map == null || obj == null) return obj;
+		if(query != null) {
+			QueryOption fields = query.option(QueryOptionFields.ID);
+			if(fields != null && fields.isActive()) {
+				@SuppressWarnings("unchecked")
+				T identified = (T)map.get(obj.getClass(), IdentityMap.getKey(obj));
+				return identified != null ? identified : obj;
+			}
+		}
+		return map.identify(obj, query == null ? 
+				ClassInfo.getClassInfo(obj.getClass()).joinFields : IdentityMap.getJoinFields(query));
+	}
+
+	public <T> List<T> identify(List<T> objects, Query<T> query) {
+		IdentityMap map = getIdentityMap();
+		if(map == null) return objects;
+		// the partial entities of a projection are not put in the map
+		QueryOption fields = query.option(QueryOptionFields.ID);
+		if(fields != null && fields.isActive()) return map.replace(objects);
+		return map.identify(objects, IdentityMap.getJoinFields(query));
+	}
+
+	/**
+	 * removes a deleted entity from the identity map (when enabled)
+	 */
+	protected void removeIdentity(Object obj) {
+		IdentityMap map = getIdentityMap();
+		if(map != null) map.remove(obj);
+	}
+
+	protected void removeIdentity(Class<?> clazz, Object key) {
+		IdentityMap map = getIdentityMap();
+		if(map != null) map.remove(clazz, key);
+	}
+
+	/**
+	 * removes the entities of a class from the identity map (when enabled) 
+	 * after a query deleting/updating several of them
+	 */
+	protected void clearIdentities(Class<?> clazz) {
+		IdentityMap map = getIdentityMap();
+		if(map != null) map.clear(clazz);
+	}
+
 	public <T> void release(Query<T> query) {
 		QueryOptionOffset offset = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
 		QueryOption state = query.option(QueryOptionState.ID);
@@ -9,8 +9,10 @@ import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Map;
 
+import siena.core.RelationLoader;
 import siena.core.async.QueryAsync;
 import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionFields;
 import siena.embed.JsonSerializer;
 
 /**
@@ -108,19 +110,19 @@ public class BaseQuery<T> extends BaseQueryData<T> implements Query<T> {
 	}
 	
 	public T get() {
-		return pm.get(this);
+		return RelationLoader.load(pm, this, pm.get(this));
 	}
 
 	public List<T> fetch() {
-		return pm.fetch(this);
+		return RelationLoader.load(pm, this, pm.fetch(this));
 	}
 
 	public List<T> fetch(int limit) {
-		return pm.fetch(this, limit);
+		return RelationLoader.load(pm, this, pm.fetch(this, limit));
 	}
 
 	public List<T> fetch(int limit, Object offset) {
-		return pm.fetch(this, limit, offset);
+		return RelationLoader.load(pm, this, pm.fetch(this, limit, offset));
 	}
 
 	public int count() {
@@ -154,6 +156,18 @@ public class BaseQuery<T> extends BaseQueryData<T> implements Query<T> {
 		return pm.fetchKeys(this, limit, offset);
 	}
 	
+	public List<T> fetchFields(String... fields) {
+		// the projection is only used by this fetch
+		QueryOption previous = options.get(QueryOptionFields.ID);
+		options.put(QueryOptionFields.ID, new QueryOptionFields(fields));
+		try {
+			return pm.fetch(this);
+		} finally {
+			if(previous == null) options.remove(QueryOptionFields.ID);
+			else options.put(QueryOptionFields.ID, previous);
+		}
+	}
+	
 	public Iterable<T> iter() {
 		return pm.iter(this);
 	}
@@ -20,7 +20,6 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,7 +31,9 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import siena.core.Aggregated;
 import siena.core.Aggregator;
+import siena.core.FieldAccessor;
 import siena.core.InheritFilter;
+import siena.core.Lazy;
 import siena.core.Many;
 import siena.core.One;
 import siena.core.Owned;
@@ -46,6 +47,8 @@ import siena.embed.Embedded;
 public class ClassInfo {
 	
 	protected static Map<Class<?>, ClassInfo> infoClasses = new ConcurrentHashMap<Class<?>, ClassInfo>();
+	protected static Map<Field, FieldAccessor> fieldAccessors = new ConcurrentHashMap<Field, FieldAccessor>();
+	protected static Map<Field, FieldInfo> fieldInfos = new ConcurrentHashMap<Field, FieldInfo>();
 	
 	public Class<?> clazz;
 	
@@ -58,6 +61,9 @@ public class ClassInfo {
 	public List<Field> allFields = new ArrayList<Field>();
 	public List<Field> joinFields = new ArrayList<Field>();
 	public List<Field> allExtendedFields = new ArrayList<Field>();
+	// the @Lazy fields and the fields loaded by the queries (allFields without the @Lazy fields)
+	public List<Field> lazyFields = new ArrayList<Field>();
+	public List<Field> eagerFields = new ArrayList<Field>();
 	
 	public List<Field> aggregatedFields = new ArrayList<Field>();
 	public boolean hasAggregatedFields = false;
@@ -102,6 +108,10 @@ public class ClassInfo {
 					continue;
 				}
 				
+				// builds the accessor and the mapping metadata once for all persisted/relation fields
+				getAccessor(field);
+				getFieldInfo(field);
+				
 				if(isId(field)){
 					buildId(field);
 					continue;
@@ -149,6 +159,17 @@ public class ClassInfo {
 			
 			buildLifecycleMethods(c);
         }
+		
+		for(Field field: allFields){
+			if(field.getAnnotation(Lazy.class) != null){
+				if(keys.contains(field)){
+					throw new SienaException("@Lazy is not allowed on @Id field "+field.getName());
+				}
+				lazyFields.add(field);
+			}else {
+				eagerFields.add(field);
+			}
+		}
 	}
 
 	private void buildId(Field field){
@@ -493,133 +514,27 @@ public class ClassInfo {
 	}
 	
 	public static String[] getColumnNames(Field field) {
-		Column c = field.getAnnotation(Column.class);
-		if(c != null && c.value().length > 0) return c.value();
-		
-		// default mapping: field names
-		if(isModel(field.getType())) {
-			ClassInfo ci = getClassInfo(field.getType());
-			List<String> keys = new ArrayList<String>();
-			// if no @column is provided
-			// if the model has one single key, we use the local field name
-			// if the model has several keys, we concatenate the fieldName+"_"+keyName
-			if(ci.keys.size()==1){
-				return new String[] { field.getName() };
-			}
-			for (Field key : ci.keys) {
-				// uses the prefix fieldName_ to prevent problem with models having the same field names
-				keys.addAll(Arrays.asList(getColumnNamesWithPrefix(key, field.getName()+"_")));
-			}
-			return keys.toArray(new String[keys.size()]);
-		}
-		return new String[]{ field.getName() };
+		return getFieldInfo(field).getColumnNames();
 	}
 	
 	public static String getSingleColumnName(Field field) {
-		Column c = field.getAnnotation(Column.class);
-		if(c != null && c.value().length > 0) return c.value()[0];
-		
-		// default mapping: field names
-		if(isModel(field.getType())) {
-			ClassInfo ci = getClassInfo(field.getType());
-			String keys = "";
-			// if no @column is provided
-			// if the model has one single key, we use the local field name
-			// if the model has several keys, we concatenate the fieldName+"_"+keyName
-			if(ci.keys.size()==1){
-				return field.getName();
-			}
-			// multi keys returns field_key1:field_key2
-			int i=0;
-			int sz = ci.keys.size();
-			for (Field key : ci.keys) {
-				// uses the prefix fieldName_ to prevent problem with models having the same field names
-				keys += field.getName()+"_"+ getSingleColumnName(key);
-				if(i < sz){
-					keys += ":";
-				}
-				i++;
-			}
-			return keys;
-		}
-		return field.getName();
+		return getFieldInfo(field).getSingleColumnName();
 	}
 
 	public static String getSimplestColumnName(Field field) {
-		Column c = field.getAnnotation(Column.class);
-		if(c != null && c.value().length > 0) return c.value()[0];
-		
-		return field.getName();
+		return getFieldInfo(field).getSimplestColumnName();
+	}
+	
+	public static String[] getColumnAliases(Field field, String tableName) {
+		return getFieldInfo(field).getColumnAliases(tableName);
 	}
 	
 	public static String[] getColumnNamesWithPrefix(Field field, String prefix) {
-		Column c = field.getAnnotation(Column.class);
-		if(c != null && c.value().length > 0) {
-			String[] cols = c.value();
-			for(int i=0;i<cols.length;i++){
-				cols[i]=prefix+cols[i];
-			}
-			return cols;
-		}
-		
-		// default mapping: field names
-		if(isModel(field.getType())) {
-			ClassInfo ci = getClassInfo(field.getType());
-			List<String> keys = new ArrayList<String>();
-			// if no @column is provided
-			// if the model has one single key, we use the local field name
-			// if the model has several keys, we concatenate the fieldName+"_"+keyName
-			if(ci.keys.size()==1){
-				return new String[] { prefix+field.getName() };
-			}
-			for (Field key : ci.keys) {
-				// concatenates prefix with new prefix
-				keys.addAll(Arrays.asList(getColumnNamesWithPrefix(key, prefix+field.getName()+"_")));
-			}
-			return keys.toArray(new String[keys.size()]);
-		}
-		return new String[]{ prefix + field.getName() };
+		return getFieldInfo(field).getColumnNamesWithPrefix(prefix);
 	}
 	
 	public static String[] getColumnNames(Field field, String tableName) {
-		Column c = field.getAnnotation(Column.class);
-		if(c != null && c.value().length > 0) {
-			if(tableName!=null && !("".equals(tableName))){
-				String[] cols = c.value();
-				for(int i=0;i<cols.length;i++){
-					cols[i]=tableName+"."+cols[i];
-				}
-				return cols;
-			}
-			else return c.value();
-		}
-		
-		// default mapping: field names
-		if(isModel(field.getType())) {
-			ClassInfo ci = getClassInfo(field.getType());
-			List<String> keys = new ArrayList<String>();
-			// if no @column is provided
-			// if the model has one single key, we use the local field name
-			// if the model has several keys, we concatenate the fieldName+"_"+keyName
-			if(ci.keys.size()==1){
-				if(tableName!=null && !("".equals(tableName))){
-					return new String[] { tableName+"."+field.getName() };
-				}else {
-					return new String[] { field.getName() };
-				}
-			}
-			for (Field key : ci.keys) {
-				if(tableName!=null && !("".equals(tableName))){
-					keys.addAll(Arrays.asList(getColumnNamesWithPrefix(key, tableName+"."+field.getName()+"_")));
-				}else {
-					keys.addAll(Arrays.asList(getColumnNamesWithPrefix(key, field.getName()+"_")));
-				}
-			}
-			return keys.toArray(new String[keys.size()]);
-		}
-		if(tableName!=null && !("".equals(tableName)))
-			return new String[]{ tableName+"."+field.getName() };
-		else return new String[]{ field.getName() };
+		return getFieldInfo(field).getColumnNames(tableName);
 	}
 	
 	public static boolean isModel(Class<?> type) {
@@ -762,6 +677,24 @@ public class ClassInfo {
 		return infoClasses.get(clazz);
 	}
 	
+	public static FieldAccessor getAccessor(Field field) {
+		FieldAccessor accessor = fieldAccessors.get(field);
+		if(accessor == null) {
+			accessor = new FieldAccessor(field);
+			fieldAccessors.put(field, accessor);
+		}
+		return accessor;
+	}
+	
+	public static FieldInfo getFieldInfo(Field field) {
+		FieldInfo info = fieldInfos.get(field);
+		if(info == null) {
+			info = new FieldInfo(field);
+			fieldInfos.put(field, info);
+		}
+		return info;
+	}
+	
 	public List<Method> getLifeCycleMethod(LifeCyclePhase lcp){
 		return lifecycleMethods.get(lcp);
 	}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 pascal VOitot <pascal.voitot@mandubian.org>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import siena.core.DecimalPrecision;
+import siena.core.Polymorphic;
+import siena.embed.Embedded;
+
+/**
+ * The mapping metadata of one field: column names and the annotations used
+ * when converting values.
+ *
+ * It is built once per field by <code>ClassInfo</code> and never changes afterwards.
+ * The column names of relation fields depend on the keys of the related class
+ * so they are computed the first time they are needed and then kept.
+ * The returned arrays are shared and must not be modified.
+ *
+ * @author mandubian
+ *
+ */
+public class FieldInfo {
+	public final Field field;
+	public final Class<?> type;
+
+	public final boolean model;
+	public final boolean embedded;
+	public final Embedded embed;
+	public final boolean polymorphic;
+	public final boolean json;
+	public final DecimalPrecision decimalPrecision;
+
+	private final String[] annotatedColumns;
+	private volatile String[] columnNames;
+	private volatile String singleColumnName;
+
+	// column names prefixed by a table name or a prefix and their aliases
+	private final Map<String, String[]> qualifiedColumnNames = new ConcurrentHashMap<String, String[]>();
+	private final Map<String, String[]> prefixedColumnNames = new ConcurrentHashMap<String, String[]>();
+	private final Map<String, String[]> columnAliases = new ConcurrentHashMap<String, String[]>();
+
+	public FieldInfo(Field field) {
+		this.field = field;
+		this.type = field.getType();
+		this.model = ClassInfo.isModel(type);
+		this.embed = field.getAnnotation(Embedded.class);
+		this.embedded = embed != null;
+		this.polymorphic = field.isAnnotationPresent(Polymorphic.class);
+		this.json = Json.class.isAssignableFrom(type);
+		this.decimalPrecision = field.getAnnotation(DecimalPrecision.class);
+
+		Column c = field.getAnnotation(Column.class);
+		if(c != null && c.value().length > 0) {
+			annotatedColumns = c.value();
+		}else {
+			annotatedColumns = null;
+		}
+	}
+
+	public String getSimplestColumnName() {
+		if(annotatedColumns != null) return annotatedColumns[0];
+		return field.getName();
+	}
+
+	public String[] getColumnNames() {
+		String[] cols = columnNames;
+		if(cols == null){
+			cols = columnNames = buildColumnNames();
+		}
+		return cols;
+	}
+
+	/**
+	 * @return the column names prefixed by <code>tableName.</code> or
+	 * the simple column names if the table name is null or empty
+	 */
+	public String[] getColumnNames(String tableName) {
+		if(tableName == null || "".equals(tableName)){
+			return getColumnNames();
+		}
+		String[] cols = qualifiedColumnNames.get(tableName);
+		if(cols == null){
+			cols = prefix(getColumnNames(), tableName+".");
+			qualifiedColumnNames.put(tableName, cols);
+		}
+		return cols;
+	}
+
+	public String[] getColumnNamesWithPrefix(String prefix) {
+		String[] cols = prefixedColumnNames.get(prefix);
+		if(cols == null){
+			cols = prefix(getColumnNames(), prefix);
+			prefixedColumnNames.put(prefix, cols);
+		}
+		return cols;
+	}
+
+	/**
+	 * @return the aliases used for the columns prefixed by <code>tableName.</code>
+	 * in a select (<code>tableName_column</code>)
+	 */
+	public String[] getColumnAliases(String tableName) {
+		String key = tableName==null?"":tableName;
+		String[] aliases = columnAliases.get(key);
+		if(aliases == null){
+			String[] cols = getColumnNames(tableName);
+			aliases = new String[cols.length];
+			for(int i=0; i<cols.length; i++){
+				aliases[i] = cols[i].replace('.', '_');
+			}
+			columnAliases.put(key, aliases);
+		}
+		return aliases;
+	}
+
+	public String getSingleColumnName() {
+		String col = singleColumnName;
+		if(col == null){
+			col = singleColumnName = buildSingleColumnName();
+		}
+		return col;
+	}
+
+	private String[] buildColumnNames() {
+		if(annotatedColumns != null) return annotatedColumns;
+
+		// default mapping: field names
+		if(model) {
+			ClassInfo ci = ClassInfo.getClassInfo(type);
+			// if no @column is provided
+			// if the model has one single key, we use the local field name
+			// if the model has several keys, we concatenate the fieldName+"_"+keyName
+			if(ci.keys.size()==1){
+				return new String[] { field.getName() };
+			}
+			List<String> keys = new ArrayList<String>();
+			for (Field key : ci.keys) {
+				// uses the prefix fieldName_ to prevent problem with models having the same field names
+				Collections.addAll(keys, ClassInfo.getFieldInfo(key).getColumnNamesWithPrefix(field.getName()+"_"));
+			}
+			return keys.toArray(new String[keys.size()]);
+		}
+		return new String[]{ field.getName() };
+	}
+
+	private String buildSingleColumnName() {
+		if(annotatedColumns != null) return annotatedColumns[0];
+
+		// default mapping: field names
+		if(model) {
+			ClassInfo ci = ClassInfo.getClassInfo(type);
+			// if no @column is provided
+			// if the model has one single key, we use the local field name
+			// if the model has several keys, we concatenate the fieldName+"_"+keyName
+			if(ci.keys.size()==1){
+				return field.getName();
+			}
+			// multi keys returns field_key1:field_key2
+			String keys = "";
+			int i=0;
+			int sz = ci.keys.size();
+			for (Field key : ci.keys) {
+				// uses the prefix fieldName_ to prevent problem with models having the same field names
+				keys += field.getName()+"_"+ ClassInfo.getFieldInfo(key).getSingleColumnName();
+				if(i < sz){
+					keys += ":";
+				}
+				i++;
+			}
+			return keys;
+		}
+		return field.getName();
+	}
+
+	private static String[] prefix(String[] cols, String prefix) {
+		String[] res = new String[cols.length];
+		for(int i=0; i<cols.length; i++){
+			res[i] = prefix + cols[i];
+		}
+		return res;
+	}
+}
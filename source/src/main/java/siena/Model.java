@@ -140,15 +140,10 @@ public abstract class Model {
 
 		List<Field> keys = ClassInfo.getClassInfo(getClass()).keys;
 		for (Field field : keys) {
-			field.setAccessible(true);
-			try {
-				Object a = field.get(this);
-				Object b = field.get(that);
-				if(a == null ? b != null : !a.equals(b))
-					{ return false; }
-			} catch (Exception e) {
-				throw new SienaException(e);
-			}
+			Object a = Util.readField(this, field);
+			Object b = Util.readField(that, field);
+			if(a == null ? b != null : !a.equals(b))
+				{ return false; }
 		}
 		return true;
 	}
@@ -159,13 +154,8 @@ public abstract class Model {
 
 		List<Field> keys = ClassInfo.getClassInfo(getClass()).keys;
 		for (Field field : keys) {
-			field.setAccessible(true);
-			try {
-				Object value = field.get(this);
-				result = prime * result + ((value == null) ? 0 : value.hashCode());
-			} catch (Exception e) {
-				throw new SienaException(e);
-			}
+			Object value = Util.readField(this, field);
+			result = prime * result + ((value == null) ? 0 : value.hashCode());
 		}
 		return result;
 	}
@@ -354,6 +344,10 @@ public abstract class Model {
 			return createQuery().fetchKeys(limit, offset);
 		}
 
+		public List<T> fetchFields(String... fields) {
+			return createQuery().fetchFields(fields);
+		}
+
 		public List<QueryFilter> getFilters() {
 			return createQuery().getFilters();
 		}
@@ -549,6 +543,10 @@ public abstract class Model {
 			return createMany().setSync(isSync);
 		}
 
+		public Many4PM<T> setElements(List<T> elements) {
+			return createMany().setElements(elements);
+		}
+
 	}
 	
 	
@@ -626,5 +624,9 @@ public abstract class Model {
 			return createOne().setSync(isSync);
 		}
 
+		public One4PM<T> setTarget(T target) {
+			return createOne().setTarget(target);
+		}
+
 	}
 }
@@ -99,6 +99,16 @@ public interface PersistenceManager {
 	 *            object where the information will be loaded into.
 	 */
 	void get(Object obj);
+	
+	/**
+	 * This method loads the given fields of the object using its primary key value.
+	 * It's meant for the @Lazy fields which are not loaded by the queries.
+	 * 
+	 * @param obj The object that contains the primary key values, and also the
+	 *            object where the fields will be loaded into.
+	 * @param fieldNames The names of the fields to load.
+	 */
+	void loadField(Object obj, String... fieldNames);
 
 	/**
 	 * Inserts an object into the database. Any generated primary key will be
@@ -56,6 +56,14 @@ public interface Query<T> extends QueryData<T>{
 	List<T> fetchKeys(int limit);
 	List<T> fetchKeys(int limit, Object offset);
 
+	/**
+	 * fetches the entities with only their keys and the given fields set
+	 * 
+	 * @param fields the names of the fields to load
+	 * @return the entities
+	 */
+	List<T> fetchFields(String... fields);
+
 	Iterable<T> iter();
 	Iterable<T> iter(int limit);
 	Iterable<T> iter(int limit, Object offset);
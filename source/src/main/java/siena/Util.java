@@ -30,6 +30,7 @@ import java.util.Iterator;
 import java.util.TimeZone;
 import java.util.UUID;
 
+import siena.core.LazyTracker;
 import siena.embed.Embedded;
 import siena.embed.JavaSerializer;
 import siena.embed.JsonSerializer;
@@ -241,7 +242,7 @@ public class Util {
 			}
 		} 
 		
-		Embedded embed = field.getAnnotation(Embedded.class);
+		Embedded embed = ClassInfo.getFieldInfo(field).embed;
 		if(embed != null) {
 			switch(embed.mode()){
 			case SERIALIZE_JSON:
@@ -275,17 +276,8 @@ public class Util {
 	}
 	
 	public static void setField(Object object, Field f, Object value) {
-		try { 
-				f.set(object, value); 
-		} catch (Exception e) { 
-			try { 
-				f.setAccessible(true); 
-			  f.set(object, value);  
-		} catch (Exception e2) { 
-			 	throw new SienaException(e2); 
-			} 
-		} 
-	} 
+		ClassInfo.getAccessor(f).set(object, value);
+	}
 	
 	public static void setFromObject(Object object, Field f, Object value) {
 		setField(object, f, fromObject(f, value));
@@ -296,20 +288,7 @@ public class Util {
 	}
 
 	public static Object readField(Object object, Field field) {
-		boolean wasAccess = true;
-		if(!field.isAccessible()){
-			field.setAccessible(true);
-			wasAccess = false;
-		}
-		try {
-			return field.get(object);
-		} catch (Exception e) {
-			throw new SienaException(e);
-		} finally {
-			if(!wasAccess){
-				field.setAccessible(false);
-			}
-		}
+		return ClassInfo.getAccessor(field).get(object);
 	}
 	
 	public static Field getField(Class<?> clazz, String fieldName) {
@@ -380,6 +359,7 @@ public class Util {
 		for (Field field : JdbcClassInfo.getClassInfo(clazz).allFields) {
 			Util.setField(objTo, field, Util.readField(objFrom, field));
 		}
+		LazyTracker.copy(objFrom, objTo);
 	}
 	
 	public static Class<?> getGenericClass(Field f, int n) {
@@ -67,6 +67,14 @@ public class BaseMany<T> implements Many4PM<T>{
 		return this;
 	}
 	
+	public Many4PM<T> setElements(List<T> elements) {
+		list.elements = new ArrayList<T>(elements);
+		list.elements2Remove.clear();
+		list.elements2Add.clear();
+		list.isSync = true;
+		return this;
+	}
+	
 	public List<T> asList2Remove() {
 		return list.elements2Remove;
 	}
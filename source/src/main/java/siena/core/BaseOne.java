@@ -93,6 +93,13 @@ public class BaseOne<T> implements One4PM<T>{
 		return this;
 	}
 
+	public One4PM<T> setTarget(T target) {
+		this.target = target;
+		isSync = true;
+		isModified = false;
+		return this;
+	}
+
 	public boolean isModified() {
 		return isModified;
 	}
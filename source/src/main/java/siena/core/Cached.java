@@ -0,0 +1,25 @@
+package siena.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The entities of this class are kept in the <code>EntityCache</code> of a
+ * <code>CachingPersistenceManager</code>: get/getByKey/getByKeys don't query them
+ * until they are modified or evicted.
+ *
+ * Only for the classes having one key and no owned/aggregated fields
+ * (their Many/One can't be shared between the copies of the entity).
+ *
+ * @author mandubian <pascal.voitot@mandubian.org>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+	/**
+	 * the time to live of the cached entities in milliseconds (0 for the default of the cache)
+	 */
+	long ttl() default 0;
+}
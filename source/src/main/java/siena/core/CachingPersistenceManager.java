@@ -0,0 +1,787 @@
+package siena.core;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import siena.BaseQuery;
+import siena.BaseQueryData;
+import siena.ClassInfo;
+import siena.PersistenceManager;
+import siena.Query;
+import siena.Util;
+import siena.core.async.PersistenceManagerAsync;
+import siena.core.batch.BaseBatch;
+import siena.core.batch.Batch;
+import siena.core.QueryCache.Kind;
+import siena.core.options.PmOption;
+import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionCache;
+import siena.core.options.QueryOptionFields;
+import siena.core.options.QueryOptionPage;
+import siena.core.options.QueryOptionState;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         A persistence manager serving get/getByKey/getByKeys of the <code>@Cached</code> classes
+ *         from an <code>EntityCache</code> in front of any persistence manager (JDBC, GAE, SDB, remote...).
+ *         The entities written by insert/update/save/delete/deleteByKeys are removed from the cache
+ *         and the queries deleting/updating entities remove all the entities of their class.
+ *
+ *         The results of the queries customized with <code>QueryOptionCache</code> are kept in a
+ *         <code>QueryCache</code> until an entity of their class (or of a joined class) is written
+ *         through this persistence manager.
+ *
+ *         The concurrent identical reads missing the caches (getByKey/get of the same entity,
+ *         same cached query) are coalesced (see <code>SingleFlight</code>): one of them runs and
+ *         the others get a copy of its result.
+ *
+ *         The queries, batches and Many/One created by this persistence manager go through it.
+ *         The cache is not used in transactions (the entities are neither read nor put in it
+ *         between beginTransaction and commitTransaction/rollbackTransaction) but the written
+ *         entities are removed from it (and the results of their classes invalidated) when they
+ *         are written and again at commit: another thread could have cached them between the
+ *         write and the commit as they were before the transaction.
+ *         The async persistence manager of the wrapped one doesn't go through the cache.
+ */
+public class CachingPersistenceManager implements PersistenceManager {
+	PersistenceManager pm;
+	EntityCache cache;
+	QueryCache queryCache;
+	SingleFlight flights = new SingleFlight();
+	// the writes of the transaction of the thread (null if none)
+	private ThreadLocal<Writes> transactions = new ThreadLocal<Writes>();
+
+	public CachingPersistenceManager(PersistenceManager pm) {
+		this(pm, new EntityCache());
+	}
+
+	public CachingPersistenceManager(PersistenceManager pm, EntityCache cache) {
+		this(pm, cache, new QueryCache());
+	}
+
+	/**
+	 * @param cache the caches can be shared by several persistence managers
+	 */
+	public CachingPersistenceManager(PersistenceManager pm, EntityCache cache, QueryCache queryCache) {
+		this.pm = pm;
+		this.cache = cache;
+		this.queryCache = queryCache;
+	}
+
+	public PersistenceManager getPersistenceManager() {
+		return pm;
+	}
+
+	public EntityCache getCache() {
+		return cache;
+	}
+
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	public SingleFlight getSingleFlight() {
+		return flights;
+	}
+
+	private boolean isCached(Class<?> clazz) {
+		return transactions.get() == null && cache.isCached(clazz);
+	}
+
+	private void invalidate(Object obj) {
+		if(obj == null) return;
+		queryCache.invalidate(obj.getClass());
+		if(cache.isCached(obj.getClass())){
+			cache.remove(obj);
+		}
+		Writes writes = transactions.get();
+		if(writes != null) writes.objects.add(obj);
+	}
+
+	private void invalidate(Class<?> clazz) {
+		queryCache.invalidate(clazz);
+		if(cache.isCached(clazz)){
+			cache.clear(clazz);
+		}
+		Writes writes = transactions.get();
+		if(writes != null) writes.classes.add(clazz);
+	}
+
+	private void invalidate(Class<?> clazz, Iterable<?> keys) {
+		queryCache.invalidate(clazz);
+		if(cache.isCached(clazz)){
+			for(Object key: keys){
+				cache.remove(clazz, key);
+			}
+		}
+		Writes writes = transactions.get();
+		if(writes != null){
+			List<Object> written = writes.keys.get(clazz);
+			if(written == null){
+				written = new ArrayList<Object>();
+				writes.keys.put(clazz, written);
+			}
+			for(Object key: keys){
+				written.add(key);
+			}
+		}
+	}
+
+	/**
+	 * invalidates again what has been written in the committed transaction
+	 */
+	private void invalidate(Writes writes) {
+		for(Object obj: writes.objects){
+			invalidate(obj);
+		}
+		for(Class<?> clazz: writes.classes){
+			invalidate(clazz);
+		}
+		for(Map.Entry<Class<?>, List<Object>> keys: writes.keys.entrySet()){
+			invalidate(keys.getKey(), keys.getValue());
+		}
+	}
+
+	/**
+	 * @return the cache option of the query if its results can be cached else null
+	 */
+	private QueryOptionCache getCacheOption(Query<?> query) {
+		if(transactions.get() != null) return null;
+		QueryOptionCache opt = (QueryOptionCache)query.option(QueryOptionCache.ID);
+		if(opt == null || !opt.isActive()) return null;
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionState state = (QueryOptionState)query.option(QueryOptionState.ID);
+		if((pag != null && pag.isPaginating()) || (state != null && state.isStateful())) return null;
+		return opt;
+	}
+
+	/**
+	 * @return true if the entities of the class can't be copied (their Many/One can't be shared)
+	 */
+	private static boolean hasRelations(Class<?> clazz) {
+		ClassInfo info = ClassInfo.getClassInfo(clazz);
+		return info.hasOwnedFields || info.hasAggregatedFields || info.hasAggregator;
+	}
+
+	/**
+	 * the entities (or their keys) fetched by the query from the query cache or from the persistence manager
+	 * 
+	 * @param limit null if the query is fetched without limit
+	 * @param offset null if the query is fetched without offset
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> fetch(Query<T> query, QueryOptionCache opt, Kind kind, Integer limit, Object offset) {
+		Class<T> clazz = query.getQueriedClass();
+		// only the keys of the entities which can't be copied are kept
+		boolean keysOnly = kind == Kind.FETCH && (opt.keysOnly || hasRelations(clazz));
+		// but getting them by key would lose the projection and the joins of the query
+		QueryOption fields = query.option(QueryOptionFields.ID);
+		if(keysOnly && (fields != null && fields.isActive() || !query.getJoins().isEmpty())){
+			return load(query, kind, limit, offset);
+		}
+
+		final String key = QueryCache.key(query, kind, keysOnly, limit, offset);
+		List<Object> cached = (List<Object>)queryCache.get(key);
+		if(cached != null){
+			return toModels(clazz, cached, keysOnly);
+		}
+
+		// the concurrent identical queries wait for the result of the first one
+		// if no write of their classes has happened since it has started
+		final Query<T> q = query;
+		final QueryOptionCache o = opt;
+		final Kind k = kind;
+		final Integer l = limit;
+		final Object off = offset;
+		final boolean ko = keysOnly;
+		final Class<?>[] classes = QueryCache.getClasses(query);
+		final long[] gens = queryCache.generations(classes);
+		return flights.execute(Arrays.asList(key, Arrays.toString(gens)), new SingleFlight.Call<List<T>>() {
+			// the cached values: the waiting threads get models from them as from the cache
+			private List<Object> values;
+
+			public List<T> call() {
+				List<T> models = load(q, k, l, off);
+				values = toValues(q.getQueriedClass(), models, ko);
+				queryCache.put(key, values, classes, gens, o.ttl);
+				return models;
+			}
+
+			@Override
+			public Object snapshot(List<T> models) {
+				return values;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public List<T> share(Object snapshot) {
+				return toModels(q.getQueriedClass(), (List<Object>)snapshot, ko);
+			}
+		});
+	}
+
+	/**
+	 * @return the values kept in the query cache for the models: their copies or their keys
+	 */
+	private static <T> List<Object> toValues(Class<T> clazz, List<T> models, boolean keysOnly) {
+		List<Object> values = new ArrayList<Object>(models.size());
+		Field keyField = ClassInfo.getClassInfo(clazz).keys.get(0);
+		for(T obj: models){
+			values.add(keysOnly ? Util.readField(obj, keyField) : EntityCache.copy(obj));
+		}
+		return values;
+	}
+
+	/**
+	 * @return the models from the values kept in the query cache: copies or entities got by key
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> toModels(Class<T> clazz, List<Object> values, boolean keysOnly) {
+		List<T> models = new ArrayList<T>(values.size());
+		if(keysOnly){
+			for(T obj: getByKeys(clazz, values)){
+				if(obj != null) models.add(obj);
+			}
+		}else {
+			for(Object obj: values){
+				models.add((T)EntityCache.copy(obj));
+			}
+		}
+		return models;
+	}
+
+	private <T> List<T> load(Query<T> query, Kind kind, Integer limit, Object offset) {
+		if(kind == Kind.FETCH_KEYS){
+			if(limit == null) return pm.fetchKeys(query);
+			if(offset == null) return pm.fetchKeys(query, limit);
+			return pm.fetchKeys(query, limit, offset);
+		}
+		if(limit == null) return pm.fetch(query);
+		if(offset == null) return pm.fetch(query, limit);
+		return pm.fetch(query, limit, offset);
+	}
+
+	private void invalidate(Iterable<?> objects) {
+		for(Object obj: objects){
+			invalidate(obj);
+		}
+	}
+
+	@Override
+	public void init(Properties p) {
+		pm.init(p);
+	}
+
+	@Override
+	public PersistenceManager option(PmOption opt) {
+		return pm.option(opt);
+	}
+
+	@Override
+	public PmOption option(int type) {
+		return pm.option(type);
+	}
+
+	@Override
+	public Map<Integer, PmOption> options() {
+		return pm.options();
+	}
+
+	@Override
+	public void resetOptions() {
+		pm.resetOptions();
+	}
+
+	@Override
+	public <T> Query<T> createQuery(Class<T> clazz) {
+		return new BaseQuery<T>(this, clazz);
+	}
+
+	@Override
+	public <T> Query<T> createQuery(BaseQueryData<T> query) {
+		return new BaseQuery<T>(this, query);
+	}
+
+	@Override
+	public <T> Batch<T> createBatch(Class<T> clazz) {
+		return new BaseBatch<T>(this, clazz);
+	}
+
+	@Override
+	public <T> Many4PM<T> createMany(Class<T> clazz) {
+		return new BaseMany<T>(this, clazz);
+	}
+
+	@Override
+	public <T> One4PM<T> createOne(Class<T> clazz) {
+		return new BaseOne<T>(this, clazz);
+	}
+
+	@Override
+	public void get(Object obj) {
+		Class<?> clazz = obj.getClass();
+		if(!isCached(clazz)){
+			pm.get(obj);
+			return;
+		}
+		Object key = Util.readField(obj, ClassInfo.getClassInfo(clazz).keys.get(0));
+		Object cached = cache.get(clazz, key);
+		if(cached == null){
+			cached = load(clazz, key);
+			if(cached == null){
+				// lets the persistence manager manage the missing entity
+				pm.get(obj);
+				return;
+			}
+		}
+		Util.copyObject(cached, obj);
+	}
+
+	@Override
+	public void insert(Object obj) {
+		try {
+			pm.insert(obj);
+		} finally {
+			invalidate(obj);
+		}
+	}
+
+	@Override
+	public void delete(Object obj) {
+		try {
+			pm.delete(obj);
+		} finally {
+			invalidate(obj);
+		}
+	}
+
+	@Override
+	public void update(Object obj) {
+		try {
+			pm.update(obj);
+		} finally {
+			invalidate(obj);
+		}
+	}
+
+	@Override
+	public void save(Object obj) {
+		try {
+			pm.save(obj);
+		} finally {
+			invalidate(obj);
+		}
+	}
+
+	@Override
+	public <T> T get(Query<T> query) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.get(query);
+		}
+		List<T> list = fetch(query, opt, Kind.FETCH, 1, null);
+		if(list.isEmpty()) { return null; }
+		return list.get(0);
+	}
+
+	@Override
+	public <T> int delete(Query<T> query) {
+		try {
+			return pm.delete(query);
+		} finally {
+			invalidate(query.getQueriedClass());
+		}
+	}
+
+	@Override
+	public <T> int update(Query<T> query, Map<String, ?> fieldValues) {
+		try {
+			return pm.update(query, fieldValues);
+		} finally {
+			invalidate(query.getQueriedClass());
+		}
+	}
+
+	@Override
+	public <T> int count(Query<T> query) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.count(query);
+		}
+		final String key = QueryCache.key(query, Kind.COUNT, false, null, null);
+		Integer count = (Integer)queryCache.get(key);
+		if(count == null){
+			final Query<T> q = query;
+			final long ttl = opt.ttl;
+			final Class<?>[] classes = QueryCache.getClasses(query);
+			final long[] gens = queryCache.generations(classes);
+			count = flights.execute(Arrays.asList(key, Arrays.toString(gens)), new SingleFlight.Call<Integer>() {
+				public Integer call() {
+					Integer count = pm.count(q);
+					queryCache.put(key, count, classes, gens, ttl);
+					return count;
+				}
+			});
+		}
+		return count;
+	}
+
+	@Override
+	public <T> List<T> fetch(Query<T> query) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.fetch(query);
+		}
+		return fetch(query, opt, Kind.FETCH, null, null);
+	}
+
+	@Override
+	public <T> List<T> fetch(Query<T> query, int limit) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.fetch(query, limit);
+		}
+		return fetch(query, opt, Kind.FETCH, limit, null);
+	}
+
+	@Override
+	public <T> List<T> fetch(Query<T> query, int limit, Object offset) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.fetch(query, limit, offset);
+		}
+		return fetch(query, opt, Kind.FETCH, limit, offset);
+	}
+
+	@Override
+	public <T> List<T> fetchKeys(Query<T> query) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.fetchKeys(query);
+		}
+		return fetch(query, opt, Kind.FETCH_KEYS, null, null);
+	}
+
+	@Override
+	public <T> List<T> fetchKeys(Query<T> query, int limit) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.fetchKeys(query, limit);
+		}
+		return fetch(query, opt, Kind.FETCH_KEYS, limit, null);
+	}
+
+	@Override
+	public <T> List<T> fetchKeys(Query<T> query, int limit, Object offset) {
+		QueryOptionCache opt = getCacheOption(query);
+		if(opt == null){
+			return pm.fetchKeys(query, limit, offset);
+		}
+		return fetch(query, opt, Kind.FETCH_KEYS, limit, offset);
+	}
+
+	@Override
+	public <T> Iterable<T> iter(Query<T> query) {
+		return pm.iter(query);
+	}
+
+	@Override
+	public <T> Iterable<T> iter(Query<T> query, int limit) {
+		return pm.iter(query, limit);
+	}
+
+	@Override
+	public <T> Iterable<T> iter(Query<T> query, int limit, Object offset) {
+		return pm.iter(query, limit, offset);
+	}
+
+	@Override
+	public <T> Iterable<T> iterPerPage(Query<T> query, int pageSize) {
+		return pm.iterPerPage(query, pageSize);
+	}
+
+	@Override
+	public int save(Object... objects) {
+		return save(Arrays.asList(objects));
+	}
+
+	@Override
+	public int save(Iterable<?> objects) {
+		try {
+			return pm.save(objects);
+		} finally {
+			invalidate(objects);
+		}
+	}
+
+	@Override
+	public int insert(Object... objects) {
+		return insert(Arrays.asList(objects));
+	}
+
+	@Override
+	public int insert(Iterable<?> objects) {
+		try {
+			return pm.insert(objects);
+		} finally {
+			invalidate(objects);
+		}
+	}
+
+	@Override
+	public int delete(Object... models) {
+		return delete(Arrays.asList(models));
+	}
+
+	@Override
+	public int delete(Iterable<?> models) {
+		try {
+			return pm.delete(models);
+		} finally {
+			invalidate(models);
+		}
+	}
+
+	@Override
+	public <T> int deleteByKeys(Class<T> clazz, Object... keys) {
+		return deleteByKeys(clazz, Arrays.asList(keys));
+	}
+
+	@Override
+	public <T> int deleteByKeys(Class<T> clazz, Iterable<?> keys) {
+		try {
+			return pm.deleteByKeys(clazz, keys);
+		} finally {
+			invalidate(clazz, keys);
+		}
+	}
+
+	@Override
+	public int get(Object... models) {
+		return get(Arrays.asList(models));
+	}
+
+	/**
+	 * the cached models are copied from the cache and the others are got by the persistence manager
+	 * (without being put in the cache: the missing entities can't be told apart from the found ones)
+	 */
+	@Override
+	public <T> int get(Iterable<T> models) {
+		int nb = 0;
+		List<T> missing = new ArrayList<T>();
+		for(T obj: models){
+			Class<?> clazz = obj.getClass();
+			Object cached = null;
+			if(isCached(clazz)){
+				cached = cache.get(clazz, Util.readField(obj, ClassInfo.getClassInfo(clazz).keys.get(0)));
+			}
+			if(cached != null){
+				Util.copyObject(cached, obj);
+				nb++;
+			}else {
+				missing.add(obj);
+			}
+		}
+		if(!missing.isEmpty()){
+			nb += pm.get(missing);
+		}
+		return nb;
+	}
+
+	@Override
+	public <T> T getByKey(Class<T> clazz, Object key) {
+		if(!isCached(clazz)){
+			return pm.getByKey(clazz, key);
+		}
+		T obj = cache.get(clazz, key);
+		if(obj == null){
+			obj = load(clazz, key);
+		}
+		return obj;
+	}
+
+	/**
+	 * gets the entity from the persistence manager and caches it:
+	 * the concurrent gets of the same entity wait for the result of the first one
+	 * if no write of its class has happened since it has started (a thread must read its own writes)
+	 */
+	private <T> T load(final Class<T> clazz, final Object key) {
+		Field keyField = ClassInfo.getClassInfo(clazz).keys.get(0);
+		final long stamp = cache.stamp(clazz);
+		return flights.execute(Arrays.asList(clazz, Util.fromObject(keyField, key), stamp), new SingleFlight.Call<T>() {
+			public T call() {
+				T obj = pm.getByKey(clazz, key);
+				cache.put(obj, stamp);
+				return obj;
+			}
+
+			@Override
+			public Object snapshot(T obj) {
+				return obj == null ? null : EntityCache.copy(obj);
+			}
+
+			@Override
+			public T share(Object snapshot) {
+				return snapshot == null ? null : clazz.cast(EntityCache.copy(snapshot));
+			}
+		});
+	}
+
+	@Override
+	public void loadField(Object obj, String... fieldNames) {
+		pm.loadField(obj, fieldNames);
+	}
+
+	@Override
+	public <T> List<T> getByKeys(Class<T> clazz, Object... keys) {
+		return getByKeys(clazz, Arrays.asList(keys));
+	}
+
+	/**
+	 * only gets the entities which are not cached (in the order of the keys, null if not found)
+	 */
+	@Override
+	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
+		if(!isCached(clazz)){
+			return pm.getByKeys(clazz, keys);
+		}
+		Field keyField = ClassInfo.getClassInfo(clazz).keys.get(0);
+		List<T> models = new ArrayList<T>();
+		List<Object> missing = new ArrayList<Object>();
+		for(Object key: keys){
+			T obj = cache.get(clazz, key);
+			if(obj == null){
+				missing.add(key);
+			}
+			models.add(obj);
+		}
+		if(missing.isEmpty()){
+			return models;
+		}
+
+		long stamp = cache.stamp(clazz);
+		Map<Object, T> found = new HashMap<Object, T>();
+		for(T obj: pm.getByKeys(clazz, missing)){
+			if(obj != null){
+				found.put(Util.readField(obj, keyField), obj);
+				cache.put(obj, stamp);
+			}
+		}
+		int i = 0;
+		for(Object key: keys){
+			if(models.get(i) == null){
+				models.set(i, found.get(Util.fromObject(keyField, key)));
+			}
+			i++;
+		}
+		return models;
+	}
+
+	@Override
+	public <T> int update(Object... models) {
+		return update(Arrays.asList(models));
+	}
+
+	@Override
+	public <T> int update(Iterable<T> models) {
+		try {
+			return pm.update(models);
+		} finally {
+			invalidate(models);
+		}
+	}
+
+	@Override
+	public void beginTransaction(int isolationLevel) {
+		pm.beginTransaction(isolationLevel);
+		transactions.set(new Writes());
+	}
+
+	@Override
+	public void beginTransaction() {
+		pm.beginTransaction();
+		transactions.set(new Writes());
+	}
+
+	@Override
+	public void commitTransaction() {
+		Writes writes = transactions.get();
+		transactions.remove();
+		try {
+			pm.commitTransaction();
+		} finally {
+			if(writes != null) invalidate(writes);
+		}
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transactions.remove();
+		pm.rollbackTransaction();
+	}
+
+	@Override
+	public void closeConnection() {
+		pm.closeConnection();
+	}
+
+	@Override
+	public <T> void release(Query<T> query) {
+		pm.release(query);
+	}
+
+	@Override
+	public <T> void paginate(Query<T> query) {
+		pm.paginate(query);
+	}
+
+	@Override
+	public <T> void nextPage(Query<T> query) {
+		pm.nextPage(query);
+	}
+
+	@Override
+	public <T> void previousPage(Query<T> query) {
+		pm.previousPage(query);
+	}
+
+	@Override
+	public <T> PersistenceManagerAsync async() {
+		return pm.async();
+	}
+
+	@Override
+	public String[] supportedOperators() {
+		return pm.supportedOperators();
+	}
+
+	@Deprecated
+	@Override
+	public <T> int count(Query<T> query, int limit) {
+		return pm.count(query, limit);
+	}
+
+	@Deprecated
+	@Override
+	public <T> int count(Query<T> query, int limit, Object offset) {
+		return pm.count(query, limit, offset);
+	}
+
+	/**
+	 * what has been written in a transaction: the entities, the classes of the queries
+	 * deleting/updating entities and the deleted keys
+	 */
+	static class Writes {
+		final List<Object> objects = new ArrayList<Object>();
+		final Set<Class<?>> classes = new HashSet<Class<?>>();
+		final Map<Class<?>, List<Object>> keys = new HashMap<Class<?>, List<Object>>();
+	}
+}
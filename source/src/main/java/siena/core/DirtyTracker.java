@@ -0,0 +1,188 @@
+package siena.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import siena.ClassInfo;
+import siena.Json;
+import siena.Util;
+import siena.embed.JsonSerializer;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         Remembers the values of the updatable fields of the fetched entities (a snapshot
+ *         per entity) to find the fields modified since: <code>update</code> only writes these
+ *         fields and does nothing when none has been modified.
+ *         The entities are weakly referenced by identity so the snapshots don't prevent them
+ *         from being garbage collected and don't depend on their equals/hashCode.
+ *
+ *         It's opt-in: <code>dirty.tracking=true</code> in the properties of the persistence manager.
+ *         The values which can't be compared safely (serialized objects...) are always considered
+ *         as modified.
+ */
+public class DirtyTracker {
+	public static final String PROPERTY = "dirty.tracking";
+
+	// the snapshot of a value which can't be compared: always modified
+	private static final Object UNKNOWN = new Object();
+
+	private final Map<Entry, Object[]> snapshots = new HashMap<Entry, Object[]>();
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	/**
+	 * @return a tracker if the dirty tracking is enabled in the properties else null
+	 */
+	public static DirtyTracker configure(Properties p) {
+		if(p != null && Boolean.parseBoolean(p.getProperty(PROPERTY))){
+			return new DirtyTracker();
+		}
+		return null;
+	}
+
+	/**
+	 * remembers the current values of the entity
+	 */
+	public synchronized void snapshot(Object obj) {
+		if(obj == null) return;
+		expunge();
+		List<Field> fields = ClassInfo.getClassInfo(obj.getClass()).updateFields;
+		snapshots.put(new Entry(obj, collected), values(obj, fields));
+	}
+
+	public void snapshot(List<?> objects) {
+		for(Object obj: objects){
+			snapshot(obj);
+		}
+	}
+
+	/**
+	 * remembers the current values of the given fields of a tracked entity (after loading them)
+	 */
+	public synchronized void snapshot(Object obj, List<Field> fields) {
+		Object[] snapshot = snapshots.get(new Entry(obj, null));
+		if(snapshot == null) return;
+		List<Field> updateFields = ClassInfo.getClassInfo(obj.getClass()).updateFields;
+		for(Field field: fields){
+			int i = updateFields.indexOf(field);
+			if(i != -1){
+				snapshot[i] = value(field, Util.readField(obj, field));
+			}
+		}
+	}
+
+	/**
+	 * @return the updatable fields modified since the snapshot (in the order of the updatable fields)
+	 * or null if the entity is not tracked
+	 */
+	public synchronized List<Field> getDirtyFields(Object obj) {
+		Object[] snapshot = snapshots.get(new Entry(obj, null));
+		if(snapshot == null) return null;
+
+		List<Field> fields = ClassInfo.getClassInfo(obj.getClass()).updateFields;
+		List<Field> dirty = new ArrayList<Field>();
+		for(int i=0; i<fields.size(); i++){
+			Field field = fields.get(i);
+			Object value = value(field, Util.readField(obj, field));
+			if(value == UNKNOWN || !Arrays.deepEquals(new Object[]{ snapshot[i] }, new Object[]{ value })){
+				dirty.add(field);
+			}
+		}
+		return dirty;
+	}
+
+	public synchronized void forget(Object obj) {
+		snapshots.remove(new Entry(obj, null));
+	}
+
+	public synchronized int size() {
+		expunge();
+		return snapshots.size();
+	}
+
+	private void expunge() {
+		Object ref;
+		while((ref = collected.poll()) != null){
+			snapshots.remove(ref);
+		}
+	}
+
+	private static Object[] values(Object obj, List<Field> fields) {
+		Object[] values = new Object[fields.size()];
+		for(int i=0; i<values.length; i++){
+			Field field = fields.get(i);
+			values[i] = value(field, Util.readField(obj, field));
+		}
+		return values;
+	}
+
+	/**
+	 * @return a copy of the value which isn't modified when the value is modified
+	 */
+	private static Object value(Field field, Object value) {
+		if(value == null) {
+			return null;
+		}
+		if(ClassInfo.isModel(field.getType()) && !ClassInfo.isEmbedded(field)) {
+			// a relation is modified when the related entity changes
+			List<Field> keys = ClassInfo.getClassInfo(field.getType()).keys;
+			Object[] ids = new Object[keys.size()];
+			for(int i=0; i<ids.length; i++){
+				ids[i] = Util.readField(value, keys.get(i));
+			}
+			return ids;
+		}
+		if(value instanceof Json) {
+			return value.toString();
+		}
+		if(ClassInfo.isEmbedded(field)) {
+			return JsonSerializer.serialize(value).toString();
+		}
+		if(value instanceof Date) {
+			return ((Date)value).getTime();
+		}
+		if(value instanceof byte[]) {
+			return ((byte[])value).clone();
+		}
+		if(value instanceof String || value instanceof Boolean || value instanceof Character
+				|| value instanceof Enum<?> || value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte || value instanceof Double
+				|| value instanceof Float || value instanceof BigDecimal || value instanceof BigInteger) {
+			return value;
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * a weak reference to an entity compared by identity
+	 */
+	static class Entry extends WeakReference<Object> {
+		private final int hash;
+
+		Entry(Object obj, ReferenceQueue<Object> queue) {
+			super(obj, queue);
+			this.hash = System.identityHashCode(obj);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if(this == obj) return true;
+			if(!(obj instanceof Entry)) return false;
+			Object referent = get();
+			return referent != null && referent == ((Entry)obj).get();
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package siena.core;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.ClassInfo;
+import siena.SienaException;
+import siena.Util;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         A bounded LRU cache of entities by (class, key) shared by the threads
+ *         (and by several <code>CachingPersistenceManager</code> if needed).
+ *         Only the classes annotated with <code>@Cached</code> are kept.
+ *
+ *         The cache keeps its own copy of the entities and gives a new copy at each get
+ *         so modifying a returned entity doesn't modify the cache. The copy is shallow apart
+ *         from the dates and byte arrays: the joined entities, embedded objects and Json values
+ *         are shared and must not be modified in place.
+ *
+ *         The entities expire after the TTL of their class (<code>@Cached(ttl=...)</code>)
+ *         or the default TTL of the cache (0: never).
+ *         An entity read before an invalidation of its class is not put in the cache after it
+ *         (see <code>stamp(clazz)</code>) so a concurrent read can't put back a stale entity.
+ *
+ *         With an <code>OffHeapStore</code>, the LRU map is a small hot tier in front of it:
+ *         the entities evicted from the hot tier are encoded (see <code>EntityCodec</code>)
+ *         and moved to the store, and they come back to the hot tier when they are read.
+ *         The entities of the classes which can't be encoded are only kept in the hot tier.
+ */
+public class EntityCache {
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private final long ttl;
+	private final Map<CacheKey, CacheEntry> entries;
+	// null if there is no off-heap tier
+	private final OffHeapStore offHeap;
+	private final Map<Class<?>, Boolean> cachedClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	// incremented by each invalidation of the entities of the class
+	private final Map<Class<?>, AtomicLong> invalidations = new ConcurrentHashMap<Class<?>, AtomicLong>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public EntityCache() {
+		this(DEFAULT_MAX_SIZE, 0);
+	}
+
+	/**
+	 * @param maxSize the maximum number of entities
+	 * @param ttl the default time to live of the entities in milliseconds (0: never expire)
+	 */
+	public EntityCache(int maxSize, long ttl) {
+		this(maxSize, ttl, null);
+	}
+
+	/**
+	 * @param maxSize the maximum number of entities of the hot tier
+	 * @param offHeap the off-heap tier of the entities evicted from the hot tier (null if none)
+	 */
+	public EntityCache(final int maxSize, long ttl, OffHeapStore offHeap) {
+		this.ttl = ttl;
+		this.offHeap = offHeap;
+		// access ordered map to evict the least recently used entities
+		this.entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+				if(size() > maxSize){
+					if(!moveOffHeap(eldest.getKey(), eldest.getValue())){
+						evictions.incrementAndGet();
+					}
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public OffHeapStore getOffHeapStore() {
+		return offHeap;
+	}
+
+	/**
+	 * @return true if the entity evicted from the hot tier has been kept in the off-heap tier
+	 */
+	private boolean moveOffHeap(CacheKey key, CacheEntry entry) {
+		if(offHeap == null || entry.isExpired() || !EntityCodec.supports(key.clazz)){
+			return false;
+		}
+		// with the FIFO policy, the entity read from the store is still there
+		if(offHeap.getPolicy() == OffHeapStore.EvictionPolicy.FIFO && offHeap.contains(key)){
+			return true;
+		}
+		offHeap.put(key, EntityCodec.encode(entry.entity), entry.expiration);
+		return offHeap.contains(key);
+	}
+
+	/**
+	 * @return true if the entities of this class are cached
+	 */
+	public boolean isCached(Class<?> clazz) {
+		Boolean cached = cachedClasses.get(clazz);
+		if(cached == null){
+			cached = false;
+			if(clazz.getAnnotation(Cached.class) != null){
+				ClassInfo info = ClassInfo.getClassInfo(clazz);
+				if(info.keys.size() != 1 || info.hasOwnedFields || info.hasAggregatedFields || info.hasAggregator){
+					throw new SienaException("@Cached class "+clazz.getName()
+							+" must have one key and no owned/aggregated fields");
+				}
+				cached = true;
+			}
+			cachedClasses.put(clazz, cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * @return a copy of the cached entity or null if it's not cached (or expired)
+	 */
+	public <T> T get(Class<T> clazz, Object key) {
+		CacheKey cacheKey = new CacheKey(clazz, normalize(clazz, key));
+		CacheEntry entry;
+		long stamp = stamp(clazz);
+		synchronized (entries) {
+			entry = entries.get(cacheKey);
+			if(entry != null && entry.isExpired()){
+				entries.remove(cacheKey);
+				evictions.incrementAndGet();
+				entry = null;
+			}
+		}
+		if(entry == null && offHeap != null){
+			entry = getOffHeap(clazz, cacheKey, stamp);
+		}
+		if(entry == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return clazz.cast(copy(entry.entity));
+	}
+
+	/**
+	 * @return the entity decoded from the off-heap tier (put back in the hot tier) or null
+	 */
+	private CacheEntry getOffHeap(Class<?> clazz, CacheKey cacheKey, long stamp) {
+		long expiration = offHeap.getExpiration(cacheKey);
+		byte[] bytes = offHeap.get(cacheKey);
+		if(bytes == null) return null;
+		Object entity = EntityCodec.decode(clazz, bytes);
+		// the null @Lazy fields may not have been loaded: they are not written by update
+		List<Field> unloaded = new ArrayList<Field>();
+		for(Field field: ClassInfo.getClassInfo(clazz).lazyFields){
+			if(Util.readField(entity, field) == null) unloaded.add(field);
+		}
+		LazyTracker.setUnloaded(entity, unloaded.isEmpty() ? null : unloaded);
+		CacheEntry entry = new CacheEntry(entity, expiration);
+		synchronized (entries) {
+			if(stamp(clazz) == stamp){
+				entries.put(cacheKey, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the current stamp of the class to give to <code>put</code> for its entities read after it
+	 */
+	public long stamp(Class<?> clazz) {
+		return invalidations(clazz).get();
+	}
+
+	private AtomicLong invalidations(Class<?> clazz) {
+		AtomicLong count = invalidations.get(clazz);
+		if(count == null){
+			synchronized (invalidations) {
+				count = invalidations.get(clazz);
+				if(count == null){
+					count = new AtomicLong();
+					invalidations.put(clazz, count);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * caches a copy of the entity unless an invalidation of its class happened since the stamp
+	 */
+	public void put(Object obj, long stamp) {
+		if(obj == null) return;
+		Class<?> clazz = obj.getClass();
+		Object key = Util.readField(obj, ClassInfo.getClassInfo(clazz).keys.get(0));
+		if(key == null) return;
+
+		Cached cached = clazz.getAnnotation(Cached.class);
+		long entityTtl = cached.ttl() > 0 ? cached.ttl() : ttl;
+		CacheEntry entry = new CacheEntry(copy(obj), entityTtl > 0 ? System.currentTimeMillis() + entityTtl : 0);
+		synchronized (entries) {
+			if(stamp(clazz) == stamp){
+				CacheKey cacheKey = new CacheKey(clazz, key);
+				entries.put(cacheKey, entry);
+				if(offHeap != null) offHeap.remove(cacheKey);
+			}
+		}
+	}
+
+	public void remove(Object obj) {
+		Class<?> clazz = obj.getClass();
+		remove(clazz, Util.readField(obj, ClassInfo.getClassInfo(clazz).keys.get(0)));
+	}
+
+	public void remove(Class<?> clazz, Object key) {
+		synchronized (entries) {
+			invalidations(clazz).incrementAndGet();
+			if(key != null){
+				CacheKey cacheKey = new CacheKey(clazz, normalize(clazz, key));
+				entries.remove(cacheKey);
+				if(offHeap != null) offHeap.remove(cacheKey);
+			}
+		}
+	}
+
+	/**
+	 * removes all the entities of this class (after a query modifying several of them)
+	 */
+	public void clear(final Class<?> clazz) {
+		synchronized (entries) {
+			invalidations(clazz).incrementAndGet();
+			Iterator<CacheKey> it = entries.keySet().iterator();
+			while(it.hasNext()){
+				if(it.next().clazz == clazz){
+					it.remove();
+				}
+			}
+			if(offHeap != null){
+				offHeap.remove(new OffHeapStore.KeyFilter() {
+					public boolean accept(Object key) {
+						return ((CacheKey)key).clazz == clazz;
+					}
+				});
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			// the stamps given before are the ones of the classes already there
+			for(AtomicLong count: invalidations.values()){
+				count.incrementAndGet();
+			}
+			entries.clear();
+			if(offHeap != null) offHeap.clear();
+		}
+	}
+
+	/**
+	 * @return the number of entities of the hot tier (see the off-heap store for its own)
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * the key given to getByKey/deleteByKeys can have another type than the key field (Integer for a Long...)
+	 */
+	private static Object normalize(Class<?> clazz, Object key) {
+		return Util.fromObject(ClassInfo.getClassInfo(clazz).keys.get(0), key);
+	}
+
+	/**
+	 * @return a copy of the entity (see above)
+	 */
+	static Object copy(Object obj) {
+		Object copy = Util.createObjectInstance(obj.getClass());
+		for (Field field : ClassInfo.getClassInfo(obj.getClass()).allFields) {
+			Object value = Util.readField(obj, field);
+			if(value instanceof Date){
+				value = ((Date)value).clone();
+			}else if(value instanceof byte[]){
+				value = ((byte[])value).clone();
+			}
+			Util.setField(copy, field, value);
+		}
+		LazyTracker.copy(obj, copy);
+		return copy;
+	}
+
+	static class CacheKey {
+		final Class<?> clazz;
+		final Object key;
+
+		CacheKey(Class<?> clazz, Object key) {
+			this.clazz = clazz;
+			this.key = key;
+		}
+
+		public int hashCode() {
+			return 31 * clazz.hashCode() + (key == null ? 0 : key.hashCode());
+		}
+
+		public boolean equals(Object obj) {
+			if(this == obj) return true;
+			if(!(obj instanceof CacheKey)) return false;
+			CacheKey other = (CacheKey)obj;
+			return clazz == other.clazz && (key == null ? other.key == null : key.equals(other.key));
+		}
+	}
+
+	static class CacheEntry {
+		final Object entity;
+		// 0: never expires
+		final long expiration;
+
+		CacheEntry(Object entity, long expiration) {
+			this.entity = entity;
+			this.expiration = expiration;
+		}
+
+		boolean isExpired() {
+			return expiration != 0 && System.currentTimeMillis() > expiration;
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package siena.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import siena.ClassInfo;
+import siena.Json;
+import siena.SienaException;
+import siena.Util;
+import siena.embed.Embedded;
+import siena.embed.JavaSerializer;
+import siena.embed.JsonSerializer;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         A compact binary encoding of the entities used by the off-heap tier of the <code>EntityCache</code>.
+ *         The encoding of a class is derived from its <code>ClassInfo</code>: the values of its fields
+ *         (<code>allFields</code>) are written in their order, each one preceded by a null marker,
+ *         without field names nor types.
+ *         The related entities are written by key as they are loaded when they are not joined.
+ *
+ *         A class can't be encoded (<code>supports</code> is false) if it has @Join fields or a field
+ *         of another type than the primitives and their wrappers, String, enums, Date, BigDecimal,
+ *         BigInteger, UUID, byte[], Json, @Embedded (JSON or java serialization), @Polymorphic and
+ *         the related entities having one key of these types.
+ */
+public class EntityCodec {
+	private enum Kind {
+		STRING, LONG, INTEGER, SHORT, BYTE, BOOLEAN, DOUBLE, FLOAT, CHARACTER,
+		ENUM, DATE, BIG_DECIMAL, BIG_INTEGER, UUID, BYTES, JSON, EMBEDDED_JSON, SERIALIZED, MODEL
+	}
+
+	// the kinds of the fields of the classes (null if the class can't be encoded)
+	private static final Map<Class<?>, Kind[]> kinds = new ConcurrentHashMap<Class<?>, Kind[]>();
+	private static final Kind[] UNSUPPORTED = new Kind[0];
+
+	public static boolean supports(Class<?> clazz) {
+		return getKinds(clazz) != null;
+	}
+
+	public static byte[] encode(Object obj) {
+		Class<?> clazz = obj.getClass();
+		Kind[] fieldKinds = getKinds(clazz);
+		if(fieldKinds == null){
+			throw new SienaException("Class "+clazz.getName()+" can't be encoded");
+		}
+		List<Field> fields = ClassInfo.getClassInfo(clazz).allFields;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bos);
+		try {
+			for(int i=0; i<fieldKinds.length; i++){
+				Field field = fields.get(i);
+				write(out, field, fieldKinds[i], Util.readField(obj, field));
+			}
+			out.close();
+		} catch (IOException e) {
+			throw new SienaException(e);
+		}
+		return bos.toByteArray();
+	}
+
+	public static <T> T decode(Class<T> clazz, byte[] bytes) {
+		Kind[] fieldKinds = getKinds(clazz);
+		List<Field> fields = ClassInfo.getClassInfo(clazz).allFields;
+		T obj = Util.createObjectInstance(clazz);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			for(int i=0; i<fieldKinds.length; i++){
+				Field field = fields.get(i);
+				Object value = read(in, field, fieldKinds[i]);
+				if(value != null || !field.getType().isPrimitive()){
+					Util.setField(obj, field, value);
+				}
+			}
+		} catch (IOException e) {
+			throw new SienaException(e);
+		} catch (ClassNotFoundException e) {
+			throw new SienaException(e);
+		}
+		return obj;
+	}
+
+	private static Kind[] getKinds(Class<?> clazz) {
+		Kind[] fieldKinds = kinds.get(clazz);
+		if(fieldKinds == null){
+			ClassInfo info = ClassInfo.getClassInfo(clazz);
+			fieldKinds = info.joinFields.isEmpty() ? new Kind[info.allFields.size()] : UNSUPPORTED;
+			for(int i=0; i<fieldKinds.length; i++){
+				Kind kind = getKind(info.allFields.get(i), true);
+				if(kind == null){
+					fieldKinds = UNSUPPORTED;
+					break;
+				}
+				fieldKinds[i] = kind;
+			}
+			kinds.put(clazz, fieldKinds);
+		}
+		return fieldKinds == UNSUPPORTED ? null : fieldKinds;
+	}
+
+	/**
+	 * @param model false for the key of a related entity (which can't be itself a related entity)
+	 */
+	private static Kind getKind(Field field, boolean model) {
+		Class<?> type = field.getType();
+		Embedded embed = field.getAnnotation(Embedded.class);
+		if(embed != null){
+			switch(embed.mode()){
+			case SERIALIZE_JSON:
+				return Kind.EMBEDDED_JSON;
+			case SERIALIZE_JAVA:
+				return Kind.SERIALIZED;
+			default:
+				return null;
+			}
+		}
+		if(field.getAnnotation(Polymorphic.class) != null) return Kind.SERIALIZED;
+		if(type == String.class) return Kind.STRING;
+		if(type == Long.class || type == Long.TYPE) return Kind.LONG;
+		if(type == Integer.class || type == Integer.TYPE) return Kind.INTEGER;
+		if(type == Short.class || type == Short.TYPE) return Kind.SHORT;
+		if(type == Byte.class || type == Byte.TYPE) return Kind.BYTE;
+		if(type == Boolean.class || type == Boolean.TYPE) return Kind.BOOLEAN;
+		if(type == Double.class || type == Double.TYPE) return Kind.DOUBLE;
+		if(type == Float.class || type == Float.TYPE) return Kind.FLOAT;
+		if(type == Character.class || type == Character.TYPE) return Kind.CHARACTER;
+		if(type.isEnum()) return Kind.ENUM;
+		if(type == Date.class) return Kind.DATE;
+		if(type == BigDecimal.class) return Kind.BIG_DECIMAL;
+		if(type == BigInteger.class) return Kind.BIG_INTEGER;
+		if(type == UUID.class) return Kind.UUID;
+		if(type == byte[].class) return Kind.BYTES;
+		if(Json.class.isAssignableFrom(type)) return Kind.JSON;
+		if(model && ClassInfo.isModel(type)){
+			List<Field> keys = ClassInfo.getClassInfo(type).keys;
+			if(keys.size() == 1 && getKind(keys.get(0), false) != null) return Kind.MODEL;
+		}
+		return null;
+	}
+
+	private static void write(DataOutputStream out, Field field, Kind kind, Object value) throws IOException {
+		if(value == null){
+			out.writeBoolean(false);
+			return;
+		}
+		out.writeBoolean(true);
+		switch(kind){
+		case STRING:
+			writeString(out, (String)value);
+			break;
+		case LONG:
+			out.writeLong((Long)value);
+			break;
+		case INTEGER:
+			out.writeInt((Integer)value);
+			break;
+		case SHORT:
+			out.writeShort((Short)value);
+			break;
+		case BYTE:
+			out.writeByte((Byte)value);
+			break;
+		case BOOLEAN:
+			out.writeBoolean((Boolean)value);
+			break;
+		case DOUBLE:
+			out.writeDouble((Double)value);
+			break;
+		case FLOAT:
+			out.writeFloat((Float)value);
+			break;
+		case CHARACTER:
+			out.writeChar((Character)value);
+			break;
+		case ENUM:
+			writeString(out, ((Enum<?>)value).name());
+			break;
+		case DATE:
+			out.writeLong(((Date)value).getTime());
+			break;
+		case BIG_DECIMAL:
+		case BIG_INTEGER:
+		case UUID:
+		case JSON:
+			writeString(out, value.toString());
+			break;
+		case EMBEDDED_JSON:
+			writeString(out, JsonSerializer.serialize(value).toString());
+			break;
+		case SERIALIZED:
+			writeBytes(out, JavaSerializer.serialize(value));
+			break;
+		case BYTES:
+			writeBytes(out, (byte[])value);
+			break;
+		case MODEL:
+			Field key = ClassInfo.getClassInfo(field.getType()).keys.get(0);
+			write(out, key, getKind(key, false), Util.readField(value, key));
+			break;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object read(DataInputStream in, Field field, Kind kind) throws IOException, ClassNotFoundException {
+		if(!in.readBoolean()){
+			return null;
+		}
+		switch(kind){
+		case STRING:
+			return readString(in);
+		case LONG:
+			return in.readLong();
+		case INTEGER:
+			return in.readInt();
+		case SHORT:
+			return in.readShort();
+		case BYTE:
+			return in.readByte();
+		case BOOLEAN:
+			return in.readBoolean();
+		case DOUBLE:
+			return in.readDouble();
+		case FLOAT:
+			return in.readFloat();
+		case CHARACTER:
+			return in.readChar();
+		case ENUM:
+			return Enum.valueOf((Class<Enum>)field.getType(), readString(in));
+		case DATE:
+			return new Date(in.readLong());
+		case BIG_DECIMAL:
+			return new BigDecimal(readString(in));
+		case BIG_INTEGER:
+			return new BigInteger(readString(in));
+		case UUID:
+			return java.util.UUID.fromString(readString(in));
+		case JSON:
+			return Json.loads(readString(in));
+		case EMBEDDED_JSON:
+			return JsonSerializer.deserialize(field, Json.loads(readString(in)));
+		case SERIALIZED:
+			return JavaSerializer.deserialize(readBytes(in));
+		case BYTES:
+			return readBytes(in);
+		case MODEL:
+			Field key = ClassInfo.getClassInfo(field.getType()).keys.get(0);
+			Object related = Util.createObjectInstance(field.getType());
+			Util.setField(related, key, read(in, key, getKind(key, false)));
+			return related;
+		}
+		return null;
+	}
+
+	// DataOutput.writeUTF is limited to 64KB
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		writeBytes(out, s.getBytes("UTF-8"));
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in), "UTF-8");
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
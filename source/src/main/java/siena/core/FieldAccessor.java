@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 pascal VOitot <pascal.voitot@mandubian.org>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena.core;
+
+import java.lang.reflect.Field;
+
+import siena.SienaException;
+
+/**
+ * Reads and writes one field of a model.
+ *
+ * The accessor is built once per field by <code>ClassInfo</code> and keeps its own
+ * accessible copy of the field so that the accessibility checks are done only once
+ * instead of once per read/write.
+ *
+ * @author mandubian
+ *
+ */
+public class FieldAccessor {
+	private final Field field;
+
+	public FieldAccessor(Field field) {
+		// Field instances are copies so making this one accessible doesn't change
+		// the one that was given
+		Field f;
+		try {
+			f = field.getDeclaringClass().getDeclaredField(field.getName());
+		} catch (NoSuchFieldException e) {
+			throw new SienaException(e);
+		}
+		f.setAccessible(true);
+		this.field = f;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public Object get(Object obj) {
+		try {
+			return field.get(obj);
+		} catch (Exception e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public void set(Object obj, Object value) {
+		try {
+			field.set(obj, value);
+		} catch (Exception e) {
+			throw new SienaException(e);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package siena.core;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import siena.ClassInfo;
+import siena.Query;
+import siena.QueryJoin;
+import siena.Util;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         The entities already loaded by a thread by (class, key): an entity loaded several
+ *         times is the same instance and getByKey/getByKeys/get don't query the entities
+ *         which are already in the map.
+ *         The joined entities are also taken from/put in the map.
+ *
+ *         It's opt-in: <code>identity.map=true</code> in the properties of the persistence manager.
+ *         There is one map per thread and it's cleared by commitTransaction, rollbackTransaction
+ *         and closeConnection (for JDBC, the connection is closed after each operation out of
+ *         transactions so the map only lives in transactions).
+ *         It's not thread-safe: it's only used by the thread owning it.
+ */
+public class IdentityMap {
+	public static final String PROPERTY = "identity.map";
+
+	private final Map<Class<?>, Map<Object, Object>> entities = new HashMap<Class<?>, Map<Object, Object>>();
+
+	public static boolean isEnabled(Properties p) {
+		return p != null && Boolean.parseBoolean(p.getProperty(PROPERTY));
+	}
+
+	/**
+	 * @return the entity of this class having this key or null if it's not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Class<T> clazz, Object key) {
+		Map<Object, Object> map = entities.get(clazz);
+		if(map == null || key == null) return null;
+		return (T)map.get(key);
+	}
+
+	/**
+	 * @return the entity having the key of the object if it's in the map
+	 * else puts the object (and its joined entities) in the map and returns it
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T identify(T obj, List<Field> joinFields) {
+		if(obj == null) return null;
+		Object key = getKey(obj);
+		if(key == null) return obj;
+
+		Map<Object, Object> map = entities.get(obj.getClass());
+		if(map == null){
+			map = new HashMap<Object, Object>();
+			entities.put(obj.getClass(), map);
+		}
+		Object identified = map.get(key);
+		if(identified != null) return (T)identified;
+
+		map.put(key, obj);
+		if(joinFields != null){
+			for(Field field: joinFields){
+				Object joined = Util.readField(obj, field);
+				if(joined != null){
+					Util.setField(obj, field, identify(joined, null));
+				}
+			}
+		}
+		return obj;
+	}
+
+	public <T> List<T> identify(List<T> objects, List<Field> joinFields) {
+		for(int i=0; i<objects.size(); i++){
+			objects.set(i, identify(objects.get(i), joinFields));
+		}
+		return objects;
+	}
+
+	/**
+	 * replaces the objects having the key of an entity of the map by this entity
+	 * without putting the other objects in the map (partial entities of a projection)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> replace(List<T> objects) {
+		for(int i=0; i<objects.size(); i++){
+			T obj = objects.get(i);
+			if(obj == null) continue;
+			Object identified = get(obj.getClass(), getKey(obj));
+			if(identified != null) objects.set(i, (T)identified);
+		}
+		return objects;
+	}
+
+	public void remove(Object obj) {
+		remove(obj.getClass(), getKey(obj));
+	}
+
+	public void remove(Class<?> clazz, Object key) {
+		Map<Object, Object> map = entities.get(clazz);
+		if(map != null && key != null){
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * removes all the entities of this class (after a query modifying several of them)
+	 */
+	public void clear(Class<?> clazz) {
+		entities.remove(clazz);
+	}
+
+	public void clear() {
+		entities.clear();
+	}
+
+	public int size() {
+		int size = 0;
+		for(Map<Object, Object> map: entities.values()){
+			size += map.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the key of the entity (a list of the values for multiple keys) or null if not set
+	 */
+	public static Object getKey(Object obj) {
+		List<Field> keys = ClassInfo.getClassInfo(obj.getClass()).keys;
+		if(keys.isEmpty()) return null;
+		if(keys.size() == 1) return Util.readField(obj, keys.get(0));
+
+		List<Object> values = new ArrayList<Object>(keys.size());
+		for(Field key: keys){
+			Object value = Util.readField(obj, key);
+			if(value == null) return null;
+			values.add(value);
+		}
+		return values;
+	}
+
+	/**
+	 * @return the join fields of the query (join() and @Join fields)
+	 */
+	public static List<Field> getJoinFields(Query<?> query) {
+		List<Field> joinFields = new ArrayList<Field>();
+		if(query.getJoins() != null){
+			for(QueryJoin join: query.getJoins()){
+				joinFields.add(join.field);
+			}
+		}
+		for(Field field: ClassInfo.getClassInfo(query.getQueriedClass()).joinFields){
+			if(!joinFields.contains(field)) joinFields.add(field);
+		}
+		return joinFields;
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 pascal VOitot <pascal.voitot@mandubian.org>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A field which is not loaded by the queries (fetch, iter, get(query)...).
+ * It's meant for large fields (@Text, Json, @Embedded...) which are not always used.
+ * 
+ * It is loaded on demand by <code>pm.loadField(obj, "field")</code>
+ * or by the queries selecting it explicitly (<code>query.fetchFields("field")</code>).
+ * 
+ * @author mandubian <pascal.voitot@mandubian.org>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Lazy {
+}
@@ -0,0 +1,147 @@
+package siena.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import siena.ClassInfo;
+import siena.Util;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         Remembers the @Lazy fields which have not been loaded in the fetched entities
+ *         so that <code>update/save</code> don't write them: else the stored values would be
+ *         replaced by null.
+ *         A field stays unloaded until it's loaded (<code>pm.loadField</code>, a query selecting it,
+ *         <code>get(obj)</code>) or a value is set in it: setting null in an unloaded field
+ *         doesn't clear the stored value, load it before.
+ *
+ *         The entities are weakly referenced by identity as in <code>DirtyTracker</code>.
+ *         The state belongs to the entity and not to a persistence manager so it's shared
+ *         (an entity fetched by a persistence manager can be updated by another one).
+ */
+public class LazyTracker {
+	private static final Map<DirtyTracker.Entry, List<Field>> unloaded = new HashMap<DirtyTracker.Entry, List<Field>>();
+	private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	/**
+	 * @return the @Lazy fields of the class which are not in the loaded fields
+	 * (null if all the fields are loaded or the class has no @Lazy field)
+	 */
+	public static List<Field> getUnloadedFields(Class<?> clazz, List<Field> loaded) {
+		List<Field> lazyFields = ClassInfo.getClassInfo(clazz).lazyFields;
+		if(lazyFields.isEmpty() || loaded == null) return null;
+		List<Field> fields = new ArrayList<Field>();
+		for(Field field: lazyFields){
+			if(!loaded.contains(field)) fields.add(field);
+		}
+		return fields.isEmpty() ? null : fields;
+	}
+
+	/**
+	 * remembers the @Lazy fields which have not been loaded in a mapped entity
+	 * (null: all its fields are loaded)
+	 */
+	public static void setUnloaded(Object obj, List<Field> fields) {
+		if(obj == null || ClassInfo.getClassInfo(obj.getClass()).lazyFields.isEmpty()) return;
+		synchronized (unloaded) {
+			expunge();
+			if(fields == null){
+				unloaded.remove(new DirtyTracker.Entry(obj, null));
+			}else {
+				unloaded.put(new DirtyTracker.Entry(obj, collected), fields);
+			}
+		}
+	}
+
+	/**
+	 * forgets the fields which have been loaded in the entity
+	 */
+	public static void setLoaded(Object obj, List<Field> fields) {
+		synchronized (unloaded) {
+			DirtyTracker.Entry entry = new DirtyTracker.Entry(obj, null);
+			List<Field> current = unloaded.get(entry);
+			if(current == null) return;
+			List<Field> remaining = new ArrayList<Field>(current);
+			remaining.removeAll(fields);
+			if(remaining.isEmpty()){
+				unloaded.remove(entry);
+			}else {
+				unloaded.put(new DirtyTracker.Entry(obj, collected), remaining);
+			}
+		}
+	}
+
+	/**
+	 * @return the @Lazy fields of the entity which have not been loaded and are still null
+	 * (never null)
+	 */
+	public static List<Field> getUnloadedFields(Object obj) {
+		if(ClassInfo.getClassInfo(obj.getClass()).lazyFields.isEmpty()) return Collections.emptyList();
+		List<Field> fields;
+		synchronized (unloaded) {
+			fields = unloaded.get(new DirtyTracker.Entry(obj, null));
+		}
+		if(fields == null) return Collections.emptyList();
+		List<Field> result = new ArrayList<Field>(fields.size());
+		for(Field field: fields){
+			if(Util.readField(obj, field) == null) result.add(field);
+		}
+		return result;
+	}
+
+	public static boolean hasUnloadedFields(Object obj) {
+		return !getUnloadedFields(obj).isEmpty();
+	}
+
+	/**
+	 * @return the fields without the @Lazy fields which have not been loaded in the entity
+	 */
+	public static List<Field> removeUnloaded(Object obj, List<Field> fields) {
+		List<Field> unloadedFields = getUnloadedFields(obj);
+		if(unloadedFields.isEmpty()) return fields;
+		List<Field> result = new ArrayList<Field>(fields);
+		result.removeAll(unloadedFields);
+		return result;
+	}
+
+	/**
+	 * @param others receives the objects which have no unloaded field
+	 * @return the objects which have unloaded fields
+	 */
+	public static List<Object> partition(Iterable<?> objects, List<Object> others) {
+		List<Object> partial = new ArrayList<Object>();
+		for(Object obj: objects){
+			if(hasUnloadedFields(obj)){
+				partial.add(obj);
+			}else {
+				others.add(obj);
+			}
+		}
+		return partial;
+	}
+
+	/**
+	 * gives the unloaded fields of an entity to its copy
+	 */
+	public static void copy(Object from, Object to) {
+		if(ClassInfo.getClassInfo(from.getClass()).lazyFields.isEmpty()) return;
+		List<Field> fields;
+		synchronized (unloaded) {
+			fields = unloaded.get(new DirtyTracker.Entry(from, null));
+		}
+		setUnloaded(to, fields);
+	}
+
+	private static void expunge() {
+		Object ref;
+		while((ref = collected.poll()) != null){
+			unloaded.remove(ref);
+		}
+	}
+}
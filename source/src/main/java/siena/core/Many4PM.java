@@ -18,4 +18,6 @@ public interface Many4PM<T> extends Many<T> {
 	List<T> asList2Add();
 	Many4PM<T> aggregationMode(Object aggregator, Field field);
 	Many4PM<T> relationMode(Object owner, Field field);
+	// sets the synchronized elements when they have been loaded with the elements of other owners
+	Many4PM<T> setElements(List<T> elements);
 }
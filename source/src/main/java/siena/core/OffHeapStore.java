@@ -0,0 +1,287 @@
+package siena.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.SienaException;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         The off-heap tier of the <code>EntityCache</code>: the encoded entities
+ *         (see <code>EntityCodec</code>) are appended to slabs allocated out of the java heap,
+ *         direct <code>ByteBuffer</code>s or memory-mapped files when a directory is given,
+ *         so they don't weigh on the garbage collector. Only the index (key to slab/offset/length)
+ *         stays on the heap.
+ *
+ *         The slabs are filled one after the other. When the memory budget is reached,
+ *         the oldest slab is recycled with all its entries (evicted): with the LRU policy
+ *         an entry read from the store is moved back to the hot tier and rewritten in the current
+ *         slab when it's evicted from it again, with the FIFO policy it stays where it was written.
+ *         An entry larger than a slab is not stored.
+ *
+ *         Thread-safe: all the methods are synchronized.
+ */
+public class OffHeapStore {
+	public static final int DEFAULT_SLAB_SIZE = 16 * 1024 * 1024;
+
+	public enum EvictionPolicy {
+		LRU,
+		FIFO
+	}
+
+	private final EvictionPolicy policy;
+	private final int slabSize;
+	private final int maxSlabs;
+	private final File directory;
+
+	// the slabs in the order of their allocation: the last one is the current one
+	private final List<Slab> slabs = new ArrayList<Slab>();
+	private final Map<Object, Location> index = new HashMap<Object, Location>();
+	private final List<Slab> recycled = new ArrayList<Slab>();
+	private int nextSlabId = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param budget the maximum number of bytes of the slabs
+	 * @param slabSize the size of a slab in bytes
+	 * @param policy what happens to the entries which are read (see above)
+	 * @param directory the directory of the memory-mapped files or null for direct buffers
+	 */
+	public OffHeapStore(long budget, int slabSize, EvictionPolicy policy, File directory) {
+		if(slabSize <= 0 || budget < slabSize){
+			throw new SienaException("The off-heap budget must be at least one slab ("+slabSize+" bytes)");
+		}
+		this.slabSize = slabSize;
+		this.maxSlabs = (int)Math.min(Integer.MAX_VALUE, budget / slabSize);
+		this.policy = policy;
+		this.directory = directory;
+	}
+
+	public OffHeapStore(long budget) {
+		this(budget, (int)Math.min(DEFAULT_SLAB_SIZE, budget), EvictionPolicy.LRU, null);
+	}
+
+	public EvictionPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @param expiration the time after which the entry expires (0: never)
+	 */
+	public synchronized void put(Object key, byte[] bytes, long expiration) {
+		if(bytes.length > slabSize) return;
+		remove(key);
+
+		Slab slab = slabs.isEmpty() ? null : slabs.get(slabs.size()-1);
+		if(slab == null || slab.remaining() < bytes.length){
+			slab = allocate();
+		}
+		int offset = slab.append(bytes);
+		slab.keys.add(key);
+		index.put(key, new Location(slab, offset, bytes.length, expiration));
+	}
+
+	/**
+	 * @return true if the key is in the store (and not expired)
+	 */
+	public synchronized boolean contains(Object key) {
+		Location location = index.get(key);
+		return location != null && !location.isExpired();
+	}
+
+	/**
+	 * @return the bytes of the entry or null if it's not stored (or expired).
+	 * With the LRU policy, the entry is removed (it's moved to the hot tier)
+	 */
+	public synchronized byte[] get(Object key) {
+		Location location = index.get(key);
+		if(location != null && location.isExpired()){
+			index.remove(key);
+			evictions.incrementAndGet();
+			location = null;
+		}
+		if(location == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		byte[] bytes = location.slab.read(location.offset, location.length);
+		if(policy == EvictionPolicy.LRU){
+			index.remove(key);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the expiration of the entry (0: never) or -1 if it's not stored
+	 */
+	public synchronized long getExpiration(Object key) {
+		Location location = index.get(key);
+		return location == null ? -1 : location.expiration;
+	}
+
+	public synchronized void remove(Object key) {
+		index.remove(key);
+	}
+
+	/**
+	 * removes the entries whose key is accepted by the filter
+	 */
+	public synchronized void remove(KeyFilter filter) {
+		Iterator<Object> it = index.keySet().iterator();
+		while(it.hasNext()){
+			if(filter.accept(it.next())){
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		index.clear();
+		for(Slab slab: slabs){
+			slab.reset();
+			recycled.add(slab);
+		}
+		slabs.clear();
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the number of bytes of the allocated slabs
+	 */
+	public synchronized long getAllocated() {
+		return (long)(slabs.size() + recycled.size()) * slabSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return a new slab or the oldest one when the budget is reached (its entries are evicted)
+	 */
+	private Slab allocate() {
+		Slab slab;
+		if(!recycled.isEmpty()){
+			slab = recycled.remove(recycled.size()-1);
+		}else if(slabs.size() < maxSlabs){
+			slab = new Slab(createBuffer());
+		}else {
+			slab = slabs.remove(0);
+			for(Object key: slab.keys){
+				Location location = index.get(key);
+				// the entry may have been rewritten in another slab since
+				if(location != null && location.slab == slab){
+					index.remove(key);
+					evictions.incrementAndGet();
+				}
+			}
+			slab.reset();
+		}
+		slabs.add(slab);
+		return slab;
+	}
+
+	private ByteBuffer createBuffer() {
+		if(directory == null){
+			return ByteBuffer.allocateDirect(slabSize);
+		}
+		try {
+			File file = new File(directory, "siena-cache-"+System.identityHashCode(this)+"-"+(nextSlabId++)+".slab");
+			file.deleteOnExit();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				// the mapping stays valid after the channel is closed
+				return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, slabSize);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public interface KeyFilter {
+		boolean accept(Object key);
+	}
+
+	static class Slab {
+		final ByteBuffer buffer;
+		// the keys written in this slab (some may have been removed or rewritten since)
+		final List<Object> keys = new ArrayList<Object>();
+		int position = 0;
+
+		Slab(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		int remaining() {
+			return buffer.capacity() - position;
+		}
+
+		int append(byte[] bytes) {
+			int offset = position;
+			ByteBuffer b = buffer.duplicate();
+			b.position(offset);
+			b.put(bytes);
+			position += bytes.length;
+			return offset;
+		}
+
+		byte[] read(int offset, int length) {
+			byte[] bytes = new byte[length];
+			ByteBuffer b = buffer.duplicate();
+			b.position(offset);
+			b.get(bytes);
+			return bytes;
+		}
+
+		void reset() {
+			position = 0;
+			keys.clear();
+		}
+	}
+
+	static class Location {
+		final Slab slab;
+		final int offset;
+		final int length;
+		// 0: never expires
+		final long expiration;
+
+		Location(Slab slab, int offset, int length, long expiration) {
+			this.slab = slab;
+			this.offset = offset;
+			this.length = length;
+			this.expiration = expiration;
+		}
+
+		boolean isExpired() {
+			return expiration != 0 && System.currentTimeMillis() > expiration;
+		}
+	}
+}
@@ -20,4 +20,6 @@ public interface One4PM<T> extends One<T>  {
 
 	One4PM<T> aggregationMode(Object aggregator, Field field);
 	One4PM<T> relationMode(Object owner, Field field);
+	// sets the synchronized target when it has been loaded with the targets of other owners
+	One4PM<T> setTarget(T target);
 }
@@ -239,6 +239,11 @@ public class PersistenceManagerLifeCycleWrapper implements PersistenceManager{
 		return pm.getByKey(clazz, key);
 	}
 
+	@Override
+	public void loadField(Object obj, String... fieldNames) {
+		pm.loadField(obj, fieldNames);
+	}
+
 	@Override
 	public <T> List<T> getByKeys(Class<T> clazz, Object... keys) {
 		return pm.getByKeys(clazz, keys);
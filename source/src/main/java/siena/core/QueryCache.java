@@ -0,0 +1,324 @@
+package siena.core;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.ClassInfo;
+import siena.Query;
+import siena.QueryAggregated;
+import siena.QueryFilter;
+import siena.QueryFilterSearch;
+import siena.QueryFilterSimple;
+import siena.QueryOrder;
+import siena.QueryOwned;
+import siena.Util;
+import siena.core.options.QueryOptionFields;
+import siena.core.options.QueryOptionOffset;
+import siena.core.options.QueryOptionPage;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         A bounded LRU cache of query results (see <code>QueryOptionCache</code>) shared by the threads.
+ *         A result is found by the key of its query: the queried class, the filters and their values,
+ *         the searches, the orders, the joins, the aggregator/owner, the projection, the limit/offset
+ *         (given to the persistence manager or set in the query by <code>limit/offset</code>)
+ *         and the kind of result (entities, keys or count) and of cached value (copies or keys).
+ *
+ *         Each class has a generation incremented by each write of one of its entities
+ *         (<code>invalidate</code>): a result is valid while the generations of its class and of
+ *         its joined classes are the ones read before running its query, so a result read
+ *         while a write was running is never used.
+ */
+public class QueryCache {
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	public enum Kind {
+		FETCH,
+		FETCH_KEYS,
+		COUNT
+	}
+
+	private final Map<String, CacheEntry> entries;
+	private final Map<Class<?>, AtomicLong> generations = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public QueryCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public QueryCache(final int maxSize) {
+		// access ordered map to evict the least recently used results
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached result or null if it's not cached (or invalidated/expired)
+	 */
+	public Object get(String key) {
+		CacheEntry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if(entry != null && !isValid(entry)){
+				entries.remove(key);
+				entry = null;
+			}
+		}
+		if(entry == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * @return the generations of the classes to give to <code>put</code> for the results read after it
+	 */
+	public long[] generations(Class<?>[] classes) {
+		long[] gens = new long[classes.length];
+		for(int i=0; i<classes.length; i++){
+			gens[i] = generation(classes[i]).get();
+		}
+		return gens;
+	}
+
+	/**
+	 * @param classes the classes of the result (see <code>getClasses</code>)
+	 * @param gens the generations of these classes read before running the query
+	 * @param ttl the time to live of the result in milliseconds (0: until an invalidation)
+	 */
+	public void put(String key, Object value, Class<?>[] classes, long[] gens, long ttl) {
+		CacheEntry entry = new CacheEntry(value, classes, gens, ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+		if(!isValid(entry)) return;
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * invalidates the results depending on this class (after a write of one of its entities)
+	 */
+	public void invalidate(Class<?> clazz) {
+		generation(clazz).incrementAndGet();
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the ratio of the gets finding a result (0 if none yet)
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double)h / total;
+	}
+
+	/**
+	 * @return false if the result has expired or if one of its classes has been written since its query
+	 */
+	private boolean isValid(CacheEntry entry) {
+		if(entry.isExpired()) return false;
+		for(int i=0; i<entry.classes.length; i++){
+			if(generation(entry.classes[i]).get() != entry.gens[i]) return false;
+		}
+		return true;
+	}
+
+	private AtomicLong generation(Class<?> clazz) {
+		AtomicLong gen = generations.get(clazz);
+		if(gen == null){
+			synchronized (generations) {
+				gen = generations.get(clazz);
+				if(gen == null){
+					gen = new AtomicLong();
+					generations.put(clazz, gen);
+				}
+			}
+		}
+		return gen;
+	}
+
+	/**
+	 * @return the classes whose writes invalidate the results of the query: the queried class and the joined classes
+	 */
+	public static Class<?>[] getClasses(Query<?> query) {
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		classes.add(query.getQueriedClass());
+		for(Field field: IdentityMap.getJoinFields(query)){
+			if(!classes.contains(field.getType())) classes.add(field.getType());
+		}
+		return classes.toArray(new Class<?>[classes.size()]);
+	}
+
+	/**
+	 * @param keysOnly true if only the keys of the entities are cached
+	 * @param limit the limit given to the persistence manager (null if none)
+	 * @param offset the offset given to the persistence manager (null if none)
+	 * @return the key of the results of the query
+	 */
+	public static String key(Query<?> query, Kind kind, boolean keysOnly, Integer limit, Object offset) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(kind).append(keysOnly?"|K":"").append('|').append(query.getQueriedClass().getName())
+			.append('|').append(limit).append('|');
+		appendValue(sb, offset);
+
+		// the limit/offset of the query itself
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		if(pag != null && pag.isActive()){
+			sb.append("|P").append(pag.pageSize);
+		}
+		QueryOptionOffset off = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
+		if(off != null && off.isActive()){
+			sb.append("|S").append(off.offset);
+		}
+
+		sb.append("|W");
+		for (QueryFilter filter : query.getFilters()) {
+			if(filter instanceof QueryFilterSimple){
+				QueryFilterSimple qf = (QueryFilterSimple)filter;
+				sb.append(',').append(qf.field.getName()).append(qf.operator);
+				appendValue(sb, qf.value);
+			}else if(filter instanceof QueryFilterSearch){
+				QueryFilterSearch qf = (QueryFilterSearch)filter;
+				appendSearch(sb, qf);
+			}
+		}
+		for (QueryFilterSearch qf : query.getSearches()) {
+			appendSearch(sb, qf);
+		}
+
+		sb.append("|O");
+		for(QueryOrder order: query.getOrders()){
+			sb.append(',');
+			if(order.parentField != null){
+				sb.append(order.parentField.getName()).append('/');
+			}
+			sb.append(order.field.getName()).append(order.ascending?'+':'-');
+		}
+
+		sb.append("|J");
+		for(Field field: IdentityMap.getJoinFields(query)){
+			sb.append(',').append(field.getName());
+		}
+
+		sb.append("|A");
+		for(QueryAggregated agg: query.getAggregatees()){
+			sb.append(',').append(agg.field.getName()).append('=');
+			appendValue(sb, agg.aggregator);
+		}
+		for(QueryOwned own: query.getOwnees()){
+			sb.append(',').append(own.field.getName()).append('=');
+			appendValue(sb, own.owner);
+		}
+
+		List<Field> fields = QueryOptionFields.getFields(query);
+		if(fields != null){
+			sb.append("|F");
+			for(Field f: fields){
+				sb.append(',').append(f.getName());
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void appendSearch(StringBuilder sb, QueryFilterSearch qf) {
+		sb.append(",S(");
+		appendString(sb, qf.match);
+		for(String f: qf.fields){
+			sb.append(' ');
+			appendString(sb, f);
+		}
+		sb.append(' ');
+		appendString(sb, qf.option);
+		sb.append(')');
+	}
+
+	/**
+	 * appends a text given by the user prefixed by its length so that the separators
+	 * it may contain can't make two different queries have the same key
+	 */
+	private static void appendString(StringBuilder sb, Object value) {
+		String str = String.valueOf(value);
+		sb.append(str.length()).append('#').append(str);
+	}
+
+	private static void appendValue(StringBuilder sb, Object value) {
+		if(value == null){
+			sb.append("null");
+		}else if(value instanceof Collection){
+			sb.append('[');
+			for(Object v: (Collection<?>)value){
+				appendValue(sb, v);
+				sb.append(';');
+			}
+			sb.append(']');
+		}else if(ClassInfo.isModel(value.getClass())){
+			// an entity by its keys
+			sb.append(value.getClass().getName()).append('{');
+			for(Field key: ClassInfo.getClassInfo(value.getClass()).keys){
+				appendValue(sb, Util.readField(value, key));
+				sb.append(';');
+			}
+			sb.append('}');
+		}else if(value instanceof Date){
+			sb.append("Date:").append(((Date)value).getTime());
+		}else {
+			sb.append(value.getClass().getSimpleName()).append(':');
+			appendString(sb, value);
+		}
+	}
+
+	static class CacheEntry {
+		final Object value;
+		final Class<?>[] classes;
+		final long[] gens;
+		// 0: never expires
+		final long expiration;
+
+		CacheEntry(Object value, Class<?>[] classes, long[] gens, long expiration) {
+			this.value = value;
+			this.classes = classes;
+			this.gens = gens;
+			this.expiration = expiration;
+		}
+
+		boolean isExpired() {
+			return expiration != 0 && System.currentTimeMillis() > expiration;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package siena.core;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import siena.ClassInfo;
+import siena.ClassInfo.FieldMapKeys;
+import siena.PersistenceManager;
+import siena.QueryData;
+import siena.SienaException;
+import siena.Util;
+import siena.core.options.QueryOptionRelations;
+
+/**
+ * Loads the @Owned Many/One fields of a list of fetched entities at once
+ * (see <code>QueryOptionRelations</code>):
+ * the children are fetched with <code>filter("owner IN", owners)</code> by chunks of owners
+ * and distributed to the Many/One of their owner which are then synchronized
+ * so accessing them doesn't query anymore.
+ *
+ * Only works for the relations mapped by a field of the child (RELATION mode):
+ * the aggregated children (AGGREGATION mode) are stored under their own aggregator
+ * and can't be fetched for several aggregators with one query.
+ *
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ */
+public class RelationLoader {
+
+	public static <T> List<T> load(PersistenceManager pm, QueryData<T> query, List<T> models) {
+		QueryOptionRelations opt = (QueryOptionRelations)query.option(QueryOptionRelations.ID);
+		if(opt == null || !opt.isActive() || models == null || models.isEmpty()) return models;
+
+		ClassInfo info = ClassInfo.getClassInfo(query.getQueriedClass());
+		for(String name: opt.fieldNames){
+			load(pm, info, getRelationField(info, name), models, opt.chunkSize);
+		}
+		return models;
+	}
+
+	public static <T> T load(PersistenceManager pm, QueryData<T> query, T model) {
+		if(model == null) return null;
+		List<T> models = new ArrayList<T>();
+		models.add(model);
+		load(pm, query, models);
+		return model;
+	}
+
+	private static Field getRelationField(ClassInfo info, String name) {
+		for(Field field: info.ownedFields){
+			if(field.getName().equals(name) && (ClassInfo.isMany(field) || ClassInfo.isOne(field))){
+				return field;
+			}
+		}
+		for(Field field: info.aggregatedFields){
+			if(field.getName().equals(name)){
+				throw new SienaException("Field "+name+" of "+info.clazz.getName()+" is aggregated and can't be loaded with other aggregators");
+			}
+		}
+		throw new SienaException("Field "+name+" is not an owned Many or One field of "+info.clazz.getName());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void load(PersistenceManager pm, ClassInfo info, Field field, List<T> models, int chunkSize) {
+		Map<FieldMapKeys, Object> map =
+			ClassInfo.isMany(field)?info.manyFieldMap.get(field):info.oneFieldMap.get(field);
+		Class<Object> childClazz = (Class<Object>)map.get(FieldMapKeys.CLASS);
+		Field ownerField = (Field)map.get(FieldMapKeys.FIELD);
+		Field idField = info.getIdField();
+
+		List<Object> owners = new ArrayList<Object>();
+		for(T model: models){
+			if(Util.readField(model, idField) != null){
+				owners.add(model);
+			}
+		}
+
+		// the children by key of their owner
+		Map<Object, List<Object>> children = new HashMap<Object, List<Object>>();
+		for(int i=0; i<owners.size(); i+=chunkSize){
+			List<Object> chunk = owners.subList(i, Math.min(i+chunkSize, owners.size()));
+			List<Object> found = pm.createQuery(childClazz)
+				.filter(ownerField.getName()+" IN", new ArrayList<Object>(chunk)).fetch();
+			for(Object child: found){
+				Object owner = Util.readField(child, ownerField);
+				if(owner == null) continue;
+				Object key = Util.readField(owner, idField);
+				List<Object> l = children.get(key);
+				if(l == null){
+					l = new ArrayList<Object>();
+					children.put(key, l);
+				}
+				l.add(child);
+			}
+		}
+
+		for(Object owner: owners){
+			Object relation = Util.readField(owner, field);
+			if(relation == null) continue;
+			List<Object> l = children.get(Util.readField(owner, idField));
+			if(l == null){
+				l = new ArrayList<Object>();
+			}
+			if(ClassInfo.isMany(field)){
+				((Many4PM<Object>)relation).setElements(l);
+			}else {
+				((One4PM<Object>)relation).setTarget(l.isEmpty()?null:l.get(0));
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 pascal VOitot <pascal.voitot@mandubian.org>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The sequence of a <code>@Id(Generator.SEQUENCE)</code> key.
+ * Without it, the sequence is named <code>tablename_seq</code> and reserves blocks of 50 ids.
+ * 
+ * @author mandubian <pascal.voitot@mandubian.org>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Sequence {
+	// the name of the sequence (default: tablename_seq)
+	String value() default "";
+	// the number of ids reserved at once in the DB
+	int allocationSize() default 50;
+}
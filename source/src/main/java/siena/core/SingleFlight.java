@@ -0,0 +1,122 @@
+package siena.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.SienaException;
+
+/**
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ *         Coalesces the identical calls running at the same time: the first thread calling
+ *         <code>execute</code> with a key runs its call and the threads calling it with the same key
+ *         before the end of this call wait for its result instead of running theirs
+ *         (when a popular entity or query result has expired from the cache for ex).
+ *
+ *         The waiting threads get the result through <code>Call.share</code> which can copy it
+ *         so the threads don't share the same entities, and they get the exception of the call
+ *         if it fails. They copy a snapshot of the result (<code>Call.snapshot</code>) taken before
+ *         the thread running the call gets it: this one may modify its result in the meantime.
+ *
+ *         A call started before a write may return the data as it was before it: the key should
+ *         contain a version of the data read by the call (incremented by the writes) so that a thread
+ *         calling <code>execute</code> after its write doesn't wait for the result of such a call.
+ */
+public class SingleFlight {
+	private final ConcurrentMap<Object, Flight> flights = new ConcurrentHashMap<Object, Flight>();
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong shared = new AtomicLong();
+
+	public static abstract class Call<V> {
+		public abstract V call();
+
+		/**
+		 * @return the pristine copy of the result kept for the waiting threads (by default the result itself)
+		 */
+		public Object snapshot(V result) {
+			return result;
+		}
+
+		/**
+		 * @param snapshot the snapshot of the result of the call (shared by the waiting threads)
+		 * @return the result given to a thread which waited for the call of another thread
+		 */
+		@SuppressWarnings("unchecked")
+		public V share(Object snapshot) {
+			return (V)snapshot;
+		}
+	}
+
+	/**
+	 * @return the result of the call or of the same call (same key) run by another thread
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V execute(Object key, Call<V> call) {
+		Flight flight = new Flight();
+		Flight running = flights.putIfAbsent(key, flight);
+		if(running != null){
+			shared.incrementAndGet();
+			return call.share(running.await());
+		}
+
+		calls.incrementAndGet();
+		try {
+			V result = call.call();
+			flight.done(call.snapshot(result), null);
+			return result;
+		} catch(RuntimeException e) {
+			flight.done(null, e);
+			throw e;
+		} catch(Error e) {
+			flight.done(null, e);
+			throw e;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * @return the number of calls which have been run
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @return the number of calls which have waited for the result of another one
+	 */
+	public long getShared() {
+		return shared.get();
+	}
+
+	static class Flight {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private Object result;
+		private Throwable error;
+
+		void done(Object result, Throwable error) {
+			this.result = result;
+			this.error = error;
+			latch.countDown();
+		}
+
+		Object await() {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SienaException(e);
+			}
+			if(error instanceof RuntimeException){
+				throw (RuntimeException)error;
+			}
+			if(error != null){
+				throw new SienaException(error);
+			}
+			return result;
+		}
+	}
+}
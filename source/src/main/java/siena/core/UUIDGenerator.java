@@ -0,0 +1,110 @@
+package siena.core;
+
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.SienaException;
+
+/**
+ * @author mandubian
+ *
+ *         Generates the values of the <code>@Id(Generator.UUID)</code> keys for all the persistence managers.
+ *         
+ *         <ul>
+ *         <li><code>RANDOM</code> (default): <code>UUID.randomUUID()</code> (version 4)</li>
+ *         <li><code>TIME_ORDERED</code>: version 7 UUIDs, the 48 first bits are the unix time in ms
+ *         followed by a 12 bits counter so the UUIDs generated by the JVM are increasing (also as strings).
+ *         New rows are inserted at the end of the primary key index instead of at random pages.
+ *         The 62 last bits are random and come from a generator per thread (seeded once by
+ *         <code>SecureRandom</code>) so the threads don't contend on <code>SecureRandom</code>.</li>
+ *         </ul>
+ *         
+ *         The mode is global and set by <code>setMode</code> or by the property <code>uuid.mode</code>
+ *         (<code>random</code> or <code>time</code>) of the persistence managers.
+ */
+public class UUIDGenerator {
+	public static final String PROPERTY = "uuid.mode";
+
+	public enum Mode {
+		RANDOM,
+		TIME_ORDERED
+	}
+
+	private static volatile Mode mode = Mode.RANDOM;
+
+	// the last time (ms) << 12 | counter
+	private static final AtomicLong last = new AtomicLong();
+
+	private static final SecureRandom seeder = new SecureRandom();
+
+	private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			synchronized(seeder){
+				return new Random(seeder.nextLong());
+			}
+		}
+	};
+
+	public static Mode getMode() {
+		return mode;
+	}
+
+	public static void setMode(Mode mode) {
+		UUIDGenerator.mode = mode;
+	}
+
+	/**
+	 * sets the mode from the property <code>uuid.mode</code> if it's defined
+	 */
+	public static void configure(Properties p) {
+		String value = p.getProperty(PROPERTY);
+		if(value == null) return;
+		value = value.trim().toLowerCase();
+		if("random".equals(value)){
+			setMode(Mode.RANDOM);
+		}else if("time".equals(value) || "time_ordered".equals(value)){
+			setMode(Mode.TIME_ORDERED);
+		}else {
+			throw new SienaException("Unknown "+PROPERTY+": "+value+" (random or time)");
+		}
+	}
+
+	public static UUID next() {
+		if(mode == Mode.TIME_ORDERED){
+			return nextTimeOrdered();
+		}
+		return UUID.randomUUID();
+	}
+
+	public static String nextString() {
+		return next().toString();
+	}
+
+	public static UUID nextTimeOrdered() {
+		long stamp = nextStamp();
+		// 48 bits of time, version 7, 12 bits of counter
+		long msb = ((stamp >>> 12) << 16) | 0x7000L | (stamp & 0xfffL);
+		// variant 10 and 62 random bits
+		long lsb = (random.get().nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
+	}
+
+	/**
+	 * @return the current time (ms) << 12 | counter, always greater than the previous one.
+	 * When the counter overflows in the same ms, the time is moved forward by 1ms.
+	 */
+	private static long nextStamp() {
+		long now = System.currentTimeMillis() << 12;
+		while(true){
+			long prev = last.get();
+			long next = now > prev ? now : prev + 1;
+			if(last.compareAndSet(prev, next)){
+				return next;
+			}
+		}
+	}
+}
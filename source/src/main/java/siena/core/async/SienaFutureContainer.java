@@ -1,5 +1,6 @@
 package siena.core.async;
 
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import siena.SienaException;
@@ -22,10 +23,13 @@ public class SienaFutureContainer<T> implements SienaFuture<T> {
 	public T get() {
 		try {
 			return future.get();
+		} catch (ExecutionException e) {
+			// the SienaException thrown by the computation is not wrapped again
+			if(e.getCause() instanceof SienaException) {
+				throw (SienaException)e.getCause();
+			}
+			throw new SienaException(e.getCause()==null?e:e.getCause());
 		} catch (Exception e) {
-			// FIXME
-			// here it might wrap several exceptions with ExecutionException.
-			// needs to unwrap it???
 			throw new SienaException(e);
 		}
 	}
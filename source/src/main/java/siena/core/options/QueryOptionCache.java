@@ -0,0 +1,50 @@
+package siena.core.options;
+
+/**
+ * Caches the results of the query in the <code>QueryCache</code> of a
+ * <code>CachingPersistenceManager</code>: the same query (same class, filters, orders,
+ * joins, limit/offset...) is not run again until an entity of its class or of its
+ * joined classes is written through this persistence manager.
+ * 
+ * <code>query.customize(new QueryOptionCache()).fetch()</code>
+ * 
+ * It's used by get, fetch, fetchKeys and count of the stateless queries which are not paginated.
+ * The fetched entities are cached (copied) or only their keys if <code>keysOnly</code>
+ * is set: the entities are then got by key (from the entity cache for the @Cached classes).
+ */
+public class QueryOptionCache extends QueryOption{
+    public static final int ID 	= 0x07;
+
+    // the time to live of the results in milliseconds (0: until an invalidation)
+    public long ttl = 0;
+    public boolean keysOnly = false;
+    
+	public QueryOptionCache() {
+		super(ID, State.ACTIVE, null);
+	}
+
+	public QueryOptionCache(long ttl) {
+		this();
+		this.ttl = ttl;
+	}
+
+	public QueryOptionCache(long ttl, boolean keysOnly) {
+		this(ttl);
+		this.keysOnly = keysOnly;
+	}
+
+	public QueryOptionCache(QueryOptionCache option) {
+		super(option);
+		this.ttl = option.ttl;
+		this.keysOnly = option.keysOnly;
+	}
+	
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionCache(this);
+	}
+
+	public String toString() {
+		return "type:CACHE - state:"+this.state+ " - ttl:"+ttl+" - keysOnly:"+keysOnly;
+	}
+}
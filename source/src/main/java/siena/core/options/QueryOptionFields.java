@@ -0,0 +1,76 @@
+package siena.core.options;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import siena.ClassInfo;
+import siena.QueryData;
+import siena.SienaException;
+
+/**
+ * The projection of a query: only the keys and the given fields are loaded,
+ * the other fields of the fetched entities are not set.
+ * 
+ * <code>query.fetchFields("name", "city")</code> or 
+ * <code>query.customize(new QueryOptionFields("name", "city")).iter()</code>
+ */
+public class QueryOptionFields extends QueryOption{
+    public static final int ID 	= 0x05;
+	
+    public List<String> fieldNames = new ArrayList<String>();
+    
+	public QueryOptionFields(String... fieldNames) {
+		super(ID, State.ACTIVE, null);
+		this.fieldNames.addAll(Arrays.asList(fieldNames));
+	}
+
+	public QueryOptionFields(QueryOptionFields option) {
+		super(option);
+		this.fieldNames.addAll(option.fieldNames);
+	}
+	
+	/**
+	 * @return the fields loaded by the query (in the order of the fields of the class):
+	 * the keys and the selected fields if the query has an active projection, 
+	 * else the fields which are not @Lazy if the class has some, else null (all the fields)
+	 */
+	public static <T> List<Field> getFields(QueryData<T> query) {
+		ClassInfo info = ClassInfo.getClassInfo(query.getQueriedClass());
+		QueryOptionFields opt = (QueryOptionFields)query.option(ID);
+		if(opt == null || !opt.isActive()) {
+			if(info.lazyFields.isEmpty()) return null;
+			return new ArrayList<Field>(info.eagerFields);
+		}
+		
+		List<Field> fields = new ArrayList<Field>();
+		for(String name: opt.fieldNames){
+			boolean found = false;
+			for(Field field: info.allFields){
+				if(field.getName().equals(name)){
+					found = true;
+					break;
+				}
+			}
+			if(!found){
+				throw new SienaException("Field "+name+" is not a field of "+info.clazz.getName());
+			}
+		}
+		for(Field field: info.allFields){
+			if(info.keys.contains(field) || opt.fieldNames.contains(field.getName())){
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+	
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionFields(this);
+	}
+
+	public String toString() {
+		return "type:FIELDS - state:"+this.state+ " - fields:"+fieldNames;
+	}
+}
@@ -0,0 +1,49 @@
+package siena.core.options;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads the given @Owned Many/One fields of all the entities fetched by the query at once:
+ * the children of the owners are fetched with one IN query per field (and per chunk of owners)
+ * instead of one query per owner when each Many/One is accessed.
+ * 
+ * <code>query.customize(new QueryOptionRelations("children")).fetch()</code>
+ * 
+ * It's used by get and fetch (see <code>siena.core.RelationLoader</code>).
+ */
+public class QueryOptionRelations extends QueryOption{
+    public static final int ID 	= 0x06;
+
+    // the number of owners in an IN query (the GAE datastore doesn't accept more than 30 values)
+    public static final int DEFAULT_CHUNK_SIZE = 30;
+	
+    public List<String> fieldNames = new ArrayList<String>();
+    public int chunkSize = DEFAULT_CHUNK_SIZE;
+    
+	public QueryOptionRelations(String... fieldNames) {
+		super(ID, State.ACTIVE, null);
+		this.fieldNames.addAll(Arrays.asList(fieldNames));
+	}
+
+	public QueryOptionRelations(int chunkSize, String... fieldNames) {
+		this(fieldNames);
+		this.chunkSize = chunkSize;
+	}
+
+	public QueryOptionRelations(QueryOptionRelations option) {
+		super(option);
+		this.fieldNames.addAll(option.fieldNames);
+		this.chunkSize = option.chunkSize;
+	}
+	
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionRelations(this);
+	}
+
+	public String toString() {
+		return "type:RELATIONS - state:"+this.state+ " - fields:"+fieldNames+" - chunkSize:"+chunkSize;
+	}
+}
@@ -5,8 +5,9 @@ import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
 
 import siena.ClassInfo;
 import siena.Id;
@@ -18,8 +19,10 @@ import siena.SienaException;
 import siena.SienaRestrictedApiException;
 import siena.Util;
 import siena.core.DecimalPrecision;
+import siena.core.LazyTracker;
 import siena.core.Relation;
 import siena.core.RelationMode;
+import siena.core.UUIDGenerator;
 import siena.embed.Embedded;
 import siena.embed.JavaSerializer;
 import siena.embed.JsonSerializer;
@@ -61,7 +64,7 @@ public class GaeMappingUtils {
 				}
 				break;
 			case UUID:
-				entity = new Entity(info.tableName, UUID.randomUUID().toString());
+				entity = new Entity(info.tableName, UUIDGenerator.nextString());
 				break;
 			default:
 				throw new SienaRestrictedApiException("DB", "createEntityInstance", "Id Generator "+id.value()+ " not supported");
@@ -121,7 +124,7 @@ public class GaeMappingUtils {
 				}
 				break;
 			case UUID:
-				entity = new Entity(getKindWithAncestorField(info, parentInfo, parentField), UUID.randomUUID().toString(), parentKey);
+				entity = new Entity(getKindWithAncestorField(info, parentInfo, parentField), UUIDGenerator.nextString(), parentKey);
 				break;
 			default:
 				throw new SienaRestrictedApiException("DB", "createEntityInstance", "Id Generator "+id.value()+ " not supported");
@@ -157,7 +160,6 @@ public class GaeMappingUtils {
 				if (Long.TYPE==type || Long.class.isAssignableFrom(idField.getType())){
 					Util.setField(obj, idField, key.getId());
 				}else {
-					idField.setAccessible(true);
 					Object val2 = null;
 					if (Long.TYPE==type || Long.class.isAssignableFrom(idField.getType())){
 						val = Long.parseLong((String) key.getName());
@@ -482,10 +484,65 @@ public class GaeMappingUtils {
 	}
 
 
+	/**
+	 * @return the @Lazy fields which have not been loaded in the objects (see <code>LazyTracker</code>)
+	 * by key of the entities filled from them
+	 */
+	public static Map<Key, List<Field>> getUnloadedFields(List<Entity> entities, Iterable<?> objects) {
+		Map<Key, List<Field>> unloaded = new HashMap<Key, List<Field>>();
+		int i = 0;
+		for(Object obj: objects){
+			List<Field> fields = LazyTracker.getUnloadedFields(obj);
+			if(!fields.isEmpty()){
+				unloaded.put(entities.get(i).getKey(), fields);
+			}
+			i++;
+		}
+		return unloaded;
+	}
+
+	/**
+	 * copies the stored properties of the @Lazy fields which have not been loaded
+	 * to the entities to put as the datastore replaces the whole entities
+	 * @param stored the stored entities by key
+	 */
+	public static void fillUnloaded(List<Entity> entities, Map<Key, List<Field>> unloaded, Map<Key, Entity> stored) {
+		for(Entity entity: entities){
+			List<Field> fields = unloaded.get(entity.getKey());
+			Entity old = stored.get(entity.getKey());
+			if(fields == null || old == null) continue;
+			for(Field field: fields){
+				// the native embedded fields are stored in several properties: property.field...
+				String property = ClassInfo.getColumnNames(field)[0];
+				String prefix = property + ".";
+				for(String name: new ArrayList<String>(entity.getProperties().keySet())){
+					if(name.equals(property) || name.startsWith(prefix)) entity.removeProperty(name);
+				}
+				for(Map.Entry<String, Object> prop: old.getProperties().entrySet()){
+					String name = prop.getKey();
+					if(!name.equals(property) && !name.startsWith(prefix)) continue;
+					if(old.isUnindexedProperty(name)){
+						entity.setUnindexedProperty(name, prop.getValue());
+					}else {
+						entity.setProperty(name, prop.getValue());
+					}
+				}
+			}
+		}
+	}
+
 	public static void fillModel(Object obj, Entity entity) {
+		fillModel(obj, entity, null);
+	}
+
+	/**
+	 * @param fields the fields to fill (projection) or null for all the fields
+	 */
+	public static void fillModel(Object obj, Entity entity, List<Field> fields) {
 		Class<?> clazz = obj.getClass();
 
 		for (Field field : ClassInfo.getClassInfo(clazz).updateFields) {
+			if(fields != null && !fields.contains(field)) continue;
 			String property = ClassInfo.getColumnNames(field)[0];
 			try {
 				Class<?> fieldClass = field.getType();
@@ -518,6 +575,7 @@ public class GaeMappingUtils {
 				throw new SienaException(e);
 			}
 		}
+		LazyTracker.setUnloaded(obj, LazyTracker.getUnloadedFields(clazz, fields));
 	}
 
 	public static void fillModelAndKey(Object obj, Entity entity) {
@@ -667,13 +725,20 @@ public class GaeMappingUtils {
 	}
 	
 	public static <T> T mapEntity(Entity entity, Class<T> clazz) {
+		return mapEntity(entity, clazz, null);
+	}
+	
+	/**
+	 * @param fields the fields to map (projection) or null for all the fields
+	 */
+	public static <T> T mapEntity(Entity entity, Class<T> clazz, List<Field> fields) {
 		Field id = ClassInfo.getIdField(clazz);
 		T obj = null;
 		// try to find a constructor
 		try {	
 			if(entity != null){
 				obj = Util.createObjectInstance(clazz);
-				fillModel(obj, entity);
+				fillModel(obj, entity, fields);
 				setIdFromKey(id, obj, entity.getKey());
 			}
 		} catch (SienaException e) {
@@ -687,13 +752,18 @@ public class GaeMappingUtils {
 	
 	public static <T> List<T> mapEntities(List<Entity> entities,
 			Class<T> clazz) {
+		return mapEntities(entities, clazz, null);
+	}
+	
+	public static <T> List<T> mapEntities(List<Entity> entities,
+			Class<T> clazz, List<Field> fields) {
 		Field id = ClassInfo.getIdField(clazz);
 		List<T> list = new ArrayList<T>(entities.size());
 		for (Entity entity : entities) {
 			T obj;
 			try {
 				obj = Util.createObjectInstance(clazz);
-				fillModel(obj, entity);
+				fillModel(obj, entity, fields);
 				list.add(obj);
 				setIdFromKey(id, obj, entity.getKey());
 			} catch (SienaException e) {
@@ -708,13 +778,18 @@ public class GaeMappingUtils {
 	
 	public static <T> List<T> mapEntities(Iterable<Entity> entities,
 			Class<T> clazz) {
+		return mapEntities(entities, clazz, null);
+	}
+	
+	public static <T> List<T> mapEntities(Iterable<Entity> entities,
+			Class<T> clazz, List<Field> fields) {
 		Field id = ClassInfo.getIdField(clazz);
 		List<T> list = new ArrayList<T>();
 		for (Entity entity : entities) {
 			T obj;
 			try {
 				obj = Util.createObjectInstance(clazz);
-				fillModel(obj, entity);
+				fillModel(obj, entity, fields);
 				list.add(obj);
 				setIdFromKey(id, obj, entity.getKey());
 			} catch (SienaException e) {
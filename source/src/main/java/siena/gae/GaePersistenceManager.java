@@ -32,14 +32,18 @@ import siena.Query;
 import siena.QueryAggregated;
 import siena.SienaException;
 import siena.Util;
+import siena.core.DirtyTracker;
+import siena.core.IdentityMap;
 import siena.core.Many;
 import siena.core.Many4PM;
 import siena.core.One;
 import siena.core.One4PM;
 import siena.core.Relation;
 import siena.core.RelationMode;
+import siena.core.UUIDGenerator;
 import siena.core.async.PersistenceManagerAsync;
 import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
@@ -70,6 +74,9 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	public void init(Properties p) {
 		ds = DatastoreServiceFactory.getDatastoreService();
 		props = p;
+		if(p != null) UUIDGenerator.configure(p);
+		dirtyTracker = DirtyTracker.configure(p);
+		setIdentityMap(IdentityMap.isEnabled(p));
 	}
 
 	public <T> PersistenceManagerAsync async() {
@@ -90,21 +97,24 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public void closeConnection() {
-		// does nothing
+		clearIdentityMap();
 	}
 
 	public void commitTransaction() {
 		Transaction txn = ds.getCurrentTransaction();
 		txn.commit();
+		clearIdentityMap();
 	}
 
 	public void rollbackTransaction() {
 		Transaction txn = ds.getCurrentTransaction();
 		txn.rollback();
+		clearIdentityMap();
 	}
 	
 	public void delete(Object obj){
 		List<Key> keys = new ArrayList<Key>();
+		removeIdentity(obj);
 		
 		Class<?> clazz = obj.getClass();
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
@@ -198,10 +208,19 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	public void get(Object obj) {
 		Key key = GaeMappingUtils.getKey(obj);
 		ClassInfo info = ClassInfo.getClassInfo(obj.getClass());
+		IdentityMap identities = getIdentityMap();
+		if(identities != null) {
+			Object identified = identities.get(obj.getClass(), IdentityMap.getKey(obj));
+			if(identified != null) {
+				if(identified != obj) Util.copyObject(identified, obj);
+				return;
+			}
+		}
 		try {
 			Entity entity = ds.get(key);
 			if(entity != null){
 				GaeMappingUtils.fillModel(obj, entity);
+				track(obj);
 				
 				// related fields (Many<T> management mainly)
 				if(!info.ownedFields.isEmpty()){
@@ -217,6 +236,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 				if(!info.joinFields.isEmpty()){
 					mapJoins(obj);
 				}
+				identify(obj, null);
 			}
 		} 
 		catch (Exception e) {
@@ -225,6 +245,11 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> T getByKey(Class<T> clazz, Object key) {
+		IdentityMap identities = getIdentityMap();
+		if(identities != null) {
+			T identified = identities.get(clazz, key);
+			if(identified != null) return identified;
+		}
 		Key gKey = GaeMappingUtils.makeKeyFromId(clazz, key);
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
 		try {
@@ -233,6 +258,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 			if(entity != null){
 				obj = Util.createObjectInstance(clazz);
 				GaeMappingUtils.fillModelAndKey(obj, entity);
+				track(obj);
 				// related fields (Many<T> management mainly)
 				if(!info.ownedFields.isEmpty()){
 					mapOwned(obj);
@@ -246,7 +272,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 					mapJoins(obj);
 				}
 			}
-			return obj;
+			return identify(obj, null);
 		} 
 		catch(EntityNotFoundException e){
 			return null;
@@ -504,6 +530,10 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 		Class<?> clazz = obj.getClass();
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
 		
+		if(isUnmodified(obj, info)){
+			return;
+		}
+		
 		if(info.hasAggregator){
 			Relation rel = (Relation)Util.readField(obj, info.aggregator);
 			if(rel != null && rel.mode == RelationMode.AGGREGATION){
@@ -531,6 +561,20 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 				_updateComplex(obj, null, null, null);
 			}
 		}
+		track(obj);
+	}
+	
+	/**
+	 * @return true if the dirty tracking knows that the object hasn't been modified since its fetch.
+	 * The datastore puts whole entities so a modified object is put entirely and
+	 * the objects with owned/aggregated fields are always put to update their relations.
+	 */
+	private boolean isUnmodified(Object obj, ClassInfo info) {
+		if(dirtyTracker == null || info.hasAggregatedFields || info.hasOwnedFields){
+			return false;
+		}
+		List<Field> dirty = dirtyTracker.getDirtyFields(obj);
+		return dirty != null && dirty.isEmpty();
 	}
 	
 	public enum PersistenceType {
@@ -564,10 +608,22 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 		}
 		
 		if(entity != null){
+			keepUnloaded(Arrays.asList(entity), Arrays.asList(obj));
 			ds.put(entity);
 		}
 	}
 	
+	/**
+	 * keeps the stored values of the @Lazy fields which have not been loaded in the objects
+	 * (the datastore puts whole entities)
+	 */
+	private void keepUnloaded(List<Entity> entities, List<?> objects) {
+		Map<Key, List<Field>> unloaded = GaeMappingUtils.getUnloadedFields(entities, objects);
+		if(!unloaded.isEmpty()){
+			GaeMappingUtils.fillUnloaded(entities, unloaded, ds.get(unloaded.keySet()));
+		}
+	}
+	
 	private <T> void _updateSimpleMultiple(Iterable<T> objs, Key parentKey, ClassInfo parentInfo, Field parentField){
 		List<Entity> entities = new ArrayList<Entity>();
 		
@@ -627,6 +683,10 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 			Class<?> clazz = obj.getClass();
 			ClassInfo info = ClassInfo.getClassInfo(clazz);
 			
+			if(isUnmodified(obj, info)){
+				continue;
+			}
+			
 			if(info.hasAggregator){
 				Relation rel = (Relation)Util.readField(obj, info.aggregator);
 				if(rel != null && rel.mode == RelationMode.AGGREGATION){
@@ -643,7 +703,11 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 						obj, null, null, null);
 			}
 		}
-		return _updateManageMaps(entitiesMap, objectsMap, keysMap);
+		int nb = _updateManageMaps(entitiesMap, objectsMap, keysMap);
+		for(Object obj:objects){
+			track(obj);
+		}
+		return nb;
 	}
 	
 //	private <T> int _updateComplexMultiple(Iterable<T> objs, Key parentKey, ClassInfo parentInfo, Field parentField){
@@ -706,6 +770,12 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 				entitiesMap.put(PersistenceType.UPDATE, entities2Update);
 			}
 			entities2Update.add(entity);
+			List<Object> objects2Update = objectsMap.get(PersistenceType.UPDATE);
+			if(objects2Update == null){
+				objects2Update = new ArrayList<Object>();
+				objectsMap.put(PersistenceType.UPDATE, objects2Update);
+			}
+			objects2Update.add(obj);
 		}
 
 		for(Field f: info.ownedFields){
@@ -872,6 +942,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 		// saves the updated aggregated objects
 		entities = entitiesMap.get(PersistenceType.UPDATE);
 		if(entities!=null && !entities.isEmpty()){
+			keepUnloaded(entities, objectsMap.get(PersistenceType.UPDATE));
 			ds.put(entitiesMap.get(PersistenceType.UPDATE));
 			
 			nb += entities.size();
@@ -967,115 +1038,106 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 
 	
 	protected <T> T mapJoins(Query<T> query, T model) {
+		// join queries
+		Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
+		
+		// creates the list of joined entity keys to extract 
+		for(Field field: fieldMap.keySet()){
+			Key key = GaeMappingUtils.getKey(Util.readField(model, field));
+			List<Key> keys = fieldMap.get(field);
+			if(!keys.contains(key))
+				keys.add(key);
+		}
+		
+		Map<Field, Map<Key, Entity>> entityMap = 
+			new HashMap<Field, Map<Key, Entity>>();
+
 		try {
-			// join queries
-			Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
-			
-			// creates the list of joined entity keys to extract 
+			// retrieves all joined entities per field
 			for(Field field: fieldMap.keySet()){
-				Key key = GaeMappingUtils.getKey(field.get(model));
-				List<Key> keys = fieldMap.get(field);
-				if(!keys.contains(key))
-					keys.add(key);
-			}
-			
-			Map<Field, Map<Key, Entity>> entityMap = 
-				new HashMap<Field, Map<Key, Entity>>();
-
-			try {
-				// retrieves all joined entities per field
-				for(Field field: fieldMap.keySet()){
-					Map<Key, Entity> entities = ds.get(fieldMap.get(field));
-					entityMap.put(field, entities);
-				}
-			}catch(Exception ex){
-				throw new SienaException(ex);
+				Map<Key, Entity> entities = ds.get(fieldMap.get(field));
+				entityMap.put(field, entities);
 			}
-			// associates linked models to their models
-			// linkedModels is just a map to contain entities already mapped
-			Map<Key, Object> linkedModels = new HashMap<Key, Object>();
-			Object linkedObj;
-			Entity entity; 
-			
-			for(Field field: fieldMap.keySet()){
-				Object objVal = field.get(model);
-				Key key = GaeMappingUtils.getKey(objVal);
-				linkedObj = linkedModels.get(key);
-				if(linkedObj==null){
-					entity = entityMap.get(field).get(key);
-					linkedObj = objVal;
-					GaeMappingUtils.fillModel(linkedObj, entity);
-					linkedModels.put(key, linkedObj);
-				}
-			
-				field.set(model, linkedObj);				
+		}catch(Exception ex){
+			throw new SienaException(ex);
+		}
+		// associates linked models to their models
+		// linkedModels is just a map to contain entities already mapped
+		Map<Key, Object> linkedModels = new HashMap<Key, Object>();
+		Object linkedObj;
+		Entity entity; 
+		
+		for(Field field: fieldMap.keySet()){
+			Object objVal = Util.readField(model, field);
+			Key key = GaeMappingUtils.getKey(objVal);
+			linkedObj = linkedModels.get(key);
+			if(linkedObj==null){
+				entity = entityMap.get(field).get(key);
+				linkedObj = objVal;
+				GaeMappingUtils.fillModel(linkedObj, entity);
+				linkedModels.put(key, linkedObj);
 			}
+		
+			Util.setField(model, field, linkedObj);				
+		}
 
-			return model;
-		} catch(IllegalAccessException ex){
-			throw new SienaException(ex);
-		}		
+		return model;
 	}
 	
 	protected <T> T mapJoins(T model) {
+		// join queries
+		Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(model);
+		
+		// creates the list of joined entity keys to extract 
+		for(Field field: fieldMap.keySet()){
+			Key key = GaeMappingUtils.getKey(Util.readField(model, field));
+			List<Key> keys = fieldMap.get(field);
+			if(!keys.contains(key))
+				keys.add(key);
+		}
+		
+		Map<Field, Map<Key, Entity>> entityMap = 
+			new HashMap<Field, Map<Key, Entity>>();
+
 		try {
-			// join queries
-			Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(model);
-			
-			// creates the list of joined entity keys to extract 
+			// retrieves all joined entities per field
 			for(Field field: fieldMap.keySet()){
-				Key key = GaeMappingUtils.getKey(field.get(model));
-				List<Key> keys = fieldMap.get(field);
-				if(!keys.contains(key))
-					keys.add(key);
-			}
-			
-			Map<Field, Map<Key, Entity>> entityMap = 
-				new HashMap<Field, Map<Key, Entity>>();
-
-			try {
-				// retrieves all joined entities per field
-				for(Field field: fieldMap.keySet()){
-					Map<Key, Entity> entities = ds.get(fieldMap.get(field));
-					entityMap.put(field, entities);
-				}
-			}catch(Exception ex){
-				throw new SienaException(ex);
+				Map<Key, Entity> entities = ds.get(fieldMap.get(field));
+				entityMap.put(field, entities);
 			}
-			// associates linked models to their models
-			// linkedModels is just a map to contain entities already mapped
-			Map<Key, Object> linkedModels = new HashMap<Key, Object>();
-			Object linkedObj;
-			Entity entity; 
-			
-			for(Field field: fieldMap.keySet()){
-				Object objVal = field.get(model);
-				Key key = GaeMappingUtils.getKey(objVal);
-				linkedObj = linkedModels.get(key);
-				if(linkedObj==null){
-					entity = entityMap.get(field).get(key);
-					linkedObj = objVal;
-					GaeMappingUtils.fillModel(linkedObj, entity);
-					linkedModels.put(key, linkedObj);
-				}
-			
-				field.set(model, linkedObj);				
+		}catch(Exception ex){
+			throw new SienaException(ex);
+		}
+		// associates linked models to their models
+		// linkedModels is just a map to contain entities already mapped
+		Map<Key, Object> linkedModels = new HashMap<Key, Object>();
+		Object linkedObj;
+		Entity entity; 
+		
+		for(Field field: fieldMap.keySet()){
+			Object objVal = Util.readField(model, field);
+			Key key = GaeMappingUtils.getKey(objVal);
+			linkedObj = linkedModels.get(key);
+			if(linkedObj==null){
+				entity = entityMap.get(field).get(key);
+				linkedObj = objVal;
+				GaeMappingUtils.fillModel(linkedObj, entity);
+				linkedModels.put(key, linkedObj);
 			}
+		
+			Util.setField(model, field, linkedObj);				
+		}
 
-			return model;
-		} catch(IllegalAccessException ex){
-			throw new SienaException(ex);
-		}		
+		return model;
 	}
 	
 	protected <T> List<T> mapJoins(Query<T> query, List<T> models) {
-		try {
-			// join queries
-			Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
-			
-			// creates the list of joined entity keys to extract 
-			for (final T model : models) {
-				for(Field field: fieldMap.keySet()){
+		// join queries
+		Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
+		
+		// creates the list of joined entity keys to extract 
+		for (final T model : models) {
+			for(Field field: fieldMap.keySet()){
                     Object objVal = Util.readField(model, field);
                     // our object is not linked to another object...so it doesn't have any key
                     if(objVal == null) {
@@ -1083,69 +1145,65 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
                     }
 
                     Key key = GaeMappingUtils.getKey(objVal);
-					List<Key> keys = fieldMap.get(field);
-					if(!keys.contains(key))
-						keys.add(key);
-				}
+				List<Key> keys = fieldMap.get(field);
+				if(!keys.contains(key))
+					keys.add(key);
 			}
-			
-			Map<Field, Map<Key, Entity>> entityMap = 
-				new HashMap<Field, Map<Key, Entity>>();
-
-			try {
-				// retrieves all joined entities per field
-				for(Field field: fieldMap.keySet()){
-					Map<Key, Entity> entities = ds.get(fieldMap.get(field));
-					// gets the future here because we need it so we wait for it
-					entityMap.put(field, entities);
-				}
-			}catch(Exception ex){
-				throw new SienaException(ex);
+		}
+		
+		Map<Field, Map<Key, Entity>> entityMap = 
+			new HashMap<Field, Map<Key, Entity>>();
+
+		try {
+			// retrieves all joined entities per field
+			for(Field field: fieldMap.keySet()){
+				Map<Key, Entity> entities = ds.get(fieldMap.get(field));
+				// gets the future here because we need it so we wait for it
+				entityMap.put(field, entities);
 			}
-			// associates linked models to their models
-			// linkedModels is just a map to contain entities already mapped
-			Map<Key, Object> linkedModels = new HashMap<Key, Object>();
-			Object linkedObj;
-			Entity entity; 
-			
-			for (final T model : models) {
-				for(Field field: fieldMap.keySet()){
-					Object objVal = Util.readField(model, field);
+		}catch(Exception ex){
+			throw new SienaException(ex);
+		}
+		// associates linked models to their models
+		// linkedModels is just a map to contain entities already mapped
+		Map<Key, Object> linkedModels = new HashMap<Key, Object>();
+		Object linkedObj;
+		Entity entity; 
+		
+		for (final T model : models) {
+			for(Field field: fieldMap.keySet()){
+				Object objVal = Util.readField(model, field);
                     // our object is not linked to another object...so it doesn't have any key
                     if(objVal == null) {
                         continue;
                     }
 
-					Key key = GaeMappingUtils.getKey(objVal);
-					linkedObj = linkedModels.get(key);
-					if(linkedObj==null){
-						entity = entityMap.get(field).get(key);
-						linkedObj = objVal;
-						GaeMappingUtils.fillModel(linkedObj, entity);
-						linkedModels.put(key, linkedObj);
-					}
-				
-					field.set(model, linkedObj);				
+				Key key = GaeMappingUtils.getKey(objVal);
+				linkedObj = linkedModels.get(key);
+				if(linkedObj==null){
+					entity = entityMap.get(field).get(key);
+					linkedObj = objVal;
+					GaeMappingUtils.fillModel(linkedObj, entity);
+					linkedModels.put(key, linkedObj);
 				}
+			
+				Util.setField(model, field, linkedObj);				
 			}
-			return models;
-		} catch(IllegalAccessException ex){
-			throw new SienaException(ex);
-		}		
+		}
+		return models;
 	}
 	
 	protected <T> List<T> mapJoins(List<T> models) {
-		try {
-			// join queries
-			Map<Field, ArrayList<Key>> fieldMap = null;
-			
-			// creates the list of joined entity keys to extract 
-			for (final T model : models) {
-				// initializes fieldMap
-				if(fieldMap == null){
-					fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(model);
-				}
-				for(Field field: fieldMap.keySet()){
+		// join queries
+		Map<Field, ArrayList<Key>> fieldMap = null;
+		
+		// creates the list of joined entity keys to extract 
+		for (final T model : models) {
+			// initializes fieldMap
+			if(fieldMap == null){
+				fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(model);
+			}
+			for(Field field: fieldMap.keySet()){
                     Object objVal = Util.readField(model, field);
                     // our object is not linked to another object...so it doesn't have any key
                     if(objVal == null) {
@@ -1153,55 +1211,52 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
                     }
 
                     Key key = GaeMappingUtils.getKey(objVal);
-					List<Key> keys = fieldMap.get(field);
-					if(!keys.contains(key))
-						keys.add(key);
-				}
+				List<Key> keys = fieldMap.get(field);
+				if(!keys.contains(key))
+					keys.add(key);
 			}
-			
-			Map<Field, Map<Key, Entity>> entityMap = 
-				new HashMap<Field, Map<Key, Entity>>();
-
-			try {
-				// retrieves all joined entities per field
-				for(Field field: fieldMap.keySet()){
-					Map<Key, Entity> entities = ds.get(fieldMap.get(field));
-					// gets the future here because we need it so we wait for it
-					entityMap.put(field, entities);
-				}
-			}catch(Exception ex){
-				throw new SienaException(ex);
+		}
+		
+		Map<Field, Map<Key, Entity>> entityMap = 
+			new HashMap<Field, Map<Key, Entity>>();
+
+		try {
+			// retrieves all joined entities per field
+			for(Field field: fieldMap.keySet()){
+				Map<Key, Entity> entities = ds.get(fieldMap.get(field));
+				// gets the future here because we need it so we wait for it
+				entityMap.put(field, entities);
 			}
-			// associates linked models to their models
-			// linkedModels is just a map to contain entities already mapped
-			Map<Key, Object> linkedModels = new HashMap<Key, Object>();
-			Object linkedObj;
-			Entity entity; 
-			
-			for (final T model : models) {
-				for(Field field: fieldMap.keySet()){
-					Object objVal = Util.readField(model, field);
+		}catch(Exception ex){
+			throw new SienaException(ex);
+		}
+		// associates linked models to their models
+		// linkedModels is just a map to contain entities already mapped
+		Map<Key, Object> linkedModels = new HashMap<Key, Object>();
+		Object linkedObj;
+		Entity entity; 
+		
+		for (final T model : models) {
+			for(Field field: fieldMap.keySet()){
+				Object objVal = Util.readField(model, field);
                     // our object is not linked to another object...so it doesn't have any key
                     if(objVal == null) {
                         continue;
                     }
 
-					Key key = GaeMappingUtils.getKey(objVal);
-					linkedObj = linkedModels.get(key);
-					if(linkedObj==null){
-						entity = entityMap.get(field).get(key);
-						linkedObj = objVal;
-						GaeMappingUtils.fillModel(linkedObj, entity);
-						linkedModels.put(key, linkedObj);
-					}
-				
-					field.set(model, linkedObj);				
+				Key key = GaeMappingUtils.getKey(objVal);
+				linkedObj = linkedModels.get(key);
+				if(linkedObj==null){
+					entity = entityMap.get(field).get(key);
+					linkedObj = objVal;
+					GaeMappingUtils.fillModel(linkedObj, entity);
+					linkedModels.put(key, linkedObj);
 				}
+			
+				Util.setField(model, field, linkedObj);				
 			}
-			return models;
-		} catch(IllegalAccessException ex){
-			throw new SienaException(ex);
-		}		
+		}
+		return models;
 	}
 	
 	protected <T> void fillAggregated(ClassInfo info, T ancestor, Key ancestorKey) {
@@ -1352,7 +1407,9 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	
 	protected <T> T map(Query<T> query, Entity entity) {
 		Class<T> clazz = query.getQueriedClass();
-		T result = GaeMappingUtils.mapEntity(entity, clazz);
+		// the datastore of this SDK has no projection queries: only the selected fields are mapped
+		T result = GaeMappingUtils.mapEntity(entity, clazz, QueryOptionFields.getFields(query));
+		track(result);
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
 		
 		// maps model relations to be able to associate children to aggregators
@@ -1372,12 +1429,13 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 		if(!query.getJoins().isEmpty() || !ClassInfo.getClassInfo(clazz).joinFields.isEmpty())
 			mapJoins(query, result);
 		
-		return result;
+		return identify(result, query);
 	}
 	
 	protected <T> List<T> map(Query<T> query, List<Entity> entities) {
 		Class<T> clazz = query.getQueriedClass();
-		List<T> results = GaeMappingUtils.mapEntities(entities, clazz);
+		List<T> results = GaeMappingUtils.mapEntities(entities, clazz, QueryOptionFields.getFields(query));
+		track(results);
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
 		
 		// maps model relations to be able to associate children to aggregators
@@ -1397,7 +1455,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 		if(!query.getJoins().isEmpty() || !info.joinFields.isEmpty())
 			mapJoins(query, results);
 		
-		return results;
+		return identify(results, query);
 	}
 
 	protected <T> List<T> mapKeysOnly(Query<T> query, List<Entity> entities) {
@@ -1982,6 +2040,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 
 	public <T> int delete(Query<T> query) {
 		final ArrayList<Key> keys = new ArrayList<Key>();
+		clearIdentities(query.getQueriedClass());
 
 		Class<?> clazz = query.getQueriedClass();
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
@@ -2109,6 +2168,9 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 
 	public int delete(Iterable<?> models) {
 		List<Key> keys = new ArrayList<Key>();
+		for(Object model:models){
+			removeIdentity(model);
+		}
 		_deleteMultiple(models, keys, null, null, null);
 		
 		ds.delete(keys);
@@ -2124,6 +2186,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	public <T> int deleteByKeys(Class<T> clazz, Iterable<?> keys) {
 		List<Key> gaeKeys = new ArrayList<Key>();
 		for(Object key:keys){
+			removeIdentity(clazz, key);
 			gaeKeys.add(GaeMappingUtils.makeKeyFromId(clazz, key));
 		}
 		
@@ -2149,6 +2212,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 			Entity e = entityMap.get(GaeMappingUtils.getKey(obj));
 			if(e!=null){
 				GaeMappingUtils.fillModel(obj, e);
+				track(obj);
 			}
 		}
 		
@@ -2162,19 +2226,31 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
 		List<Key> gaeKeys = new ArrayList<Key>();
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
+		// only gets the entities which are not in the identity map
+		IdentityMap identities = getIdentityMap();
 		
 		for(Object key:keys){
-			gaeKeys.add(GaeMappingUtils.makeKeyFromId(clazz, key));
+			if(identities == null || identities.get(clazz, key) == null){
+				gaeKeys.add(GaeMappingUtils.makeKeyFromId(clazz, key));
+			}
 		}
 		
 		Map<Key, Entity> entityMap = ds.get(gaeKeys);
 		List<T> models = new ArrayList<T>(entityMap.size());
 		for(Object key:keys){
+			if(identities != null){
+				T identified = identities.get(clazz, key);
+				if(identified != null){
+					models.add(identified);
+					continue;
+				}
+			}
 			Entity entity = entityMap.get(GaeMappingUtils.makeKeyFromId(clazz, key));
 			T obj = null;
 			if(entity != null){
 				obj = GaeMappingUtils.mapEntity(entity, clazz);
 				if(obj != null){
+					track(obj);
 					// related fields (Many<T> management mainly)
 					if(!info.ownedFields.isEmpty()){
 						mapOwned(obj);
@@ -2192,7 +2268,7 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 					
 				}
 			}
-			models.add(obj);
+			models.add(identify(obj, null));
 		}
 		
 		return models;
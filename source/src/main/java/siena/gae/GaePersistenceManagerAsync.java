@@ -5,6 +5,7 @@ package siena.gae;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +18,7 @@ import siena.ClassInfo;
 import siena.PersistenceManager;
 import siena.SienaException;
 import siena.Util;
+import siena.core.UUIDGenerator;
 import siena.core.async.AbstractPersistenceManagerAsync;
 import siena.core.async.QueryAsync;
 import siena.core.async.SienaFuture;
@@ -24,6 +26,7 @@ import siena.core.async.SienaFutureContainer;
 import siena.core.async.SienaFutureMock;
 import siena.core.async.SienaFutureWrapper;
 import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
@@ -53,6 +56,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 	public void init(Properties p) {
 		ds = DatastoreServiceFactory.getAsyncDatastoreService();
 		props = p;
+		if(p != null) UUIDGenerator.configure(p);
 	}
 	
 	public void init(Properties p, PersistenceManager syncPm) {
@@ -156,6 +160,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 	public SienaFuture<Void> update(Object obj) {
 		Entity entity = new Entity(GaeMappingUtils.getKey(obj));
 		GaeMappingUtils.fillEntity(obj, entity);
+		keepUnloaded(Arrays.asList(entity), Arrays.asList(obj));
 		Future<Key> future = ds.put(entity);
 		
 		Future<Void> wrapped = new SienaFutureWrapper<Key, Void>(future) {
@@ -170,6 +175,21 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 	}
 
 
+	/**
+	 * keeps the stored values of the @Lazy fields which have not been loaded in the objects
+	 * (the datastore puts whole entities): waits for the stored entities
+	 */
+	private void keepUnloaded(List<Entity> entities, Iterable<?> objects) {
+		Map<Key, List<Field>> unloaded = GaeMappingUtils.getUnloadedFields(entities, objects);
+		if(!unloaded.isEmpty()){
+			try {
+				GaeMappingUtils.fillUnloaded(entities, unloaded, ds.get(unloaded.keySet()).get());
+			} catch (Exception e) {
+				throw new SienaException(e);
+			}
+		}
+	}
+
 	protected AsyncDatastoreService getDatastoreService() {
 		return ds;
 	}
@@ -193,65 +213,60 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 	}
 
 	protected <T> T mapJoins(QueryAsync<T> query, T model) {
+		// join queries
+		Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
+		
+		// creates the list of joined entity keys to extract 
+		for(Field field: fieldMap.keySet()){
+			Key key = GaeMappingUtils.getKey(Util.readField(model, field));
+			List<Key> keys = fieldMap.get(field);
+			if(!keys.contains(key))
+				keys.add(key);
+		}
+		
+		Map<Field, Map<Key, Entity>> entityMap = 
+			new HashMap<Field, Map<Key, Entity>>();
+
 		try {
-			// join queries
-			Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
-			
-			// creates the list of joined entity keys to extract 
+			// retrieves all joined entities per field
 			for(Field field: fieldMap.keySet()){
-				Key key = GaeMappingUtils.getKey(field.get(model));
-				List<Key> keys = fieldMap.get(field);
-				if(!keys.contains(key))
-					keys.add(key);
-			}
-			
-			Map<Field, Map<Key, Entity>> entityMap = 
-				new HashMap<Field, Map<Key, Entity>>();
-
-			try {
-				// retrieves all joined entities per field
-				for(Field field: fieldMap.keySet()){
-					Future<Map<Key, Entity>> entities = ds.get(fieldMap.get(field));
-					// gets the future here because we need it!
-					entityMap.put(field, entities.get());
-				}
-			}catch(Exception ex){
-				throw new SienaException(ex);
+				Future<Map<Key, Entity>> entities = ds.get(fieldMap.get(field));
+				// gets the future here because we need it!
+				entityMap.put(field, entities.get());
 			}
-			// associates linked models to their models
-			// linkedModels is just a map to contain entities already mapped
-			Map<Key, Object> linkedModels = new HashMap<Key, Object>();
-			Object linkedObj;
-			Entity entity; 
-			
-			for(Field field: fieldMap.keySet()){
-				Object objVal = field.get(model);
-				Key key = GaeMappingUtils.getKey(objVal);
-				linkedObj = linkedModels.get(key);
-				if(linkedObj==null){
-					entity = entityMap.get(field).get(key);
-					linkedObj = objVal;
-					GaeMappingUtils.fillModel(linkedObj, entity);
-					linkedModels.put(key, linkedObj);
-				}
-			
-				field.set(model, linkedObj);				
+		}catch(Exception ex){
+			throw new SienaException(ex);
+		}
+		// associates linked models to their models
+		// linkedModels is just a map to contain entities already mapped
+		Map<Key, Object> linkedModels = new HashMap<Key, Object>();
+		Object linkedObj;
+		Entity entity; 
+		
+		for(Field field: fieldMap.keySet()){
+			Object objVal = Util.readField(model, field);
+			Key key = GaeMappingUtils.getKey(objVal);
+			linkedObj = linkedModels.get(key);
+			if(linkedObj==null){
+				entity = entityMap.get(field).get(key);
+				linkedObj = objVal;
+				GaeMappingUtils.fillModel(linkedObj, entity);
+				linkedModels.put(key, linkedObj);
 			}
+		
+			Util.setField(model, field, linkedObj);				
+		}
 
-			return model;
-		} catch(IllegalAccessException ex){
-			throw new SienaException(ex);
-		}		
+		return model;
 	}
 	
 	protected <T> List<T> mapJoins(QueryAsync<T> query, List<T> models) {
-		try {
-			// join queries
-			Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
-			
-			// creates the list of joined entity keys to extract 
-			for (final T model : models) {
-				for(Field field: fieldMap.keySet()){
+		// join queries
+		Map<Field, ArrayList<Key>> fieldMap = GaeQueryUtils.buildJoinFieldKeysMap(query);
+		
+		// creates the list of joined entity keys to extract 
+		for (final T model : models) {
+			for(Field field: fieldMap.keySet()){
                     Object objVal = Util.readField(model, field);
                     // our object is not linked to another object...so it doesn't have any key
                     if(objVal == null) {
@@ -259,60 +274,57 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
                     }
 
                     Key key = GaeMappingUtils.getKey(objVal);
-					List<Key> keys = fieldMap.get(field);
-					if(!keys.contains(key))
-						keys.add(key);
-				}
+				List<Key> keys = fieldMap.get(field);
+				if(!keys.contains(key))
+					keys.add(key);
 			}
-			
-			Map<Field, Map<Key, Entity>> entityMap = 
-				new HashMap<Field, Map<Key, Entity>>();
+		}
+		
+		Map<Field, Map<Key, Entity>> entityMap = 
+			new HashMap<Field, Map<Key, Entity>>();
 
-			try {
-				// retrieves all joined entities per field
-				for(Field field: fieldMap.keySet()){
-					Future<Map<Key, Entity>> entities = ds.get(fieldMap.get(field));
-					// gets the future here because we need it so we wait for it
-					entityMap.put(field, entities.get());
-				}
-			}catch(Exception ex){
-				throw new SienaException(ex);
+		try {
+			// retrieves all joined entities per field
+			for(Field field: fieldMap.keySet()){
+				Future<Map<Key, Entity>> entities = ds.get(fieldMap.get(field));
+				// gets the future here because we need it so we wait for it
+				entityMap.put(field, entities.get());
 			}
-			// associates linked models to their models
-			// linkedModels is just a map to contain entities already mapped
-			Map<Key, Object> linkedModels = new HashMap<Key, Object>();
-			Object linkedObj;
-			Entity entity; 
-			
-			for (final T model : models) {
-				for(Field field: fieldMap.keySet()){
-					Object objVal = Util.readField(model, field);
+		}catch(Exception ex){
+			throw new SienaException(ex);
+		}
+		// associates linked models to their models
+		// linkedModels is just a map to contain entities already mapped
+		Map<Key, Object> linkedModels = new HashMap<Key, Object>();
+		Object linkedObj;
+		Entity entity; 
+		
+		for (final T model : models) {
+			for(Field field: fieldMap.keySet()){
+				Object objVal = Util.readField(model, field);
                     // our object is not linked to another object...so it doesn't have any key
                     if(objVal == null) {
                         continue;
                     }
-					Key key = GaeMappingUtils.getKey(objVal);
-					linkedObj = linkedModels.get(key);
-					if(linkedObj==null){
-						entity = entityMap.get(field).get(key);
-						linkedObj = objVal;
-						GaeMappingUtils.fillModel(linkedObj, entity);
-						linkedModels.put(key, linkedObj);
-					}
-				
-					field.set(model, linkedObj);				
+				Key key = GaeMappingUtils.getKey(objVal);
+				linkedObj = linkedModels.get(key);
+				if(linkedObj==null){
+					entity = entityMap.get(field).get(key);
+					linkedObj = objVal;
+					GaeMappingUtils.fillModel(linkedObj, entity);
+					linkedModels.put(key, linkedObj);
 				}
+			
+				Util.setField(model, field, linkedObj);				
 			}
-			return models;
-		} catch(IllegalAccessException ex){
-			throw new SienaException(ex);
-		}		
+		}
+		return models;
 	}
 	
 	protected <T> T map(QueryAsync<T> query, Entity entity) {
 		Class<?> clazz = query.getQueriedClass();
 		@SuppressWarnings("unchecked")
-		T result = (T)GaeMappingUtils.mapEntity(entity, clazz);
+		T result = (T)GaeMappingUtils.mapEntity(entity, clazz, QueryOptionFields.getFields(query));
 		
 		// join management
 		if(!query.getJoins().isEmpty() || ClassInfo.getClassInfo(clazz).joinFields.size() != 0)
@@ -324,7 +336,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 	protected <T> List<T> map(QueryAsync<T> query, Iterable<Entity> entities) {
 		Class<?> clazz = query.getQueriedClass();
 		@SuppressWarnings("unchecked")
-		List<T> result = (List<T>) GaeMappingUtils.mapEntities(entities, clazz);
+		List<T> result = (List<T>) GaeMappingUtils.mapEntities(entities, clazz, QueryOptionFields.getFields(query));
 		
 		// join management
 		if(!query.getJoins().isEmpty() || ClassInfo.getClassInfo(clazz).joinFields.size() != 0)
@@ -336,7 +348,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 	protected <T> List<T> map(QueryAsync<T> query, QueryResultList<Entity> entities) {
 		Class<?> clazz = query.getQueriedClass();
 		@SuppressWarnings("unchecked")
-		List<T> result = (List<T>) GaeMappingUtils.mapEntities(entities, clazz);
+		List<T> result = (List<T>) GaeMappingUtils.mapEntities(entities, clazz, QueryOptionFields.getFields(query));
 		
 		// join management
 		if(!query.getJoins().isEmpty() || ClassInfo.getClassInfo(clazz).joinFields.size() != 0)
@@ -1211,6 +1223,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 			entities.add(entity);
 		}
 				
+		keepUnloaded(entities, Arrays.asList(objects));
 		Future<List<Key>> future = ds.put(entities);
 		
 		Future<Integer> wrapped = new SienaFutureWrapper<List<Key>, Integer>(future) {
@@ -1236,6 +1249,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 			entities.add(entity);
 		}
 				
+		keepUnloaded(entities, objects);
 		Future<List<Key>> future = ds.put(entities);
 		
 		Future<Integer> wrapped = new SienaFutureWrapper<List<Key>, Integer>(future) {
@@ -1272,6 +1286,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 		}
 		
 		GaeMappingUtils.fillEntity(obj, entity);
+		keepUnloaded(Arrays.asList(entity), Arrays.asList(obj));
 		Future<Key> future = ds.put(entity);
 		
 		Future<Void> wrapped = new SienaFutureWrapper<Key, Void>(future) {
@@ -1310,6 +1325,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 			entities.add(entity);			
 		}
 		
+		keepUnloaded(entities, Arrays.asList(objects));
 		Future<List<Key>> future = ds.put(entities);
 		
 		Future<Integer> wrapped = new SienaFutureWrapper<List<Key>, Integer>(future) {
@@ -1355,6 +1371,7 @@ public class GaePersistenceManagerAsync extends AbstractPersistenceManagerAsync
 			entities.add(entity);			
 		}
 		
+		keepUnloaded(entities, objects);
 		Future<List<Key>> future = ds.put(entities);
 		
 		Future<Integer> wrapped = new SienaFutureWrapper<List<Key>, Integer>(future) {
@@ -83,6 +83,14 @@ public class GaeQueryUtils {
 				if (value != null && ClassInfo.isModel(value.getClass())) {
 					Key key = GaeMappingUtils.getKey(value);
 					q.addFilter(propertyName, op, key);
+				} else if (value != null && ClassInfo.isModel(f.getType()) 
+						&& Collection.class.isAssignableFrom(value.getClass())) {
+					// IN on a relation: the keys of the related entities
+					List<Key> keys = new ArrayList<Key>();
+					for(Object val: (Collection<?>)value) {
+						keys.add(GaeMappingUtils.getKey(val));
+					}
+					q.addFilter(propertyName, op, keys);
 				} else {
 					if (ClassInfo.isId(f)) {
 						Id id = f.getAnnotation(Id.class);
@@ -318,6 +318,11 @@ public class HBasePersistenceManager extends AbstractPersistenceManager {
 			return null;
 		}
 
+		public List<T> fetchFields(String... fields) {
+			// TODO Auto-generated method stub
+			return null;
+		}
+
 		@Override
 		public List<QueryFilter> getFilters() {
 			// TODO Auto-generated method stub
@@ -16,7 +16,9 @@
 package siena.jdbc;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import siena.SienaException;
 import siena.logging.SienaLogger;
@@ -29,6 +31,47 @@ public abstract class AbstractConnectionManager implements ConnectionManager {
 	 */
 	protected static SienaLogger logger = SienaLoggerFactory.getLogger(AbstractConnectionManager.class);
 	
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+	
+	/**
+	 * the max number of statements cached per connection (0 means no cache)
+	 */
+	protected int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+	protected AtomicLong statementCacheHits = new AtomicLong();
+	protected AtomicLong statementCacheMisses = new AtomicLong();
+	
+	/**
+	 * prepares a statement on the current connection.
+	 * The statement may come from a statement cache: it must be closed after use
+	 * as it is the way it is released for the next call.
+	 * Default implementation without statement cache
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return getConnection().prepareStatement(sql);
+	}
+	
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return getConnection().prepareStatement(sql, autoGeneratedKeys);
+	}
+	
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+	
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+	
+	public double getStatementCacheHitRate() {
+		long hits = statementCacheHits.get();
+		long total = hits + statementCacheMisses.get();
+		return total == 0 ? 0.0 : (double)hits / total;
+	}
+	
 	public void beginTransaction(int isolationLevel) {
 		try {
 			Connection c = getConnection();
@@ -23,6 +23,7 @@ import siena.Query;
 import siena.QueryFilterSearch;
 import siena.SienaException;
 import siena.Util;
+import siena.core.LazyTracker;
 import siena.jdbc.h2.FullText;
 
 public class H2PersistenceManager extends JdbcPersistenceManager {
@@ -50,6 +51,19 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 		// In H2, if we close the connection, the DB is closed even when using DB_CLOSE_DELAY=-1
 		// H2 Bug???
 		//super.closeConnection();
+		clearIdentityMap();
+	}
+	
+	/**
+	 * H2 keeps at most MAX_MEMORY_ROWS rows of a result in memory and buffers the others
+	 * in a temporary file so the fetch size is only a hint.
+	 */
+	@Override
+	protected PreparedStatement prepareStreamingStatement(Connection connection, String sql, int fetchSize) throws SQLException {
+		PreparedStatement statement = 
+			connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(fetchSize);
+		return statement;
 	}
 
 	/*
@@ -64,41 +78,48 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 	@Override
 	protected int insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, Map<JdbcClassInfo, List<Object>> objMap) throws SQLException, IllegalAccessException {
 		PreparedStatement ps = null;
-		ps = getConnection().prepareStatement(classInfo.insertSQL,
+		ps = prepareStatement(classInfo.insertSQL,
 				Statement.RETURN_GENERATED_KEYS);
 		
 		int res = 0;
-		for(Object obj: objMap.get(classInfo)){
-			for (Field field : classInfo.keys) {
-				Id id = field.getAnnotation(Id.class);
-				if (id.value() == Generator.UUID) {
-					field.set(obj, UUID.randomUUID().toString());
-				}
-			}
-			// TODO: implement primary key generation: SEQUENCE
-			addParameters(obj, classInfo.insertFields, ps, 1);
-			ps.executeUpdate();
+		try {
+			for(Object obj: objMap.get(classInfo)){
+				generateKeys(classInfo, obj);
+				addParameters(obj, classInfo.insertFields, ps, 1);
+				ps.executeUpdate();
 			
-			if(!classInfo.generatedKeys.isEmpty()){
-				ResultSet gk = ps.getGeneratedKeys();
-				int i;
-				while(gk.next()) {
-					i=1;
-					for (Field field : classInfo.generatedKeys) {
-						field.setAccessible(true);
-						JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i++));
+				if(!classInfo.generatedKeys.isEmpty()){
+					ResultSet gk = ps.getGeneratedKeys();
+					int i;
+					while(gk.next()) {
+						i=1;
+						for (Field field : classInfo.generatedKeys) {
+							JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i++));
+						}
 					}
 				}
-			}
 			
-			res++;
+				res++;
+			}
+		} finally {
+			JdbcDBUtils.closeStatement(ps);
 		}
 		
 		return res;
 	}
 
+	@Override
+	protected String getNextSequenceValueSQL(JdbcSequence sequence) {
+		return "SELECT NEXT VALUE FOR " + sequence.name;
+	}
+
 	@Override
 	public void save(Object obj) {		
+		// a fetched object whose @Lazy fields have not been loaded is updated without them
+		if(LazyTracker.hasUnloadedFields(obj)){
+			update(obj);
+			return;
+		}
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
 
 		List<String> keyNames = new ArrayList<String>();
@@ -121,7 +142,7 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 				String[] is = new String[allColumns.size()];
 				Arrays.fill(is, "?");
 				
-				ps = getConnection().prepareStatement(
+				ps = prepareStatement(
 						"MERGE INTO "+ classInfo.tableName + " (" + Util.join(allColumns, ",") + ") " 
 						+ "VALUES(" + Util.join(Arrays.asList(is), ",") + ")"  
 				);
@@ -148,6 +169,12 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 
 	@Override
 	public int save(Iterable<?> objects) {
+		// the fetched objects whose @Lazy fields have not been loaded are updated without them
+		List<Object> others = new ArrayList<Object>();
+		List<Object> partial = LazyTracker.partition(objects, others);
+		if(!partial.isEmpty()){
+			return update(partial) + save(others);
+		}
 		Map<JdbcClassInfo, List<Object>> generatedObjMap = new HashMap<JdbcClassInfo, List<Object>>();
 		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
 		PreparedStatement ps = null;
@@ -199,20 +226,25 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 				String[] is = new String[allColumns.size()];
 				Arrays.fill(is, "?");
 			
-				ps = getConnection().prepareStatement(
+				ps = prepareStatement(
 						"MERGE INTO "+ classInfo.tableName + " (" + Util.join(allColumns, ",") + ") " 
 						+ "VALUES(" + Util.join(Arrays.asList(is), ",") + ")"  
 				);
 				
+				// executes the batch by chunks of batch.size objects
+				int size = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+				int n = 0;
 				for(Object obj: objMap.get(classInfo)){				
 					int i = 1;
 					i = addParameters(obj, classInfo.allFields, ps, i);
 					ps.addBatch();
+					if(++n % size == 0){
+						total+=ps.executeBatch().length;
+					}
+				}
+				if(n % size != 0){
+					total+=ps.executeBatch().length;
 				}
-				
-				int[] res = ps.executeBatch();
-				
-				total+=res.length;
 			}
 			
 			return total;			
@@ -83,8 +83,9 @@ public class JdbcDBUtils {
 		List<String> cols = new ArrayList<String>();
 
 		List<Field> joinFields = JdbcMappingUtils.getJoinFields(query, info);
+		List<Field> fields = JdbcMappingUtils.getSelectedFields(query, info);
 		if(joinFields==null){
-			JdbcClassInfo.calculateColumnsAliases(info.allFields, cols, info.tableName, "");
+			JdbcClassInfo.calculateColumnsAliases(fields, cols, info.tableName, "");
 			
 			StringBuilder sql = 
 				new StringBuilder("SELECT " + Util.join(cols, ", ") + " FROM " + info.tableName);
@@ -93,7 +94,7 @@ public class JdbcDBUtils {
 		}
 
 		// builds fields from primary class
-		JdbcClassInfo.calculateColumnsAliases(info.allFields, cols, info.tableName, "");
+		JdbcClassInfo.calculateColumnsAliases(fields, cols, info.tableName, "");
 		StringBuilder sql = new StringBuilder(" FROM " + info.tableName);
 		int i=0;
 		String alias;
@@ -108,7 +109,7 @@ public class JdbcDBUtils {
 			// DO NOT remove the field itself from columns because it allows to find NULL fields
 			// cols.remove( info.tableName+"."+field.getName());
 			// adds all field columns using Alias
-			JdbcClassInfo.calculateColumnsAliases(fieldInfo.allFields, cols, alias, "");
+			JdbcClassInfo.calculateColumnsAliases(fieldInfo.info.eagerFields, cols, alias, "");
 			String[] columns = ClassInfo.getColumnNames(field, info.tableName);		
 			if (columns.length > 1 || fieldInfo.keys.size() > 1){
 				throw new SienaException("Join not possible: join field "+field.getName()+" has multiple keys");
@@ -163,16 +164,33 @@ public class JdbcDBUtils {
 		}
 	}
 
+	/**
+	 * appends the orders of a keyset paginated query (query orders + keys)
+	 * reversed when seeking backward
+	 */
+	public static <T> void appendSqlKeysetOrder(Query<T> query, QueryOptionJdbcKeyset keyset, StringBuilder sql) {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(query.getQueriedClass());
+		boolean reverse = keyset.seek == QueryOptionJdbcKeyset.Seek.BEFORE;
+
+		sql.append(" ORDER BY ");
+		boolean first = true;
+		for (QueryOrder order : keyset.orders) {
+			if(!first) {
+				sql.append(", ");
+			}
+			first = false;
+			sql.append(ClassInfo.getColumnNames(order.field, info.tableName)[0]
+					+ (order.ascending != reverse ? "" : " DESC"));
+		}
+	}
+
 	public static <T> void appendSqlLimitOffset(Query<T> query, StringBuilder sql, List<Object> parameters) {
 		//QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
 		//QueryOptionOffset offset = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
-		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
 
 		sql.append(" LIMIT ?");
-		parameters.add(jdbcCtx.realPageSize);
-		
 		sql.append(" OFFSET ?");
-		parameters.add(jdbcCtx.realOffset);
+		appendSqlLimitOffsetParameters(query, parameters);
 		
 		/*if(pag.isActive()) {
 			sql.append(" LIMIT ?");
@@ -192,6 +210,26 @@ public class JdbcDBUtils {
 		}*/
 	}
 	
+	public static <T> void appendSqlLimitOffset(Query<T> query, StringBuilder sql, int offset, List<Object> parameters) {
+		sql.append(" LIMIT ?");
+		sql.append(" OFFSET ?");
+		appendSqlLimitOffsetParameters(query, offset, parameters);
+	}
+	
+	public static <T> void appendSqlLimitOffsetParameters(Query<T> query, List<Object> parameters) {
+		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
+		appendSqlLimitOffsetParameters(query, jdbcCtx.realOffset, parameters);
+	}
+	
+	/**
+	 * adds the page size and the given offset (the offset from the seek position in keyset pagination)
+	 */
+	public static <T> void appendSqlLimitOffsetParameters(Query<T> query, int offset, List<Object> parameters) {
+		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
+		parameters.add(jdbcCtx.realPageSize);
+		parameters.add(offset);
+	}
+	
 	public static int toSqlType(Object obj, Field field, String DB) {
 		if(obj == null) return -1;
 		Class<?> type = field.getType();
@@ -12,14 +12,14 @@ import java.util.ArrayList;
 import java.util.List;
 
 import siena.ClassInfo;
+import siena.FieldInfo;
 import siena.Json;
 import siena.Query;
 import siena.QueryJoin;
 import siena.SienaException;
 import siena.Util;
 import siena.core.DecimalPrecision;
-import siena.core.Polymorphic;
-import siena.embed.Embedded;
+import siena.core.options.QueryOptionFields;
 import siena.embed.JsonSerializer;
 import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
 
@@ -43,6 +43,24 @@ public class JdbcMappingUtils {
 		return joinFields;
 	}
 	
+	/**
+	 * @return the fields selected by the query: all the fields or the fields of its projection
+	 * (QueryOptionFields) plus its join fields
+	 */
+	public static <T> List<Field> getSelectedFields(Query<T> query, JdbcClassInfo info) {
+		List<Field> fields = QueryOptionFields.getFields(query);
+		if(fields == null) {
+			return info.allFields;
+		}
+		List<Field> joinFields = getJoinFields(query, info);
+		if(joinFields != null){
+			for(Field f: joinFields){
+				if(!fields.contains(f)) fields.add(f);
+			}
+		}
+		return fields;
+	}
+	
 	public static <T> List<Field> getJoinFields(Query<T> query, JdbcClassInfo info) {
 		List<Field> joinFields = null;
 		// adds all join fields brought by call to .join() functions
@@ -61,83 +79,39 @@ public class JdbcMappingUtils {
 		return joinFields;
 	}
 	
+	// the mapping is done by a JdbcRowMapper plan compiled once per class/joins/select shape.
+	// When mapping several rows of the same ResultSet, retrieve the plan once using 
+	// JdbcRowMapper.getMapper instead of calling mapObject for each row.
 	public static <T> T mapObject(Class<T> clazz, ResultSet rs, String tableName, List<Field >joinFields) {
-		try {
-			T obj = Util.createObjectInstance(clazz);
-			mapObject(obj, rs, tableName, joinFields);
-			return obj;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return JdbcRowMapper.getMapper(clazz, rs, tableName, joinFields, false).map(rs);
 	}
 
 	public static void mapObject(Object obj, ResultSet rs, String tableName, List<Field >joinFields) {
-		Class<?> clazz = obj.getClass();
-		for (Field field : JdbcClassInfo.getClassInfo(clazz).allFields) {
-			mapField(obj, field, rs, tableName, joinFields);
-		}
+		JdbcRowMapper.getMapper(obj.getClass(), rs, tableName, joinFields, false).map(obj, rs);
 	}
 
 	public static <T> List<T> mapList(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, int pageSize) {
-		try {
-			List<T> objects = new ArrayList<T>();
-			if(pageSize==0){
-				while(rs.next()) {
-					objects.add(mapObject(clazz, rs, tableName, joinFields));
-				}
-			}else {
-				for(int i=0; i<pageSize && rs.next();i++){
-					objects.add(mapObject(clazz, rs, tableName, joinFields));
-				}
-			}
-			return objects;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return JdbcRowMapper.getMapper(clazz, rs, tableName, joinFields, false).mapList(rs, pageSize);
+	}
+
+	/**
+	 * maps only the given fields (projection)
+	 */
+	public static <T> List<T> mapList(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, List<Field> fields, int pageSize) {
+		return JdbcRowMapper.getMapper(clazz, rs, tableName, joinFields, fields).mapList(rs, pageSize);
 	}
 	
 	
 	public static <T> T mapObjectKeys(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields) {
-		try {
-			T obj = Util.createObjectInstance(clazz);
-			mapObjectKeys(obj, rs, tableName, joinFields);
-			return obj;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return JdbcRowMapper.getMapper(clazz, rs, tableName, joinFields, true).map(rs);
 	}
 
 	public static void mapObjectKeys(Object obj, ResultSet rs, String tableName, List<Field> joinFields) {
-		Class<?> clazz = obj.getClass();
-		for (Field field : JdbcClassInfo.getClassInfo(clazz).keys) {
-			mapField(obj, field, rs, tableName, joinFields);
-		}
+		JdbcRowMapper.getMapper(obj.getClass(), rs, tableName, joinFields, true).map(obj, rs);
 	}
 	
 	public static <T> List<T> mapListKeys(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, int pageSize) {
-		try {
-			List<T> objects = new ArrayList<T>();
-			if(pageSize==0){
-				while(rs.next()) {
-				objects.add(mapObjectKeys(clazz, rs, tableName, joinFields));
-				}
-			}else {
-				for(int i=0; i<pageSize && rs.next();i++){
-					objects.add(mapObjectKeys(clazz, rs, tableName, joinFields));
-				}
-			}
-			return objects;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return JdbcRowMapper.getMapper(clazz, rs, tableName, joinFields, true).mapList(rs, pageSize);
 	}
 
 	public static void mapField(Object obj, Field field, ResultSet rs, String tableName, List<Field> joinFields) {
@@ -206,9 +180,10 @@ public class JdbcMappingUtils {
 	}
 	
 	public static Object fromObject(Field field, Object value) {
-		Class<?> type = field.getType();
+		FieldInfo info = ClassInfo.getFieldInfo(field);
+		Class<?> type = info.type;
 		// in H2 database, mediumtext is mapped to CLOB
-		if(Json.class.isAssignableFrom(type) && value != null && java.sql.Clob.class.isAssignableFrom(value.getClass())) {
+		if(info.json && value != null && java.sql.Clob.class.isAssignableFrom(value.getClass())) {
 			java.sql.Clob clob = (java.sql.Clob)value;
 			try {
 				return Json.load(new BufferedReader(clob.getCharacterStream()));
@@ -217,7 +192,7 @@ public class JdbcMappingUtils {
 			}
 		} 
 
-		if(field.getAnnotation(Embedded.class) != null && value != null && java.sql.Clob.class.isAssignableFrom(value.getClass())) {
+		if(info.embedded && value != null && java.sql.Clob.class.isAssignableFrom(value.getClass())) {
 			java.sql.Clob clob = (java.sql.Clob)value;
 			try {
 				Json data = Json.load(new BufferedReader(clob.getCharacterStream()));
@@ -239,7 +214,7 @@ public class JdbcMappingUtils {
         }
 
 		
-		if(field.isAnnotationPresent(Polymorphic.class)){
+		if(info.polymorphic){
 			try {
 				if(java.sql.Blob.class.isAssignableFrom(value.getClass())){
 					java.sql.Blob blob = (java.sql.Blob)value;
@@ -270,7 +245,7 @@ public class JdbcMappingUtils {
 			}
 		}
 		if(BigDecimal.class == type){
-			DecimalPrecision ann = field.getAnnotation(DecimalPrecision.class);
+			DecimalPrecision ann = info.decimalPrecision;
 			if(ann==null){
 				return (BigDecimal)value;
 			}else {
@@ -33,11 +33,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import siena.AbstractPersistenceManager;
 import siena.ClassInfo;
@@ -48,12 +54,19 @@ import siena.Query;
 import siena.QueryFilter;
 import siena.QueryFilterSearch;
 import siena.QueryFilterSimple;
+import siena.QueryOrder;
 import siena.SienaException;
 import siena.SienaRestrictedApiException;
 import siena.Util;
 import siena.core.DecimalPrecision;
+import siena.core.DirtyTracker;
+import siena.core.IdentityMap;
+import siena.core.LazyTracker;
 import siena.core.Polymorphic;
+import siena.core.Sequence;
+import siena.core.UUIDGenerator;
 import siena.core.async.PersistenceManagerAsync;
+import siena.core.async.SienaFuture;
 import siena.core.options.QueryOption;
 import siena.core.options.QueryOptionFetchType;
 import siena.core.options.QueryOptionOffset;
@@ -65,7 +78,28 @@ import siena.embed.JsonSerializer;
 public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	private static final String DB = "JDBC";
 	
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	// the lowest limit of the supported drivers (PostgreSQL)
+	public static final int DEFAULT_MAX_PARAMETERS = 32767;
+	public static final int DEFAULT_KEYS_CHUNK_SIZE = 1024;
+	
 	private ConnectionManager connectionManager;
+	
+	// the max number of objects inserted or saved by a batch or a multi-row INSERT (<=0: no limit)
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+	// rewrites the batch inserts into INSERT ... VALUES(...), (...), ...
+	protected boolean multiRowInsert = false;
+	// the max number of keys of the IN filter of get(Iterable)/getByKeys (a power of two)
+	protected int keysChunkSize = DEFAULT_KEYS_CHUNK_SIZE;
+	
+	protected JdbcSqlPlanCache sqlPlanCache = new JdbcSqlPlanCache();
+	
+	protected ConcurrentHashMap<String, JdbcSequence> sequences = new ConcurrentHashMap<String, JdbcSequence>();
+	
+	private Properties props;
+	private JdbcPersistenceManagerAsync asyncPm;
+	// reserves the blocks of the table sequences for the threads in a transaction
+	private ExecutorService sequenceExecutor;
 
 	public JdbcPersistenceManager() {
 	}
@@ -75,6 +109,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public void init(Properties p) {
+		props = p;
 		if(p != null) {
 			String cm = p.getProperty("transactions");
 			if(cm != null) {
@@ -86,6 +121,24 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			} else {
 				connectionManager = new ThreadedConnectionManager();
 			}
+			
+			String planCacheSize = p.getProperty("sqlplan.cache.size");
+			if(planCacheSize != null) {
+				sqlPlanCache = new JdbcSqlPlanCache(Integer.parseInt(planCacheSize));
+			}
+			
+			String batch = p.getProperty("batch.size");
+			if(batch != null) {
+				batchSize = Integer.parseInt(batch);
+			}
+			multiRowInsert = Boolean.parseBoolean(p.getProperty("batch.multirow"));
+			String keysChunk = p.getProperty("keys.chunk.size");
+			if(keysChunk != null) {
+				setKeysChunkSize(Integer.parseInt(keysChunk));
+			}
+			UUIDGenerator.configure(p);
+			dirtyTracker = DirtyTracker.configure(p);
+			setIdentityMap(IdentityMap.isEnabled(p));
 		} 
 		
 		if(connectionManager == null){
@@ -95,16 +148,46 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		connectionManager.init(p);
 	}
 
+	/**
+	 * the connection of the thread (put back in autocommit mode if its streamed iteration
+	 * has been closed by another thread, see <code>JdbcStreamCursor</code>)
+	 */
 	protected Connection getConnection() throws SQLException {
+		JdbcStreamCursor.restoreAutoCommit();
 		return connectionManager.getConnection();
 	}
+	
+	/**
+	 * prepares the statement with the connection manager if it's an <code>AbstractConnectionManager</code>
+	 * (which may cache the statements) else on the connection of the thread
+	 */
+	protected PreparedStatement prepareStatement(String sql) throws SQLException {
+		JdbcStreamCursor.restoreAutoCommit();
+		if(connectionManager instanceof AbstractConnectionManager) {
+			return ((AbstractConnectionManager)connectionManager).prepareStatement(sql);
+		}
+		return connectionManager.getConnection().prepareStatement(sql);
+	}
+	
+	protected PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		JdbcStreamCursor.restoreAutoCommit();
+		if(connectionManager instanceof AbstractConnectionManager) {
+			return ((AbstractConnectionManager)connectionManager).prepareStatement(sql, autoGeneratedKeys);
+		}
+		return connectionManager.getConnection().prepareStatement(sql, autoGeneratedKeys);
+	}
+	
+	public ConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
 
 	public void delete(Object obj) {
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
+		removeIdentity(obj);
 
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.deleteSQL);
+			ps = prepareStatement(classInfo.deleteSQL);
 			addParameters(obj, classInfo.keys, ps, 1);
 			int n = ps.executeUpdate();
 			if(n == 0) {
@@ -122,15 +205,24 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	public void get(Object obj) {
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
+		IdentityMap identities = getIdentityMap();
+		if(identities != null) {
+			Object identified = identities.get(obj.getClass(), IdentityMap.getKey(obj));
+			if(identified != null) {
+				if(identified != obj) Util.copyObject(identified, obj);
+				return;
+			}
+		}
 
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.selectSQL);
+			ps = prepareStatement(classInfo.selectSQL);
 			addParameters(obj, classInfo.keys, ps, 1);
 			rs = ps.executeQuery();
 			if(rs.next()) {
 				JdbcMappingUtils.mapObject(obj, rs, null, null);
+				identify(track(obj), null);
 			} else {
 				throw new SienaException("No such object");
 			}
@@ -149,18 +241,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 		PreparedStatement ps = null;
 		try {
-			for (Field field : classInfo.keys) {
-				Id id = field.getAnnotation(Id.class);
-				if (id.value() == Generator.UUID) {
-					field.set(obj, UUID.randomUUID().toString());
-				}
-			}
-			// TODO: implement primary key generation: SEQUENCE
+			generateKeys(classInfo, obj);
 
 			if (!classInfo.generatedKeys.isEmpty()) {
 				insertWithAutoIncrementKey(classInfo, obj);
 			} else {
-				ps = getConnection().prepareStatement(classInfo.insertSQL);
+				ps = prepareStatement(classInfo.insertSQL);
 				addParameters(obj, classInfo.insertFields, ps, 1);
 				ps.executeUpdate();
 			}
@@ -175,14 +261,18 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	public void update(Object obj) {
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
+		List<Field> fields = getUpdatedFields(classInfo, obj);
+		// nothing modified since the fetch
+		if(fields.isEmpty()) return;
 
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.updateSQL);
+			ps = prepareStatement(classInfo.updateSQL(fields));
 			int i = 1;
-			i = addParameters(obj, classInfo.updateFields, ps, i);
+			i = addParameters(obj, fields, ps, i);
 			addParameters(obj, classInfo.keys, ps, i);
 			ps.executeUpdate();
+			track(obj);
 		} catch(SQLException e) {
 			throw new SienaException(e);
 		} finally {
@@ -191,6 +281,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public void save(Object obj) {
+		// a fetched object whose @Lazy fields have not been loaded is updated without them
+		if(LazyTracker.hasUnloadedFields(obj)){
+			update(obj);
+			return;
+		}
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
 
 		PreparedStatement ps = null;
@@ -199,21 +294,15 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			Object idVal = Util.readField(obj, idField);
 
 			if(idVal == null) {
-				for (Field field : classInfo.keys) {
-					Id id = field.getAnnotation(Id.class);
-					if (id.value() == Generator.UUID) {
-						field.set(obj, UUID.randomUUID().toString());
-					}
-				}
+				generateKeys(classInfo, obj);
 			}
-			// TODO: implement primary key generation: SEQUENCE
 			
 			if (idVal == null && !classInfo.generatedKeys.isEmpty()) {
-				ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL,
+				ps = prepareStatement(classInfo.insertOrUpdateSQL,
 						Statement.RETURN_GENERATED_KEYS);
 				//insertWithAutoIncrementKey(classInfo, obj);
 			} else {
-				ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL);
+				ps = prepareStatement(classInfo.insertOrUpdateSQL);
 			}
 			int i = 1;
 			i = addParameters(obj, classInfo.allFields, ps, i);
@@ -226,7 +315,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 					throw new SienaException("No such generated keys");
 				i = 1;
 				for (Field field : classInfo.generatedKeys) {
-					field.setAccessible(true);
 					JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i));
 					// field.set(obj, gk.getObject(i));
 					i++;
@@ -242,36 +330,106 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 	
 	public void beginTransaction(int isolationLevel) {
+		JdbcStreamCursor.restoreAutoCommit();
 		connectionManager.beginTransaction(isolationLevel);
 	}
 
 	public void beginTransaction() {
+		JdbcStreamCursor.restoreAutoCommit();
 		connectionManager.beginTransaction();
 	}
 	
 	public void commitTransaction() {
 		connectionManager.commitTransaction();
+		clearIdentityMap();
 	}
 
 	public void rollbackTransaction() {
 		connectionManager.rollbackTransaction();
+		clearIdentityMap();
 	}
 
 	public void closeConnection() {
+		JdbcStreamCursor.restoreAutoCommit();
 		connectionManager.closeConnection();
+		clearIdentityMap();
 	}
 
 	private PreparedStatement createStatement(String sql,
 			List<Object> parameters) throws SQLException {
-		PreparedStatement statement = getConnection().prepareStatement(sql);
+		PreparedStatement statement = prepareStatement(sql);
+		setParameters(statement, parameters);
+		return statement;
+	}
+	
+	private void setParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
 		if(parameters != null) {
 			int i = 1;
 			for (Object parameter : parameters) {
 				setParameter(statement, i++, parameter);
 			}
 		}
+	}
+	
+	/**
+	 * prepares a statement streaming the rows of a query from the DB instead of buffering them all.
+	 * MySQL (and Drizzle) streams the rows one by one with a forward only/read only statement and
+	 * a fetch size of Integer.MIN_VALUE so the fetch size is ignored.
+	 * While a stream is opened, no other statement can be executed on the connection.
+	 * The statement is not cached as its fetch size is specific.
+	 */
+	protected PreparedStatement prepareStreamingStatement(Connection connection, String sql, int fetchSize) throws SQLException {
+		PreparedStatement statement = 
+			connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(Integer.MIN_VALUE);
 		return statement;
 	}
+	
+	/**
+	 * @return true if the DB only uses a cursor within a transaction (autocommit disabled)
+	 */
+	protected boolean isStreamingTransactional() {
+		return false;
+	}
+	
+	/**
+	 * @return true if the DB sorts the NULL values after the other ones in ascending order
+	 * and before them in descending order (false: the opposite as H2 and MySQL)
+	 */
+	protected boolean isSortingNullsHigh() {
+		return false;
+	}
+	
+	private <T> Iterable<T> doStream(Query<T> query, String sql, List<Object> parameters, int fetchSize) {
+		// closes the cursors of the streams abandoned before their end
+		JdbcStreamCursor.closeAbandoned();
+		
+		Connection connection = null;
+		PreparedStatement statement = null;
+		boolean restoreAutoCommit = false;
+		try {
+			connection = getConnection();
+			if(isStreamingTransactional() && connection.getAutoCommit()){
+				connection.setAutoCommit(false);
+				restoreAutoCommit = true;
+			}
+			statement = prepareStreamingStatement(connection, sql, fetchSize);
+			setParameters(statement, parameters);
+			ResultSet rs = statement.executeQuery();
+			return new JdbcSienaIterable<T>(this, connection, statement, rs, query, restoreAutoCommit);
+		} catch(SQLException e) {
+			try {
+				if(statement != null) statement.close();
+				if(restoreAutoCommit) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+			} catch(SQLException ex) {
+				// the original error is more useful
+			}
+			throw new SienaException(e);
+		}
+	}
 
 	
 	/**
@@ -286,7 +444,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		ResultSet gk = null;
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.insertSQL,
+			ps = prepareStatement(classInfo.insertSQL,
 					Statement.RETURN_GENERATED_KEYS);
 			addParameters(obj, classInfo.insertFields, ps, 1);
 			ps.executeUpdate();
@@ -295,7 +453,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				throw new SienaException("No such generated keys");
 			int i = 1;
 			for (Field field : classInfo.generatedKeys) {
-				field.setAccessible(true);
 				JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i));
 				// field.set(obj, gk.getObject(i));
 				i++;
@@ -315,39 +472,353 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	 * @throws IllegalAccessException
 	 */
 	protected int insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, Map<JdbcClassInfo, List<Object>> objMap) throws SQLException, IllegalAccessException {
-		PreparedStatement ps = null;
-		ps = getConnection().prepareStatement(classInfo.insertSQL,
-				Statement.RETURN_GENERATED_KEYS);
+		return insertBatch(classInfo, objMap.get(classInfo));
+	}
+
+	/**
+	 * inserts the objects of a class by chunks of at most <code>getBatchSize</code> objects
+	 * 
+	 * @param classInfo
+	 * @param objects
+	 * @return the number of inserted objects
+	 * @throws SQLException
+	 * @throws IllegalAccessException
+	 */
+	protected int insertBatch(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		for(Object obj: objects){
+			generateKeys(classInfo, obj);
+		}
 		
-		for(Object obj: objMap.get(classInfo)){
-			for (Field field : classInfo.keys) {
-				Id id = field.getAnnotation(Id.class);
-				if (id.value() == Generator.UUID) {
-					field.set(obj, UUID.randomUUID().toString());
+		int total = 0;
+		int size = getBatchSize(classInfo);
+		for(int from = 0; from < objects.size(); from += size){
+			total += insertChunk(classInfo, objects.subList(from, Math.min(from + size, objects.size())));
+		}
+		return total;
+	}
+
+	/**
+	 * sets the keys of an object to insert which are generated by siena (not by the DB):
+	 * UUID and SEQUENCE
+	 */
+	protected void generateKeys(JdbcClassInfo classInfo, Object obj) {
+		for (Field field : classInfo.keys) {
+			Id id = field.getAnnotation(Id.class);
+			if (id.value() == Generator.UUID) {
+				Util.setField(obj, field, UUIDGenerator.nextString());
+			}
+			else if (id.value() == Generator.SEQUENCE) {
+				Util.setFromObject(obj, field, getSequence(classInfo, field).next());
+			}
+		}
+	}
+
+	/**
+	 * @return the sequence of a SEQUENCE key: its name and allocation size are set by 
+	 * <code>@Sequence</code> (default: tablename_seq and 50)
+	 */
+	public JdbcSequence getSequence(JdbcClassInfo classInfo, Field field) {
+		Sequence ann = field.getAnnotation(Sequence.class);
+		String name = (ann == null || "".equals(ann.value())) ? classInfo.tableName + "_seq" : ann.value();
+		JdbcSequence sequence = sequences.get(name);
+		if(sequence == null) {
+			sequence = new JdbcSequence(this, name, 
+					ann == null ? JdbcSequence.DEFAULT_ALLOCATION_SIZE : ann.allocationSize());
+			JdbcSequence existing = sequences.putIfAbsent(name, sequence);
+			if(existing != null) {
+				sequence = existing;
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * reserves the next block of ids of a sequence in the DB.
+	 * With a native sequence (<code>getNextSequenceValueSQL</code>), the sequence increments
+	 * by the allocation size and is created when it's used for the first time, out of the
+	 * transaction of the thread (see <code>outsideTransaction</code>): a DDL statement commits
+	 * the transaction with some DBs (H2) and is rolled back with it with other ones (PostgreSQL).
+	 * Else the next value of the sequence is kept in the table <code>siena_sequences</code>
+	 * (created by the <code>DdlGenerator</code>) which is updated in its own transaction,
+	 * see <code>reserveTableSequenceBlock</code>.
+	 * 
+	 * @return the first id of the block
+	 */
+	public long reserveSequenceBlock(JdbcSequence sequence) {
+		String sql = getNextSequenceValueSQL(sequence);
+		if(sql == null) {
+			return reserveTableSequenceBlock(sequence);
+		}
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			if(!sequence.created) {
+				createSequence(sequence);
+			}
+			ps = prepareStatement(sql);
+			rs = ps.executeQuery();
+			rs.next();
+			return rs.getLong(1);
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		} finally {
+			// the connection is closed by the insertion
+			JdbcDBUtils.closeResultSet(rs);
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	/**
+	 * creates the native sequence, it's marked as created once the creation is committed
+	 */
+	private void createSequence(final JdbcSequence sequence) {
+		outsideTransaction(new Callable<Void>() {
+			public Void call() throws SQLException {
+				PreparedStatement ps = prepareStatement(getCreateSequenceSQL(sequence));
+				try {
+					ps.executeUpdate();
+				} finally {
+					JdbcDBUtils.closeStatement(ps);
 				}
+				return null;
 			}
-			// TODO: implement primary key generation: SEQUENCE
-			addParameters(obj, classInfo.insertFields, ps, 1);
-			ps.addBatch();
+		});
+		sequence.created = true;
+	}
+
+	/**
+	 * reserves the block in the table of the sequences in a transaction of its own:
+	 * a rollback must not give back the block which is kept by the <code>JdbcSequence</code>
+	 * and the row of the sequence must not stay locked until the end of the transaction.
+	 */
+	private long reserveTableSequenceBlock(final JdbcSequence sequence) {
+		return outsideTransaction(new Callable<Long>() {
+			public Long call() throws SQLException {
+				return reserveTableSequenceBlockNow(sequence);
+			}
+		});
+	}
+
+	/**
+	 * runs the work out of the transaction of the thread.
+	 * Out of transactions, it's run on the connection of the thread.
+	 * In a transaction, it's run on the connection of another thread.
+	 */
+	private <T> T outsideTransaction(final Callable<T> work) {
+		try {
+			if(getConnection().getAutoCommit()) {
+				return work.call();
+			}
+		} catch(SienaException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new SienaException(e);
 		}
-		
-		// TODO what to do with results of executeBatch ??????
-		int[] res = ps.executeBatch();
-		
-		if(!classInfo.generatedKeys.isEmpty()){
-			ResultSet gk = ps.getGeneratedKeys();
-			int i;
-			int idx = 0;
-			while(gk.next()) {
-				i=1;
-				for (Field field : classInfo.generatedKeys) {
-					field.setAccessible(true);
-					JdbcMappingUtils.setFromObject(objMap.get(classInfo).get(idx++), field, gk.getObject(i++));
+		Future<T> future = getSequenceExecutor().submit(new Callable<T>() {
+			public T call() throws Exception {
+				try {
+					return work.call();
+				} finally {
+					closeConnection();
 				}
 			}
-		}	
-		
-		return res.length;
+		});
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SienaException(e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof SienaException) {
+				throw (SienaException)e.getCause();
+			}
+			throw new SienaException(e.getCause());
+		}
+	}
+
+	private synchronized ExecutorService getSequenceExecutor() {
+		if(sequenceExecutor == null) {
+			sequenceExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "siena-jdbc-sequences");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return sequenceExecutor;
+	}
+
+	/**
+	 * reserves the block on the connection of the thread which must not be in a transaction
+	 */
+	private long reserveTableSequenceBlockNow(JdbcSequence sequence) throws SQLException {
+		Connection c = getConnection();
+		c.setAutoCommit(false);
+		try {
+			for(int attempt = 0; ; attempt++) {
+				try {
+					long first = updateTableSequence(sequence);
+					c.commit();
+					return first;
+				} catch(SQLException e) {
+					c.rollback();
+					// the row of the sequence has been inserted by another reservation since the UPDATE:
+					// integrity constraint violation (SQLSTATE class 23), the UPDATE is tried again
+					if(attempt > 0 || e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+						throw e;
+					}
+				}
+			}
+		} finally {
+			c.setAutoCommit(true);
+		}
+	}
+
+	private long updateTableSequence(JdbcSequence sequence) throws SQLException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = prepareStatement("UPDATE " + JdbcSequence.TABLE + " SET next_val = next_val + ? WHERE name = ?");
+			ps.setLong(1, sequence.allocationSize);
+			ps.setString(2, sequence.name);
+			if(ps.executeUpdate() == 0) {
+				JdbcDBUtils.closeStatement(ps);
+				ps = prepareStatement("INSERT INTO " + JdbcSequence.TABLE + " (name, next_val) VALUES(?, ?)");
+				ps.setString(1, sequence.name);
+				ps.setLong(2, 1 + sequence.allocationSize);
+				ps.executeUpdate();
+				return 1;
+			}
+			JdbcDBUtils.closeStatement(ps);
+			ps = prepareStatement("SELECT next_val FROM " + JdbcSequence.TABLE + " WHERE name = ?");
+			ps.setString(1, sequence.name);
+			rs = ps.executeQuery();
+			rs.next();
+			return rs.getLong(1) - sequence.allocationSize;
+		} finally {
+			JdbcDBUtils.closeResultSet(rs);
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	/**
+	 * @return the SQL returning the next value of a native sequence
+	 * or null if the sequences are kept in a table (DB without sequences: MySQL)
+	 */
+	protected String getNextSequenceValueSQL(JdbcSequence sequence) {
+		return null;
+	}
+
+	protected String getCreateSequenceSQL(JdbcSequence sequence) {
+		return "CREATE SEQUENCE IF NOT EXISTS " + sequence.name + " START WITH 1 INCREMENT BY " + sequence.allocationSize;
+	}
+
+	/**
+	 * inserts a chunk of objects with a multi-row INSERT if enabled or else with a batch
+	 * and sets the generated keys of the objects in the order of the chunk
+	 * 
+	 * @param classInfo
+	 * @param chunk
+	 * @return the number of inserted objects
+	 * @throws SQLException
+	 * @throws IllegalAccessException
+	 */
+	protected int insertChunk(JdbcClassInfo classInfo, List<Object> chunk) throws SQLException, IllegalAccessException {
+		boolean generated = !classInfo.generatedKeys.isEmpty();
+		PreparedStatement ps = null;
+		ResultSet gk = null;
+		try {
+			int res;
+			if(isMultiRowInsert() && chunk.size() > 1){
+				String sql = classInfo.insertSQL(chunk.size());
+				ps = generated ? prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : prepareStatement(sql);
+				int i = 1;
+				for(Object obj: chunk){
+					i = addParameters(obj, classInfo.insertFields, ps, i);
+				}
+				res = ps.executeUpdate();
+			}else {
+				ps = generated ? prepareStatement(classInfo.insertSQL, Statement.RETURN_GENERATED_KEYS) : prepareStatement(classInfo.insertSQL);
+				for(Object obj: chunk){
+					addParameters(obj, classInfo.insertFields, ps, 1);
+					ps.addBatch();
+				}
+				res = ps.executeBatch().length;
+			}
+			
+			if(generated){
+				gk = ps.getGeneratedKeys();
+				int idx = 0;
+				while(gk.next() && idx < chunk.size()) {
+					int i = 1;
+					for (Field field : classInfo.generatedKeys) {
+						JdbcMappingUtils.setFromObject(chunk.get(idx), field, gk.getObject(i++));
+					}
+					idx++;
+				}
+			}
+			return res;
+		} finally {
+			JdbcDBUtils.closeResultSet(gk);
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	/**
+	 * @return the max number of objects of the class inserted by a batch or a multi-row INSERT:
+	 * <code>batch.size</code> bounded by the max number of parameters of a statement for a multi-row INSERT
+	 */
+	protected int getBatchSize(JdbcClassInfo classInfo) {
+		int size = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+		if(isMultiRowInsert()){
+			size = Math.min(size, Math.max(1, getMaxParameters() / Math.max(1, classInfo.insertColumnCount)));
+		}
+		return size;
+	}
+
+	/**
+	 * @return the max number of parameters of a statement supported by the driver
+	 */
+	protected int getMaxParameters() {
+		return DEFAULT_MAX_PARAMETERS;
+	}
+
+	/**
+	 * @return true if the DB supports INSERT ... VALUES(...), (...), ...
+	 */
+	protected boolean supportsMultiRowInsert() {
+		return true;
+	}
+
+	protected boolean isMultiRowInsert() {
+		return multiRowInsert && supportsMultiRowInsert();
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setMultiRowInsert(boolean multiRowInsert) {
+		this.multiRowInsert = multiRowInsert;
+	}
+
+	public int getKeysChunkSize() {
+		return keysChunkSize;
+	}
+
+	/**
+	 * @param keysChunkSize rounded down to a power of two
+	 */
+	public void setKeysChunkSize(int keysChunkSize) {
+		if(keysChunkSize <= 0) {
+			throw new SienaException("keys.chunk.size must be > 0");
+		}
+		this.keysChunkSize = Integer.highestOneBit(Math.min(keysChunkSize, getMaxParameters()));
 	}
 
 	protected int addParameters(Object obj, List<Field> fields, PreparedStatement ps, int i) throws SQLException {
@@ -367,55 +838,78 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 					}
 				}
 			} else {
-				Object value = Util.readField(obj, field);
-				if(value != null){
-					if(Json.class.isAssignableFrom(type)){
-						value = ((Json)value).toString();
-					}
-					else if(field.getAnnotation(Embedded.class) != null){
-						value = JsonSerializer.serialize(value).toString();
-					}
-					else if(field.getAnnotation(Polymorphic.class) != null){
-						ByteArrayOutputStream bos = new ByteArrayOutputStream();
-						ObjectOutput out;
-						try {
-							out = new ObjectOutputStream(bos);
-							out.writeObject(value);
-							out.close();
-						} catch (IOException e) {
-							throw new SienaException(e);
-						}   
-						
-						value = bos.toByteArray(); 
-					}
-					else if(Enum.class.isAssignableFrom(type)){
-						value = value.toString();
-					}
-					else if(BigDecimal.class == type){
-						DecimalPrecision ann = field.getAnnotation(DecimalPrecision.class);
-						if(ann == null) {
-							value = (BigDecimal)value;
-						}else {
-							switch(ann.storageType()){
-							case DOUBLE:
-								value = ((BigDecimal)value).doubleValue();
-								break;
-							case STRING:
-								value = ((BigDecimal)value).toPlainString();
-								break;
-							case NATIVE:
-								value = (BigDecimal)value;
-								break;
-							}
-						}
-					}
-				}
-				setParameter(ps, i++, value);
+				setParameter(ps, i++, toParameter(field, Util.readField(obj, field)));
 			}
 		}
 		return i;
 	}
 	
+	/**
+	 * @return the fields written by the update of the object: the fields modified since it has
+	 * been fetched when the dirty tracking is enabled and it's tracked, else all the updatable fields,
+	 * without the @Lazy fields which have not been loaded (see <code>LazyTracker</code>)
+	 */
+	protected List<Field> getUpdatedFields(JdbcClassInfo classInfo, Object obj) {
+		if(dirtyTracker != null){
+			List<Field> dirty = dirtyTracker.getDirtyFields(obj);
+			if(dirty != null) return LazyTracker.removeUnloaded(obj, dirty);
+		}
+		return LazyTracker.removeUnloaded(obj, classInfo.updateFields);
+	}
+
+	/**
+	 * converts the value of a field (not a relation) to the value stored in its column
+	 * (@Embedded and Json to JSON, @Polymorphic serialized, enums to strings, BigDecimals
+	 * according to their @DecimalPrecision)
+	 */
+	protected Object toParameter(Field field, Object value) {
+		if(value == null){
+			return null;
+		}
+		Class<?> type = field.getType();
+		if(Json.class.isAssignableFrom(type)){
+			value = ((Json)value).toString();
+		}
+		else if(field.getAnnotation(Embedded.class) != null){
+			value = JsonSerializer.serialize(value).toString();
+		}
+		else if(field.getAnnotation(Polymorphic.class) != null){
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutput out;
+			try {
+				out = new ObjectOutputStream(bos);
+				out.writeObject(value);
+				out.close();
+			} catch (IOException e) {
+				throw new SienaException(e);
+			}   
+			
+			value = bos.toByteArray(); 
+		}
+		else if(Enum.class.isAssignableFrom(type)){
+			value = value.toString();
+		}
+		else if(BigDecimal.class == type){
+			DecimalPrecision ann = field.getAnnotation(DecimalPrecision.class);
+			if(ann == null) {
+				value = (BigDecimal)value;
+			}else {
+				switch(ann.storageType()){
+				case DOUBLE:
+					value = ((BigDecimal)value).doubleValue();
+					break;
+				case STRING:
+					value = ((BigDecimal)value).toPlainString();
+					break;
+				case NATIVE:
+					value = (BigDecimal)value;
+					break;
+				}
+			}
+		}
+		return value;
+	}
+	
 	protected void setParameter(PreparedStatement ps, int index, Object value) throws SQLException {
 		ps.setObject(index, value);
 	}
@@ -449,11 +943,19 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				// by default, we use boolean mode which works without fulltext index
 				sql.append("MATCH("+Util.join(cols, ",")+") AGAINST(? IN BOOLEAN MODE)");
 			}
-			parameters.add(qf.match);
+			appendSqlSearchParameters(qf, parameters);
 		}catch(Exception e){
 			throw new SienaException(e);
 		}
 	}
+	
+	/**
+	 * adds the parameters bound by the SQL built by appendSqlSearch
+	 * (it is also called alone when the SQL comes from the SQL plan cache)
+	 */
+	public void appendSqlSearchParameters(QueryFilterSearch qf, List<Object> parameters) {
+		parameters.add(qf.match);
+	}
 
 	
 	public <T> void appendSqlWhere(Query<T> query, StringBuilder sql, List<Object> parameters) {
@@ -483,9 +985,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 						throw new SienaException("Collection needed when using IN operator in filter() query");
 					StringBuilder s = new StringBuilder();
 					Collection<?> col = (Collection<?>) value;
-					for (Object object : col) {
-						// TODO: if object isModel
-						parameters.add(object);
+					for (int i=0; i<col.size(); i++) {
 						s.append(",?");
 					}
 					sql.append(columns[0]+" IN("+s.toString().substring(1)+")");
@@ -501,14 +1001,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 							sql.append(columns[i++]+JdbcDBUtils.IS_NULL);
 						} else {
 							sql.append(columns[i++]+"=?");
-							key.setAccessible(true);
-							Object o;
-							try {
-								o = key.get(value);
-								parameters.add(o);
-							} catch (Exception e) {
-								throw new SienaException(e);
-							}
 						}
 					}
 				} else {
@@ -518,18 +1010,9 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 						sql.append(columns[0]+JdbcDBUtils.IS_NOT_NULL);
 					} else {
 						sql.append(columns[0]+op+"?");
-						if(value == null) {
-							parameters.add(Types.NULL);
-						} else {
-							if (value instanceof Date) {
-								value = Util.translateDate(f, (Date) value);
-							} else if(value instanceof Enum) {
-								value = value.toString();
-							}
-							parameters.add(value);
-						}
 					}
 				}
+				appendSqlWhereParameters(qf, parameters);
 			}else if(QueryFilterSearch.class.isAssignableFrom(filter.getClass())){
 				// TODO MYSQL implementation manages only 1 search in a query
 				if(query.getSearches().size()>1){
@@ -542,6 +1025,205 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		}
 	}
 	
+	/**
+	 * adds the parameters of the where clause built by appendSqlWhere in the same order
+	 * without building the SQL (used when the SQL comes from the SQL plan cache)
+	 */
+	public <T> void appendSqlWhereParameters(Query<T> query, List<Object> parameters) {
+		for (QueryFilter filter : query.getFilters()) {
+			if(QueryFilterSimple.class.isAssignableFrom(filter.getClass())){
+				appendSqlWhereParameters((QueryFilterSimple)filter, parameters);
+			}else if(QueryFilterSearch.class.isAssignableFrom(filter.getClass())){
+				appendSqlSearchParameters((QueryFilterSearch)filter, parameters);
+			}
+		}
+	}
+	
+	protected void appendSqlWhereParameters(QueryFilterSimple qf, List<Object> parameters) {
+		String op    = qf.operator;
+		Object value = qf.value;
+		Field f      = qf.field;
+		
+		if("IN".equals(op)) {
+			for (Object object : (Collection<?>) value) {
+				if(object != null && ClassInfo.isModel(f.getType())) {
+					// IN on a relation: the key of the related object
+					parameters.add(Util.readField(object, ClassInfo.getClassInfo(f.getType()).getIdField()));
+				} else {
+					parameters.add(object);
+				}
+			}
+		} else if(ClassInfo.isModel(f.getType())) {
+			if(value != null) {
+				for (Field key : JdbcClassInfo.getClassInfo(f.getType()).keys) {
+					parameters.add(Util.readField(value, key));
+				}
+			}
+		} else if(value == null) {
+			if(!op.equals("=") && !op.equals("!=")) {
+				parameters.add(Types.NULL);
+			}
+		} else {
+			parameters.add(toSqlParameter(f, value));
+		}
+	}
+	
+	protected Object toSqlParameter(Field f, Object value) {
+		if (value instanceof Date) {
+			return Util.translateDate(f, (Date) value);
+		} else if(value instanceof Enum) {
+			return value.toString();
+		}
+		return value;
+	}
+	
+	/**
+	 * appends the keyset predicate selecting the rows after (or before) the seek values
+	 * in the order of the query:
+	 * (o1 > ?) OR (o1 = ? AND o2 > ?) OR (o1 = ? AND o2 = ? AND id > ?)
+	 * (the expanded form is used as row value comparisons are not supported by all DBs
+	 * and don't support mixed directions)
+	 * 
+	 * The NULL values are placed where the DB sorts them (see <code>isSortingNullsHigh</code>):
+	 * a null seek value is compared with IS NULL/IS NOT NULL and the NULL rows are added
+	 * to a comparison when they come after the seek value.
+	 */
+	public <T> void appendSqlKeyset(Query<T> query, QueryOptionJdbcKeyset keyset, StringBuilder sql, List<Object> parameters) {
+		if(!keyset.isSeeking()) return;
+		
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(query.getQueriedClass());
+		List<QueryOrder> orders = keyset.orders;
+		String[] columns = new String[orders.size()];
+		for(int i=0; i<columns.length; i++){
+			columns[i] = ClassInfo.getColumnNames(orders.get(i).field, info.tableName)[0];
+		}
+		
+		sql.append(query.getFilters().isEmpty()?JdbcDBUtils.WHERE:JdbcDBUtils.AND);
+		sql.append("(");
+		appendSqlKeyset(keyset, columns, sql, parameters);
+		sql.append(")");
+	}
+	
+	public void appendSqlKeysetParameters(QueryOptionJdbcKeyset keyset, List<Object> parameters) {
+		if(!keyset.isSeeking()) return;
+		
+		appendSqlKeyset(keyset, null, null, parameters);
+	}
+	
+	/**
+	 * appends the branches of the keyset predicate (if sql is not null) and their parameters
+	 */
+	private void appendSqlKeyset(QueryOptionJdbcKeyset keyset, String[] columns, StringBuilder sql, List<Object> parameters) {
+		List<QueryOrder> orders = keyset.orders;
+		Object[] values = keyset.bound();
+		boolean first = true;
+		for(int i=0; i<values.length; i++){
+			boolean forward = orders.get(i).ascending != (keyset.seek == QueryOptionJdbcKeyset.Seek.BEFORE);
+			// the NULL rows come after the non null ones in the direction of the seek
+			boolean nulls = forward == isSortingNullsHigh();
+			// nothing comes after a NULL seek value then
+			if(values[i] == null && nulls) continue;
+			
+			if(sql != null) {
+				if(!first) {
+					sql.append(" OR ");
+				}
+				sql.append("(");
+				for(int j=0; j<i; j++){
+					sql.append(columns[j]+(values[j] == null ? " IS NULL" : "=?")+JdbcDBUtils.AND);
+				}
+				if(values[i] == null){
+					sql.append(columns[i]+" IS NOT NULL");
+				}else {
+					String op = forward?">":"<";
+					// the last column is a key so FROM only includes the first row of the page
+					if(i == values.length-1 && keyset.seek == QueryOptionJdbcKeyset.Seek.FROM){
+						op += "=";
+					}
+					if(nulls){
+						sql.append("("+columns[i]+op+"?"+" OR "+columns[i]+" IS NULL)");
+					}else {
+						sql.append(columns[i]+op+"?");
+					}
+				}
+				sql.append(")");
+			}
+			first = false;
+			
+			for(int j=0; j<=i; j++){
+				if(values[j] != null){
+					parameters.add(toSqlParameter(orders.get(j).field, values[j]));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * builds the SQL of the query or gets it from the SQL plan cache if a query with the same
+	 * shape has already been built and adds the parameters to bind
+	 */
+	protected <T> String buildSql(Query<T> query, JdbcSqlPlanCache.Kind kind, List<Object> parameters) {
+		return buildSql(query, kind, null, parameters);
+	}
+	
+	/**
+	 * @param keyset the keyset option if the SELECT is keyset paginated else null
+	 */
+	protected <T> String buildSql(Query<T> query, JdbcSqlPlanCache.Kind kind, QueryOptionJdbcKeyset keyset, List<Object> parameters) {
+		String fingerprint = JdbcSqlPlanCache.fingerprint(query, kind, keyset);
+		JdbcSqlPlanCache.Plan plan = sqlPlanCache.get(fingerprint);
+		if(plan != null) {
+			plan.registerJoinAliases();
+			appendSqlWhereParameters(query, parameters);
+			if(kind == JdbcSqlPlanCache.Kind.SELECT) {
+				if(keyset != null) {
+					appendSqlKeysetParameters(keyset, parameters);
+					JdbcDBUtils.appendSqlLimitOffsetParameters(query, keyset.skip, parameters);
+				}else {
+					JdbcDBUtils.appendSqlLimitOffsetParameters(query, parameters);
+				}
+			}
+			return plan.sql;
+		}
+		
+		StringBuilder sql;
+		List<Field> joinFields = null;
+		switch(kind) {
+		case SELECT:
+			sql = JdbcDBUtils.buildSqlSelect(query);
+			joinFields = JdbcMappingUtils.getJoinFields(query);
+			appendSqlWhere(query, sql, parameters);
+			if(keyset != null) {
+				appendSqlKeyset(query, keyset, sql, parameters);
+				JdbcDBUtils.appendSqlKeysetOrder(query, keyset, sql);
+				JdbcDBUtils.appendSqlLimitOffset(query, sql, keyset.skip, parameters);
+			}else {
+				JdbcDBUtils.appendSqlOrder(query, sql);
+				JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			}
+			break;
+		case COUNT:
+			sql = new StringBuilder("SELECT COUNT(*) FROM ");
+			sql.append(JdbcClassInfo.getClassInfo(query.getQueriedClass()).tableName);
+			appendSqlWhere(query, sql, parameters);
+			break;
+		case DELETE:
+		default:
+			sql = new StringBuilder("DELETE FROM ");
+			sql.append(JdbcClassInfo.getClassInfo(query.getQueriedClass()).tableName);
+			appendSqlWhere(query, sql, parameters);
+			break;
+		}
+		
+		plan = new JdbcSqlPlanCache.Plan(sql.toString(), joinFields);
+		sqlPlanCache.put(fingerprint, plan);
+		return plan.sql;
+	}
+	
+	public JdbcSqlPlanCache getSqlPlanCache() {
+		return sqlPlanCache;
+	}
+	
 	public void setConnectionManager(ConnectionManager connectionManager) {
 		this.connectionManager = connectionManager;
 	}
@@ -585,10 +1267,14 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		if(jdbcCtx.noMoreDataBefore){
 			return new ArrayList<T>();
 		}
+		
+		// the statement of a stateful query is not reused with keyset pagination as the seek changes the SQL
+		QueryOptionJdbcKeyset keyset = QueryOptionJdbcKeyset.get(query);
 				
 		if(state.isStateless() 
 				|| (state.isStateful() && !jdbcCtx.isActive())
-				|| (state.isStateful() && jdbcCtx.isActive() && jdbcCtx.isClosed())) {
+				|| (state.isStateful() && jdbcCtx.isActive() && jdbcCtx.isClosed())
+				|| keyset != null) {
 			if(state.isStateless()){
 				if(pag.isPaginating()){
 					if(offsetOpt.isActive()){
@@ -617,24 +1303,32 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 					// keeps realOffset
 				}
 			}
+			if(keyset != null) {
+				if(state.isStateful() && !jdbcCtx.isClosed()){
+					JdbcDBUtils.closeStatement(jdbcCtx.statement);
+				}
+				keyset.seek(jdbcCtx);
+			}
 			Class<T> clazz = query.getQueriedClass();
 			List<Object> parameters = new ArrayList<Object>();
-			StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
-			appendSqlWhere(query, sql, parameters);
-			JdbcDBUtils.appendSqlOrder(query, sql);
-			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			String sql = buildSql(query, JdbcSqlPlanCache.Kind.SELECT, keyset, parameters);
 			//sql.append(suffix);
 			PreparedStatement statement = null;
 			ResultSet rs = null;
 			try {
-				statement = createStatement(sql.toString(), parameters);
+				statement = createStatement(sql, parameters);
 				if(pag.isPaginating()) {
 					// this is just a hint to the DB so wonder if it should be used
 					statement.setFetchSize(jdbcCtx.realPageSize);
 				}
 				rs = statement.executeQuery();
-				List<T> result = JdbcMappingUtils.mapList(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, 
-						JdbcMappingUtils.getJoinFields(query), jdbcCtx.realPageSize);
+				JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+				List<T> result = JdbcMappingUtils.mapList(clazz, rs, info.tableName, 
+						JdbcMappingUtils.getJoinFields(query), JdbcMappingUtils.getSelectedFields(query, info), jdbcCtx.realPageSize);
+				identify(track(result), query);
+				if(keyset != null) {
+					keyset.update(result, jdbcCtx);
+				}
 				
 				if(pag.isPaginating()){
 					if(result.size() == 0){
@@ -692,8 +1386,10 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				//}
 				
 				rs = jdbcCtx.statement.executeQuery();
-				List<T> result = JdbcMappingUtils.mapList(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, 
-					JdbcMappingUtils.getJoinFields(query), jdbcCtx.realPageSize);
+				JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+				List<T> result = JdbcMappingUtils.mapList(clazz, rs, info.tableName, 
+					JdbcMappingUtils.getJoinFields(query), JdbcMappingUtils.getSelectedFields(query, info), jdbcCtx.realPageSize);
+				identify(track(result), query);
 				// increases offset
 				
 				if(pag.isPaginating()){
@@ -740,15 +1436,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> int count(Query<T> query) {
-		ClassInfo info = ClassInfo.getClassInfo(query.getQueriedClass());
 		List<Object> parameters = new ArrayList<Object>();
-		StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM ");
-		sql.append(info.tableName);
-		appendSqlWhere(query, sql, parameters);
+		String sql = buildSql(query, JdbcSqlPlanCache.Kind.COUNT, parameters);
 		PreparedStatement statement = null;
 		ResultSet rs = null;
 		try {
-			statement = createStatement(sql.toString(), parameters);
+			statement = createStatement(sql, parameters);
 			rs = statement.executeQuery();
 			rs.next();
 			return rs.getInt(1);
@@ -761,15 +1454,13 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> int delete(Query<T> query) {
-		ClassInfo info = ClassInfo.getClassInfo(query.getQueriedClass());
+		clearIdentities(query.getQueriedClass());
 		List<Object> parameters = new ArrayList<Object>();
-		StringBuilder sql = new StringBuilder("DELETE FROM ");
-		sql.append(info.tableName);
-		appendSqlWhere(query, sql, parameters);
+		String sql = buildSql(query, JdbcSqlPlanCache.Kind.DELETE, parameters);
 		PreparedStatement statement = null;
 		ResultSet rs = null;
 		try {
-			statement = createStatement(sql.toString(), parameters);
+			statement = createStatement(sql, parameters);
 			return statement.executeUpdate();
 		} catch(SQLException e) {
 			throw new SienaException(e);
@@ -850,15 +1541,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			
 			Class<T> clazz = query.getQueriedClass();
 			List<Object> parameters = new ArrayList<Object>();
-			StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
-			appendSqlWhere(query, sql, parameters);
-			JdbcDBUtils.appendSqlOrder(query, sql);
-			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			String sql = buildSql(query, JdbcSqlPlanCache.Kind.SELECT, parameters);
 			//sql.append(suffix);
 			PreparedStatement statement = null;
 			ResultSet rs = null;
 			try {
-				statement = createStatement(sql.toString(), parameters);
+				statement = createStatement(sql, parameters);
 				if(pag.isActive()) {
 					// this is just a hint to the DB so wonder if it should be used
 					statement.setFetchSize(jdbcCtx.realPageSize);
@@ -1015,6 +1703,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			return new ArrayList<T>();
 		}
 		
+		// a keyset page is fetched at once as the rows of a previous page are fetched in reverse order
+		if(QueryOptionJdbcKeyset.get(query) != null){
+			return doFetch(query, limit, 0);
+		}
+		
 		// forces the reusable option since iteration requires it!!!
 		//query.stateful();		
 		
@@ -1049,15 +1742,17 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			}
 			
 			List<Object> parameters = new ArrayList<Object>();
-			StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
-			appendSqlWhere(query, sql, parameters);
-			JdbcDBUtils.appendSqlOrder(query, sql);
-			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			String sql = buildSql(query, JdbcSqlPlanCache.Kind.SELECT, parameters);
+			
+			QueryOptionJdbcStream stream = (QueryOptionJdbcStream)query.option(QueryOptionJdbcStream.ID);
+			if(stream != null && stream.isActive() && state.isStateless() && !pag.isPaginating()){
+				return doStream(query, sql, parameters, stream.fetchSize);
+			}
 			//sql.append(suffix);
 			PreparedStatement statement = null;
 			ResultSet rs = null;
 			try {
-				statement = createStatement(sql.toString(), parameters);
+				statement = createStatement(sql, parameters);
 				if(pag.isActive()) {
 					// this is just a hint to the DB so wonder if it should be used
 					statement.setFetchSize(jdbcCtx.realPageSize);
@@ -1158,6 +1853,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		if(state.isStateless()){
 			jdbcCtx.realOffset = 0;
 		}
+		
+		// a new pagination forgets the last keyset page
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
+		if(keyset != null){
+			keyset.reset();
+		}
 	}
 
 	public <T> void previousPage(Query<T> query) {
@@ -1236,7 +1937,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	public <T> int get(Iterable<T> objects) {
 		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
 		
 		for(Object obj:objects){
 			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
@@ -1259,22 +1959,20 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				
 				Field f = classInfo.keys.get(0);
 				
-				HashMap<Object, Object> keyObj = new HashMap<Object, Object>();
-				
+				List<Object> keys = new ArrayList<Object>();
 				for(Object obj: objMap.get(classInfo)){
-					Object key = Util.readField(obj, f);
-					keyObj.put(key, obj);
+					keys.add(Util.readField(obj, f));
 				}
 				
-				Query<?> q = createQuery(classInfo.info.clazz);
-				List<?> results = q.filter(f.getName()+ " IN", keyObj.keySet()).fetch();
+				Map<Object, ?> results = fetchByKeys(classInfo.info.clazz, f, keys);
 				
-				for(Object res:results){
-					Object resKey = Util.readField(res, f);
-					Util.copyObject(res, keyObj.get(resKey));
+				for(Object obj: objMap.get(classInfo)){
+					Object res = results.get(Util.readField(obj, f));
+					if(res != null){
+						Util.copyObject(res, obj);
+						total++;
+					}
 				}
-				
-				total+=results.size();
 			}
 			
 			return total;
@@ -1282,8 +1980,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			throw e;
 		} catch (Exception e) {
 			throw new SienaException(e);
-		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
 		}
 	}
 
@@ -1297,6 +1993,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				throw new SienaException("Can't batch select multiple keys objects");
 			}
 				
+			IdentityMap identities = getIdentityMap();
+			if(identities != null) {
+				T identified = identities.get(clazz, key);
+				if(identified != null) return identified;
+			}
+				
 			Query<T> q = createQuery(clazz);
 			return q.filter(classInfo.info.getIdField().getName()+ "=", key).get();
 		} catch (SienaException e) {
@@ -1313,7 +2015,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
-		PreparedStatement ps = null;
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(clazz);
 		
 		try {
@@ -1328,25 +2029,26 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				keyList.add(key);
 			}
 			
-			Query<T> q = createQuery(clazz);
-			List<T> results = q.filter(f.getName()+ " IN", keyList).fetch();
-			List<T> realResults = new ArrayList<T>();
-			HashMap<Object, T> keyObj = new HashMap<Object, T>();
+			// only fetches the entities which are not in the identity map
+			IdentityMap identities = getIdentityMap();
+			List<Object> fetchedKeys = keyList;
+			if(identities != null) {
+				fetchedKeys = new ArrayList<Object>();
+				for(Object key: keyList){
+					if(identities.get(clazz, key) == null) fetchedKeys.add(key);
+				}
+			}
+			Map<Object, T> results = fetchByKeys(clazz, f, fetchedKeys);
 			
-			for(Object key: keys){
-				if(!keyObj.containsKey(key)){
-					for(int i=0; i<results.size();i++){
-						T res = results.get(i);
-						Object resKey = Util.readField(res, f);
-						if(key.equals(resKey)){
-							keyObj.put(key, res);
-							results.remove(i);
-							break;
-						}
-					}
+			// in the order of the keys (null if not found)
+			List<T> realResults = new ArrayList<T>(keyList.size());
+			for(Object key: keyList){
+				if(identities != null) {
+					T identified = identities.get(clazz, key);
+					realResults.add(identified != null ? identified : identify(results.get(key), null));
+				} else {
+					realResults.add(results.get(key));
 				}
-				
-				realResults.add(keyObj.get(key));
 			}
 			
 			return realResults;
@@ -1354,13 +2056,105 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			throw e;
 		} catch (Exception e) {
 			throw new SienaException(e);
-		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
-		}	
+		}
+	}
+	
+	/**
+	 * fetches the entities having the given keys with <code>IN</code> filters of at most
+	 * <code>keysChunkSize</code> keys.
+	 * The number of keys of each <code>IN</code> is padded to a power of two (by repeating a key)
+	 * so there are only a few SQL shapes for the SQL plan cache and the statement cache.
+	 * When there are several chunks and the async executor has been started (<code>async()</code>
+	 * or <code>setAsyncExecutor</code>), the chunks are fetched in parallel out of transactions
+	 * except by an async task which fetches them itself (it would wait for the threads of its
+	 * own executor).
+	 * 
+	 * @return the entities by key
+	 */
+	protected <T> Map<Object, T> fetchByKeys(final Class<T> clazz, final Field keyField, Collection<Object> keys) {
+		List<Object> distinctKeys = new ArrayList<Object>(new LinkedHashSet<Object>(keys));
+		List<List<Object>> chunks = new ArrayList<List<Object>>();
+		for(int i=0; i<distinctKeys.size(); i+=keysChunkSize){
+			chunks.add(padKeys(distinctKeys.subList(i, Math.min(i+keysChunkSize, distinctKeys.size()))));
+		}
+		
+		List<T> results = new ArrayList<T>(distinctKeys.size());
+		JdbcPersistenceManagerAsync async = getAsyncForChunks(chunks.size());
+		if(async == null) {
+			for(List<Object> chunk: chunks){
+				results.addAll(createQuery(clazz).filter(keyField.getName()+" IN", chunk).fetch());
+			}
+		}else {
+			List<SienaFuture<List<T>>> futures = new ArrayList<SienaFuture<List<T>>>();
+			for(final List<Object> chunk: chunks){
+				futures.add(async.submit(new Callable<List<T>>() {
+					public List<T> call() {
+						return createQuery(clazz).filter(keyField.getName()+" IN", chunk).fetch();
+					}
+				}));
+			}
+			for(SienaFuture<List<T>> future: futures){
+				results.addAll(future.get());
+			}
+		}
+		
+		Map<Object, T> byKey = new HashMap<Object, T>(results.size()*2);
+		for(T res: results){
+			byKey.put(Util.readField(res, keyField), res);
+		}
+		return byKey;
+	}
+	
+	private List<Object> padKeys(List<Object> keys) {
+		int size = keys.size();
+		int padded = Integer.highestOneBit(size);
+		if(padded < size) padded <<= 1;
+		List<Object> chunk = new ArrayList<Object>(padded);
+		chunk.addAll(keys);
+		Object last = keys.get(size-1);
+		while(chunk.size() < padded){
+			chunk.add(last);
+		}
+		return chunk;
+	}
+	
+	/**
+	 * @return the async persistence manager if the chunks can be fetched in parallel
+	 * (started executor, several chunks, not called by an async task and no transaction in progress)
+	 * else null
+	 */
+	private JdbcPersistenceManagerAsync getAsyncForChunks(int chunks) {
+		JdbcPersistenceManagerAsync async;
+		synchronized (this) {
+			async = asyncPm;
+		}
+		if(async == null || chunks < 2 || JdbcPersistenceManagerAsync.isRunningTask()) return null;
+		try {
+			// the chunks must be read by the transaction
+			if(!getConnection().getAutoCommit()) return null;
+			closeConnection();
+			return async;
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		}
 	}
 
-	public <T> PersistenceManagerAsync async() {
-		throw new SienaException("Not Implemented");
+	public synchronized <T> PersistenceManagerAsync async() {
+		if(asyncPm==null){
+			asyncPm = new JdbcPersistenceManagerAsync(this);
+			asyncPm.init(props);
+		}
+		return asyncPm;
+	}
+	
+	/**
+	 * runs the async operations on the given executor instead of the default thread pool
+	 */
+	public synchronized void setAsyncExecutor(ExecutorService executor) {
+		if(asyncPm != null){
+			asyncPm.shutdown();
+		}
+		asyncPm = new JdbcPersistenceManagerAsync(this, executor);
 	}
 
 	public int insert(Object... objects) {
@@ -1369,7 +2163,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	public int insert(Iterable<?> objects) {
 		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
 		
 		for(Object obj:objects){
 			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
@@ -1386,23 +2179,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		try {
 			for(JdbcClassInfo classInfo: objMap.keySet()){
 				if(classInfo.generatedKeys.isEmpty()){
-					ps = getConnection().prepareStatement(classInfo.insertSQL);
-					
-					for(Object obj: objMap.get(classInfo)){
-						for (Field field : classInfo.keys) {
-							Id id = field.getAnnotation(Id.class);
-							if (id.value() == Generator.UUID) {
-								field.set(obj, UUID.randomUUID().toString());
-							}
-						}
-						// TODO: implement primary key generation: SEQUENCE
-						addParameters(obj, classInfo.insertFields, ps, 1);
-						ps.addBatch();
-					}
-					
-					// TODO what to do with results of executeBatch ??????
-					int[] res = ps.executeBatch();
-					total+=res.length;
+					total+=insertBatch(classInfo, objMap.get(classInfo));
 				}else {
 					total+=insertBatchWithAutoIncrementKey(classInfo, objMap);
 				}			
@@ -1414,7 +2191,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		} catch (Exception e) {
 			throw new SienaException(e);
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			JdbcDBUtils.closeStatementAndConnection(this, null);
 		}
 	}
 
@@ -1427,6 +2204,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		PreparedStatement ps = null;
 		
 		for(Object obj:objects){
+			removeIdentity(obj);
 			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
 			if(!objMap.containsKey(classInfo)){
 				List<Object> l = new ArrayList<Object>();
@@ -1442,7 +2220,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		try {
 			for(JdbcClassInfo classInfo: objMap.keySet()){
 				
-				ps = getConnection().prepareStatement(classInfo.deleteSQL);
+				ps = prepareStatement(classInfo.deleteSQL);
 				
 				for(Object obj: objMap.get(classInfo)){
 					addParameters(obj, classInfo.keys, ps, 1);
@@ -1473,9 +2251,10 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(clazz);
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.deleteSQL);
+			ps = prepareStatement(classInfo.deleteSQL);
 			
 			for(Object key: keys){
+				removeIdentity(clazz, key);
 				setParameter(ps, 1, key);
 				ps.addBatch();
 			}
@@ -1500,38 +2279,50 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	public <T> int update(Iterable<T> objects) {
 		//throw new NotImplementedException("update not implemented for JDBC yet");
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
+		// the objects by UPDATE (the statement depends on the modified fields with dirty tracking)
+		Map<String, List<Object>> objMap = new HashMap<String, List<Object>>();
+		Map<String, List<Field>> fieldsMap = new HashMap<String, List<Field>>();
 		PreparedStatement ps = null;
 		
 		for(Object obj:objects){
 			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			if(!objMap.containsKey(classInfo)){
+			List<Field> fields = getUpdatedFields(classInfo, obj);
+			if(fields.isEmpty()) continue;
+			
+			String sql = classInfo.updateSQL(fields);
+			if(!objMap.containsKey(sql)){
 				List<Object> l = new ArrayList<Object>();
 				l.add(obj);
-				objMap.put(classInfo, l);
+				objMap.put(sql, l);
+				fieldsMap.put(sql, fields);
 			}else{
-				objMap.get(classInfo).add(obj);
+				objMap.get(sql).add(obj);
 			}
 		}
 		
 		int total = 0;
 
 		try {
-			for(JdbcClassInfo classInfo: objMap.keySet()){
+			for(String sql: objMap.keySet()){
 				
-				ps = getConnection().prepareStatement(classInfo.updateSQL);
+				ps = prepareStatement(sql);
 				
-				for(Object obj: objMap.get(classInfo)){
+				List<Field> fields = fieldsMap.get(sql);
+				for(Object obj: objMap.get(sql)){
 					int i = 1;
-					i = addParameters(obj, classInfo.updateFields, ps, i);
-					addParameters(obj, classInfo.keys, ps, i);
+					i = addParameters(obj, fields, ps, i);
+					addParameters(obj, JdbcClassInfo.getClassInfo(obj.getClass()).keys, ps, i);
 					ps.addBatch();
 				}
 				
 				// TODO what to do with results of executeBatch ??????
 				int[] res = ps.executeBatch();
+				track(objMap.get(sql));
 				
 				total+=res.length;
+				// one statement by set of updated fields: released before preparing the next one
+				JdbcDBUtils.closeStatement(ps);
+				ps = null;
 			}
 			
 			return total;
@@ -1544,8 +2335,64 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		}
 	}
 
+	/**
+	 * updates the fields of all the rows matching the query in a single
+	 * <code>UPDATE table SET ... WHERE ...</code> statement
+	 * 
+	 * @param fieldValues the new values by field name (keys can't be updated)
+	 * @return the number of updated rows
+	 */
 	public <T> int update(Query<T> query, Map<String, ?> fieldValues) {
-		throw new SienaException("Not Implemented");
+		if(fieldValues.isEmpty()) return 0;
+		clearIdentities(query.getQueriedClass());
+		
+		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(query.getQueriedClass());
+		StringBuilder sql = new StringBuilder("UPDATE ");
+		sql.append(classInfo.tableName).append(" SET ");
+		List<Object> parameters = new ArrayList<Object>();
+		boolean first = true;
+		for(Map.Entry<String, ?> entry: fieldValues.entrySet()){
+			Field field = getUpdateField(classInfo, entry.getKey());
+			Object value = entry.getValue();
+			String[] columns = ClassInfo.getColumnNames(field);
+			
+			if(ClassInfo.isModel(field.getType()) && !ClassInfo.isEmbedded(field)) {
+				JdbcClassInfo ci = JdbcClassInfo.getClassInfo(field.getType());
+				int i = 0;
+				for(Field key : ci.keys) {
+					Object keyValue = value == null ? null : Util.readField(value, key);
+					if(keyValue instanceof Json)
+						keyValue = ((Json)keyValue).toString();
+					parameters.add(keyValue);
+					sql.append(first ? "" : ", ").append(columns[i++]).append(" = ?");
+					first = false;
+				}
+			}else {
+				parameters.add(toSqlParameter(field, toParameter(field, value)));
+				sql.append(first ? "" : ", ").append(columns[0]).append(" = ?");
+				first = false;
+			}
+		}
+		appendSqlWhere(query, sql, parameters);
+		
+		PreparedStatement statement = null;
+		try {
+			statement = createStatement(sql.toString(), parameters);
+			return statement.executeUpdate();
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		} finally {
+			JdbcDBUtils.closeStatementAndConnection(this, statement);
+		}
+	}
+	
+	private Field getUpdateField(JdbcClassInfo classInfo, String name) {
+		for(Field field : classInfo.updateFields) {
+			if(field.getName().equals(name)) {
+				return field;
+			}
+		}
+		throw new SienaException("Field "+name+" can't be updated in "+classInfo.tableName);
 	}
 
 
@@ -1556,6 +2403,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	@Override
 	public int save(Iterable<?> objects) {
+		// the fetched objects whose @Lazy fields have not been loaded are updated without them
+		List<Object> others = new ArrayList<Object>();
+		List<Object> partial = LazyTracker.partition(objects, others);
+		if(!partial.isEmpty()){
+			return update(partial) + save(others);
+		}
 		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
 		PreparedStatement ps = null;
 		
@@ -1574,50 +2427,49 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		try {
 			for(JdbcClassInfo classInfo: objMap.keySet()){
 				if (!classInfo.generatedKeys.isEmpty()) {
-					ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL,
+					ps = prepareStatement(classInfo.insertOrUpdateSQL,
 							Statement.RETURN_GENERATED_KEYS);
 				} else {
-					ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL);
+					ps = prepareStatement(classInfo.insertOrUpdateSQL);
 				}
 			
-				for(Object obj: objMap.get(classInfo)){
-					Field idField = classInfo.info.getIdField();
-					Object idVal = Util.readField(obj, idField);
-					
-					// only generates a UUID if the idVal is null
-					if(idVal == null){
-						for (Field field : classInfo.keys) {
-							Id id = field.getAnnotation(Id.class);
-							if (id.value() == Generator.UUID) {
-								field.set(obj, UUID.randomUUID().toString());
-							}
+				// executes the batch by chunks of batch.size objects
+				List<Object> objs = objMap.get(classInfo);
+				int size = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+				for(int from = 0; from < objs.size(); from += size){
+					List<Object> chunk = objs.subList(from, Math.min(from + size, objs.size()));
+					for(Object obj: chunk){
+						Field idField = classInfo.info.getIdField();
+						Object idVal = Util.readField(obj, idField);
+						
+						// only generates the keys if the idVal is null
+						if(idVal == null){
+							generateKeys(classInfo, obj);
 						}
+						int i = 1;
+						i = addParameters(obj, classInfo.allFields, ps, i);
+						addParameters(obj, classInfo.updateFields, ps, i);
+						ps.addBatch();
 					}
-					// TODO: implement primary key generation: SEQUENCE
-					int i = 1;
-					i = addParameters(obj, classInfo.allFields, ps, i);
-					addParameters(obj, classInfo.updateFields, ps, i);
-					ps.addBatch();
-				}
-			
-				int[] res = ps.executeBatch();
 				
-				if(!classInfo.generatedKeys.isEmpty()){
-					ResultSet gk = ps.getGeneratedKeys();
-					int i;
-					int idx = 0;
-					int sz = objMap.get(classInfo).size();
-					// apparently in the update case, it returns not only the generated keys but also all the updated field values
-					// so we take only the first SZ values which are the key values.
-					while(gk.next() && idx < sz) {
-						i=1;
-						for (Field field : classInfo.generatedKeys) {
-							field.setAccessible(true);
-							JdbcMappingUtils.setFromObject(objMap.get(classInfo).get(idx++), field, gk.getObject(i++));
+					int[] res = ps.executeBatch();
+					
+					if(!classInfo.generatedKeys.isEmpty()){
+						ResultSet gk = ps.getGeneratedKeys();
+						int i;
+						int idx = 0;
+						int sz = chunk.size();
+						// apparently in the update case, it returns not only the generated keys but also all the updated field values
+						// so we take only the first SZ values which are the key values.
+						while(gk.next() && idx < sz) {
+							i=1;
+							for (Field field : classInfo.generatedKeys) {
+								JdbcMappingUtils.setFromObject(chunk.get(idx++), field, gk.getObject(i++));
+							}
 						}
-					}
-				}	
-				total+=res.length;
+					}	
+					total+=res.length;
+				}
 			}
 			
 			return total;			
@@ -1639,13 +2491,20 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 	public static class JdbcClassInfo {
 		protected static Map<Class<?>, JdbcClassInfo> infoClasses = new ConcurrentHashMap<Class<?>, JdbcClassInfo>();
+		// the max number of UPDATE of modified fields kept by class
+		private static final int MAX_PARTIAL_UPDATES = 64;
 
 		// encapsulates a classinfo
 		public ClassInfo info;
 		
 		public String tableName;
 		public String insertSQL;
+		// the values of a row of the INSERT: (?, ?, ...)
+		public String insertValuesSQL;
+		public int insertColumnCount;
 		public String updateSQL;
+		// the UPDATE of some of the updatable fields by field names
+		private Map<String, String> partialUpdateSQLs = new ConcurrentHashMap<String, String>();
 		public String insertOrUpdateSQL;
 		public String deleteSQL;
 		public String selectSQL;
@@ -1687,10 +2546,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 			String[] is = new String[insertColumns.size()];
 			Arrays.fill(is, "?");
+			insertColumnCount = insertColumns.size();
+			insertValuesSQL = "(" + Util.join(Arrays.asList(is), ", ") + ")";
 			insertSQL = 
 				"INSERT INTO " + tableName
 				+ " ("+Util.join(insertColumns, ", ") + ")" 
-				+ " VALUES(" + Util.join(Arrays.asList(is), ", ") + ")";
+				+ " VALUES" + insertValuesSQL;
 
 			updateSQL = 
 				"UPDATE " + tableName 
@@ -1712,6 +2573,43 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			keySelectSQL = baseKeySelectSQL+JdbcDBUtils.WHERE+Util.join(keyWhereColumns, JdbcDBUtils.AND);
 		}
 
+		/**
+		 * @return the UPDATE of the given updatable fields (built once per set of fields)
+		 */
+		public String updateSQL(List<Field> fields) {
+			if(fields.size() == updateFields.size()) return updateSQL;
+			
+			StringBuilder key = new StringBuilder();
+			for(Field field: fields){
+				key.append(field.getName()).append(',');
+			}
+			String sql = partialUpdateSQLs.get(key.toString());
+			if(sql == null){
+				List<String> updateColumns = new ArrayList<String>();
+				List<String> keyWhereColumns = new ArrayList<String>();
+				calculateColumns(fields, updateColumns, null, "=?");
+				calculateColumns(keys, keyWhereColumns, null, "=?");
+				sql = "UPDATE " + tableName 
+					+ " SET " + Util.join(updateColumns, ", ") 
+					+ JdbcDBUtils.WHERE	+ Util.join(keyWhereColumns, JdbcDBUtils.AND);
+				if(partialUpdateSQLs.size() < MAX_PARTIAL_UPDATES){
+					partialUpdateSQLs.put(key.toString(), sql);
+				}
+			}
+			return sql;
+		}
+
+		/**
+		 * @return the INSERT of several rows at once: INSERT INTO table (...) VALUES(...), (...), ...
+		 */
+		public String insertSQL(int rows) {
+			StringBuilder sql = new StringBuilder(insertSQL);
+			for(int i=1; i<rows; i++){
+				sql.append(", ").append(insertValuesSQL);
+			}
+			return sql.toString();
+		}
+
 		public static void calculateColumns(List<Field> fields, List<String> columns, String tableName, String suffix) {
 			for (Field field : fields) {
 				String[] columnNames = ClassInfo.getColumnNames(field, tableName);
@@ -1724,6 +2622,13 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		public static void calculateColumnsAliases(List<Field> fields, List<String> columns, String tableName, String suffix) {
 			for (Field field : fields) {
 				String[] columnNames = ClassInfo.getColumnNames(field, tableName);
+				if("".equals(suffix)){
+					String[] aliases = ClassInfo.getColumnAliases(field, tableName);
+					for (int i=0; i<columnNames.length; i++) {
+						columns.add(columnNames[i]+ " AS "+aliases[i]);
+					}
+					continue;
+				}
 				for (String columnName : columnNames) {
 					columns.add(columnName+suffix+ " AS "+aliasFromCol(columnName+suffix));
 				}
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2011 pascal VOitot <pascal.voitot@mandubian.org>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena.jdbc;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import siena.PersistenceManager;
+import siena.Query;
+import siena.SienaRestrictedApiException;
+import siena.core.async.AbstractPersistenceManagerAsync;
+import siena.core.async.QueryAsync;
+import siena.core.async.SienaFuture;
+import siena.core.async.SienaFutureContainer;
+import siena.core.async.SienaFutureMock;
+import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionOffset;
+import siena.core.options.QueryOptionPage;
+import siena.core.options.QueryOptionState;
+
+/**
+ * The asynchronous JDBC persistence manager: each operation is a task run by the synchronous
+ * <code>JdbcPersistenceManager</code> on an executor so independent queries can overlap
+ * their round trips to the DB.
+ *
+ * A task uses the connection of the thread running it and closes it at its end so a task
+ * owns its connection: there are at most as many connections as threads and using a pooled
+ * <code>ConnectionManager</code> avoids reconnecting for every task.
+ * As a consequence, transactions are not supported (they are bound to one connection) and
+ * an iteration is fetched entirely by its task (its ResultSet can't outlive the connection).
+ *
+ * A task of a stateless query runs on a copy of the query options made when it is submitted
+ * so the query can be reused at once (<code>query.nextPage().fetch()</code>).
+ * A stateful query is run by the calling thread: its statement is kept on the connection of
+ * this thread and each fetch depends on the previous one.
+ *
+ * By default, the executor is a fixed pool of <code>async.threads</code> daemon threads.
+ * Any executor can be provided instead (<code>JdbcPersistenceManager.setAsyncExecutor</code>),
+ * for ex a thread per task or virtual thread per task executor when the JVM supports it.
+ *
+ * @author mandubian <pascal.voitot@mandubian.org>
+ *
+ */
+public class JdbcPersistenceManagerAsync extends AbstractPersistenceManagerAsync {
+	private static final String DB = "JDBC_ASYNC";
+
+	public static final int DEFAULT_THREADS = 8;
+
+	// set while a thread runs a task: a task must not wait for other tasks of the executor
+	private static final ThreadLocal<Boolean> runningTask = new ThreadLocal<Boolean>();
+
+	private JdbcPersistenceManager syncPm;
+	private ExecutorService executor;
+	// shuts down the executor only if it was created here
+	private boolean ownExecutor = false;
+
+	public JdbcPersistenceManagerAsync(JdbcPersistenceManager syncPm) {
+		this.syncPm = syncPm;
+	}
+
+	public JdbcPersistenceManagerAsync(JdbcPersistenceManager syncPm, ExecutorService executor) {
+		this.syncPm = syncPm;
+		this.executor = executor;
+	}
+
+	public void init(Properties p) {
+		if(executor != null) return;
+
+		int threads = DEFAULT_THREADS;
+		if(p != null && p.getProperty("async.threads") != null) {
+			threads = Integer.parseInt(p.getProperty("async.threads"));
+		}
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "siena-jdbc-async-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ownExecutor = true;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public void shutdown() {
+		if(ownExecutor && executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	public PersistenceManager sync() {
+		return syncPm;
+	}
+
+	/**
+	 * runs the task on the executor and closes the connection it used
+	 */
+	protected <V> SienaFuture<V> submit(final Callable<V> task) {
+		return new SienaFutureContainer<V>(executor.submit(new Callable<V>() {
+			public V call() throws Exception {
+				runningTask.set(Boolean.TRUE);
+				try {
+					return task.call();
+				} finally {
+					runningTask.remove();
+					syncPm.closeConnection();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * @return true if the current thread is running an async task: waiting for other tasks
+	 * from it could deadlock a bounded executor (all its threads waiting for queued tasks)
+	 */
+	public static boolean isRunningTask() {
+		return runningTask.get() != null;
+	}
+
+	/**
+	 * the synchronous view of the query sharing its options so the JDBC context
+	 * (pagination) must exist before to be kept between the calls
+	 */
+	protected <T> Query<T> syncQuery(QueryAsync<T> query) {
+		if(query.option(QueryOptionJdbcContext.ID) == null) {
+			query.customize(new QueryOptionJdbcContext());
+		}
+		return query.sync();
+	}
+
+	/**
+	 * a stateful query keeps its statement on the connection of the calling thread between
+	 * two fetches and each fetch depends on the previous one so it is run at once by the calling
+	 * thread (as the GAE async PM does with cursors)
+	 */
+	protected <T> boolean isStateful(QueryAsync<T> query) {
+		return ((QueryOptionState)query.option(QueryOptionState.ID)).isStateful();
+	}
+
+	/**
+	 * the synchronous copy of the query with a copy of its options as they are when the task
+	 * is submitted: the query can be changed (limit, offset, nextPage...) and reused
+	 * before the task is run
+	 */
+	protected <T> Query<T> snapshot(QueryAsync<T> query) {
+		Query<T> q = syncQuery(query);
+		Map<Integer, QueryOption> options = q.options();
+		for(Map.Entry<Integer, QueryOption> entry: options.entrySet()) {
+			entry.setValue(entry.getValue().clone());
+		}
+		return q;
+	}
+
+	/**
+	 * the snapshot of a stateless fetch: the query consumes its offset and page options
+	 * now as the synchronous fetch would do
+	 */
+	protected <T> Query<T> snapshotFetch(QueryAsync<T> query, int offset) {
+		Query<T> q = snapshot(query);
+
+		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionOffset offsetOpt = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
+		if(offset != 0){
+			offsetOpt.activate();
+			offsetOpt.offset = offset;
+		}
+		if(pag.isPaginating()){
+			if(offsetOpt.isActive()){
+				jdbcCtx.realOffset += offsetOpt.offset;
+			}
+		}else {
+			if(pag.isActive()){
+				pag.passivate();
+			}
+			jdbcCtx.realOffset = offsetOpt.isActive()?offsetOpt.offset:0;
+		}
+		offsetOpt.passivate();
+		return q;
+	}
+
+	/**
+	 * reports to the query that the snapshot of a paginated fetch reached the end of the data
+	 * so that nextPage stays there (it is visible once the future has been got)
+	 */
+	protected <T> void updateEndOfData(QueryAsync<T> query, Query<T> snapshot) {
+		if(((QueryOptionPage)query.option(QueryOptionPage.ID)).isPaginating()){
+			((QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID)).noMoreDataAfter =
+				((QueryOptionJdbcContext)snapshot.option(QueryOptionJdbcContext.ID)).noMoreDataAfter;
+		}
+	}
+
+	public SienaFuture<Void> get(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				syncPm.get(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> insert(final Object... objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.insert(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> insert(final Iterable<?> objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.insert(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Void> insert(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				syncPm.insert(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> delete(final Object... models) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.delete(models);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> delete(final Iterable<?> models) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.delete(models);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> deleteByKeys(final Class<T> clazz, final Object... keys) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.deleteByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> deleteByKeys(final Class<T> clazz, final Iterable<?> keys) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.deleteByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public SienaFuture<Void> delete(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				syncPm.delete(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> update(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				syncPm.update(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> save(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				syncPm.save(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> save(final Object... objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.save(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> save(final Iterable<?> objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.save(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> get(final Object... models) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.get(models);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> get(final Iterable<T> models) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.get(models);
+			}
+		});
+	}
+
+	public <T> SienaFuture<T> getByKey(final Class<T> clazz, final Object key) {
+		return submit(new Callable<T>() {
+			public T call() {
+				return syncPm.getByKey(clazz, key);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> getByKeys(final Class<T> clazz, final Object... keys) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				return syncPm.getByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> getByKeys(final Class<T> clazz, final Iterable<?> keys) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				return syncPm.getByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> update(final Object... objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.update(objects);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> update(final Iterable<T> objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return syncPm.update(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Void> beginTransaction(int isolationLevel) {
+		throw new SienaRestrictedApiException(DB, "beginTransaction", "each async task uses its own connection: transactions require the sync PersistenceManager");
+	}
+
+	public SienaFuture<Void> beginTransaction() {
+		throw new SienaRestrictedApiException(DB, "beginTransaction", "each async task uses its own connection: transactions require the sync PersistenceManager");
+	}
+
+	public SienaFuture<Void> commitTransaction() {
+		throw new SienaRestrictedApiException(DB, "commitTransaction", "each async task uses its own connection: transactions require the sync PersistenceManager");
+	}
+
+	public SienaFuture<Void> rollbackTransaction() {
+		throw new SienaRestrictedApiException(DB, "rollbackTransaction", "each async task uses its own connection: transactions require the sync PersistenceManager");
+	}
+
+	public SienaFuture<Void> closeConnection() {
+		// the tasks close their connection: only the stateful queries use the one of the calling thread
+		syncPm.closeConnection();
+		return new SienaFutureMock<Void>(null);
+	}
+
+	public <T> SienaFuture<List<T>> fetch(final QueryAsync<T> query) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<List<T>>(syncQuery(query).fetch());
+		}
+		final Query<T> q = snapshotFetch(query, 0);
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				List<T> result = q.fetch();
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetch(final QueryAsync<T> query, final int limit) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<List<T>>(syncQuery(query).fetch(limit));
+		}
+		final Query<T> q = snapshotFetch(query, 0);
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				List<T> result = q.fetch(limit);
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetch(final QueryAsync<T> query, final int limit, final Object offset) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<List<T>>(syncQuery(query).fetch(limit, offset));
+		}
+		final Query<T> q = snapshotFetch(query, (Integer)offset);
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				List<T> result = q.fetch(limit, offset);
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> count(QueryAsync<T> query) {
+		final Query<T> q = snapshot(query);
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return q.count();
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> delete(QueryAsync<T> query) {
+		final Query<T> q = snapshot(query);
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return q.delete();
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetchKeys(final QueryAsync<T> query) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<List<T>>(syncQuery(query).fetchKeys());
+		}
+		final Query<T> q = snapshotFetch(query, 0);
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				List<T> result = q.fetchKeys();
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetchKeys(final QueryAsync<T> query, final int limit) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<List<T>>(syncQuery(query).fetchKeys(limit));
+		}
+		final Query<T> q = snapshotFetch(query, 0);
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				List<T> result = q.fetchKeys(limit);
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetchKeys(final QueryAsync<T> query, final int limit, final Object offset) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<List<T>>(syncQuery(query).fetchKeys(limit, offset));
+		}
+		final Query<T> q = snapshotFetch(query, (Integer)offset);
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				List<T> result = q.fetchKeys(limit, offset);
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * the rows are fetched by the task as the ResultSet can't outlive its connection
+	 */
+	public <T> SienaFuture<Iterable<T>> iter(final QueryAsync<T> query) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<Iterable<T>>(syncQuery(query).fetch());
+		}
+		final Query<T> q = snapshotFetch(query, 0);
+		return submit(new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				List<T> result = q.fetch();
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<Iterable<T>> iter(final QueryAsync<T> query, final int limit) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<Iterable<T>>(syncQuery(query).fetch(limit));
+		}
+		final Query<T> q = snapshotFetch(query, 0);
+		return submit(new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				List<T> result = q.fetch(limit);
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	public <T> SienaFuture<Iterable<T>> iter(final QueryAsync<T> query, final int limit, final Object offset) {
+		if(isStateful(query)) {
+			return new SienaFutureMock<Iterable<T>>(syncQuery(query).fetch(limit, offset));
+		}
+		final Query<T> q = snapshotFetch(query, (Integer)offset);
+		return submit(new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				List<T> result = q.fetch(limit, offset);
+				updateEndOfData(query, q);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * the pages are fetched by the iterating thread when it reaches them
+	 */
+	public <T> SienaFuture<Iterable<T>> iterPerPage(QueryAsync<T> query, int pageSize) {
+		return new SienaFutureMock<Iterable<T>>(syncPm.iterPerPage(syncQuery(query), pageSize));
+	}
+
+	public <T> void release(QueryAsync<T> query) {
+		syncPm.release(syncQuery(query));
+	}
+
+	public <T> void paginate(QueryAsync<T> query) {
+		syncPm.paginate(syncQuery(query));
+	}
+
+	public <T> void nextPage(QueryAsync<T> query) {
+		syncPm.nextPage(syncQuery(query));
+	}
+
+	public <T> void previousPage(QueryAsync<T> query) {
+		syncPm.previousPage(syncQuery(query));
+	}
+
+	public <T> SienaFuture<Integer> update(QueryAsync<T> query, final Map<String, ?> fieldValues) {
+		final Query<T> q = snapshot(query);
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return q.update(fieldValues);
+			}
+		});
+	}
+
+	public String[] supportedOperators() {
+		return syncPm.supportedOperators();
+	}
+
+}
@@ -0,0 +1,313 @@
+package siena.jdbc;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import siena.ClassInfo;
+import siena.FieldInfo;
+import siena.SienaException;
+import siena.Util;
+import siena.core.FieldAccessor;
+import siena.core.LazyTracker;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+
+/**
+ * @author mandubian
+ *
+ *         A row mapping plan compiled once per (class, join fields, select shape).
+ *         Column ordinals are resolved from the <code>ResultSetMetaData</code> when
+ *         the plan is built so mapping a row only reads columns by index and sets
+ *         the fields through their cached accessors.
+ */
+public class JdbcRowMapper<T> {
+	private static Map<Class<?>, Map<String, JdbcRowMapper<?>>> mappers = 
+		new ConcurrentHashMap<Class<?>, Map<String, JdbcRowMapper<?>>>();
+
+	private final Class<T> clazz;
+	private final FieldMapping[] mappings;
+	// the @Lazy fields which are not mapped (null if none)
+	private final List<Field> unloaded;
+
+	private JdbcRowMapper(Class<T> clazz, Map<String, Integer> ordinals, String tableName, List<Field> joinFields, List<Field> fields) {
+		this.clazz = clazz;
+		this.unloaded = LazyTracker.getUnloadedFields(clazz, fields);
+
+		List<FieldMapping> list = new ArrayList<FieldMapping>(fields.size());
+		for(Field field: fields){
+			list.add(compile(field, ordinals, tableName, joinFields));
+		}
+		this.mappings = list.toArray(new FieldMapping[list.size()]);
+	}
+
+	/**
+	 * Retrieves the plan for this class/join fields and the shape of the given ResultSet
+	 * and compiles it if it doesn't exist yet.
+	 * The ResultSet metadata are read once per call so a plan should be retrieved once
+	 * per ResultSet and not once per row.
+	 */
+	public static <T> JdbcRowMapper<T> getMapper(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, boolean keysOnly) {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+		return getMapper(clazz, rs, tableName, joinFields, keysOnly?info.keys:info.allFields);
+	}
+
+	/**
+	 * Retrieves the plan mapping only the given fields (the other fields are not set)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> JdbcRowMapper<T> getMapper(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, List<Field> fields) {
+		try {
+			ResultSetMetaData meta = rs.getMetaData();
+			int count = meta.getColumnCount();
+			String[] labels = new String[count];
+
+			StringBuilder key = new StringBuilder().append(tableName).append('|');
+			JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+			if(fields == info.allFields){
+				key.append('*');
+			}else if(fields == info.keys){
+				key.append('#');
+			}else {
+				for(Field f: fields){
+					key.append(f.getName()).append(',');
+				}
+			}
+			key.append('|');
+			if(joinFields != null){
+				for(Field f: joinFields){
+					key.append(f.getDeclaringClass().getName()).append('.').append(f.getName()).append(',');
+				}
+			}
+			key.append('|');
+			for(int i=0; i<count; i++){
+				labels[i] = meta.getColumnLabel(i+1);
+				key.append(labels[i]).append(',');
+			}
+
+			String k = key.toString();
+			Map<String, JdbcRowMapper<?>> classMappers = mappers.get(clazz);
+			if(classMappers == null){
+				classMappers = new ConcurrentHashMap<String, JdbcRowMapper<?>>();
+				mappers.put(clazz, classMappers);
+			}
+			JdbcRowMapper<T> mapper = (JdbcRowMapper<T>)classMappers.get(k);
+			if(mapper == null){
+				// labels are case insensitive and the first column wins as in ResultSet.findColumn
+				Map<String, Integer> ordinals = new HashMap<String, Integer>();
+				for(int i=count-1; i>=0; i--){
+					ordinals.put(labels[i].toUpperCase(), i+1);
+				}
+				mapper = new JdbcRowMapper<T>(clazz, ordinals, tableName, joinFields, fields);
+				classMappers.put(k, mapper);
+			}
+			return mapper;
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public T map(ResultSet rs) {
+		T obj = Util.createObjectInstance(clazz);
+		map(obj, rs);
+		return obj;
+	}
+
+	public void map(Object obj, ResultSet rs) {
+		try {
+			for(FieldMapping mapping: mappings){
+				mapping.map(obj, rs);
+			}
+			LazyTracker.setUnloaded(obj, unloaded);
+		} catch (SienaException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public List<T> mapList(ResultSet rs, int pageSize) {
+		try {
+			List<T> objects = new ArrayList<T>();
+			if(pageSize==0){
+				while(rs.next()) {
+					objects.add(map(rs));
+				}
+			}else {
+				for(int i=0; i<pageSize && rs.next();i++){
+					objects.add(map(rs));
+				}
+			}
+			return objects;
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static FieldMapping compile(Field field, Map<String, Integer> ordinals, String tableName, List<Field> joinFields) {
+		Class<?> type = field.getType();
+
+		if(ClassInfo.isModel(type) && !ClassInfo.isEmbedded(field)) {
+			JdbcClassInfo fieldClassInfo = JdbcClassInfo.getClassInfo(type);
+
+			if(joinFields==null || joinFields.size()==0 || !joinFields.contains(field)){
+				String[] fks = ClassInfo.getColumnAliases(field, tableName);
+				JdbcMappingUtils.checkForeignKeyMapping(fieldClassInfo.keys, fks, field.getDeclaringClass(), field);
+				Column[] columns = new Column[fks.length];
+				for(int i=0; i<fks.length; i++){
+					columns[i] = new Column(fks[i], ordinals);
+				}
+				return new RelationMapping(field, columns, fieldClassInfo.keys);
+			}
+
+			// this is a JOIN field: uses the join field alias
+			Column column = new Column(ClassInfo.getColumnAliases(field, tableName)[0], ordinals);
+			return new JoinMapping(field, column,
+					new JdbcRowMapper<Object>((Class<Object>)type, ordinals,
+							fieldClassInfo.joinFieldAliases.get(field.getName()), null, fieldClassInfo.info.eagerFields));
+		}
+
+		Column column = new Column(ClassInfo.getColumnAliases(field, tableName)[0], ordinals);
+		return new ValueMapping(field, column);
+	}
+
+	/**
+	 * A column of the ResultSet: the ordinal if it was found in the metadata
+	 * else the label which will be looked up by the driver (and fail as before).
+	 */
+	static class Column {
+		final String label;
+		final int index;
+
+		Column(String label, Map<String, Integer> ordinals) {
+			this.label = label;
+			Integer idx = ordinals.get(label.toUpperCase());
+			this.index = idx==null?-1:idx;
+		}
+
+		Object getObject(ResultSet rs) throws SQLException {
+			if(index > 0) return rs.getObject(index);
+			return rs.getObject(label);
+		}
+	}
+
+	static abstract class FieldMapping {
+		final Field field;
+		final FieldAccessor accessor;
+
+		FieldMapping(Field field) {
+			this.field = field;
+			this.accessor = ClassInfo.getAccessor(field);
+		}
+
+		abstract void map(Object obj, ResultSet rs) throws Exception;
+	}
+
+	static class ValueMapping extends FieldMapping {
+		static final int OBJECT = 0;
+		static final int LONG = 1;
+		static final int INT = 2;
+		static final int STRING = 3;
+
+		final Column column;
+		final int getter;
+
+		ValueMapping(Field field, Column column) {
+			super(field);
+			this.column = column;
+			this.getter = column.index > 0?getterFor(field):OBJECT;
+		}
+
+		private static int getterFor(Field field) {
+			// these fields need the converters
+			FieldInfo info = ClassInfo.getFieldInfo(field);
+			if(info.polymorphic || info.embedded)
+				return OBJECT;
+
+			Class<?> type = info.type;
+			if(Long.TYPE == type || Long.class == type) return LONG;
+			if(Integer.TYPE == type || Integer.class == type) return INT;
+			if(String.class == type) return STRING;
+			return OBJECT;
+		}
+
+		@Override
+		void map(Object obj, ResultSet rs) throws Exception {
+			switch(getter){
+			case LONG:
+			{
+				long val = rs.getLong(column.index);
+				accessor.set(obj, rs.wasNull()?Util.fromObject(field, null):val);
+				break;
+			}
+			case INT:
+			{
+				int val = rs.getInt(column.index);
+				accessor.set(obj, rs.wasNull()?Util.fromObject(field, null):val);
+				break;
+			}
+			case STRING:
+				accessor.set(obj, rs.getString(column.index));
+				break;
+			default:
+				accessor.set(obj, JdbcMappingUtils.fromObject(field, column.getObject(rs)));
+			}
+		}
+	}
+
+	static class RelationMapping extends FieldMapping {
+		final Column[] columns;
+		final FieldAccessor[] keys;
+		final List<Field> keyFields;
+
+		RelationMapping(Field field, Column[] columns, List<Field> keyFields) {
+			super(field);
+			this.columns = columns;
+			this.keyFields = keyFields;
+			this.keys = new FieldAccessor[keyFields.size()];
+			for(int i=0; i<keys.length; i++){
+				keys[i] = ClassInfo.getAccessor(keyFields.get(i));
+			}
+		}
+
+		@Override
+		void map(Object obj, ResultSet rs) throws Exception {
+			Object rel = Util.createObjectInstance(field.getType());
+			for(int i=0; i<columns.length; i++) {
+				Object o = columns[i].getObject(rs);
+				if(o == null) {
+					return;
+				}
+				keys[i].set(rel, JdbcMappingUtils.fromObject(keyFields.get(i), o));
+			}
+			accessor.set(obj, rel);
+		}
+	}
+
+	static class JoinMapping extends FieldMapping {
+		final Column column;
+		final JdbcRowMapper<Object> mapper;
+
+		JoinMapping(Field field, Column column, JdbcRowMapper<Object> mapper) {
+			super(field);
+			this.column = column;
+			this.mapper = mapper;
+		}
+
+		@Override
+		void map(Object obj, ResultSet rs) throws Exception {
+			// first verifies the field is not null
+			if(column.getObject(rs) == null){
+				accessor.set(obj, null);
+				return;
+			}
+			accessor.set(obj, mapper.map(rs));
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package siena.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author mandubian
+ *
+ *         The ids of a <code>@Id(Generator.SEQUENCE)</code> key (hi-lo):
+ *         blocks of <code>allocationSize</code> ids are reserved in the DB
+ *         (see <code>JdbcPersistenceManager.reserveSequenceBlock</code>) and the ids of the
+ *         current block are handed out from memory without lock.
+ *         The ids are known before the INSERT so the objects are inserted in batches
+ *         without retrieving generated keys.
+ *         The ids not handed out when the persistence manager stops are lost (gaps).
+ */
+public class JdbcSequence {
+	public static final int DEFAULT_ALLOCATION_SIZE = 50;
+	// the table of the sequences for the DBs without sequences
+	public static final String TABLE = "siena_sequences";
+
+	private final JdbcPersistenceManager pm;
+	public final String name;
+	public final int allocationSize;
+	// the native sequence has been created
+	volatile boolean created = false;
+	// the ids [next, end[ of the current block
+	private final AtomicReference<Block> block = new AtomicReference<Block>(new Block(0, 0));
+
+	public JdbcSequence(JdbcPersistenceManager pm, String name, int allocationSize) {
+		this.pm = pm;
+		this.name = name;
+		this.allocationSize = allocationSize;
+	}
+
+	public long next() {
+		while(true){
+			Block b = block.get();
+			long id = b.next.getAndIncrement();
+			if(id < b.end) return id;
+
+			// only the thread which finds the block exhausted first reserves the next one
+			synchronized(this){
+				if(block.get() == b){
+					long first = pm.reserveSequenceBlock(this);
+					block.set(new Block(first, first + allocationSize));
+				}
+			}
+		}
+	}
+
+	private static class Block {
+		final AtomicLong next;
+		final long end;
+
+		Block(long next, long end) {
+			this.next = new AtomicLong(next);
+			this.end = end;
+		}
+	}
+}
@@ -1,17 +1,19 @@
 package siena.jdbc;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-import siena.ClassInfo;
 import siena.PersistenceManager;
 import siena.Query;
 import siena.SienaException;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
 
 /**
  * @author mandubian
@@ -39,12 +41,59 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
      * The wrapped <code>Query</code>.
      */
     private Query<T> query;
+    
+    /**
+     * The server side cursor when the rows are streamed.
+     */
+    private final JdbcStreamCursor cursor;
         
 	JdbcSienaIterable(JdbcPersistenceManager pm, Statement st, ResultSet rs, Query<T> query) {
 		this.pm = pm;
 		this.st = st;
 		this.rs = rs;
 		this.query = query;
+		this.cursor = null;
+	}
+	
+	/**
+	 * a streamed iteration closing its cursor at the end of the rows
+	 */
+	JdbcSienaIterable(JdbcPersistenceManager pm, Connection connection, PreparedStatement st, ResultSet rs, 
+			Query<T> query, boolean restoreAutoCommit) {
+		this.pm = pm;
+		this.st = st;
+		this.rs = rs;
+		this.query = query;
+		this.cursor = new JdbcStreamCursor(this, pm, connection, st, rs, restoreAutoCommit);
+	}
+	
+	/**
+	 * Closes the ResultSet without waiting for the end of the iteration
+	 * (and the statement of a stateless query)
+	 */
+	public void close() {
+		if(cursor != null) {
+			cursor.close();
+			return;
+		}
+		JdbcDBUtils.closeResultSet(rs);
+		if(((QueryOptionState)query.option(QueryOptionState.ID)).isStateless()){
+			JdbcDBUtils.closeStatementAndConnection(pm, st);
+		}
+	}
+	
+	public boolean isStreamed() {
+		return cursor != null;
+	}
+	
+	private void cleanup() {
+		if(cursor != null) {
+			// the cursor doesn't close the connection of another thread 
+			cursor.close();
+			return;
+		}
+		JdbcDBUtils.closeResultSet(rs);
+		JdbcDBUtils.closeStatementAndConnection(pm, st);
 	}
 
 	public Iterator<T> iterator() {
@@ -59,6 +108,7 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 		private QueryOptionJdbcContext jdbcCtx;
 		private QueryOptionState state;
 		private boolean hasNext = true;
+		private JdbcRowMapper<V> mapper;
 		SienaJdbcIterator(Query<V> query) {
 			this.query = query;
 			this.pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
@@ -82,6 +132,9 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 		public boolean hasNext() {
 			try {
 				hasNext = false;
+				if(cursor != null && cursor.isClosed()) {
+					return false;
+				}
 	            if(rs.next()){
 	            	if(pag.isPaginating()) {
 	            		if(idx<pag.pageSize){
@@ -92,6 +145,10 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 	            		hasNext = true;
 	            	}
 	            }
+	            else if(cursor != null) {
+	            	// end of the stream
+	            	cursor.close();
+	            }
 	            return hasNext;
 	        } catch (SQLException ex) {
 	            throw new SienaException(ex);
@@ -101,21 +158,32 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 		@Override
 		public V next() {
 			try {
+				if(cursor != null && cursor.isClosed()) {
+					throw new NoSuchElementException();
+				}
 				if(hasNext || rs.next()){
-					Class<V> clazz = query.getQueriedClass();
+					if(mapper == null){
+						Class<V> clazz = query.getQueriedClass();
+						JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+						mapper = JdbcRowMapper.getMapper(clazz, rs, info.tableName, JdbcMappingUtils.getJoinFields(query),
+								JdbcMappingUtils.getSelectedFields(query, info));
+					}
 					
 					if(pag.isPaginating() && idx<(Integer)pag.pageSize){
 						idx++;
-						return JdbcMappingUtils.mapObject(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, JdbcMappingUtils.getJoinFields(query));
+						return pm.identify(pm.track(mapper.map(rs)), query);
 					}else {
 						if(state.isStateful()){
 							jdbcCtx.realOffset++;
 						}
 						
-						return JdbcMappingUtils.mapObject(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, JdbcMappingUtils.getJoinFields(query));
+						return pm.identify(pm.track(mapper.map(rs)), query);
 					}
 				}
 				else {
+					if(cursor != null) {
+						cursor.close();
+					}
 					throw new NoSuchElementException();
 				}
 			} catch (SQLException e) {
@@ -137,8 +205,7 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 
 		@Override
 		protected void finalize() throws Throwable {
-			JdbcDBUtils.closeResultSet(rs);
-			JdbcDBUtils.closeStatementAndConnection(pm, st);
+			cleanup();
 			super.finalize();
 		}
 
@@ -146,8 +213,7 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 
 	@Override
 	protected void finalize() throws Throwable {
-		JdbcDBUtils.closeResultSet(rs);
-		JdbcDBUtils.closeStatementAndConnection(pm, st);
+		cleanup();
 		super.finalize();
 	}
 
@@ -0,0 +1,215 @@
+package siena.jdbc;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.ClassInfo;
+import siena.Query;
+import siena.QueryFilter;
+import siena.QueryFilterSearch;
+import siena.QueryFilterSimple;
+import siena.QueryOrder;
+import siena.core.options.QueryOptionFields;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+
+/**
+ * @author mandubian
+ *
+ *         A bounded cache of the SQL built for a query shape.
+ *         The shape is a fingerprint of the query: the queried class, the filter fields
+ *         and operators (plus IN arity and NULL values as they change the SQL), the searches,
+ *         the orders, the joins, the keyset seek (and its null values) and the projection. Two queries with the same shape only differ by
+ *         the values bound to the statement parameters which are bound in the order
+ *         of the filters by <code>JdbcPersistenceManager.appendSqlWhereParameters</code>.
+ */
+public class JdbcSqlPlanCache {
+	public static final int DEFAULT_SIZE = 512;
+
+	public enum Kind {
+		SELECT,
+		COUNT,
+		DELETE
+	}
+
+	public static class Plan {
+		public final String sql;
+		// the join aliases registered in JdbcClassInfo when the SQL was built
+		private final Field[] joinFields;
+		private final String[] joinAliases;
+
+		public Plan(String sql, List<Field> joinFields) {
+			this.sql = sql;
+			if(joinFields == null){
+				this.joinFields = new Field[0];
+				this.joinAliases = new String[0];
+			}else {
+				this.joinFields = joinFields.toArray(new Field[joinFields.size()]);
+				this.joinAliases = new String[this.joinFields.length];
+				for(int i=0; i<this.joinFields.length; i++){
+					this.joinAliases[i] = JdbcClassInfo.getClassInfo(this.joinFields[i].getType())
+						.joinFieldAliases.get(this.joinFields[i].getName());
+				}
+			}
+		}
+
+		/**
+		 * restores the join aliases used in the SQL as they are used to map the joined fields
+		 * and they may have been changed by another query since then.
+		 */
+		public void registerJoinAliases() {
+			for(int i=0; i<joinFields.length; i++){
+				JdbcClassInfo.getClassInfo(joinFields[i].getType())
+					.joinFieldAliases.put(joinFields[i].getName(), joinAliases[i]);
+			}
+		}
+	}
+
+	private final Map<String, Plan> plans;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public JdbcSqlPlanCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	public JdbcSqlPlanCache(final int maxSize) {
+		// access ordered map to evict the least recently used plans
+		plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public Plan get(String fingerprint) {
+		Plan plan;
+		synchronized (plans) {
+			plan = plans.get(fingerprint);
+		}
+		if(plan == null) misses.incrementAndGet();
+		else hits.incrementAndGet();
+		return plan;
+	}
+
+	public void put(String fingerprint, Plan plan) {
+		synchronized (plans) {
+			plans.put(fingerprint, plan);
+		}
+	}
+
+	public int size() {
+		synchronized (plans) {
+			return plans.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (plans) {
+			plans.clear();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public static <T> String fingerprint(Query<T> query, Kind kind) {
+		return fingerprint(query, kind, null);
+	}
+
+	/**
+	 * @param keyset the keyset option when the query is keyset paginated else null
+	 * (it changes the orders and adds the seek predicate)
+	 */
+	public static <T> String fingerprint(Query<T> query, Kind kind, QueryOptionJdbcKeyset keyset) {
+		Class<T> clazz = query.getQueriedClass();
+		StringBuilder sb = new StringBuilder();
+		sb.append(kind).append('|')
+			.append(clazz.getName()).append('@').append(System.identityHashCode(clazz));
+
+		sb.append("|W");
+		for (QueryFilter filter : query.getFilters()) {
+			if(QueryFilterSimple.class.isAssignableFrom(filter.getClass())){
+				QueryFilterSimple qf = (QueryFilterSimple)filter;
+				sb.append(',');
+				appendField(sb, qf.field);
+				sb.append(qf.operator);
+				Object value = qf.value;
+				if("IN".equals(qf.operator)) {
+					if(value instanceof Collection){
+						sb.append(((Collection<?>)value).size());
+					}
+				}else if(value == null &&
+						("=".equals(qf.operator) || "!=".equals(qf.operator) || ClassInfo.isModel(qf.field.getType()))){
+					sb.append("NULL");
+				}
+			}else if(QueryFilterSearch.class.isAssignableFrom(filter.getClass())){
+				QueryFilterSearch qf = (QueryFilterSearch)filter;
+				sb.append(",S(");
+				for(String f: qf.fields){
+					sb.append(f).append(' ');
+				}
+				sb.append(qf.option).append(')');
+			}
+		}
+
+		if(kind == Kind.SELECT){
+			sb.append("|J");
+			List<Field> joinFields = JdbcMappingUtils.getJoinFields(query);
+			if(joinFields != null){
+				for(Field f: joinFields){
+					sb.append(',');
+					appendField(sb, f);
+				}
+			}
+			if(!query.getJoins().isEmpty()){
+				sb.append('+');
+			}
+
+			sb.append("|O");
+			for(QueryOrder order: query.getOrders()){
+				sb.append(',');
+				if(order.parentField != null){
+					appendField(sb, order.parentField);
+					sb.append('/');
+				}
+				appendField(sb, order.field);
+				sb.append(order.ascending?'+':'-');
+			}
+
+			if(keyset != null){
+				sb.append("|K").append(keyset.seek);
+				// the null seek values change the predicate
+				if(keyset.isSeeking()){
+					for(Object value: keyset.bound()){
+						sb.append(value == null ? 'N' : '_');
+					}
+				}
+			}
+
+			List<Field> fields = QueryOptionFields.getFields(query);
+			if(fields != null){
+				sb.append("|F");
+				for(Field f: fields){
+					sb.append(',').append(f.getName());
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void appendField(StringBuilder sb, Field f) {
+		sb.append(f.getDeclaringClass().getName()).append('.').append(f.getName());
+	}
+}
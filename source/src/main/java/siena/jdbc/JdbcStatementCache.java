@@ -0,0 +1,173 @@
+package siena.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author mandubian
+ *
+ *         A LRU cache of the PreparedStatements of one connection.
+ *         The statements it returns are not closed by <code>close()</code>:
+ *         they are only released into the cache and reused by the next call with the same SQL.
+ *         A statement is handed out to one user at a time: if the cached one is still in use
+ *         (an open iterable or a stateful query for ex), a new uncached statement is prepared.
+ *         The statements are really closed when they are evicted or when the cache is cleared
+ *         which must be done before closing the connection.
+ *         A cache is used by one thread at a time as its connection.
+ */
+public class JdbcStatementCache {
+	private final Connection connection;
+	private final Map<String, CachedStatement> statements;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	public JdbcStatementCache(Connection connection, final int maxSize, AtomicLong hits, AtomicLong misses) {
+		this.connection = connection;
+		this.hits = hits;
+		this.misses = misses;
+		// access ordered map to evict the least recently used statements
+		this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+				if(size() > maxSize){
+					eldest.getValue().evict();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+	}
+
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		String key = autoGeneratedKeys + ":" + sql;
+		CachedStatement cached = statements.get(key);
+		if(cached != null){
+			if(!cached.inUse){
+				hits.incrementAndGet();
+				cached.inUse = true;
+				return cached.proxy;
+			}
+			// the cached one is still in use so prepares one which will really be closed
+			misses.incrementAndGet();
+			return prepare(sql, autoGeneratedKeys);
+		}
+
+		misses.incrementAndGet();
+		cached = new CachedStatement(prepare(sql, autoGeneratedKeys));
+		cached.inUse = true;
+		statements.put(key, cached);
+		return cached.proxy;
+	}
+
+	public int size() {
+		return statements.size();
+	}
+
+	/**
+	 * closes all cached statements.
+	 * The ones still in use are closed when they are released.
+	 */
+	public void clear() {
+		List<CachedStatement> all = new ArrayList<CachedStatement>(statements.values());
+		statements.clear();
+		for(CachedStatement cached: all){
+			cached.evict();
+		}
+	}
+
+	private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		if(autoGeneratedKeys == Statement.NO_GENERATED_KEYS){
+			return connection.prepareStatement(sql);
+		}
+		return connection.prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	private static class CachedStatement implements InvocationHandler {
+		private final PreparedStatement statement;
+		private final PreparedStatement proxy;
+		private boolean inUse = false;
+		private boolean evicted = false;
+
+		CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+			this.proxy = (PreparedStatement)Proxy.newProxyInstance(
+					JdbcStatementCache.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+
+		void evict() {
+			evicted = true;
+			if(!inUse){
+				close();
+			}
+		}
+
+		private void release() throws SQLException {
+			inUse = false;
+			if(evicted){
+				close();
+				return;
+			}
+			try {
+				statement.clearParameters();
+				statement.clearBatch();
+				statement.clearWarnings();
+			} catch(SQLException ex){
+				// doesn't reuse a statement in a bad state
+				evicted = true;
+				close();
+			}
+		}
+
+		private void close() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				// don't do anything with it
+			}
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if("close".equals(name) && method.getParameterTypes().length == 0){
+				if(inUse) release();
+				return null;
+			}
+			if("isClosed".equals(name) && method.getParameterTypes().length == 0){
+				return !inUse || statement.isClosed();
+			}
+			if("equals".equals(name) && method.getParameterTypes().length == 1){
+				return proxy == args[0];
+			}
+			if("hashCode".equals(name) && method.getParameterTypes().length == 0){
+				return System.identityHashCode(proxy);
+			}
+			try {
+				return method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
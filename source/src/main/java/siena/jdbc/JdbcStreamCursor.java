@@ -0,0 +1,154 @@
+package siena.jdbc;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import siena.SienaException;
+
+/**
+ * @author mandubian
+ *
+ *         The server side cursor of a streamed iteration: its statement, its ResultSet
+ *         and the connection it was opened on.
+ *         It is closed when the iteration reaches the end or when the iterable is closed.
+ *         If the iterable is abandoned before, the cursor is closed once the iterable has been
+ *         garbage collected, the next time a streamed iteration is opened.
+ *         Closing it also puts back the connection in autocommit mode when it had to be left
+ *         for streaming (PostgreSQL): the transaction opened for the stream is committed.
+ *         Another thread (finalizer, <code>closeAbandoned</code>) only closes the ResultSet and the
+ *         statement: the connection may be in use by its owner thread which puts it back in
+ *         autocommit mode itself the next time it uses the persistence manager
+ *         (see <code>restoreAutoCommit</code>).
+ */
+public class JdbcStreamCursor extends PhantomReference<Object> {
+	private static final ReferenceQueue<Object> abandoned = new ReferenceQueue<Object>();
+	// keeps the cursors reachable until they are closed
+	private static final Set<JdbcStreamCursor> opened = Collections.synchronizedSet(new HashSet<JdbcStreamCursor>());
+	// the connections to put back in autocommit mode by their owner thread
+	private static final Map<Thread, Connection> restores = new ConcurrentHashMap<Thread, Connection>();
+
+	private final JdbcPersistenceManager pm;
+	private final Connection connection;
+	private final PreparedStatement statement;
+	private final ResultSet rs;
+	private final boolean restoreAutoCommit;
+	private final Thread owner;
+	private boolean closed = false;
+
+	JdbcStreamCursor(Object iterable, JdbcPersistenceManager pm, Connection connection,
+			PreparedStatement statement, ResultSet rs, boolean restoreAutoCommit) {
+		super(iterable, abandoned);
+		this.pm = pm;
+		this.connection = connection;
+		this.statement = statement;
+		this.rs = rs;
+		this.restoreAutoCommit = restoreAutoCommit;
+		this.owner = Thread.currentThread();
+		opened.add(this);
+	}
+
+	public ResultSet getResultSet() {
+		return rs;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public synchronized void close() {
+		if(closed) return;
+		closed = true;
+		opened.remove(this);
+
+		SQLException error = null;
+		try {
+			rs.close();
+		} catch(SQLException e) {
+			error = e;
+		}
+		try {
+			statement.close();
+		} catch(SQLException e) {
+			if(error == null) error = e;
+		}
+		try {
+			// the connection of another thread (abandoned cursor) is left to its owner
+			if(owner != Thread.currentThread()){
+				if(restoreAutoCommit){
+					purgeRestores();
+					restores.put(owner, connection);
+				}
+			}else {
+				if(restoreAutoCommit){
+					connection.commit();
+					connection.setAutoCommit(true);
+				}
+				if(connection.getAutoCommit()){
+					pm.closeConnection();
+				}
+			}
+		} catch(SQLException e) {
+			if(error == null) error = e;
+		}
+		if(error != null){
+			throw new SienaException(error);
+		}
+	}
+
+	/**
+	 * closes the cursors of the iterables which have been garbage collected
+	 */
+	public static void closeAbandoned() {
+		Reference<?> ref;
+		while((ref = abandoned.poll()) != null){
+			try {
+				((JdbcStreamCursor)ref).close();
+			} catch(SienaException e) {
+				// the connection may already be closed: nothing more can be done
+			}
+		}
+	}
+
+	/**
+	 * puts back in autocommit mode the connection of the current thread whose cursor has been
+	 * closed by another thread
+	 */
+	public static void restoreAutoCommit() {
+		if(restores.isEmpty()) return;
+		Connection connection = restores.remove(Thread.currentThread());
+		if(connection == null) return;
+		try {
+			if(!connection.isClosed() && !connection.getAutoCommit()){
+				connection.commit();
+				connection.setAutoCommit(true);
+			}
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	/**
+	 * forgets the connections of the dead threads
+	 */
+	private static void purgeRestores() {
+		Iterator<Thread> it = restores.keySet().iterator();
+		while(it.hasNext()){
+			if(!it.next().isAlive()) it.remove();
+		}
+	}
+
+	public static int countOpened() {
+		return opened.size();
+	}
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2011 pascal VOitot <pascal.voitot@mandubian.org>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.SienaException;
+
+/**
+ * A ConnectionManager with a bounded pool of connections.
+ *
+ * <p>As in <code>ThreadedConnectionManager</code>, a thread keeps the same connection from
+ * the first <code>getConnection()</code> until <code>closeConnection()</code> which gives
+ * the connection back to the pool instead of closing it.</p>
+ *
+ * <p>Use it with <code>transactions=siena.jdbc.PooledConnectionManager</code> in siena.properties
+ * and the following optional properties:</p>
+ * <ul>
+ * <li>pool.min: the number of connections kept open even if idle (default 0)</li>
+ * <li>pool.max: the max number of open connections (default 10)</li>
+ * <li>pool.timeout: the max time in ms to wait for a connection when all are in use (default 30000)</li>
+ * <li>pool.idle.timeout: idle connections are closed after this time in ms (default 600000)</li>
+ * <li>pool.leak.threshold: a connection not given back after this time in ms is reported as
+ * a leak with the stack of the thread which borrowed it (default 300000, 0 disables it).
+ * The connections of dead threads are always taken back.</li>
+ * <li>pool.validation.query: the query used to validate a connection when it is borrowed
+ * (default uses <code>Connection.isValid</code>)</li>
+ * </ul>
+ *
+ * @author mandubian
+ *
+ */
+public class PooledConnectionManager extends AbstractConnectionManager {
+	public static final int DEFAULT_MIN_SIZE = 0;
+	public static final int DEFAULT_MAX_SIZE = 10;
+	public static final long DEFAULT_TIMEOUT = 30000;
+	public static final long DEFAULT_IDLE_TIMEOUT = 600000;
+	public static final long DEFAULT_LEAK_THRESHOLD = 300000;
+	public static final int VALIDATION_TIMEOUT = 5;
+
+	private String url;
+	private String user;
+	private String pass;
+	private String validationQuery;
+
+	private int minSize = DEFAULT_MIN_SIZE;
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long timeout = DEFAULT_TIMEOUT;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private long leakThreshold = DEFAULT_LEAK_THRESHOLD;
+
+	private Semaphore permits;
+	private final ConcurrentLinkedQueue<PooledConnection> idle = new ConcurrentLinkedQueue<PooledConnection>();
+	private final Set<PooledConnection> borrowed =
+		Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+	private final AtomicInteger size = new AtomicInteger();
+	private final ThreadLocal<PooledConnection> currentConnection = new ThreadLocal<PooledConnection>();
+
+	private ScheduledExecutorService housekeeper;
+
+	// metrics
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong evictedCount = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+
+	public void init(Properties p) {
+		String driver = p.getProperty("driver");
+		this.url    = p.getProperty("url");
+		this.user   = p.getProperty("user");
+		this.pass   = p.getProperty("password");
+		this.validationQuery = p.getProperty("pool.validation.query");
+
+		this.minSize = getInt(p, "pool.min", DEFAULT_MIN_SIZE);
+		this.maxSize = getInt(p, "pool.max", DEFAULT_MAX_SIZE);
+		this.timeout = getLong(p, "pool.timeout", DEFAULT_TIMEOUT);
+		this.idleTimeout = getLong(p, "pool.idle.timeout", DEFAULT_IDLE_TIMEOUT);
+		this.leakThreshold = getLong(p, "pool.leak.threshold", DEFAULT_LEAK_THRESHOLD);
+		this.statementCacheSize = getInt(p, "statement.cache.size", DEFAULT_STATEMENT_CACHE_SIZE);
+
+		if(maxSize <= 0 || minSize < 0 || minSize > maxSize) {
+			throw new SienaException("Bad pool sizes: pool.min="+minSize+" pool.max="+maxSize);
+		}
+
+		try {
+			Class.forName(driver);
+		} catch (ClassNotFoundException e) {
+			throw new SienaException("Error while loading JDBC driver", e);
+		}
+
+		permits = new Semaphore(maxSize, true);
+		fill();
+
+		housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "siena-pool-housekeeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, Math.min(idleTimeout, leakThreshold>0?leakThreshold:idleTimeout) / 2);
+		housekeeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					housekeep();
+				} catch(RuntimeException e) {
+					// keeps the housekeeping scheduled
+					logger.severe(e, e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public Connection getConnection() {
+		PooledConnection pc = currentConnection.get();
+		if(pc == null) {
+			pc = borrow();
+			currentConnection.set(pc);
+		}
+		return pc.connection;
+	}
+
+	public void closeConnection() {
+		PooledConnection pc = currentConnection.get();
+		if(pc != null) {
+			currentConnection.remove();
+			giveBack(pc);
+		}
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		getConnection();
+		JdbcStatementCache cache = currentConnection.get().statements;
+		if(cache == null) return super.prepareStatement(sql);
+		return cache.prepareStatement(sql);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		getConnection();
+		JdbcStatementCache cache = currentConnection.get().statements;
+		if(cache == null) return super.prepareStatement(sql, autoGeneratedKeys);
+		return cache.prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	/**
+	 * closes all the idle connections and stops the housekeeping.
+	 * The borrowed connections are closed when they are given back.
+	 */
+	public void shutdown() {
+		if(housekeeper != null) {
+			housekeeper.shutdownNow();
+		}
+		PooledConnection pc;
+		while((pc = idle.poll()) != null) {
+			destroy(pc);
+		}
+		minSize = 0;
+		idleTimeout = 0;
+	}
+
+	protected PooledConnection borrow() {
+		long start = System.nanoTime();
+		try {
+			if(!permits.tryAcquire() && !permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				throw new SienaException("Timeout while waiting "+timeout+"ms for a connection: all the "
+						+maxSize+" connections are in use");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SienaException(e);
+		}
+
+		long wait = System.nanoTime() - start;
+		waitTime.addAndGet(wait);
+		long max = maxWaitTime.get();
+		while(wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+			max = maxWaitTime.get();
+		}
+		borrowCount.incrementAndGet();
+
+		try {
+			PooledConnection pc;
+			while((pc = idle.poll()) != null) {
+				if(validate(pc)) break;
+				destroy(pc);
+			}
+			if(pc == null) {
+				pc = create();
+			}
+			pc.borrowedAt = System.currentTimeMillis();
+			pc.borrower = Thread.currentThread();
+			pc.borrowStack = leakThreshold > 0 ? new Throwable("Connection borrowed here") : null;
+			pc.leakReported = false;
+			borrowed.add(pc);
+			return pc;
+		} catch(RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	protected void giveBack(PooledConnection pc) {
+		if(!borrowed.remove(pc)) {
+			// already taken back by the housekeeping
+			return;
+		}
+		pc.borrower = null;
+		pc.borrowStack = null;
+
+		boolean reusable = true;
+		try {
+			Connection c = pc.connection;
+			if(c.isClosed()) {
+				reusable = false;
+			} else if(!c.getAutoCommit()) {
+				// a transaction not committed is not given to another thread
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+		} catch(SQLException e) {
+			reusable = false;
+		}
+
+		if(reusable && idleTimeout > 0) {
+			pc.lastUsed = System.currentTimeMillis();
+			idle.offer(pc);
+		} else {
+			destroy(pc);
+		}
+		permits.release();
+	}
+
+	protected PooledConnection create() {
+		try {
+			Connection c = DriverManager.getConnection(url, user, pass);
+			size.incrementAndGet();
+			createdCount.incrementAndGet();
+			return new PooledConnection(c, statementCacheSize > 0 ?
+					new JdbcStatementCache(c, statementCacheSize, statementCacheHits, statementCacheMisses) : null);
+		} catch (SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	protected boolean validate(PooledConnection pc) {
+		Connection c = pc.connection;
+		try {
+			if(c.isClosed()) return false;
+			if(validationQuery != null) {
+				Statement st = c.createStatement();
+				try {
+					st.execute(validationQuery);
+				} finally {
+					st.close();
+				}
+				return true;
+			}
+			return c.isValid(VALIDATION_TIMEOUT);
+		} catch(SQLException e) {
+			return false;
+		} catch(AbstractMethodError e) {
+			// JDBC3 driver without isValid
+			return true;
+		}
+	}
+
+	protected void destroy(PooledConnection pc) {
+		size.decrementAndGet();
+		try {
+			if(pc.statements != null) {
+				pc.statements.clear();
+			}
+			pc.connection.close();
+		} catch (SQLException e) {
+			// don't do anything with it
+		}
+	}
+
+	/**
+	 * closes the idle connections above the min size, opens the missing ones up to the min size
+	 * and detects the leaks.
+	 */
+	protected void housekeep() {
+		long now = System.currentTimeMillis();
+
+		for(PooledConnection pc: idle) {
+			if(size.get() <= minSize) break;
+			if(now - pc.lastUsed > idleTimeout && idle.remove(pc)) {
+				evictedCount.incrementAndGet();
+				destroy(pc);
+			}
+		}
+
+		for(PooledConnection pc: borrowed) {
+			Thread borrower = pc.borrower;
+			if(borrower != null && !borrower.isAlive()) {
+				// the thread is dead without giving its connection back
+				if(borrowed.remove(pc)) {
+					leakCount.incrementAndGet();
+					logger.warning("Connection never given back by dead thread "+borrower.getName()
+							+": it is closed", pc.borrowStack);
+					destroy(pc);
+					permits.release();
+				}
+			} else if(leakThreshold > 0 && !pc.leakReported && now - pc.borrowedAt > leakThreshold) {
+				pc.leakReported = true;
+				leakCount.incrementAndGet();
+				logger.warning("Connection borrowed for more than "+leakThreshold+"ms by thread "
+						+(borrower!=null?borrower.getName():"")+": possible leak (closeConnection not called?)",
+						pc.borrowStack);
+			}
+		}
+
+		fill();
+	}
+
+	private void fill() {
+		try {
+			while(size.get() < minSize && permits.tryAcquire()) {
+				try {
+					PooledConnection pc = create();
+					pc.lastUsed = System.currentTimeMillis();
+					idle.offer(pc);
+				} finally {
+					permits.release();
+				}
+			}
+		} catch(SienaException e) {
+			logger.warning("Couldn't open the min connections of the pool", e);
+		}
+	}
+
+	public int getSize() {
+		return size.get();
+	}
+
+	public int getActiveCount() {
+		return borrowed.size();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	public long getEvictedCount() {
+		return evictedCount.get();
+	}
+
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+
+	/**
+	 * @return the total time in ms spent waiting for a connection
+	 */
+	public long getWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	public long getMaxWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+	}
+
+	public double getAverageWaitTime() {
+		long count = borrowCount.get();
+		return count == 0 ? 0.0 : (double)waitTime.get() / count / 1000000;
+	}
+
+	private static int getInt(Properties p, String key, int def) {
+		String val = p.getProperty(key);
+		return val == null ? def : Integer.parseInt(val);
+	}
+
+	private static long getLong(Properties p, String key, long def) {
+		String val = p.getProperty(key);
+		return val == null ? def : Long.parseLong(val);
+	}
+
+	protected static class PooledConnection {
+		final Connection connection;
+		final JdbcStatementCache statements;
+		volatile long lastUsed;
+		volatile long borrowedAt;
+		volatile Thread borrower;
+		volatile Throwable borrowStack;
+		volatile boolean leakReported;
+
+		PooledConnection(Connection connection, JdbcStatementCache statements) {
+			this.connection = connection;
+			this.statements = statements;
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package siena.jdbc;
 
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -11,19 +14,36 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
 import siena.ClassInfo;
 import siena.Generator;
 import siena.Id;
+import siena.Json;
 import siena.QueryFilterSearch;
 import siena.SienaException;
 import siena.Util;
+import siena.core.LazyTracker;
 import siena.core.options.QueryOption;
 
 public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 	private static final String DB = "POSTGRES";
 	
+	// the size of the blocks of rows sent to COPY
+	private static final int COPY_BUFFER_SIZE = 65536;
+	
+	// INSERT ... ON CONFLICT of the classes
+	private Map<JdbcClassInfo, String> upsertSQL = new ConcurrentHashMap<JdbcClassInfo, String>();
+	
+	// the min number of objects of a class inserted with COPY instead of INSERT (<=0: never)
+	protected int copyThreshold = 0;
+	
 	public PostgresqlPersistenceManager() {
 		
 	}
@@ -32,6 +52,22 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 		super(connectionManager, listener);
 	}
 	
+	@Override
+	public void init(Properties p) {
+		super.init(p);
+		if(p != null && p.getProperty("copy.threshold") != null) {
+			copyThreshold = Integer.parseInt(p.getProperty("copy.threshold"));
+		}
+	}
+	
+	public int getCopyThreshold() {
+		return copyThreshold;
+	}
+	
+	public void setCopyThreshold(int copyThreshold) {
+		this.copyThreshold = copyThreshold;
+	}
+	
 	@Override
     protected void setParameter(PreparedStatement ps, int index, Object value) throws SQLException {
         if (value != null && value instanceof Date) {
@@ -42,6 +78,28 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
         }
     }
 
+	/**
+	 * PostgreSQL only fetches the rows by blocks of fetchSize with a cursor
+	 * when autocommit is disabled, else it reads the whole result.
+	 */
+	@Override
+	protected PreparedStatement prepareStreamingStatement(Connection connection, String sql, int fetchSize) throws SQLException {
+		PreparedStatement statement = 
+			connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(fetchSize);
+		return statement;
+	}
+
+	@Override
+	protected boolean isStreamingTransactional() {
+		return true;
+	}
+
+	@Override
+	protected boolean isSortingNullsHigh() {
+		return true;
+	}
+
 	@Override
 	protected void insertWithAutoIncrementKey(JdbcClassInfo classInfo, Object obj) throws SQLException, IllegalAccessException {
 		List<String> keyNames = new ArrayList<String>();
@@ -52,7 +110,7 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 		ResultSet gk = null;
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(
+			ps = prepareStatement(
 					classInfo.insertSQL + " RETURNING " + Util.join(keyNames, ","));
 			addParameters(obj, classInfo.insertFields, ps, 1);
 			gk = ps.executeQuery();
@@ -82,6 +140,11 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 	 */
 	@Override
 	protected int insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, Map<JdbcClassInfo, List<Object>> objMap) throws SQLException, IllegalAccessException {
+		// a multi-row INSERT ... RETURNING returns the keys of all the rows
+		if(isMultiRowInsert()){
+			return insertBatch(classInfo, objMap.get(classInfo));
+		}
+		
 		List<String> keyNames = new ArrayList<String>();
 		for (Field field : classInfo.generatedKeys) {
 			keyNames.add(field.getName());
@@ -93,17 +156,11 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 		ResultSet gk = null;
 		int res = 0;
 		try {
-			ps = getConnection().prepareStatement(
+			ps = prepareStatement(
 					classInfo.insertSQL + " RETURNING " + Util.join(keyNames, ","));
 			
 			for(Object obj: objMap.get(classInfo)){
-				for (Field field : classInfo.keys) {
-					Id id = field.getAnnotation(Id.class);
-					if (id.value() == Generator.UUID) {
-						field.set(obj, UUID.randomUUID().toString());
-					}
-				}
-				// TODO: implement primary key generation: SEQUENCE
+				generateKeys(classInfo, obj);
 				addParameters(obj, classInfo.insertFields, ps, 1);
 				gk = ps.executeQuery();
 				if (!gk.next())
@@ -130,6 +187,200 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 		return res;
 	}
 	
+	/**
+	 * inserts the objects with <code>COPY table (...) FROM STDIN</code> when there are at least
+	 * <code>copy.threshold</code> of them and the DB doesn't generate their keys
+	 * (COPY doesn't return them)
+	 */
+	@Override
+	protected int insertBatch(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		if(copyThreshold <= 0 || objects.size() < copyThreshold || !classInfo.generatedKeys.isEmpty()){
+			return super.insertBatch(classInfo, objects);
+		}
+		CopyManager copyManager = getCopyManager();
+		if(copyManager == null){
+			return super.insertBatch(classInfo, objects);
+		}
+		
+		for(Object obj: objects){
+			generateKeys(classInfo, obj);
+		}
+		
+		List<String> columns = new ArrayList<String>();
+		JdbcClassInfo.calculateColumns(classInfo.insertFields, columns, null, "");
+		CopyIn copyIn = copyManager.copyIn(
+				"COPY " + classInfo.tableName + " (" + Util.join(columns, ", ") + ") FROM STDIN");
+		try {
+			StringBuilder rows = new StringBuilder();
+			for(Object obj: objects){
+				appendCopyRow(obj, classInfo.insertFields, rows);
+				if(rows.length() >= COPY_BUFFER_SIZE){
+					writeToCopy(copyIn, rows);
+				}
+			}
+			writeToCopy(copyIn, rows);
+			return (int)copyIn.endCopy();
+		} finally {
+			if(copyIn.isActive()){
+				copyIn.cancelCopy();
+			}
+		}
+	}
+	
+	/**
+	 * @return the COPY API of the current connection or null if the connection
+	 * (from a pool) doesn't give access to the PostgreSQL connection
+	 */
+	protected CopyManager getCopyManager() throws SQLException {
+		Connection connection = getConnection();
+		if(connection instanceof PGConnection){
+			return ((PGConnection)connection).getCopyAPI();
+		}
+		try {
+			if(connection.isWrapperFor(PGConnection.class)){
+				return connection.unwrap(PGConnection.class).getCopyAPI();
+			}
+		} catch(SQLException e) {
+			// not a wrapper of a PostgreSQL connection
+		} catch(AbstractMethodError e) {
+			// JDBC 3 pool
+		}
+		return null;
+	}
+	
+	private void writeToCopy(CopyIn copyIn, StringBuilder rows) throws SQLException {
+		if(rows.length() == 0) return;
+		try {
+			byte[] bytes = rows.toString().getBytes("UTF-8");
+			copyIn.writeToCopy(bytes, 0, bytes.length);
+		} catch(UnsupportedEncodingException e) {
+			throw new SienaException(e);
+		}
+		rows.setLength(0);
+	}
+	
+	/**
+	 * appends the values of the fields of an object as a row of the COPY text format
+	 * with the conversions of <code>addParameters</code>
+	 */
+	protected void appendCopyRow(Object obj, List<Field> fields, StringBuilder rows) {
+		boolean first = true;
+		for (Field field : fields) {
+			Class<?> type = field.getType();
+			if(ClassInfo.isModel(type) && ! ClassInfo.isEmbedded(field)) {
+				JdbcClassInfo ci = JdbcClassInfo.getClassInfo(type);
+				Object rel = Util.readField(obj, field);
+				for(Field f : ci.keys) {
+					Object value = null;
+					if(rel != null) {
+						value = Util.readField(rel, f);
+						if(value instanceof Json)
+							value = ((Json)value).toString();
+					}
+					if(!first) rows.append('\t');
+					appendCopyValue(value, rows);
+					first = false;
+				}
+			} else {
+				if(!first) rows.append('\t');
+				appendCopyValue(toParameter(field, Util.readField(obj, field)), rows);
+				first = false;
+			}
+		}
+		rows.append('\n');
+	}
+	
+	/**
+	 * appends a value in the COPY text format: \N for null, the backslash, tab, newline and
+	 * carriage return characters escaped, dates as timestamps (as <code>setParameter</code>)
+	 * and bytes in the bytea escape format
+	 */
+	protected void appendCopyValue(Object value, StringBuilder rows) {
+		if(value == null){
+			rows.append("\\N");
+			return;
+		}
+		if(value instanceof byte[]){
+			for(byte b: (byte[])value){
+				int v = b & 0xff;
+				// the backslash of \ooo is escaped for COPY
+				rows.append("\\\\").append((char)('0' + (v >> 6))).append((char)('0' + ((v >> 3) & 7))).append((char)('0' + (v & 7)));
+			}
+			return;
+		}
+		
+		String str;
+		if(value instanceof Date && !(value instanceof Timestamp) 
+				&& !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time)){
+			str = new Timestamp(((Date)value).getTime()).toString();
+		}else if(value instanceof BigDecimal){
+			str = ((BigDecimal)value).toPlainString();
+		}else {
+			str = value.toString();
+		}
+		for(int i=0; i<str.length(); i++){
+			char c = str.charAt(i);
+			switch(c){
+			case '\\':
+				rows.append("\\\\");
+				break;
+			case '\t':
+				rows.append("\\t");
+				break;
+			case '\n':
+				rows.append("\\n");
+				break;
+			case '\r':
+				rows.append("\\r");
+				break;
+			default:
+				rows.append(c);
+			}
+		}
+	}
+	
+	/**
+	 * the generated keys of a multi-row INSERT are returned by INSERT ... RETURNING
+	 * in the order of the rows
+	 */
+	@Override
+	protected int insertChunk(JdbcClassInfo classInfo, List<Object> chunk) throws SQLException, IllegalAccessException {
+		if(classInfo.generatedKeys.isEmpty() || !isMultiRowInsert()){
+			return super.insertChunk(classInfo, chunk);
+		}
+		
+		List<String> keyNames = new ArrayList<String>();
+		for (Field field : classInfo.generatedKeys) {
+			keyNames.add(field.getName());
+		}
+		
+		PreparedStatement ps = null;
+		ResultSet gk = null;
+		try {
+			ps = prepareStatement(
+					classInfo.insertSQL(chunk.size()) + " RETURNING " + Util.join(keyNames, ","));
+			int i = 1;
+			for(Object obj: chunk){
+				i = addParameters(obj, classInfo.insertFields, ps, i);
+			}
+			gk = ps.executeQuery();
+			int idx = 0;
+			while(gk.next() && idx < chunk.size()) {
+				i = 1;
+				for (Field field : classInfo.generatedKeys) {
+					Util.setFromObject(chunk.get(idx), field, gk.getObject(i++));
+				}
+				idx++;
+			}
+			if(idx < chunk.size())
+				throw new SienaException("No such generated keys");
+			return idx;
+		} finally {
+			JdbcDBUtils.closeResultSet(gk);
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+	
 	@Override
 	public <T> void appendSqlSearch(QueryFilterSearch qf, Class<?> clazz, JdbcClassInfo info, StringBuilder sql, List<Object> parameters) {
 		List<String> cols = new ArrayList<String>();
@@ -207,15 +458,47 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 		}
 	}
 
+	@Override
+	protected String getNextSequenceValueSQL(JdbcSequence sequence) {
+		return "SELECT nextval('" + sequence.name + "')";
+	}
+
+	/**
+	 * @return INSERT ... ON CONFLICT (keys) DO UPDATE SET ... (PostgreSQL 9.5+) built once per class
+	 */
+	protected String getUpsertSQL(JdbcClassInfo classInfo) {
+		String sql = upsertSQL.get(classInfo);
+		if(sql == null){
+			List<String> allColumns = new ArrayList<String>();
+			JdbcClassInfo.calculateColumns(classInfo.allFields, allColumns, null, "");
+			List<String> keyColumns = new ArrayList<String>();
+			JdbcClassInfo.calculateColumns(classInfo.keys, keyColumns, null, "");
+			List<String> updateColumns = new ArrayList<String>();
+			JdbcClassInfo.calculateColumns(classInfo.updateFields, updateColumns, null, "");
+			for(int i=0; i<updateColumns.size(); i++){
+				updateColumns.set(i, updateColumns.get(i) + " = EXCLUDED." + updateColumns.get(i));
+			}
+			String[] is = new String[allColumns.size()];
+			Arrays.fill(is, "?");
+			
+			sql = "INSERT INTO " + classInfo.tableName + " (" + Util.join(allColumns, ", ") + ")"
+				+ " VALUES(" + Util.join(Arrays.asList(is), ", ") + ")"
+				+ " ON CONFLICT (" + Util.join(keyColumns, ", ") + ")"
+				+ (updateColumns.isEmpty() ? " DO NOTHING" : " DO UPDATE SET " + Util.join(updateColumns, ", "));
+			upsertSQL.put(classInfo, sql);
+		}
+		return sql;
+	}
+
 	@Override
 	public void save(Object obj) {		
+		// a fetched object whose @Lazy fields have not been loaded is updated without them
+		if(LazyTracker.hasUnloadedFields(obj)){
+			update(obj);
+			return;
+		}
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
 
-		List<String> keyNames = new ArrayList<String>();
-		for (Field field : classInfo.keys) {
-			keyNames.add(field.getName());
-		}
-		
 		PreparedStatement ps = null;
 		try {
 			Field idField = classInfo.info.getIdField();
@@ -224,19 +507,8 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 			if (idVal == null) {
 				insert(obj);
 			} else {
-				// !!! insert or update pour postgres : the less worst solution I found!!!!
-				// INSERT INTO myTable (myKey) SELECT myKeyValue WHERE myKeyValue NOT IN (SELECT myKey FROM myTable);
-				// UPDATE myTable SET myUpdateCol = myUpdateColValue WHERE myKey = myKeyValue;
-				ps = getConnection().prepareStatement(
-						"INSERT INTO "+ classInfo.tableName + " (" + Util.join(keyNames, ",") + ") " 
-						+ "SELECT ? WHERE ? NOT IN (SELECT "+ Util.join(keyNames, ",")  
-						+ " FROM "+ classInfo.tableName + ");"
-						+ classInfo.updateSQL);
-				int i = 1;
-				i = addParameters(obj, classInfo.keys, ps, i);
-				i = addParameters(obj, classInfo.keys, ps, i);
-				i = addParameters(obj, classInfo.updateFields, ps, i);
-				addParameters(obj, classInfo.keys, ps, i);
+				ps = prepareStatement(getUpsertSQL(classInfo));
+				addParameters(obj, classInfo.allFields, ps, 1);
 				ps.executeUpdate();				
 			}
 		} catch (SienaException e) {
@@ -257,6 +529,12 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 
 	@Override
 	public int save(Iterable<?> objects) {
+		// the fetched objects whose @Lazy fields have not been loaded are updated without them
+		List<Object> others = new ArrayList<Object>();
+		List<Object> partial = LazyTracker.partition(objects, others);
+		if(!partial.isEmpty()){
+			return update(partial) + save(others);
+		}
 		Map<JdbcClassInfo, List<Object>> generatedObjMap = new HashMap<JdbcClassInfo, List<Object>>();
 		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
 		PreparedStatement ps = null;
@@ -292,32 +570,27 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 				total += insert(generatedObjMap.get(classInfo));
 			}
 			
-			// these are the insertion or update without generated keys
-			// can't use batch in Postgres with generated keys... known bug
-			// http://postgresql.1045698.n5.nabble.com/PreparedStatement-batch-statement-impossible-td3406927.html
+			// these are the insertions or updates without generated keys
 			for(JdbcClassInfo classInfo: objMap.keySet()){
-				List<String> keyNames = new ArrayList<String>();
-				for (Field field : classInfo.keys) {
-					keyNames.add(field.getName());
-				}
+				JdbcDBUtils.closeStatement(ps);
+				ps = prepareStatement(getUpsertSQL(classInfo));
 				
-				// !!! insert or update pour postgres : the less worst solution I found!!!!
-				// INSERT INTO myTable (myKey) SELECT myKeyValue WHERE myKeyValue NOT IN (SELECT myKey FROM myTable);
-				// UPDATE myTable SET myUpdateCol = myUpdateColValue WHERE myKey = myKeyValue;
-				ps = getConnection().prepareStatement(
-						"INSERT INTO "+ classInfo.tableName + " (" + Util.join(keyNames, ",") + ") " 
-						+ "SELECT ? WHERE ? NOT IN (SELECT "+ Util.join(keyNames, ",")  
-						+ " FROM "+ classInfo.tableName + ");"
-						+ classInfo.updateSQL);
-			
-				for(Object obj: objMap.get(classInfo)){				
-					int i = 1;
-					i = addParameters(obj, classInfo.keys, ps, i);
-					i = addParameters(obj, classInfo.keys, ps, i);
-					i = addParameters(obj, classInfo.updateFields, ps, i);
-					addParameters(obj, classInfo.keys, ps, i);
-					ps.executeUpdate();
-					total++;
+				// executes the batch by chunks of batch.size objects
+				int size = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+				int n = 0;
+				for(Object obj: objMap.get(classInfo)){
+					// only generates a UUID if the idVal is null
+					if(Util.readField(obj, classInfo.info.getIdField()) == null){
+						generateKeys(classInfo, obj);
+					}
+					addParameters(obj, classInfo.allFields, ps, 1);
+					ps.addBatch();
+					if(++n % size == 0){
+						total+=ps.executeBatch().length;
+					}
+				}
+				if(n % size != 0){
+					total+=ps.executeBatch().length;
 				}
 			}
 			
@@ -0,0 +1,202 @@
+package siena.jdbc;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import siena.ClassInfo;
+import siena.Query;
+import siena.QueryOrder;
+import siena.Util;
+import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionFields;
+import siena.core.options.QueryOptionPage;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+
+/**
+ * @author mandubian
+ *
+ *         Keyset (seek) pagination for paginated JDBC queries.
+ *         Without it, a page is fetched with <code>LIMIT ? OFFSET ?</code> so the DB reads
+ *         and skips all the rows before the page.
+ *         With it, the order and key values of the first and last rows of the last page
+ *         are remembered and the next page is fetched with
+ *         <code>WHERE (o1 > ?) OR (o1 = ? AND id > ?)</code> (and the reverse order for a
+ *         previous page) which can use the indexes on the order columns.
+ *
+ *         The key fields are added to the orders to have a total order.
+ *         The offset of the pages is still maintained as without the option so
+ *         <code>nextPage/previousPage</code> and the stateful/stateless lifecycles behave the same:
+ *         the offset is simply reached from the remembered page when possible.
+ *         <code>LIMIT/OFFSET</code> is used when it's not possible: the first page, pages overlapping
+ *         the remembered one, orders on joined fields or relations and orders on fields which are
+ *         not selected by the projection of the query (<code>QueryOptionFields</code>, @Lazy fields)
+ *         as the values of the rows the next page is sought from are not read.
+ *         The NULL values of the order fields are sought where the DB sorts them
+ *         (see <code>JdbcPersistenceManager.isSortingNullsHigh</code>).
+ *
+ *         It's opt-in: <code>query.paginate(50).customize(new QueryOptionJdbcKeyset())</code>
+ *         and only used by fetch, iter and iterPerPage (fetchKeys keeps the offset).
+ */
+public class QueryOptionJdbcKeyset extends QueryOption{
+	public static final int ID 	= 0x1004;
+
+	public enum Seek {
+		// LIMIT/OFFSET
+		NONE,
+		// the rows after the last row of the remembered page
+		AFTER,
+		// the rows from the first row of the remembered page
+		FROM,
+		// the rows before the first row of the remembered page in reverse order
+		BEFORE
+	}
+
+	// the seek of the current fetch and the number of rows to skip from the seek position
+	// (from the first row without seek)
+	transient public Seek seek = Seek.NONE;
+	transient public int skip = 0;
+	// the orders of the current fetch (query orders + keys)
+	transient public List<QueryOrder> orders;
+
+	// the remembered page: offset, number of rows and values of its first and last rows
+	transient public int pageOffset = 0;
+	transient public int pageCount = 0;
+	transient public Object[] firstValues;
+	transient public Object[] lastValues;
+
+	public QueryOptionJdbcKeyset() {
+		super(ID, State.ACTIVE, null);
+	}
+
+	public QueryOptionJdbcKeyset(QueryOptionJdbcKeyset option) {
+		super(option);
+		this.seek = option.seek;
+		this.skip = option.skip;
+		this.orders = option.orders;
+		this.pageOffset = option.pageOffset;
+		this.pageCount = option.pageCount;
+		this.firstValues = option.firstValues;
+		this.lastValues = option.lastValues;
+	}
+
+	/**
+	 * @return the keyset option of the query if keyset pagination can be used
+	 * for it (active option, paginating query and orders on simple selected fields) or null
+	 */
+	public static <T> QueryOptionJdbcKeyset get(Query<T> query) {
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(ID);
+		if(keyset == null || !keyset.isActive()) return null;
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		if(!pag.isPaginating()) return null;
+
+		keyset.orders = getOrders(query);
+		if(keyset.orders == null) return null;
+		return keyset;
+	}
+
+	private static <T> List<QueryOrder> getOrders(Query<T> query) {
+		List<QueryOrder> orders = new ArrayList<QueryOrder>();
+		List<Field> ordered = new ArrayList<Field>();
+		// the keys are always selected
+		List<Field> selected = QueryOptionFields.getFields(query);
+		for(QueryOrder order: query.getOrders()){
+			if(order.parentField != null || !isSimple(order.field)) return null;
+			if(selected != null && !selected.contains(order.field)) return null;
+			orders.add(order);
+			ordered.add(order.field);
+		}
+		for(Field key: JdbcClassInfo.getClassInfo(query.getQueriedClass()).keys){
+			if(!isSimple(key)) return null;
+			if(!ordered.contains(key)){
+				orders.add(new QueryOrder(key, true));
+			}
+		}
+		return orders;
+	}
+
+	private static boolean isSimple(Field field) {
+		return !ClassInfo.isModel(field.getType()) && !ClassInfo.isEmbedded(field)
+			&& ClassInfo.getFieldInfo(field).getColumnNames().length == 1;
+	}
+
+	/**
+	 * chooses how to reach the current offset from the remembered page
+	 */
+	public void seek(QueryOptionJdbcContext jdbcCtx) {
+		int offset = jdbcCtx.realOffset;
+		seek = Seek.NONE;
+		skip = offset;
+		if(offset == 0 || pageCount == 0) return;
+
+		if(offset >= pageOffset + pageCount){
+			seek = Seek.AFTER;
+			skip = offset - pageOffset - pageCount;
+		}else if(offset >= pageOffset){
+			seek = Seek.FROM;
+			skip = offset - pageOffset;
+		}else if(offset + jdbcCtx.realPageSize <= pageOffset){
+			seek = Seek.BEFORE;
+			skip = pageOffset - offset - jdbcCtx.realPageSize;
+		}
+	}
+
+	/**
+	 * @return the values the current fetch seeks from
+	 */
+	public Object[] bound() {
+		return seek == Seek.AFTER ? lastValues : firstValues;
+	}
+
+	public boolean isSeeking() {
+		return seek != Seek.NONE;
+	}
+
+	/**
+	 * puts the rows fetched backward in the query order and remembers the page
+	 */
+	public <T> void update(List<T> result, QueryOptionJdbcContext jdbcCtx) {
+		if(seek == Seek.BEFORE){
+			Collections.reverse(result);
+		}
+		// an empty page (no more data) keeps the previous one to be able to come back
+		if(!result.isEmpty()){
+			pageOffset = jdbcCtx.realOffset;
+			pageCount = result.size();
+			firstValues = values(result.get(0));
+			lastValues = values(result.get(result.size()-1));
+		}
+	}
+
+	/**
+	 * forgets the remembered page
+	 */
+	public void reset() {
+		seek = Seek.NONE;
+		skip = 0;
+		pageOffset = 0;
+		pageCount = 0;
+		firstValues = null;
+		lastValues = null;
+	}
+
+	private Object[] values(Object obj) {
+		Object[] values = new Object[orders.size()];
+		for(int i=0; i<values.length; i++){
+			values[i] = Util.readField(obj, orders.get(i).field);
+		}
+		return values;
+	}
+
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionJdbcKeyset(this);
+	}
+
+	public String toString() {
+		return "type:JDBC_KEYSET - state:"+this.state
+				+ " - seek:"+seek+" - skip:"+skip
+				+ " - pageOffset:"+pageOffset+" - pageCount:"+pageCount;
+	}
+}
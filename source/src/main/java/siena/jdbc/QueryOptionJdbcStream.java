@@ -0,0 +1,49 @@
+package siena.jdbc;
+
+import siena.core.options.QueryOption;
+
+/**
+ * @author mandubian
+ *
+ *         Streams the rows of <code>iter()</code> from the DB instead of letting the driver
+ *         buffer the whole result (PostgreSQL and MySQL do it by default) so the memory used by
+ *         the iteration doesn't depend on the size of the result.
+ *         The statement and the connection are configured by the persistence manager of the DB
+ *         (see <code>JdbcPersistenceManager.prepareStreamingStatement</code>).
+ *
+ *         It's opt-in: <code>query.customize(new QueryOptionJdbcStream(500)).iter()</code>
+ *         and only used by the iteration of stateless queries which are not paginated.
+ *         The cursor is closed when the iteration reaches the end, when the iterable is closed
+ *         (<code>JdbcSienaIterable.close()</code>) or when an abandoned iterable is garbage collected.
+ */
+public class QueryOptionJdbcStream extends QueryOption{
+	public static final int ID 	= 0x1005;
+
+	public static final int DEFAULT_FETCH_SIZE = 100;
+
+	// the number of rows fetched at once when the DB supports it
+	public int fetchSize = DEFAULT_FETCH_SIZE;
+
+	public QueryOptionJdbcStream() {
+		super(ID, State.ACTIVE, null);
+	}
+
+	public QueryOptionJdbcStream(int fetchSize) {
+		super(ID, State.ACTIVE, null);
+		this.fetchSize = fetchSize;
+	}
+
+	public QueryOptionJdbcStream(QueryOptionJdbcStream option) {
+		super(option);
+		this.fetchSize = option.fetchSize;
+	}
+
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionJdbcStream(this);
+	}
+
+	public String toString() {
+		return "type:JDBC_STREAM - state:"+this.state+" - fetchSize:"+fetchSize;
+	}
+}
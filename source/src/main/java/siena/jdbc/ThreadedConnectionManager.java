@@ -17,6 +17,7 @@ package siena.jdbc;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -25,6 +26,17 @@ import javax.sql.DataSource;
 
 import siena.SienaException;
 
+/**
+ * The default ConnectionManager: a thread opens its own connection (DriverManager) at its first
+ * <code>getConnection()</code> and keeps it until <code>closeConnection()</code> which closes it.
+ * With a JNDI DataSource, each <code>getConnection()</code> gets a connection from the DataSource.
+ *
+ * <p>The prepared statements (<code>statement.cache.size</code>) are cached per connection and
+ * closed with it. As the persistence manager closes the connection after each operation out of
+ * transactions (apart from H2), the statements are only reused within a transaction or within an
+ * operation (batches, iterations...). Use <code>PooledConnectionManager</code> to reuse them from
+ * an operation to the next: they stay with the pooled connections.</p>
+ */
 public class ThreadedConnectionManager extends AbstractConnectionManager {
 
 	private String url;
@@ -35,6 +47,7 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 	private DataSource dataSource;
 
 	private ThreadLocal<Connection> currentConnection = new ThreadLocal<Connection>();
+	private ThreadLocal<JdbcStatementCache> currentStatements = new ThreadLocal<JdbcStatementCache>();
 	
 	public void init(Properties p) {
 		String driver = p.getProperty("driver");
@@ -43,6 +56,11 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 		this.pass   = p.getProperty("password");
 		this.jndi   = p.getProperty("jndi");
 		
+		String cacheSize = p.getProperty("statement.cache.size");
+		if(cacheSize != null) {
+			this.statementCacheSize = Integer.parseInt(cacheSize);
+		}
+		
 		if(jndi == null) {
 			try {
 				Class.forName(driver);
@@ -80,8 +98,45 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 		}
 	}
 
+	/**
+	 * Statements are cached per connection only for the connections managed here:
+	 * those coming from a DataSource are not cached.
+	 */
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		JdbcStatementCache cache = getStatementCache();
+		if(cache == null) return super.prepareStatement(sql);
+		return cache.prepareStatement(sql);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		JdbcStatementCache cache = getStatementCache();
+		if(cache == null) return super.prepareStatement(sql, autoGeneratedKeys);
+		return cache.prepareStatement(sql, autoGeneratedKeys);
+	}
+	
+	private JdbcStatementCache getStatementCache() {
+		if(dataSource != null || statementCacheSize <= 0) return null;
+		
+		Connection c = getConnection();
+		JdbcStatementCache cache = currentStatements.get();
+		if(cache == null || cache.getConnection() != c) {
+			if(cache != null) cache.clear();
+			cache = new JdbcStatementCache(c, statementCacheSize, statementCacheHits, statementCacheMisses);
+			currentStatements.set(cache);
+		}
+		return cache;
+	}
+	
 	public void closeConnection() {
 		try {
+			// statements are closed before their connection
+			JdbcStatementCache cache = currentStatements.get();
+			if(cache != null) {
+				currentStatements.remove();
+				cache.clear();
+			}
 			Connection c = currentConnection.get();
 			if(c != null) {
 				currentConnection.remove();
@@ -32,6 +32,7 @@ import siena.Unique;
 import siena.core.DecimalPrecision;
 import siena.core.Polymorphic;
 import siena.embed.Embedded;
+import siena.jdbc.JdbcSequence;
 
 public class DdlGenerator {
 	public String DB = "mysql";
@@ -158,6 +159,43 @@ public class DdlGenerator {
 			}
 		}
 		
+		tables.put(table.getName(), table);
+		
+		for (Field key : info.keys) {
+			if(key.getAnnotation(Id.class).value() == Generator.SEQUENCE) {
+				addSequenceTable();
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * adds the table of the SEQUENCE keys used by the DBs without native sequences
+	 * (see <code>JdbcPersistenceManager.reserveSequenceBlock</code>)
+	 */
+	public Table addSequenceTable() {
+		Table table = tables.get(JdbcSequence.TABLE);
+		if(table != null) {
+			return table;
+		}
+		table = new Table();
+		table.setName(JdbcSequence.TABLE);
+		database.addTable(table);
+		
+		Column name = new Column();
+		name.setName("name");
+		name.setTypeCode(Types.VARCHAR);
+		name.setSize("255");
+		name.setPrimaryKey(true);
+		name.setRequired(true);
+		table.addColumn(name);
+		
+		Column nextVal = new Column();
+		nextVal.setName("next_val");
+		nextVal.setTypeCode(Types.BIGINT);
+		nextVal.setRequired(true);
+		table.addColumn(nextVal);
+		
 		tables.put(table.getName(), table);
 		return table;
 	}
@@ -28,7 +28,9 @@ import siena.SienaRestrictedApiException;
 import siena.Util;
 import siena.core.Base64;
 import siena.core.DecimalPrecision;
+import siena.core.UUIDGenerator;
 import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
@@ -97,7 +99,7 @@ public class SdbMappingUtils {
 			{
 				Object idVal = Util.readField(obj, idField);
 				if(idVal == null){
-					UUID uuid = UUID.randomUUID();
+					UUID uuid = UUIDGenerator.next();
 					keyVal = uuid.toString();
 					
 					if(idField.getType() == UUID.class){
@@ -392,10 +394,18 @@ public class SdbMappingUtils {
 	}
 	
 	public static void fillModel(String itemName, List<Attribute> attrs, Class<?> clazz, Object obj) {
+		fillModel(itemName, attrs, clazz, obj, null);
+	}
+	
+	/**
+	 * @param fields the fields to fill (projection) or null for all the fields
+	 */
+	public static void fillModel(String itemName, List<Attribute> attrs, Class<?> clazz, Object obj, List<Field> fields) {
 		fillModelKeysOnly(itemName, clazz, obj);
 		
 		Attribute theAttr;
-		for (Field field : ClassInfo.getClassInfo(clazz).updateFields) {			
+		for (Field field : ClassInfo.getClassInfo(clazz).updateFields) {
+			if(fields != null && !fields.contains(field)) continue;
 			if(!ClassInfo.isEmbeddedNative(field)){
 				theAttr = null;
 				String attrName = getAttributeName(field);
@@ -426,6 +436,10 @@ public class SdbMappingUtils {
 		fillModel(item.getName(), item.getAttributes(), clazz, obj);
 	}
 	
+	public static void fillModel(Item item, Class<?> clazz, ClassInfo info, Object obj, List<Field> fields) {
+		fillModel(item.getName(), item.getAttributes(), clazz, obj, fields);
+	}
+	
 	public static void fillModelKeysOnly(Item item, Class<?> clazz, ClassInfo info, Object obj) {
 		fillModelKeysOnly(item.getName(), clazz, obj);
 	}
@@ -460,24 +474,24 @@ public class SdbMappingUtils {
 	}
 	
 	public static <T> void mapSelectResultToList(SelectResult res, List<T> resList, Class<T> clazz) {
-		List<Item> items = res.getItems();
-		
-		ClassInfo info = ClassInfo.getClassInfo(clazz);
-		for(Item item: items){
-			T obj = Util.createObjectInstance(clazz);
-			fillModel(item, clazz, info, obj);
-			resList.add(obj);
-		}		
+		mapSelectResultToList(res, resList, clazz, 0, null);
 	}
 	
 	public static <T> void mapSelectResultToList(SelectResult res, List<T> resList, Class<T> clazz, int offset) {
+		mapSelectResultToList(res, resList, clazz, offset, null);
+	}
+	
+	/**
+	 * @param fields the fields to map (projection) or null for all the fields
+	 */
+	public static <T> void mapSelectResultToList(SelectResult res, List<T> resList, Class<T> clazz, int offset, List<Field> fields) {
 		List<Item> items = res.getItems();
 		
 		ClassInfo info = ClassInfo.getClassInfo(clazz);
 		for(int i=offset; i<items.size(); i++){
 			Item item = items.get(i);
 			T obj = Util.createObjectInstance(clazz);
-			fillModel(item, clazz, info, obj);
+			fillModel(item, clazz, info, obj, fields);
 			resList.add(obj);
 		}		
 	}
@@ -639,13 +653,33 @@ public class SdbMappingUtils {
 			break;
 		case NORMAL:
 		default:
-			q.append(SELECT + ALL_COLS + FROM + domain);
+			q.append(SELECT + buildSelectedAttributes(query) + FROM + domain);
 			break;
 		}
 		
 		return new SelectRequest(buildFilterOrder(query, q).toString());		
 	}
 	
+	/**
+	 * @return the attributes of the projection (QueryOptionFields) or * 
+	 * (also when a native embedded field is selected as it is stored in several attributes)
+	 */
+	public static <T> String buildSelectedAttributes(Query<T> query) {
+		List<Field> fields = QueryOptionFields.getFields(query);
+		if(fields == null) return ALL_COLS;
+		
+		List<String> attrs = new ArrayList<String>();
+		for(Field field: fields){
+			// the item name is always returned
+			if(ClassInfo.isId(field)) continue;
+			if(ClassInfo.isEmbeddedNative(field)) return ALL_COLS;
+			attrs.add(getAttributeName(field));
+		}
+		// at least one attribute is needed
+		if(attrs.isEmpty()) return ITEM_NAME;
+		return Util.join(attrs, ", ");
+	}
+	
 	public static <T> StringBuilder buildFilterOrder(Query<T> query, StringBuilder q){
 		List<QueryFilter> filters = query.getFilters();
 		Set<Field> filteredFields = new HashSet<Field>();
@@ -30,8 +30,10 @@ import siena.Query;
 import siena.QueryJoin;
 import siena.SienaException;
 import siena.Util;
+import siena.core.UUIDGenerator;
 import siena.core.async.PersistenceManagerAsync;
 import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
@@ -77,6 +79,7 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 			throw new SienaException("Both awsAccessKeyId and awsSecretAccessKey properties must be set");
 		prefix = p.getProperty("prefix");
 		if(prefix == null) prefix = "";
+		UUIDGenerator.configure(p);
 		sdb = new AmazonSimpleDBClient(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
 	}
 
@@ -742,9 +745,9 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 			case NORMAL:
 			default:
 				if(off.isActive()){
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset);
+					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset, QueryOptionFields.getFields(query));
 				}else {
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass());
+					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), 0, QueryOptionFields.getFields(query));
 				}
 				// join management
 				if(!query.getJoins().isEmpty() 
@@ -782,9 +785,9 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 			case NORMAL:
 			default:
 				if(off.isActive()){
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset);
+					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset, QueryOptionFields.getFields(query));
 				} else {
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass());
+					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), 0, QueryOptionFields.getFields(query));
 				}
 				// join management
 				if(!query.getJoins().isEmpty() 
@@ -7,6 +7,7 @@ import siena.ClassInfo;
 import siena.Query;
 import siena.Util;
 import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
@@ -162,7 +163,7 @@ public class SdbSienaIterable<Model> implements Iterable<Model> {
 				SdbMappingUtils.fillModelKeysOnly(item, clazz, ClassInfo.getClassInfo(clazz), obj);
 			case NORMAL:
 			default:
-				SdbMappingUtils.fillModel(item, clazz, ClassInfo.getClassInfo(clazz), obj);
+				SdbMappingUtils.fillModel(item, clazz, ClassInfo.getClassInfo(clazz), obj, QueryOptionFields.getFields(query));
 				
 				// join management
 				if(!query.getJoins().isEmpty() 
@@ -9,6 +9,7 @@ import siena.Model;
 import siena.PersistenceManager;
 import siena.PersistenceManagerFactory;
 import siena.Query;
+import siena.SienaException;
 import siena.base.test.model.RelatedManyChild;
 import siena.base.test.model.RelatedSeveralQueryChild;
 import siena.base.test.model.RelatedSeveralQueryNoAsChild;
@@ -19,6 +20,7 @@ import siena.base.test.model.RelatedSimpleOwnedParent;
 import siena.base.test.model.RelatedSimpleOwnedChild;
 import siena.base.test.model.RelatedSimpleReferencedChild;
 import siena.base.test.model.RelatedSimpleReferencedParent;
+import siena.core.options.QueryOptionRelations;
 
 public abstract class BaseRelatedTest extends TestCase {
 	
@@ -494,4 +496,73 @@ public abstract class BaseRelatedTest extends TestCase {
 		assertEquals(god.id, adam_chboing_bis.owner.id);
 
 	}
+
+	public void testRelatedManyBatch() {
+		List<RelatedManyParent> gods = new ArrayList<RelatedManyParent>();
+		List<List<RelatedManyChild>> adams = new ArrayList<List<RelatedManyChild>>();
+		for(int i=0; i<40; i++){
+			RelatedManyParent god = new RelatedManyParent("god"+(i<10?"0":"")+i);
+			god.insert();
+			gods.add(god);
+			
+			List<RelatedManyChild> children = new ArrayList<RelatedManyChild>();
+			for(int j=0; j<i%3; j++){
+				RelatedManyChild adam = new RelatedManyChild("adam"+i+"_"+j);
+				adam.owner = god;
+				adam.insert();
+				children.add(adam);
+			}
+			adams.add(children);
+		}
+		
+		List<RelatedManyParent> godbis = Model.all(RelatedManyParent.class).order("name")
+			.customize(new QueryOptionRelations("children")).fetch();
+		assertEquals(40, godbis.size());
+		
+		// the children have been loaded with the parents
+		RelatedManyChild.all().delete();
+		
+		for(int i=0; i<40; i++){
+			assertEquals(gods.get(i), godbis.get(i));
+			List<RelatedManyChild> children = godbis.get(i).children.asList();
+			assertEquals(adams.get(i).size(), children.size());
+			assertTrue(children.containsAll(adams.get(i)));
+		}
+	}
+	
+	public void testRelatedOneBatch() {
+		List<RelatedSimpleOwnedParent> gods = new ArrayList<RelatedSimpleOwnedParent>();
+		List<RelatedSimpleOwnedChild> adams = new ArrayList<RelatedSimpleOwnedChild>();
+		for(int i=0; i<5; i++){
+			RelatedSimpleOwnedParent god = new RelatedSimpleOwnedParent("god"+i);
+			god.insert();
+			gods.add(god);
+			
+			RelatedSimpleOwnedChild adam = null;
+			if(i%2 == 0){
+				adam = new RelatedSimpleOwnedChild("adam"+i);
+				adam.owner = god;
+				adam.insert();
+			}
+			adams.add(adam);
+		}
+		
+		List<RelatedSimpleOwnedParent> godbis = Model.all(RelatedSimpleOwnedParent.class).order("name")
+			.customize(new QueryOptionRelations("child")).fetch();
+		assertEquals(5, godbis.size());
+		
+		Model.all(RelatedSimpleOwnedChild.class).delete();
+
+		for(int i=0; i<5; i++){
+			assertEquals(gods.get(i), godbis.get(i));
+			assertEquals(adams.get(i), godbis.get(i).child.get());
+		}
+		
+		try {
+			Model.all(RelatedSimpleOwnedParent.class)
+				.customize(new QueryOptionRelations("name")).fetch();
+			fail();
+		}catch(SienaException e){
+		}
+	}
 }
@@ -60,6 +60,7 @@ import siena.base.test.model.TransactionAccountTo;
 import siena.core.PersistenceManagerLifeCycleWrapper;
 import siena.core.lifecycle.LifeCyclePhase;
 import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionFields;
 import siena.core.options.QueryOptionPage;
 import siena.embed.JsonSerializer;
 
@@ -223,6 +224,44 @@ public abstract class BaseTest extends TestCase {
 
 	}
 
+	public void testFetchFields() {
+		List<PersonUUID> people = queryPersonUUIDOrderBy("n", 0, false).fetchFields("firstName", "n");
+
+		assertNotNull(people);
+		assertEquals(3, people.size());
+
+		PersonUUID[] expected = { UUID_TESLA, UUID_CURIE, UUID_EINSTEIN };
+		for(int i=0; i<3; i++){
+			assertEquals(expected[i].id, people.get(i).id);
+			assertEquals(expected[i].firstName, people.get(i).firstName);
+			assertEquals(expected[i].n, people.get(i).n);
+			assertNull(people.get(i).lastName);
+			assertNull(people.get(i).city);
+		}
+		
+		// the projection is only used by fetchFields
+		people = queryPersonUUIDOrderBy("n", 0, false).fetch();
+		assertEquals(UUID_TESLA, people.get(0));
+		
+		Iterable<PersonUUID> it = queryPersonUUIDOrderBy("n", 0, false)
+			.customize(new QueryOptionFields("lastName")).iter();
+		int i = 0;
+		for(PersonUUID p: it){
+			assertEquals(expected[i].id, p.id);
+			assertEquals(expected[i].lastName, p.lastName);
+			assertNull(p.firstName);
+			assertEquals(0, p.n);
+			i++;
+		}
+		assertEquals(3, i);
+		
+		try {
+			pm.createQuery(PersonUUID.class).fetchFields("unknown");
+			fail();
+		}catch(SienaException e){
+		}
+	}
+
 	public void testFetchOrder() {
 		List<PersonUUID> people = queryPersonUUIDOrderBy("firstName", "", false).fetch();
 
@@ -8,8 +8,10 @@ import siena.PersistenceManager;
 import siena.Query;
 import siena.SienaException;
 import siena.SienaRestrictedApiException;
+import siena.base.test.model.Address;
 import siena.base.test.model.Discovery;
 import siena.base.test.model.Discovery4Search;
+import siena.base.test.model.LazyModel;
 import siena.base.test.model.PersonUUID;
 import siena.base.test.model.TransactionAccountFrom;
 import siena.gae.GaePersistenceManager;
@@ -2195,4 +2197,27 @@ public class GaeTest extends BaseTest {
 
 
 	
+	public void testLazyFieldsUpdate() {
+		LazyModel model = new LazyModel("lazy");
+		model.text = "a large text";
+		model.addresses = Arrays.asList(new Address("Champs Elysees", "Paris"));
+		pm.insert(model);
+		
+		// the stored values of the lazy fields which have not been loaded are put back
+		LazyModel res = pm.createQuery(LazyModel.class).filter("id", model.id).get();
+		assertNull(res.text);
+		res.name = "updated";
+		pm.update(res);
+		List<LazyModel> list = pm.createQuery(LazyModel.class).filter("id", model.id).fetch();
+		list.get(0).name = "updated list";
+		pm.update(list);
+		
+		res = new LazyModel();
+		res.id = model.id;
+		pm.get(res);
+		assertEquals("updated list", res.name);
+		assertEquals("a large text", res.text);
+		assertEquals("Paris", res.addresses.get(0).city);
+	}
+
 }
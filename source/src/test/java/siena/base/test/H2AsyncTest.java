@@ -0,0 +1,147 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+import org.apache.ddlutils.model.Database;
+
+import siena.base.test.model.AutoInc;
+import siena.base.test.model.DiscoveryNoColumn;
+import siena.base.test.model.DiscoveryNoColumnMultipleKeys;
+import siena.base.test.model.EmbeddedContainerModel;
+import siena.base.test.model.EmbeddedModel;
+import siena.base.test.model.MultipleKeys;
+import siena.base.test.model.PersonStringAutoIncID;
+import siena.base.test.model.PersonUUID;
+import siena.base.test.model.PolymorphicModel;
+import siena.core.async.PersistenceManagerAsync;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2AsyncTest extends BaseAsyncTest {
+	private static PersistenceManagerAsync pm;
+
+	@Override
+	public PersistenceManagerAsync createPersistenceManager(List<Class<?>> classes) throws Exception {
+		if(pm==null){
+			Properties p = new Properties();
+			
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:testasync;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+			
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("async.threads", "4");
+
+			DdlGenerator generator = new DdlGenerator();
+			for (Class<?> clazz : classes) {
+				generator.addTable(clazz);
+			}
+			// the models used by the tests which are not part of the setUp
+			generator.addTable(PersonStringAutoIncID.class);
+			generator.addTable(PolymorphicModel.class);
+			generator.addTable(EmbeddedModel.class);
+			generator.addTable(EmbeddedContainerModel.class);
+			generator.addTable(DiscoveryNoColumn.class);
+			generator.addTable(DiscoveryNoColumnMultipleKeys.class);
+	
+			// get the Database model
+			Database database = generator.getDatabase();
+	
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			
+			// this will perform the database changes
+			platform.alterTables(connection, database, true);
+	
+			connection.close();
+			
+			H2PersistenceManager syncPm = new H2PersistenceManager();
+			syncPm.init(p);
+			pm = syncPm.async();
+		}
+		return pm;
+	}
+	
+	@Override
+	public boolean supportsAutoincrement() {
+		return true;
+	}
+	
+	@Override
+	public boolean supportsMultipleKeys() {
+		return true;
+	}
+	
+	@Override
+	public boolean mustFilterToOrder() {
+		return false;
+	}
+
+	// the errors and the generated ids are known once the task is done
+	@Override
+	public void testDeleteObjectNotFound() {
+		try {
+			PersonUUID p = new PersonUUID();
+			pm.delete(p).get();
+			fail();
+		} catch(Exception e) {
+			System.out.println("Everything is OK");
+		}
+	}
+
+	@Override
+	public void testAutoincrement() {
+		AutoInc first = new AutoInc();
+		first.name = "first";
+		pm.insert(first).get();
+		assertTrue(first.id > 0);
+
+		AutoInc second = new AutoInc();
+		second.name = "second";
+		pm.insert(second).get();
+		assertTrue(second.id > 0);
+		
+		assertTrue(second.id > first.id);
+	}
+
+	@Override
+	public void testNoColumnMultipleKeys() {
+		MultipleKeys mk1 = new MultipleKeys();
+		mk1.id1 = "aid1";
+		mk1.id2 = "aid2";
+		mk1.name = "first";
+		mk1.parent = null;
+		pm.insert(mk1).get();
+
+		MultipleKeys mk2 = new MultipleKeys();
+		mk2.id1 = "bid1";
+		mk2.id2 = "bid2";
+		mk2.name = "second";
+		mk2.parent = null;
+		pm.insert(mk2).get();
+		
+		mk2.parent = mk1;
+		pm.update(mk2).get();
+		
+		DiscoveryNoColumnMultipleKeys disc = new DiscoveryNoColumnMultipleKeys("disc1", mk1, mk2);
+		pm.insert(disc).get();
+		
+		DiscoveryNoColumnMultipleKeys afterDisc = pm.getByKey(DiscoveryNoColumnMultipleKeys.class, disc.id).get();
+		assertNotNull(afterDisc);
+		assertEquals("disc1", afterDisc.name);
+		assertEquals(mk1.id1, afterDisc.mk1.id1);
+		assertEquals(mk1.id2, afterDisc.mk1.id2);
+		assertEquals(mk2.id1, afterDisc.mk2.id1);
+		assertEquals(mk2.id2, afterDisc.mk2.id2);
+	}
+}
@@ -0,0 +1,103 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+import siena.SienaException;
+import siena.jdbc.PooledConnectionManager;
+
+public class H2PooledConnectionManagerTest extends TestCase {
+	private PooledConnectionManager cm;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Properties p = new Properties();
+		p.setProperty("driver",   "org.h2.Driver");
+		p.setProperty("url",      "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1");
+		p.setProperty("user",     "sa");
+		p.setProperty("password", "");
+		p.setProperty("pool.min", "1");
+		p.setProperty("pool.max", "2");
+		p.setProperty("pool.timeout", "100");
+		
+		cm = new PooledConnectionManager();
+		cm.init(p);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cm.closeConnection();
+		cm.shutdown();
+		super.tearDown();
+	}
+	
+	public void testReuse() {
+		assertEquals(1, cm.getSize());
+		assertEquals(1, cm.getIdleCount());
+		
+		Connection c = cm.getConnection();
+		assertSame(c, cm.getConnection());
+		assertEquals(1, cm.getActiveCount());
+		assertEquals(0, cm.getIdleCount());
+		cm.closeConnection();
+		
+		assertEquals(0, cm.getActiveCount());
+		assertEquals(1, cm.getIdleCount());
+		assertSame(c, cm.getConnection());
+		assertEquals(1, cm.getCreatedCount());
+		assertEquals(2, cm.getBorrowCount());
+	}
+	
+	public void testRollbackOnGiveBack() throws Exception {
+		cm.beginTransaction();
+		Connection c = cm.getConnection();
+		assertFalse(c.getAutoCommit());
+		cm.closeConnection();
+		
+		assertSame(c, cm.getConnection());
+		assertTrue(c.getAutoCommit());
+	}
+	
+	public void testValidationOnBorrow() throws Exception {
+		Connection c = cm.getConnection();
+		cm.closeConnection();
+		c.close();
+		
+		Connection c2 = cm.getConnection();
+		assertNotSame(c, c2);
+		assertFalse(c2.isClosed());
+		assertEquals(1, cm.getSize());
+	}
+	
+	public void testMaxSize() throws Exception {
+		final Connection[] other = new Connection[1];
+		Thread t = new Thread() {
+			public void run() {
+				other[0] = cm.getConnection();
+			}
+		};
+		t.start();
+		t.join();
+		
+		cm.getConnection();
+		assertEquals(2, cm.getSize());
+		assertEquals(2, cm.getActiveCount());
+		
+		Thread t2 = new Thread() {
+			public void run() {
+				try {
+					cm.getConnection();
+					fail();
+				}catch(SienaException ex){
+					// timeout
+				}
+			}
+		};
+		t2.start();
+		t2.join();
+		assertEquals(1, cm.getTimeoutCount());
+		assertEquals(2, cm.getSize());
+	}
+}
@@ -1,8 +1,10 @@
 package siena.base.test;
 
+import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.ddlutils.Platform;
@@ -11,10 +13,30 @@ import org.apache.ddlutils.model.Database;
 import org.h2.jdbcx.JdbcDataSource;
 
 import siena.PersistenceManager;
+import siena.PersistenceManagerFactory;
 import siena.Query;
+import siena.SienaException;
 import siena.base.test.model.*;
+import siena.core.CachingPersistenceManager;
+import siena.core.EntityCache;
+import siena.core.QueryCache;
+import siena.core.UUIDGenerator;
+import siena.core.options.QueryOptionCache;
+import siena.core.options.QueryOptionFields;
+import siena.core.options.QueryOptionRelations;
+import siena.jdbc.AbstractConnectionManager;
+import siena.jdbc.ConnectionManager;
 import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcPersistenceManager;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+import siena.jdbc.JdbcSequence;
+import siena.jdbc.JdbcSienaIterable;
+import siena.jdbc.JdbcSqlPlanCache;
+import siena.jdbc.JdbcStreamCursor;
+import siena.jdbc.PooledConnectionManager;
 import siena.jdbc.PostgresqlPersistenceManager;
+import siena.jdbc.QueryOptionJdbcKeyset;
+import siena.jdbc.QueryOptionJdbcStream;
 import siena.jdbc.ddl.DdlGenerator;
 
 import static siena.Json.map;
@@ -41,6 +63,11 @@ public class H2Test extends BaseTest {
 			for (Class<?> clazz : classes) {
 				generator.addTable(clazz);
 			}
+			generator.addTable(PersonLongSequenceID.class);
+			generator.addTable(LazyModel.class);
+			generator.addTable(RelatedManyParent.class);
+			generator.addTable(RelatedManyChild.class);
+			generator.addTable(CachedPerson.class);
 	
 			// get the Database model
 			Database database = generator.getDatabase();
@@ -1753,4 +1780,1208 @@ public class H2Test extends BaseTest {
         assertEquals(1, models.size());
         assertEquals("Lorum Ipsum", models.get(0).text);
     }
+    
+	public void testSqlPlanCache() {
+		JdbcSqlPlanCache cache = pm.getSqlPlanCache();
+		cache.clear();
+		long hits = cache.getHits();
+		long misses = cache.getMisses();
+		
+		List<PersonLongAutoID> people = 
+			pm.createQuery(PersonLongAutoID.class).filter("n>", 1).order("n").fetch();
+		assertEquals(2, people.size());
+		assertEquals(misses+1, cache.getMisses());
+		assertEquals(hits, cache.getHits());
+		
+		// same shape with other values only binds the new values
+		people = pm.createQuery(PersonLongAutoID.class).filter("n>", 2).order("n").fetch();
+		assertEquals(1, people.size());
+		assertEquals(3, people.get(0).n);
+		assertEquals(misses+1, cache.getMisses());
+		assertEquals(hits+1, cache.getHits());
+		
+		// IN arity and NULL values change the shape
+		people = pm.createQuery(PersonLongAutoID.class).filter("n IN", Arrays.asList(1, 3)).order("n").fetch();
+		assertEquals(2, people.size());
+		people = pm.createQuery(PersonLongAutoID.class).filter("n IN", Arrays.asList(1, 2, 3)).order("n").fetch();
+		assertEquals(3, people.size());
+		people = pm.createQuery(PersonLongAutoID.class).filter("city", null).fetch();
+		assertEquals(0, people.size());
+		people = pm.createQuery(PersonLongAutoID.class).filter("city", "Ulm").fetch();
+		assertEquals(1, people.size());
+		assertEquals(misses+5, cache.getMisses());
+		assertEquals(hits+1, cache.getHits());
+		
+		assertEquals(3, pm.createQuery(PersonLongAutoID.class).count());
+		assertEquals(3, pm.createQuery(PersonLongAutoID.class).count());
+		assertEquals(misses+6, cache.getMisses());
+		assertEquals(hits+2, cache.getHits());
+	}
+	
+	public void testStatementCache() {
+		AbstractConnectionManager cm = (AbstractConnectionManager)pm.getConnectionManager();
+		
+		List<PersonLongAutoID> people = pm.createQuery(PersonLongAutoID.class).order("n").fetch();
+		PersonLongAutoID person = new PersonLongAutoID();
+		person.id = people.get(0).id;
+		pm.get(person);
+		assertEquals(people.get(0), person);
+		
+		long hits = cm.getStatementCacheHits();
+		long misses = cm.getStatementCacheMisses();
+		
+		// the select by key statement is reused
+		person = new PersonLongAutoID();
+		person.id = people.get(1).id;
+		pm.get(person);
+		assertEquals(people.get(1), person);
+		assertEquals(hits+1, cm.getStatementCacheHits());
+		assertEquals(misses, cm.getStatementCacheMisses());
+		
+		// a statement still in use is not shared
+		Iterable<PersonLongAutoID> it = pm.createQuery(PersonLongAutoID.class).order("n").iter();
+		Iterable<PersonLongAutoID> it2 = pm.createQuery(PersonLongAutoID.class).order("n").iter();
+		Iterator<PersonLongAutoID> iter = it.iterator();
+		Iterator<PersonLongAutoID> iter2 = it2.iterator();
+		for(int i=0; i<3; i++){
+			assertTrue(iter.hasNext());
+			assertTrue(iter2.hasNext());
+			assertEquals(people.get(i), iter.next());
+			assertEquals(people.get(i), iter2.next());
+		}
+		assertTrue(cm.getStatementCacheHitRate() > 0.0);
+	}
+	
+	public void testConnectionManagerWithoutStatementCache() throws Exception {
+		// a ConnectionManager which doesn't extend AbstractConnectionManager prepares nothing
+		// (own DB: the connection of pm may keep locks)
+		final Connection connection = DriverManager.getConnection("jdbc:h2:mem:managers;DB_CLOSE_DELAY=-1", "sa", "");
+		try {
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			PlatformFactory.createNewPlatformInstance("mysql").alterTables(connection, generator.getDatabase(), true);
+			
+			ConnectionManager cm = new ConnectionManager() {
+				public void init(Properties properties) {
+				}
+				
+				public Connection getConnection() {
+					return connection;
+				}
+				
+				public void beginTransaction(int isolationLevel) {
+				}
+				
+				public void beginTransaction() {
+				}
+				
+				public void commitTransaction() {
+				}
+				
+				public void rollbackTransaction() {
+				}
+				
+				public void closeConnection() {
+				}
+			};
+			JdbcPersistenceManager customPm = new JdbcPersistenceManager(cm, null);
+			PersonLongAutoID person = new PersonLongAutoID("John", "Doe", "London", 1);
+			customPm.insert(person);
+			assertNotNull(person.id);
+			assertEquals("Doe", customPm.getByKey(PersonLongAutoID.class, person.id).lastName);
+			assertEquals(1, customPm.createQuery(PersonLongAutoID.class).count());
+		} finally {
+			connection.close();
+		}
+	}
+	
+	public void testStatementCacheAcrossOperations() throws Exception {
+		// JdbcPersistenceManager really closes the connection after each operation out of transactions
+		// (own DB kept open by a connection: the connection of pm may keep locks)
+		String url = "jdbc:h2:mem:statements;DB_CLOSE_DELAY=-1";
+		DdlGenerator generator = new DdlGenerator();
+		generator.addTable(PersonLongAutoID.class);
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+		try {
+			PlatformFactory.createNewPlatformInstance("mysql").alterTables(connection, generator.getDatabase(), true);
+			
+			Properties p = new Properties();
+			p.setProperty("driver", "org.h2.Driver");
+			p.setProperty("url", url);
+			p.setProperty("user", "sa");
+			p.setProperty("password", "");
+			p.setProperty("transactions", PooledConnectionManager.class.getName());
+			JdbcPersistenceManager pooledPm = new JdbcPersistenceManager();
+			pooledPm.init(p);
+			PersonLongAutoID person = new PersonLongAutoID("John", "Doe", "London", 1);
+			pooledPm.insert(person);
+			
+			// the statements stay with the pooled connection
+			AbstractConnectionManager cm = (AbstractConnectionManager)pooledPm.getConnectionManager();
+			assertEquals("Doe", pooledPm.getByKey(PersonLongAutoID.class, person.id).lastName);
+			long hits = cm.getStatementCacheHits();
+			assertEquals("Doe", pooledPm.getByKey(PersonLongAutoID.class, person.id).lastName);
+			assertEquals(hits+1, cm.getStatementCacheHits());
+			((PooledConnectionManager)cm).shutdown();
+			
+			// the statements are closed with the connection of the thread
+			p.remove("transactions");
+			JdbcPersistenceManager threadedPm = new JdbcPersistenceManager();
+			threadedPm.init(p);
+			cm = (AbstractConnectionManager)threadedPm.getConnectionManager();
+			assertEquals("Doe", threadedPm.getByKey(PersonLongAutoID.class, person.id).lastName);
+			hits = cm.getStatementCacheHits();
+			assertEquals("Doe", threadedPm.getByKey(PersonLongAutoID.class, person.id).lastName);
+			assertEquals(hits, cm.getStatementCacheHits());
+		} finally {
+			connection.close();
+		}
+	}
+	
+	public void testKeysetPagination() {
+		Discovery[] discs = new Discovery[12];
+		for(int i=0; i<12; i++){
+			// the same name twice so the key breaks the ties
+			discs[i] = new Discovery("Disc_"+(i/2), LongAutoID_CURIE);
+		}
+		pm.insert((Object[])discs);
+		
+		QueryOptionJdbcKeyset keyset = new QueryOptionJdbcKeyset();
+		Query<Discovery> query = pm.createQuery(Discovery.class).paginate(5).order("name").customize(keyset);
+		List<Discovery> res = query.fetch();
+		assertEquals(Arrays.asList(discs).subList(0, 5), res);
+		assertEquals(QueryOptionJdbcKeyset.Seek.NONE, keyset.seek);
+		
+		res = query.nextPage().fetch();
+		assertEquals(Arrays.asList(discs).subList(5, 10), res);
+		assertEquals(QueryOptionJdbcKeyset.Seek.AFTER, keyset.seek);
+		assertEquals(0, keyset.skip);
+		
+		res = query.nextPage().fetch();
+		assertEquals(Arrays.asList(discs).subList(10, 12), res);
+		res = query.nextPage().fetch();
+		assertEquals(0, res.size());
+		
+		// comes back from the end
+		res = query.previousPage().fetch();
+		assertEquals(Arrays.asList(discs).subList(10, 12), res);
+		assertEquals(QueryOptionJdbcKeyset.Seek.FROM, keyset.seek);
+		res = query.previousPage().fetch();
+		assertEquals(Arrays.asList(discs).subList(5, 10), res);
+		assertEquals(QueryOptionJdbcKeyset.Seek.BEFORE, keyset.seek);
+		res = query.previousPage().fetch();
+		assertEquals(Arrays.asList(discs).subList(0, 5), res);
+		res = query.previousPage().fetch();
+		assertEquals(0, res.size());
+		res = query.nextPage().fetch();
+		assertEquals(Arrays.asList(discs).subList(0, 5), res);
+		
+		// the iteration per page seeks from page to page
+		List<Discovery> all = new ArrayList<Discovery>();
+		for(Discovery disc: pm.createQuery(Discovery.class).order("name")
+				.customize(new QueryOptionJdbcKeyset()).iterPerPage(5)){
+			all.add(disc);
+		}
+		assertEquals(Arrays.asList(discs), all);
+	}
+	
+	public void testKeysetPaginationStatefulDesc() {
+		Discovery[] discs = new Discovery[12];
+		for(int i=0; i<12; i++){
+			discs[i] = new Discovery("Disc_"+(i/2), LongAutoID_CURIE);
+		}
+		pm.insert((Object[])discs);
+		
+		// name descending then key ascending
+		List<Discovery> expected = new ArrayList<Discovery>();
+		for(int i=5; i>=0; i--){
+			expected.add(discs[2*i]);
+			expected.add(discs[2*i+1]);
+		}
+		
+		QueryOptionJdbcKeyset keyset = new QueryOptionJdbcKeyset();
+		Query<Discovery> query = pm.createQuery(Discovery.class).stateful().paginate(4).order("-name").customize(keyset);
+		List<Discovery> res = query.fetch();
+		assertEquals(expected.subList(0, 4), res);
+		res = query.nextPage().fetch();
+		assertEquals(expected.subList(4, 8), res);
+		assertEquals(QueryOptionJdbcKeyset.Seek.AFTER, keyset.seek);
+		res = query.nextPage().fetch();
+		assertEquals(expected.subList(8, 12), res);
+		res = query.previousPage().fetch();
+		assertEquals(expected.subList(4, 8), res);
+		assertEquals(QueryOptionJdbcKeyset.Seek.BEFORE, keyset.seek);
+		
+		// an offset is reached from the remembered page
+		res = query.fetch(4, 5);
+		assertEquals(expected.subList(9, 12), res);
+		query.release();
+	}
+	
+	public void testKeysetPaginationProjection() {
+		Discovery[] discs = new Discovery[12];
+		for(int i=0; i<12; i++){
+			discs[i] = new Discovery("Disc_"+(i/2), LongAutoID_CURIE);
+		}
+		pm.insert((Object[])discs);
+		
+		// the order field is not selected: the pages are fetched with offsets
+		QueryOptionJdbcKeyset keyset = new QueryOptionJdbcKeyset();
+		Query<Discovery> query = pm.createQuery(Discovery.class).paginate(5).order("name")
+			.customize(keyset, new QueryOptionFields("discoverer"));
+		List<Long> ids = new ArrayList<Long>();
+		for(int i=0; i<3; i++){
+			for(Discovery disc: query.fetch()){
+				assertNull(disc.name);
+				ids.add(disc.id);
+			}
+			assertEquals(QueryOptionJdbcKeyset.Seek.NONE, keyset.seek);
+			query.nextPage();
+		}
+		List<Long> expected = new ArrayList<Long>();
+		for(Discovery disc: discs){
+			expected.add(disc.id);
+		}
+		assertEquals(expected, ids);
+		
+		int count = 0;
+		for(Discovery disc: pm.createQuery(Discovery.class).order("name")
+				.customize(new QueryOptionJdbcKeyset(), new QueryOptionFields("discoverer")).iterPerPage(5)){
+			assertEquals(discs[count++].id, disc.id);
+		}
+		assertEquals(12, count);
+		
+		// the order field is selected: the next page is sought
+		keyset = new QueryOptionJdbcKeyset();
+		query = pm.createQuery(Discovery.class).paginate(5).order("name")
+			.customize(keyset, new QueryOptionFields("name"));
+		query.fetch();
+		assertEquals(Arrays.asList(discs).subList(5, 10), query.nextPage().fetch());
+		assertEquals(QueryOptionJdbcKeyset.Seek.AFTER, keyset.seek);
+	}
+	
+	public void testKeysetPaginationNulls() {
+		Discovery[] discs = new Discovery[6];
+		for(int i=0; i<6; i++){
+			discs[i] = new Discovery(i%3 == 0 ? null : "Disc_"+i, LongAutoID_CURIE);
+		}
+		pm.insert((Object[])discs);
+		
+		// the NULL values are sought where the DB sorts them: same pages as with offsets
+		for(String order: new String[] { "name", "-name" }){
+			QueryOptionJdbcKeyset keyset = new QueryOptionJdbcKeyset();
+			Query<Discovery> query = pm.createQuery(Discovery.class).paginate(2).order(order).order("id").customize(keyset);
+			Query<Discovery> offsets = pm.createQuery(Discovery.class).paginate(2).order(order).order("id");
+			List<Discovery> all = new ArrayList<Discovery>();
+			List<Discovery> res = query.fetch();
+			assertEquals(offsets.fetch(), res);
+			for(int i=0; i<2; i++){
+				all.addAll(res);
+				res = query.nextPage().fetch();
+				assertEquals(QueryOptionJdbcKeyset.Seek.AFTER, keyset.seek);
+				assertEquals(offsets.nextPage().fetch(), res);
+			}
+			all.addAll(res);
+			assertEquals(6, new HashSet<Discovery>(all).size());
+			res = query.previousPage().fetch();
+			assertEquals(QueryOptionJdbcKeyset.Seek.BEFORE, keyset.seek);
+			assertEquals(offsets.previousPage().fetch(), res);
+			assertEquals(offsets.previousPage().fetch(), query.previousPage().fetch());
+		}
+	}
+	
+	public void testStreamedIter() {
+		Discovery[] discs = new Discovery[30];
+		for(int i=0; i<30; i++){
+			discs[i] = new Discovery("Disc_"+(i<10?"0"+i:i), LongAutoID_CURIE);
+		}
+		pm.insert((Object[])discs);
+		
+		int opened = JdbcStreamCursor.countOpened();
+		Iterable<Discovery> it = pm.createQuery(Discovery.class).order("name")
+			.customize(new QueryOptionJdbcStream(10)).iter();
+		assertTrue(((JdbcSienaIterable<Discovery>)it).isStreamed());
+		assertEquals(opened+1, JdbcStreamCursor.countOpened());
+		
+		List<Discovery> all = new ArrayList<Discovery>();
+		for(Discovery disc: it){
+			all.add(disc);
+		}
+		assertEquals(Arrays.asList(discs), all);
+		// the cursor is closed at the end of the rows
+		assertEquals(opened, JdbcStreamCursor.countOpened());
+		
+		// closes the cursor before the end
+		it = pm.createQuery(Discovery.class).order("name")
+			.customize(new QueryOptionJdbcStream(10)).iter();
+		Iterator<Discovery> iter = it.iterator();
+		assertTrue(iter.hasNext());
+		assertEquals(discs[0], iter.next());
+		((JdbcSienaIterable<Discovery>)it).close();
+		assertEquals(opened, JdbcStreamCursor.countOpened());
+		assertFalse(iter.hasNext());
+		
+		// paginated iterations are not streamed
+		it = pm.createQuery(Discovery.class).order("name").paginate(5)
+			.customize(new QueryOptionJdbcStream(10)).iter();
+		assertFalse(((JdbcSienaIterable<Discovery>)it).isStreamed());
+	}
+	
+	public void testStreamedIterClosedByAnotherThread() throws Exception {
+		// a DB streaming in transactions as PostgreSQL (own DB: the connection of pm may keep locks)
+		String url = "jdbc:h2:mem:streams;DB_CLOSE_DELAY=-1";
+		DdlGenerator generator = new DdlGenerator();
+		generator.addTable(PersonLongAutoID.class);
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+		PlatformFactory.createNewPlatformInstance("mysql").alterTables(connection, generator.getDatabase(), true);
+		connection.close();
+		
+		H2PersistenceManager streamPm = new H2PersistenceManager() {
+			@Override
+			protected boolean isStreamingTransactional() {
+				return true;
+			}
+		};
+		Properties p = new Properties();
+		p.setProperty("driver", "org.h2.Driver");
+		p.setProperty("url", url);
+		p.setProperty("user", "sa");
+		p.setProperty("password", "");
+		streamPm.init(p);
+		streamPm.insert(new PersonLongAutoID("John", "Doe", "London", 1), new PersonLongAutoID("Jane", "Doe", "Paris", 2));
+		
+		int opened = JdbcStreamCursor.countOpened();
+		final Iterable<PersonLongAutoID> it = streamPm.createQuery(PersonLongAutoID.class).order("n")
+			.customize(new QueryOptionJdbcStream(1)).iter();
+		assertTrue(it.iterator().hasNext());
+		Connection owned = streamPm.getConnectionManager().getConnection();
+		assertFalse(owned.getAutoCommit());
+		
+		// as the finalizer: only the cursor is closed
+		Thread closer = new Thread() {
+			public void run() {
+				((JdbcSienaIterable<PersonLongAutoID>)it).close();
+			}
+		};
+		closer.start();
+		closer.join();
+		assertEquals(opened, JdbcStreamCursor.countOpened());
+		assertFalse(owned.getAutoCommit());
+		
+		// the owner thread puts its connection back in autocommit mode when it uses it
+		assertEquals(2, streamPm.createQuery(PersonLongAutoID.class).count());
+		assertTrue(owned.getAutoCommit());
+		streamPm.closeConnection();
+	}
+	
+	public void testBatchInsertChunked() {
+		int batchSize = pm.getBatchSize();
+		pm.setBatchSize(7);
+		try {
+			int count = pm.createQuery(PersonUUID.class).count();
+			PersonUUID[] people = new PersonUUID[30];
+			for(int i=0; i<30; i++){
+				people[i] = new PersonUUID();
+				people[i].firstName = "First_"+i;
+				people[i].lastName = "Last_"+i;
+			}
+			assertEquals(30, pm.insert((Object[])people));
+			assertEquals(count+30, pm.createQuery(PersonUUID.class).count());
+			for(int i=0; i<30; i++){
+				assertEquals("First_"+i, pm.getByKey(PersonUUID.class, people[i].id).firstName);
+			}
+			
+			Discovery[] discs = new Discovery[30];
+			for(int i=0; i<30; i++){
+				discs[i] = new Discovery("Disc_"+i, LongAutoID_CURIE);
+			}
+			assertEquals(30, pm.insert((Object[])discs));
+			assertEquals(Arrays.asList(discs), pm.createQuery(Discovery.class).order("id").fetch());
+		}finally {
+			pm.setBatchSize(batchSize);
+		}
+	}
+	
+	public void testBatchInsertMultiRow() {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(PersonUUID.class);
+		assertEquals(info.insertSQL + ", " + info.insertValuesSQL + ", " + info.insertValuesSQL, info.insertSQL(3));
+		
+		int batchSize = pm.getBatchSize();
+		pm.setBatchSize(7);
+		pm.setMultiRowInsert(true);
+		try {
+			int count = pm.createQuery(PersonUUID.class).count();
+			PersonUUID[] people = new PersonUUID[30];
+			for(int i=0; i<30; i++){
+				people[i] = new PersonUUID();
+				people[i].firstName = "First_"+i;
+				people[i].lastName = "Last_"+i;
+			}
+			assertEquals(30, pm.insert((Object[])people));
+			assertEquals(count+30, pm.createQuery(PersonUUID.class).count());
+			for(int i=0; i<30; i++){
+				PersonUUID p = pm.getByKey(PersonUUID.class, people[i].id);
+				assertEquals("First_"+i, p.firstName);
+				assertEquals("Last_"+i, p.lastName);
+			}
+			
+			// the generated keys are still set
+			Discovery[] discs = new Discovery[30];
+			for(int i=0; i<30; i++){
+				discs[i] = new Discovery("Disc_"+i, LongAutoID_CURIE);
+			}
+			assertEquals(30, pm.insert((Object[])discs));
+			for(int i=1; i<30; i++){
+				assertTrue(discs[i].id > discs[i-1].id);
+			}
+			assertEquals(Arrays.asList(discs), pm.createQuery(Discovery.class).order("id").fetch());
+		}finally {
+			pm.setBatchSize(batchSize);
+			pm.setMultiRowInsert(false);
+		}
+	}
+	
+	public void testSequence() {
+		pm.createQuery(PersonLongSequenceID.class).delete();
+		
+		PersonLongSequenceID[] people = new PersonLongSequenceID[25];
+		for(int i=0; i<25; i++){
+			people[i] = new PersonLongSequenceID("First_"+i, "Last_"+i, i);
+		}
+		// the ids are set before the batch
+		assertEquals(25, pm.insert((Object[])people));
+		for(int i=1; i<25; i++){
+			assertTrue(people[i].id > people[i-1].id);
+		}
+		
+		PersonLongSequenceID single = new PersonLongSequenceID("First", "Last", 25);
+		pm.insert(single);
+		assertTrue(single.id > people[24].id);
+		
+		List<PersonLongSequenceID> res = pm.createQuery(PersonLongSequenceID.class).order("id").fetch();
+		assertEquals(26, res.size());
+		for(int i=0; i<25; i++){
+			assertEquals(people[i].id, res.get(i).id);
+			assertEquals("First_"+i, res.get(i).firstName);
+		}
+		assertEquals(single.id, res.get(25).id);
+	}
+	
+	public void testSequenceBlocks() throws Exception {
+		// the sequence is created at the first reservation and increments by block
+		final JdbcSequence sequence = new JdbcSequence(pm, "test_blocks_seq", 7);
+		long first = pm.reserveSequenceBlock(sequence);
+		assertEquals(first + 7, pm.reserveSequenceBlock(sequence));
+		
+		// DB without sequences: table siena_sequences
+		H2PersistenceManager tablePm = new H2PersistenceManager() {
+			@Override
+			protected String getNextSequenceValueSQL(JdbcSequence sequence) {
+				return null;
+			}
+		};
+		Properties p = new Properties();
+		p.setProperty("driver", "org.h2.Driver");
+		p.setProperty("url", "jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
+		p.setProperty("user", "sa");
+		p.setProperty("password", "");
+		tablePm.init(p);
+		JdbcSequence tableSequence = new JdbcSequence(tablePm, "test_table_seq", 7);
+		assertEquals(1, tablePm.reserveSequenceBlock(tableSequence));
+		assertEquals(8, tablePm.reserveSequenceBlock(tableSequence));
+		assertEquals(15, tableSequence.next());
+		assertEquals(16, tableSequence.next());
+		tablePm.closeConnection();
+		
+		// the block reserved in a transaction is not given back by its rollback
+		tablePm.beginTransaction();
+		try {
+			assertEquals(22, tablePm.reserveSequenceBlock(tableSequence));
+			tablePm.rollbackTransaction();
+		} finally {
+			tablePm.closeConnection();
+		}
+		assertEquals(29, tablePm.reserveSequenceBlock(tableSequence));
+		tablePm.closeConnection();
+		
+		// the native sequence created in a transaction doesn't commit it
+		// (own DB kept open by a connection: the connection of pm may keep locks)
+		String url = "jdbc:h2:mem:sequences;DB_CLOSE_DELAY=-1";
+		DdlGenerator generator = new DdlGenerator();
+		generator.addTable(PersonLongAutoID.class);
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+		try {
+			PlatformFactory.createNewPlatformInstance("mysql").alterTables(connection, generator.getDatabase(), true);
+			p.setProperty("url", url);
+			H2PersistenceManager txPm = new H2PersistenceManager();
+			txPm.init(p);
+			JdbcSequence txSequence = new JdbcSequence(txPm, "test_tx_seq", 7);
+			txPm.beginTransaction();
+			try {
+				txPm.insert(new PersonLongAutoID("John", "Doe", "London", 1));
+				first = txPm.reserveSequenceBlock(txSequence);
+				txPm.rollbackTransaction();
+			} finally {
+				txPm.closeConnection();
+			}
+			assertEquals(0, txPm.createQuery(PersonLongAutoID.class).count());
+			assertEquals(first + 7, txPm.reserveSequenceBlock(txSequence));
+			txPm.closeConnection();
+		} finally {
+			connection.close();
+		}
+		
+		// the ids are unique between threads
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		Thread[] threads = new Thread[4];
+		for(int t=0; t<threads.length; t++){
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for(int i=0; i<100; i++){
+							ids.add(sequence.next());
+						}
+					}finally {
+						pm.closeConnection();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread: threads){
+			thread.join();
+		}
+		assertEquals(400, ids.size());
+	}
+	
+	public void testUUIDTimeOrdered() throws Exception {
+		pm.createQuery(PersonUUID.class).delete();
+		UUIDGenerator.setMode(UUIDGenerator.Mode.TIME_ORDERED);
+		try {
+			PersonUUID[] people = new PersonUUID[50];
+			for(int i=0; i<people.length; i++){
+				people[i] = new PersonUUID("First_"+i, "Last_"+i, "City", i);
+			}
+			pm.insert((Object[])people);
+			for(int i=0; i<people.length; i++){
+				assertEquals(7, UUID.fromString(people[i].id).version());
+				assertEquals(2, UUID.fromString(people[i].id).variant());
+				if(i > 0) assertTrue(people[i].id.compareTo(people[i-1].id) > 0);
+			}
+			
+			List<PersonUUID> res = pm.createQuery(PersonUUID.class).order("id").fetch();
+			assertEquals(people.length, res.size());
+			for(int i=0; i<people.length; i++){
+				assertEquals(people[i], res.get(i));
+			}
+			
+			// the UUIDs of different threads are unique
+			final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+			Thread[] threads = new Thread[4];
+			for(int t=0; t<threads.length; t++){
+				threads[t] = new Thread() {
+					public void run() {
+						for(int i=0; i<5000; i++){
+							ids.add(UUIDGenerator.nextString());
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread: threads){
+				thread.join();
+			}
+			assertEquals(20000, new HashSet<String>(ids).size());
+		}finally {
+			UUIDGenerator.setMode(UUIDGenerator.Mode.RANDOM);
+		}
+		
+		Properties p = new Properties();
+		p.setProperty(UUIDGenerator.PROPERTY, "time");
+		UUIDGenerator.configure(p);
+		assertEquals(UUIDGenerator.Mode.TIME_ORDERED, UUIDGenerator.getMode());
+		p.setProperty(UUIDGenerator.PROPERTY, "random");
+		UUIDGenerator.configure(p);
+		assertEquals(UUIDGenerator.Mode.RANDOM, UUIDGenerator.getMode());
+		assertEquals(4, UUIDGenerator.next().version());
+	}
+	
+	public void testUpdateQuery() {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("city", "Paris");
+		values.put("lastName", "Updated");
+		assertEquals(2, pm.createQuery(PersonUUID.class).filter("n>", 1).update(values));
+		
+		List<PersonUUID> people = pm.createQuery(PersonUUID.class).order("n").fetch();
+		assertEquals(3, people.size());
+		assertEquals("Smiljam", people.get(0).city);
+		assertEquals("Tesla", people.get(0).lastName);
+		for(int i=1; i<3; i++){
+			assertEquals("Paris", people.get(i).city);
+			assertEquals("Updated", people.get(i).lastName);
+		}
+		assertEquals("Marie", people.get(1).firstName);
+		
+		values.clear();
+		values.put("city", null);
+		assertEquals(3, pm.createQuery(PersonUUID.class).update(values));
+		assertEquals(3, pm.createQuery(PersonUUID.class).filter("city", null).count());
+		
+		assertEquals(0, pm.createQuery(PersonUUID.class).filter("n>", 10).update(values));
+		
+		values.clear();
+		values.put("id", "1");
+		try {
+			pm.createQuery(PersonUUID.class).update(values);
+			fail();
+		}catch(SienaException e){
+		}
+	}
+	
+	public void testGetByKeysChunked() {
+		int chunkSize = pm.getKeysChunkSize();
+		pm.setKeysChunkSize(5);
+		try {
+			assertEquals(4, pm.getKeysChunkSize());
+			Discovery[] discs = new Discovery[30];
+			for(int i=0; i<30; i++){
+				discs[i] = new Discovery("Disc_"+i, LongAutoID_CURIE);
+			}
+			pm.insert((Object[])discs);
+			
+			for(int run=0; run<2; run++){
+				// the second time, the chunks are fetched in parallel
+				if(run == 1) pm.async();
+				
+				List<Object> keys = new ArrayList<Object>();
+				for(int i=29; i>=0; i--){
+					keys.add(discs[i].id);
+				}
+				keys.add(-1L);
+				keys.add(discs[3].id);
+				List<Discovery> res = pm.getByKeys(Discovery.class, keys);
+				assertEquals(32, res.size());
+				for(int i=0; i<30; i++){
+					assertEquals(discs[29-i], res.get(i));
+				}
+				assertNull(res.get(30));
+				assertEquals(discs[3], res.get(31));
+				
+				Discovery[] toGet = new Discovery[30];
+				for(int i=0; i<30; i++){
+					toGet[i] = new Discovery();
+					toGet[i].id = discs[i].id;
+				}
+				assertEquals(30, pm.get((Object[])toGet));
+				assertEquals(Arrays.asList(discs), Arrays.asList(toGet));
+			}
+		}finally {
+			pm.setKeysChunkSize(chunkSize);
+		}
+	}
+	
+	public void testGetByKeysChunkedInAsyncTask() throws Exception {
+		// the only thread of the executor runs the getByKeys: it must not wait for chunk tasks
+		// (own DB: the connection of pm may keep locks on the tables of the tests)
+		String url = "jdbc:h2:mem:async_chunks;DB_CLOSE_DELAY=-1";
+		DdlGenerator generator = new DdlGenerator();
+		generator.addTable(PersonLongAutoID.class);
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+		PlatformFactory.createNewPlatformInstance("mysql").alterTables(connection, generator.getDatabase(), true);
+		connection.close();
+		
+		Properties p = new Properties();
+		p.setProperty("driver", "org.h2.Driver");
+		p.setProperty("url", url);
+		p.setProperty("user", "sa");
+		p.setProperty("password", "");
+		p.setProperty("async.threads", "1");
+		p.setProperty("keys.chunk.size", "2");
+		final H2PersistenceManager asyncPm = new H2PersistenceManager();
+		asyncPm.init(p);
+		
+		PersonLongAutoID[] persons = new PersonLongAutoID[4];
+		final List<Object> keys = new ArrayList<Object>();
+		for(int i=0; i<4; i++){
+			persons[i] = new PersonLongAutoID("John", "Doe_"+i, "London", i);
+			asyncPm.insert(persons[i]);
+			keys.add(persons[i].id);
+		}
+		
+		final List<PersonLongAutoID> res = new ArrayList<PersonLongAutoID>();
+		final List<RuntimeException> errors = new ArrayList<RuntimeException>();
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					res.addAll(asyncPm.async().getByKeys(PersonLongAutoID.class, keys).get());
+				}catch(RuntimeException e){
+					errors.add(e);
+				}
+			}
+		};
+		caller.setDaemon(true);
+		caller.start();
+		caller.join(10000);
+		assertFalse("getByKeys deadlocked", caller.isAlive());
+		if(!errors.isEmpty()) throw errors.get(0);
+		assertEquals(Arrays.asList(persons), res);
+		asyncPm.closeConnection();
+	}
+	
+	public void testLazyFields() {
+		LazyModel model = new LazyModel("lazy");
+		model.text = "a large text";
+		model.json = map().put("foo", "bar");
+		model.addresses = Arrays.asList(new Address("Champs Elysees", "Paris"));
+		pm.insert(model);
+		
+		LazyModel res = pm.createQuery(LazyModel.class).filter("id", model.id).get();
+		assertEquals("lazy", res.name);
+		assertNull(res.text);
+		assertNull(res.json);
+		assertNull(res.addresses);
+		
+		res = pm.getByKey(LazyModel.class, model.id);
+		assertEquals("lazy", res.name);
+		assertNull(res.text);
+		
+		pm.loadField(res, "text", "json");
+		assertEquals("a large text", res.text);
+		assertEquals("bar", res.json.get("foo").str());
+		assertNull(res.addresses);
+		pm.loadField(res, "addresses");
+		assertEquals("Paris", res.addresses.get(0).city);
+		
+		res = pm.createQuery(LazyModel.class).fetchFields("name", "text").get(0);
+		assertEquals("lazy", res.name);
+		assertEquals("a large text", res.text);
+		assertNull(res.json);
+		
+		// get(obj) loads all the fields
+		res = new LazyModel();
+		res.id = model.id;
+		pm.get(res);
+		assertEquals("a large text", res.text);
+		assertEquals("Paris", res.addresses.get(0).city);
+		
+		try {
+			pm.loadField(new LazyModel(), "text");
+			fail();
+		}catch(SienaException e){
+		}
+	}
+
+	public void testLazyFieldsUpdate() {
+		LazyModel model = new LazyModel("lazy");
+		model.text = "a large text";
+		model.json = map().put("foo", "bar");
+		model.addresses = Arrays.asList(new Address("Champs Elysees", "Paris"));
+		pm.insert(model);
+		
+		// the lazy fields which have not been loaded are not written
+		LazyModel res = pm.getByKey(LazyModel.class, model.id);
+		res.name = "updated";
+		pm.update(res);
+		res = new LazyModel();
+		res.id = model.id;
+		pm.get(res);
+		assertEquals("updated", res.name);
+		assertEquals("a large text", res.text);
+		assertEquals("bar", res.json.get("foo").str());
+		assertEquals("Paris", res.addresses.get(0).city);
+		
+		res = pm.createQuery(LazyModel.class).filter("id", model.id).get();
+		res.name = "saved";
+		pm.save(res);
+		List<LazyModel> list = pm.createQuery(LazyModel.class).filter("id", model.id).fetch();
+		list.get(0).name = "updated list";
+		pm.update(list);
+		pm.save(list);
+		res = pm.getByKey(LazyModel.class, model.id);
+		assertEquals("updated list", res.name);
+		pm.loadField(res, "text", "json", "addresses");
+		assertEquals("a large text", res.text);
+		assertEquals("bar", res.json.get("foo").str());
+		
+		// the loaded or set lazy fields are written
+		res = pm.getByKey(LazyModel.class, model.id);
+		pm.loadField(res, "text");
+		res.text = null;
+		res.json = map().put("foo", "baz");
+		pm.update(res);
+		res = new LazyModel();
+		res.id = model.id;
+		pm.get(res);
+		assertNull(res.text);
+		assertEquals("baz", res.json.get("foo").str());
+		assertEquals("Paris", res.addresses.get(0).city);
+	}
+
+	public void testRelationsBatch() {
+		PersistenceManagerFactory.install(pm, RelatedManyParent.class);
+		PersistenceManagerFactory.install(pm, RelatedManyChild.class);
+		pm.createQuery(RelatedManyChild.class).delete();
+		pm.createQuery(RelatedManyParent.class).delete();
+		
+		List<RelatedManyParent> gods = new ArrayList<RelatedManyParent>();
+		for(int i=0; i<40; i++){
+			RelatedManyParent god = new RelatedManyParent("god"+(i<10?"0":"")+i);
+			pm.insert(god);
+			gods.add(god);
+			for(int j=0; j<i%3; j++){
+				RelatedManyChild adam = new RelatedManyChild("adam"+i+"_"+j);
+				adam.owner = god;
+				pm.insert(adam);
+			}
+		}
+		
+		List<RelatedManyParent> res = pm.createQuery(RelatedManyParent.class).order("name")
+			.customize(new QueryOptionRelations(16, "children")).fetch();
+		pm.createQuery(RelatedManyChild.class).delete();
+		
+		assertEquals(40, res.size());
+		for(int i=0; i<40; i++){
+			assertEquals(gods.get(i), res.get(i));
+			List<RelatedManyChild> children = res.get(i).children.asList();
+			assertEquals(i%3, children.size());
+			for(int j=0; j<i%3; j++){
+				assertEquals("adam"+i+"_"+j, children.get(j).name);
+				assertEquals(gods.get(i).id, children.get(j).owner.id);
+			}
+		}
+	}
+
+	public void testDirtyTracking() {
+		pm.setDirtyTracking(true);
+		try {
+			List<PersonUUID> people = pm.createQuery(PersonUUID.class).order("n").fetch();
+			PersonUUID tesla = people.get(0);
+			PersonUUID curie = people.get(1);
+			
+			// modified by another update since the fetch
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("city", "Paris");
+			pm.createQuery(PersonUUID.class).update(values);
+			
+			// only the modified fields are written
+			tesla.firstName = "Nick";
+			pm.update(tesla);
+			PersonUUID res = pm.getByKey(PersonUUID.class, tesla.id);
+			assertEquals("Nick", res.firstName);
+			assertEquals("Paris", res.city);
+			
+			// nothing modified: no update
+			pm.update(curie);
+			assertEquals("Paris", pm.getByKey(PersonUUID.class, curie.id).city);
+			
+			curie.lastName = "Sklodowska";
+			tesla.n = 10;
+			assertEquals(2, pm.update(tesla, curie));
+			res = pm.getByKey(PersonUUID.class, curie.id);
+			assertEquals("Sklodowska", res.lastName);
+			assertEquals("Paris", res.city);
+			assertEquals(10, pm.getByKey(PersonUUID.class, tesla.id).n);
+			
+			// the statement of each set of modified fields is released
+			AbstractConnectionManager cm = (AbstractConnectionManager)pm.getConnectionManager();
+			long misses = cm.getStatementCacheMisses();
+			curie.lastName = "Curie";
+			tesla.n = 11;
+			assertEquals(2, pm.update(tesla, curie));
+			assertEquals(misses, cm.getStatementCacheMisses());
+			
+			// snapshot taken by the update
+			assertEquals(0, pm.getDirtyTracker().getDirtyFields(curie).size());
+			assertEquals(0, pm.update(tesla, curie));
+			
+			JdbcClassInfo info = JdbcClassInfo.getClassInfo(PersonUUID.class);
+			List<Field> fields = pm.getDirtyTracker().getDirtyFields(res);
+			assertEquals(0, fields.size());
+			res.city = "Lyon";
+			fields = pm.getDirtyTracker().getDirtyFields(res);
+			assertEquals(1, fields.size());
+			assertSame(info.updateSQL(fields), info.updateSQL(fields));
+			assertEquals(info.updateSQL, info.updateSQL(info.updateFields));
+		} finally {
+			pm.setDirtyTracking(false);
+		}
+	}
+
+	public void testIdentityMap() {
+		pm.setIdentityMap(true);
+		try {
+			List<PersonUUID> people = pm.createQuery(PersonUUID.class).order("n").fetch();
+			Object id = people.get(0).id;
+			PersonUUID tesla = null;
+			
+			pm.beginTransaction();
+			try {
+				tesla = pm.getByKey(PersonUUID.class, id);
+				assertSame(tesla, pm.getByKey(PersonUUID.class, id));
+				assertSame(tesla, pm.createQuery(PersonUUID.class).filter("id", id).get());
+				List<PersonUUID> res = pm.createQuery(PersonUUID.class).order("n").fetch();
+				assertSame(tesla, res.get(0));
+				assertSame(res.get(1), pm.getByKeys(PersonUUID.class, res.get(1).id, id).get(0));
+				
+				// the entities modified by a query are not kept
+				Map<String, Object> values = new HashMap<String, Object>();
+				values.put("city", "Paris");
+				pm.createQuery(PersonUUID.class).filter("id", id).update(values);
+				PersonUUID updated = pm.getByKey(PersonUUID.class, id);
+				assertNotSame(tesla, updated);
+				assertEquals("Paris", updated.city);
+				
+				pm.delete(updated);
+				assertNull(pm.getByKey(PersonUUID.class, id));
+				pm.rollbackTransaction();
+			} finally {
+				pm.closeConnection();
+			}
+			
+			// cleared at the end of the transaction
+			assertEquals(0, pm.getIdentityMap().size());
+			assertNotSame(tesla, pm.getByKey(PersonUUID.class, id));
+		} finally {
+			pm.setIdentityMap(false);
+		}
+	}
+
+	public void testCachingPersistenceManager() throws Exception {
+		CachingPersistenceManager cpm = new CachingPersistenceManager(pm, new EntityCache(2, 0));
+		EntityCache cache = cpm.getCache();
+		cpm.createQuery(CachedPerson.class).delete();
+		
+		CachedPerson tesla = new CachedPerson("Tesla", 1);
+		CachedPerson curie = new CachedPerson("Curie", 2);
+		CachedPerson einstein = new CachedPerson("Einstein", 3);
+		cpm.insert(tesla, curie, einstein);
+		
+		// copies of the cached entity
+		CachedPerson res = cpm.getByKey(CachedPerson.class, tesla.id);
+		assertEquals(1, cache.getMisses());
+		res.name = "Nikola";
+		CachedPerson res2 = cpm.getByKey(CachedPerson.class, tesla.id);
+		assertEquals(1, cache.getHits());
+		assertNotSame(res, res2);
+		assertEquals("Tesla", res2.name);
+		
+		CachedPerson obj = new CachedPerson();
+		obj.id = tesla.id;
+		cpm.get(obj);
+		assertEquals("Tesla", obj.name);
+		assertEquals(2, cache.getHits());
+		
+		// only the missing entities are got, in the order of the keys
+		List<CachedPerson> people = cpm.getByKeys(CachedPerson.class, curie.id, "unknown", tesla.id);
+		assertEquals("Curie", people.get(0).name);
+		assertNull(people.get(1));
+		assertEquals("Tesla", people.get(2).name);
+		assertEquals(2, cache.size());
+		
+		// LRU eviction
+		assertEquals(2, cpm.getByKey(CachedPerson.class, curie.id).n);
+		assertEquals(3, cpm.getByKey(CachedPerson.class, einstein.id).n);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.size());
+		
+		// invalidated by the updates
+		res.name = "Nikola";
+		cpm.update(res);
+		assertEquals("Nikola", cpm.getByKey(CachedPerson.class, tesla.id).name);
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("n", 10);
+		cpm.createQuery(CachedPerson.class).update(values);
+		assertEquals(0, cache.size());
+		assertEquals(10, cpm.getByKey(CachedPerson.class, einstein.id).n);
+		
+		cpm.deleteByKeys(CachedPerson.class, einstein.id);
+		assertNull(cpm.getByKey(CachedPerson.class, einstein.id));
+		
+		// not cached in transactions
+		cpm.beginTransaction();
+		try {
+			long misses = cache.getMisses();
+			cpm.getByKey(CachedPerson.class, curie.id);
+			assertEquals(misses, cache.getMisses());
+			cpm.commitTransaction();
+		} finally {
+			cpm.closeConnection();
+		}
+		
+		// invalidated again at commit: another thread could cache the entity before it
+		CachedPerson stale = cpm.getByKey(CachedPerson.class, curie.id);
+		cpm.beginTransaction();
+		try {
+			CachedPerson written = cpm.getByKey(CachedPerson.class, curie.id);
+			written.name = "Marie";
+			cpm.update(written);
+			cache.put(stale, cache.stamp(CachedPerson.class));
+			cpm.commitTransaction();
+		} finally {
+			cpm.closeConnection();
+		}
+		assertEquals("Marie", cpm.getByKey(CachedPerson.class, curie.id).name);
+		
+		// TTL
+		CachingPersistenceManager ttlPm = new CachingPersistenceManager(pm, new EntityCache(10, 1));
+		ttlPm.getByKey(CachedPerson.class, curie.id);
+		Thread.sleep(10);
+		ttlPm.getByKey(CachedPerson.class, curie.id);
+		assertEquals(2, ttlPm.getCache().getMisses());
+		assertEquals(1, ttlPm.getCache().getEvictions());
+	}
+
+	public void testQueryCache() {
+		CachingPersistenceManager cpm = new CachingPersistenceManager(pm);
+		QueryCache cache = cpm.getQueryCache();
+		
+		List<PersonUUID> people = cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n")
+			.customize(new QueryOptionCache()).fetch();
+		assertEquals(1, cache.getMisses());
+		List<PersonUUID> res = cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n")
+			.customize(new QueryOptionCache()).fetch();
+		assertEquals(1, cache.getHits());
+		assertEquals(people.size(), res.size());
+		assertNotSame(people.get(0), res.get(0));
+		assertEquals(people.get(0).id, res.get(0).id);
+		
+		// another value, limit or kind of result
+		cpm.createQuery(PersonUUID.class).filter("n>", 1).order("n").customize(new QueryOptionCache()).fetch();
+		cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n").customize(new QueryOptionCache()).fetch(1);
+		int count = cpm.createQuery(PersonUUID.class).filter("n>", 0).customize(new QueryOptionCache()).count();
+		assertEquals(1, cache.getHits());
+		assertEquals(count, cpm.createQuery(PersonUUID.class).filter("n>", 0).customize(new QueryOptionCache()).count());
+		assertEquals(people.get(0).id, cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n")
+				.customize(new QueryOptionCache()).fetchKeys().get(0).id);
+		assertEquals(2, cache.getHits());
+		
+		// invalidated by a write of the class
+		PersonUUID first = res.get(0);
+		first.city = "Paris";
+		cpm.update(first);
+		res = cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n").customize(new QueryOptionCache()).fetch();
+		assertEquals(2, cache.getHits());
+		assertEquals("Paris", res.get(0).city);
+		cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n").customize(new QueryOptionCache()).fetch();
+		assertEquals(3, cache.getHits());
+		
+		// not cached without the option
+		cpm.createQuery(PersonUUID.class).filter("n>", 0).order("n").fetch();
+		assertEquals(3, cache.getHits());
+		
+		// only the keys: the entities are got by key
+		cpm.createQuery(CachedPerson.class).delete();
+		cpm.insert(new CachedPerson("Tesla", 1), new CachedPerson("Curie", 2));
+		List<CachedPerson> cached = cpm.createQuery(CachedPerson.class).order("n")
+			.customize(new QueryOptionCache(0, true)).fetch();
+		assertEquals(2, cached.size());
+		cached = cpm.createQuery(CachedPerson.class).order("n").customize(new QueryOptionCache(0, true)).fetch();
+		assertEquals("Curie", cached.get(1).name);
+		assertEquals(4, cache.getHits());
+		assertEquals(7, cache.getMisses());
+		assertEquals(4/11.0, cache.getHitRate(), 0.001);
+		
+		// the entities are not cached with their keys
+		cached = cpm.createQuery(CachedPerson.class).order("n").customize(new QueryOptionCache()).fetch();
+		assertEquals("Curie", cached.get(1).name);
+		assertEquals(4, cache.getHits());
+		
+		// the pages set by limit/offset
+		List<PersonUUID> ordered = pm.createQuery(PersonUUID.class).order("n").fetch();
+		List<PersonUUID> page1 = cpm.createQuery(PersonUUID.class).order("n")
+			.customize(new QueryOptionCache()).limit(2).fetch();
+		List<PersonUUID> page2 = cpm.createQuery(PersonUUID.class).order("n")
+			.customize(new QueryOptionCache()).limit(2).offset(2).fetch();
+		assertEquals(4, cache.getHits());
+		assertEquals(Arrays.asList(ordered.get(0).id, ordered.get(1).id), Arrays.asList(page1.get(0).id, page1.get(1).id));
+		assertEquals(1, page2.size());
+		assertEquals(ordered.get(2).id, page2.get(0).id);
+		page2 = cpm.createQuery(PersonUUID.class).order("n")
+			.customize(new QueryOptionCache()).limit(2).offset(2).fetch();
+		assertEquals(5, cache.getHits());
+		assertEquals(ordered.get(2).id, page2.get(0).id);
+	}
+
+	public void testCachingPersistenceManagerSingleFlight() {
+		// the cache misses of the decorator go through its SingleFlight
+		CachingPersistenceManager cpm = new CachingPersistenceManager(pm, new EntityCache());
+		cpm.createQuery(CachedPerson.class).delete();
+		CachedPerson tesla = new CachedPerson("Tesla", 1);
+		cpm.insert(tesla);
+		assertEquals("Tesla", cpm.getByKey(CachedPerson.class, tesla.id).name);
+		assertEquals("Tesla", cpm.getByKey(CachedPerson.class, tesla.id).name);
+		assertEquals(1, cpm.getSingleFlight().getCalls());
+	}
+	
+	public void testCachingPersistenceManagerSingleFlightAfterWrite() throws Exception {
+		// a get after a write doesn't wait for a get started before it
+		// (own DB kept open by a connection: the connection of pm may keep locks)
+		String url = "jdbc:h2:mem:flights;DB_CLOSE_DELAY=-1";
+		DdlGenerator generator = new DdlGenerator();
+		generator.addTable(CachedPerson.class);
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+		try {
+			PlatformFactory.createNewPlatformInstance("mysql").alterTables(connection, generator.getDatabase(), true);
+			final CountDownLatch read = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			H2PersistenceManager slowPm = new H2PersistenceManager() {
+				@Override
+				public <T> T getByKey(Class<T> clazz, Object key) {
+					T obj = super.getByKey(clazz, key);
+					// the first get waits after its read
+					if(read.getCount() > 0) {
+						read.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new SienaException(e);
+						}
+					}
+					return obj;
+				}
+			};
+			Properties p = new Properties();
+			p.setProperty("driver", "org.h2.Driver");
+			p.setProperty("url", url);
+			p.setProperty("user", "sa");
+			p.setProperty("password", "");
+			slowPm.init(p);
+			final CachingPersistenceManager cpm = new CachingPersistenceManager(slowPm, new EntityCache());
+			final CachedPerson tesla = new CachedPerson("Tesla", 1);
+			cpm.insert(tesla);
+			
+			// reads the entity and waits
+			final List<CachedPerson> results = Collections.synchronizedList(new ArrayList<CachedPerson>());
+			Thread reader = new Thread() {
+				public void run() {
+					results.add(cpm.getByKey(CachedPerson.class, tesla.id));
+				}
+			};
+			reader.start();
+			read.await();
+			
+			// writes the entity and reads it again
+			Thread writer = new Thread() {
+				public void run() {
+					CachedPerson nikola = new CachedPerson("Nikola", 1);
+					nikola.id = tesla.id;
+					cpm.update(nikola);
+					results.add(cpm.getByKey(CachedPerson.class, tesla.id));
+				}
+			};
+			writer.start();
+			writer.join(2000);
+			release.countDown();
+			writer.join();
+			reader.join();
+			
+			assertEquals(2, results.size());
+			assertEquals("Nikola", results.get(0).name);
+			assertEquals("Tesla", results.get(1).name);
+			assertEquals(0, cpm.getSingleFlight().getShared());
+			slowPm.closeConnection();
+		} finally {
+			connection.close();
+		}
+	}
 }
@@ -15,6 +15,7 @@ import siena.Query;
 import siena.SienaRestrictedApiException;
 import siena.base.test.model.Discovery4Search;
 import siena.base.test.model.Discovery4Search2;
+import siena.base.test.model.PersonUUID;
 import siena.jdbc.PostgresqlPersistenceManager;
 import siena.jdbc.ddl.DdlGenerator;
 
@@ -1742,4 +1743,30 @@ public class PostgresqlTest extends BaseTest {
 		super.testTransactionSaveBatchFailure();
 	}
 
+	public void testInsertCopy() {
+		int threshold = pm.getCopyThreshold();
+		pm.setCopyThreshold(10);
+		try {
+			int count = pm.createQuery(PersonUUID.class).count();
+			PersonUUID[] people = new PersonUUID[30];
+			for(int i=0; i<30; i++){
+				people[i] = new PersonUUID();
+				// the characters escaped by the COPY text format
+				people[i].firstName = "First\t"+i+"\\";
+				people[i].lastName = "Last\n"+i+"\r";
+				people[i].n = i;
+			}
+			assertEquals(30, pm.insert((Object[])people));
+			assertEquals(count+30, pm.createQuery(PersonUUID.class).count());
+			for(int i=0; i<30; i++){
+				PersonUUID p = pm.getByKey(PersonUUID.class, people[i].id);
+				assertEquals(people[i].firstName, p.firstName);
+				assertEquals(people[i].lastName, p.lastName);
+				assertNull(p.city);
+				assertEquals(i, p.n);
+			}
+		}finally {
+			pm.setCopyThreshold(threshold);
+		}
+	}
 }
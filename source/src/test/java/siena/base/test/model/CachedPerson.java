@@ -0,0 +1,28 @@
+package siena.base.test.model;
+
+import siena.Generator;
+import siena.Id;
+import siena.Max;
+import siena.Table;
+import siena.core.Cached;
+
+@Table("cached_people")
+@Cached
+public class CachedPerson {
+
+	@Id(Generator.UUID) @Max(36)
+	public String id;
+	
+	@Max(100)
+	public String name;
+	
+	public int n;
+
+	public CachedPerson() {
+	}
+
+	public CachedPerson(String name, int n) {
+		this.name = name;
+		this.n = n;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2008-2010 Alberto Gimeno <gimenete at gmail.com>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */package siena.base.test.model;
+
+import java.util.List;
+
+import siena.Generator;
+import siena.Id;
+import siena.Json;
+import siena.Max;
+import siena.Table;
+import siena.Text;
+import siena.core.Lazy;
+import siena.embed.Embedded;
+
+@Table("lazy_model")
+public class LazyModel {
+
+	@Id(Generator.AUTO_INCREMENT)
+	public Long id;
+	
+	@Max(100)
+	public String name;
+	
+	@Lazy @Text
+	public String text;
+	
+	@Lazy
+	public Json json;
+	
+	@Lazy @Embedded
+	public List<Address> addresses;
+	
+	public LazyModel() {
+	}
+	
+	public LazyModel(String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2008-2010 Alberto Gimeno <gimenete at gmail.com>
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package siena.base.test.model;
+
+import siena.Column;
+import siena.Generator;
+import siena.Id;
+import siena.Max;
+import siena.Table;
+import siena.core.Sequence;
+
+@Table("people_long_sequence")
+public class PersonLongSequenceID {
+
+	@Id(Generator.SEQUENCE) @Sequence(allocationSize=10)
+	public Long id;
+	
+	@Column("first_name") @Max(100)
+	public String firstName;
+	
+	@Column("last_name") @Max(100)
+	public String lastName;
+	
+	public int n;
+
+	public PersonLongSequenceID() {
+	}
+
+	public PersonLongSequenceID(String firstName, String lastName, int n) {
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.n = n;
+	}
+
+	public String toString() {
+		return "id: "+id+", firstName: "+firstName+", lastName: "+lastName+", n:"+n;
+	}
+}
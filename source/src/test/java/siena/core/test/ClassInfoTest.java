@@ -54,5 +54,27 @@ public class ClassInfoTest extends TestCase {
 		
 		assertEquals("SampleModelMultipleKeys", info.tableName);
 	}
+	
+	public void testColumnNamesWithTableName() {
+		ClassInfo info = ClassInfo.getClassInfo(SampleModelMultipleKeys.class);
+		Field relationship = info.updateFields.get(2);
+		
+		String[] columns = ClassInfo.getColumnNames(relationship, "T");
+		assertEquals(2, columns.length);
+		assertEquals("T.p_id", columns[0]);
+		assertEquals("T.p_key", columns[1]);
+		
+		String[] aliases = ClassInfo.getColumnAliases(relationship, "T");
+		assertEquals(2, aliases.length);
+		assertEquals("T_p_id", aliases[0]);
+		assertEquals("T_p_key", aliases[1]);
+		
+		// built once and then shared
+		assertSame(columns, ClassInfo.getColumnNames(relationship, "T"));
+		assertSame(ClassInfo.getFieldInfo(relationship), ClassInfo.getFieldInfo(relationship));
+		
+		assertEquals(2, ClassInfo.getColumnNames(relationship, null).length);
+		assertEquals("p_id", ClassInfo.getColumnNames(relationship, "")[0]);
+	}
 
 }
@@ -0,0 +1,83 @@
+package siena.core.test;
+
+import junit.framework.TestCase;
+import siena.base.test.model.CachedPerson;
+import siena.base.test.model.PersonUUID;
+import siena.core.EntityCache;
+
+public class EntityCacheTest extends TestCase {
+
+	private static CachedPerson person(String id, String name, int n) {
+		CachedPerson person = new CachedPerson(name, n);
+		person.id = id;
+		return person;
+	}
+
+	public void testCopies() {
+		EntityCache cache = new EntityCache();
+		CachedPerson tesla = person("1", "Tesla", 1);
+		cache.put(tesla, cache.stamp(CachedPerson.class));
+		tesla.name = "Nikola";
+
+		CachedPerson res = cache.get(CachedPerson.class, "1");
+		assertNotSame(tesla, res);
+		assertEquals("Tesla", res.name);
+		res.name = "Nikola";
+		assertEquals("Tesla", cache.get(CachedPerson.class, "1").name);
+		assertEquals(2, cache.getHits());
+
+		assertNull(cache.get(CachedPerson.class, "2"));
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testEviction() throws Exception {
+		EntityCache cache = new EntityCache(2, 0);
+		cache.put(person("1", "Tesla", 1), cache.stamp(CachedPerson.class));
+		cache.put(person("2", "Curie", 2), cache.stamp(CachedPerson.class));
+		cache.get(CachedPerson.class, "1");
+		cache.put(person("3", "Einstein", 3), cache.stamp(CachedPerson.class));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		// the least recently used one
+		assertNull(cache.get(CachedPerson.class, "2"));
+		assertEquals("Tesla", cache.get(CachedPerson.class, "1").name);
+
+		// TTL
+		EntityCache ttlCache = new EntityCache(10, 1);
+		ttlCache.put(person("1", "Tesla", 1), ttlCache.stamp(CachedPerson.class));
+		Thread.sleep(10);
+		assertNull(ttlCache.get(CachedPerson.class, "1"));
+		assertEquals(1, ttlCache.getEvictions());
+	}
+
+	public void testStamps() {
+		EntityCache cache = new EntityCache();
+		CachedPerson tesla = person("1", "Tesla", 1);
+
+		// read before an invalidation of its class: not cached
+		long stamp = cache.stamp(CachedPerson.class);
+		cache.remove(CachedPerson.class, "2");
+		cache.put(tesla, stamp);
+		assertNull(cache.get(CachedPerson.class, "1"));
+
+		stamp = cache.stamp(CachedPerson.class);
+		cache.clear(CachedPerson.class);
+		cache.put(tesla, stamp);
+		assertNull(cache.get(CachedPerson.class, "1"));
+
+		stamp = cache.stamp(CachedPerson.class);
+		cache.clear();
+		cache.put(tesla, stamp);
+		assertNull(cache.get(CachedPerson.class, "1"));
+
+		// the invalidations of another class don't prevent caching
+		stamp = cache.stamp(CachedPerson.class);
+		cache.clear(PersonUUID.class);
+		cache.remove(PersonUUID.class, "1");
+		cache.put(tesla, stamp);
+		assertEquals("Tesla", cache.get(CachedPerson.class, "1").name);
+
+		cache.remove(tesla);
+		assertNull(cache.get(CachedPerson.class, "1"));
+	}
+}
@@ -0,0 +1,66 @@
+package siena.core.test;
+
+import static siena.Json.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import siena.base.test.model.Address;
+import siena.base.test.model.CachedPerson;
+import siena.base.test.model.DataTypes;
+import siena.base.test.model.Discovery4Join;
+import siena.core.EntityCodec;
+
+public class EntityCodecTest extends TestCase {
+
+	public void testDataTypes() {
+		DataTypes dataTypes = new DataTypes();
+		dataTypes.id = "codec";
+		dataTypes.typeByte = 1;
+		dataTypes.typeShort = 2;
+		dataTypes.typeInt = 3;
+		dataTypes.typeLong = 4;
+		dataTypes.typeFloat = 5;
+		dataTypes.typeDouble = 6;
+		dataTypes.typeDate = new Date();
+		dataTypes.typeString = "hello";
+		dataTypes.typeJson = map().put("foo", "bar");
+		dataTypes.addresses = new ArrayList<Address>();
+		dataTypes.addresses.add(new Address("Castellana", "Madrid"));
+		dataTypes.longLong = Long.MAX_VALUE;
+		dataTypes.boolBool = Boolean.TRUE;
+		dataTypes.typeBlob = new byte[] { 1, 2, 3 };
+		dataTypes.typeEnum = DataTypes.EnumLong.ALPHA;
+		
+		assertTrue(EntityCodec.supports(DataTypes.class));
+		DataTypes same = EntityCodec.decode(DataTypes.class, EntityCodec.encode(dataTypes));
+		assertNotSame(dataTypes, same);
+		assertEquals(dataTypes.id, same.id);
+		assertEquals(dataTypes.typeByte, same.typeByte);
+		assertEquals(dataTypes.typeShort, same.typeShort);
+		assertEquals(dataTypes.typeInt, same.typeInt);
+		assertEquals(dataTypes.typeLong, same.typeLong);
+		assertEquals(dataTypes.typeFloat, same.typeFloat);
+		assertEquals(dataTypes.typeDouble, same.typeDouble);
+		assertEquals(dataTypes.typeDate, same.typeDate);
+		assertEquals(dataTypes.typeString, same.typeString);
+		assertEquals(dataTypes.typeJson, same.typeJson);
+		assertEquals(dataTypes.addresses, same.addresses);
+		assertEquals(dataTypes.longLong, same.longLong);
+		assertEquals(dataTypes.boolBool, same.boolBool);
+		assertTrue(Arrays.equals(dataTypes.typeBlob, same.typeBlob));
+		assertEquals(dataTypes.typeEnum, same.typeEnum);
+		// the null fields stay null
+		assertNull(same.typeLargeString);
+		assertNull(same.intInt);
+		assertNull(same.contacts);
+	}
+
+	public void testSupports() {
+		assertTrue(EntityCodec.supports(CachedPerson.class));
+		// the joined entities are not encoded
+		assertFalse(EntityCodec.supports(Discovery4Join.class));
+	}
+}
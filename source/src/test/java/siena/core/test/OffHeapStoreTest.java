@@ -0,0 +1,75 @@
+package siena.core.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import siena.base.test.model.CachedPerson;
+import siena.core.EntityCache;
+import siena.core.EntityCodec;
+import siena.core.OffHeapStore;
+
+public class OffHeapStoreTest extends TestCase {
+
+	private static CachedPerson person(String id, String name, int n) {
+		CachedPerson person = new CachedPerson(name, n);
+		person.id = id;
+		return person;
+	}
+
+	public void testEviction() {
+		// the oldest slab is recycled when the budget is reached
+		OffHeapStore small = new OffHeapStore(256, 128, OffHeapStore.EvictionPolicy.FIFO, null);
+		for(int i=0; i<20; i++){
+			small.put(i, new byte[50], 0);
+		}
+		assertEquals(256, small.getAllocated());
+		assertTrue(small.getEvictions() > 0);
+		assertNull(small.get(0));
+		assertEquals(50, small.get(19).length);
+		// FIFO: still there after a read
+		assertTrue(small.contains(19));
+	}
+
+	public void testMapped() throws Exception {
+		File dir = File.createTempFile("siena", "cache");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		OffHeapStore mapped = new OffHeapStore(1024, 512, OffHeapStore.EvictionPolicy.LRU, dir);
+		mapped.put("key", EntityCodec.encode(person("1", "Tesla", 1)), 0);
+		assertEquals("Tesla", EntityCodec.decode(CachedPerson.class, mapped.get("key")).name);
+		// LRU: the read removes it, it goes back to the hot tier
+		assertFalse(mapped.contains("key"));
+	}
+
+	public void testEntityCacheTier() {
+		OffHeapStore store = new OffHeapStore(1024, 256, OffHeapStore.EvictionPolicy.LRU, null);
+		EntityCache cache = new EntityCache(1, 0, store);
+		CachedPerson tesla = person("1", "Tesla", 1);
+		CachedPerson curie = person("2", "Curie", 2);
+		CachedPerson einstein = person("3", "Einstein", 3);
+		for(CachedPerson person: new CachedPerson[] { tesla, curie, einstein }){
+			cache.put(person, cache.stamp(CachedPerson.class));
+		}
+		assertEquals(1, cache.size());
+		assertEquals(2, store.size());
+		assertEquals(0, cache.getEvictions());
+		
+		// decoded from the off-heap tier and moved back to the hot one
+		CachedPerson res = cache.get(CachedPerson.class, tesla.id);
+		assertNotSame(tesla, res);
+		assertEquals("Tesla", res.name);
+		assertEquals(1, res.n);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, store.getHits());
+		assertEquals(2, store.size());
+		
+		// invalidated in both tiers
+		cache.remove(CachedPerson.class, curie.id);
+		assertEquals(1, store.size());
+		assertNull(cache.get(CachedPerson.class, curie.id));
+		cache.clear(CachedPerson.class);
+		assertEquals(0, store.size());
+		assertNull(cache.get(CachedPerson.class, einstein.id));
+	}
+}
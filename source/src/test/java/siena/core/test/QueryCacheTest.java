@@ -0,0 +1,127 @@
+package siena.core.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import siena.PersistenceManager;
+import siena.Query;
+import siena.base.test.model.CachedPerson;
+import siena.base.test.model.PersonUUID;
+import siena.core.QueryCache;
+import siena.core.QueryCache.Kind;
+import siena.jdbc.JdbcPersistenceManager;
+
+public class QueryCacheTest extends TestCase {
+
+	// only builds the queries
+	private PersistenceManager pm = new JdbcPersistenceManager();
+
+	private Query<PersonUUID> query() {
+		return pm.createQuery(PersonUUID.class).filter("n>", 0).order("n");
+	}
+
+	private static String key(Query<?> query) {
+		return QueryCache.key(query, Kind.FETCH, false, null, null);
+	}
+
+	public void testKey() {
+		String key = key(query());
+		assertEquals(key, key(query()));
+
+		// another value, filter, order or class
+		assertFalse(key.equals(key(pm.createQuery(PersonUUID.class).filter("n>", 1).order("n"))));
+		assertFalse(key.equals(key(pm.createQuery(PersonUUID.class).filter("n<", 0).order("n"))));
+		assertFalse(key.equals(key(pm.createQuery(PersonUUID.class).filter("n>", 0).order("-n"))));
+		assertFalse(key.equals(key(pm.createQuery(CachedPerson.class).filter("n>", 0).order("n"))));
+
+		// another kind of result or of cached value
+		assertFalse(key.equals(QueryCache.key(query(), Kind.FETCH_KEYS, false, null, null)));
+		assertFalse(key.equals(QueryCache.key(query(), Kind.COUNT, false, null, null)));
+		assertFalse(key.equals(QueryCache.key(query(), Kind.FETCH, true, null, null)));
+
+		// the limit/offset given to the persistence manager
+		String limited = QueryCache.key(query(), Kind.FETCH, false, 2, null);
+		assertFalse(key.equals(limited));
+		assertFalse(limited.equals(QueryCache.key(query(), Kind.FETCH, false, 2, 2)));
+
+		// the limit/offset set in the query
+		String page1 = key(query().limit(2));
+		String page2 = key(query().limit(2).offset(2));
+		assertFalse(key.equals(page1));
+		assertFalse(page1.equals(page2));
+		assertEquals(page2, key(query().limit(2).offset(2)));
+	}
+
+	public void testKeyEscapesValues() {
+		// a value containing the separators of the key
+		String key = key(pm.createQuery(PersonUUID.class).filter("firstName", "Nikola").filter("lastName", "Tesla"));
+		assertFalse(key.equals(key(pm.createQuery(PersonUUID.class).filter("firstName", "Nikola,lastName=String:Tesla"))));
+		assertFalse(key.equals(key(pm.createQuery(PersonUUID.class).filter("firstName", "Nikola,lastName=String:6#Tesla"))));
+		assertFalse(key(pm.createQuery(PersonUUID.class).filter("firstName IN", Arrays.asList("a;b")))
+				.equals(key(pm.createQuery(PersonUUID.class).filter("firstName IN", Arrays.asList("a", "b")))));
+		assertFalse(key(pm.createQuery(PersonUUID.class).search("a b", "firstName"))
+				.equals(key(pm.createQuery(PersonUUID.class).search("a", "b", "firstName"))));
+	}
+
+	public void testGetPut() throws Exception {
+		QueryCache cache = new QueryCache();
+		Class<?>[] classes = QueryCache.getClasses(query());
+		assertEquals(Arrays.<Class<?>>asList(PersonUUID.class), Arrays.asList(classes));
+
+		String key = key(query());
+		assertNull(cache.get(key));
+		cache.put(key, "result", classes, cache.generations(classes), 0);
+		assertEquals("result", cache.get(key));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0.001);
+
+		// expired
+		cache.put(key, "result", classes, cache.generations(classes), 1);
+		Thread.sleep(10);
+		assertNull(cache.get(key));
+	}
+
+	public void testInvalidate() {
+		QueryCache cache = new QueryCache();
+		Class<?>[] classes = QueryCache.getClasses(query());
+		String key = key(query());
+
+		cache.put(key, "result", classes, cache.generations(classes), 0);
+		cache.invalidate(CachedPerson.class);
+		assertEquals("result", cache.get(key));
+		cache.invalidate(PersonUUID.class);
+		assertNull(cache.get(key));
+		assertEquals(0, cache.size());
+
+		// read before a write of its class: not cached
+		long[] gens = cache.generations(classes);
+		cache.invalidate(PersonUUID.class);
+		cache.put(key, "stale", classes, gens, 0);
+		assertNull(cache.get(key));
+
+		cache.put(key, "result", classes, cache.generations(classes), 0);
+		cache.clear();
+		assertNull(cache.get(key));
+	}
+
+	public void testMaxSize() {
+		QueryCache cache = new QueryCache(2);
+		Class<?>[] classes = QueryCache.getClasses(query());
+		List<String> keys = Arrays.asList(
+				key(pm.createQuery(PersonUUID.class).filter("n>", 0)),
+				key(pm.createQuery(PersonUUID.class).filter("n>", 1)),
+				key(pm.createQuery(PersonUUID.class).filter("n>", 2)));
+
+		cache.put(keys.get(0), "0", classes, cache.generations(classes), 0);
+		cache.put(keys.get(1), "1", classes, cache.generations(classes), 0);
+		cache.get(keys.get(0));
+		cache.put(keys.get(2), "2", classes, cache.generations(classes), 0);
+		assertEquals(2, cache.size());
+		// the least recently used one
+		assertNull(cache.get(keys.get(1)));
+		assertEquals("0", cache.get(keys.get(0)));
+		assertEquals("2", cache.get(keys.get(2)));
+	}
+}
@@ -0,0 +1,106 @@
+package siena.core.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import siena.SienaException;
+import siena.core.SingleFlight;
+
+public class SingleFlightTest extends TestCase {
+
+	public void testShared() throws Exception {
+		final SingleFlight flights = new SingleFlight();
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleFlight.Call<List<String>> call = new SingleFlight.Call<List<String>>() {
+			public List<String> call() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new SienaException(e);
+				}
+				return new LinkedList<String>(Arrays.asList("Tesla", "Curie"));
+			}
+
+			@Override
+			public Object snapshot(List<String> result) {
+				return new ArrayList<String>(result);
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public List<String> share(Object snapshot) {
+				return new ArrayList<String>((List<String>)snapshot);
+			}
+		};
+		
+		final List<List<String>> results = Collections.synchronizedList(new ArrayList<List<String>>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<6; i++){
+			Thread thread = new Thread() {
+				public void run() {
+					List<String> res = flights.execute("people", call);
+					// the thread running the call modifies its result at once
+					if(res instanceof LinkedList) res.set(0, "Nikola");
+					results.add(res);
+				}
+			};
+			threads.add(thread);
+			thread.start();
+			// the first thread runs the call
+			while(flights.getCalls() == 0){
+				Thread.sleep(1);
+			}
+		}
+		// the other ones wait for its result
+		while(flights.getShared() < 5){
+			Thread.sleep(1);
+		}
+		release.countDown();
+		for(Thread thread: threads){
+			thread.join();
+		}
+		
+		assertEquals(1, flights.getCalls());
+		assertEquals(5, flights.getShared());
+		assertEquals(6, results.size());
+		int same = 0;
+		for(List<String> res: results){
+			if(res instanceof LinkedList){
+				same++;
+			}else {
+				assertEquals(Arrays.asList("Tesla", "Curie"), res);
+			}
+		}
+		// only the thread which ran the call gets its result, the other ones get a copy of it as it was returned
+		assertEquals(1, same);
+	}
+
+	public void testFailure() {
+		SingleFlight flights = new SingleFlight();
+		// the failure is thrown to the caller
+		try {
+			flights.execute("people", new SingleFlight.Call<String>() {
+				public String call() {
+					throw new SienaException("failed");
+				}
+			});
+			fail();
+		} catch(SienaException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(1, flights.getCalls());
+
+		// the next call with the same key is run again
+		assertEquals("Tesla", flights.execute("people", new SingleFlight.Call<String>() {
+			public String call() {
+				return "Tesla";
+			}
+		}));
+		assertEquals(2, flights.getCalls());
+	}
+}
@@ -186,6 +186,11 @@ public class MockPersistenceManager implements PersistenceManager {
 			return null;
 		}
 
+		public List<T> fetchFields(String... fields) {
+			// TODO Auto-generated method stub
+			return null;
+		}
+
 		@Override
 		public Iterable<T> iter() {
 			// TODO Auto-generated method stub
@@ -546,6 +551,10 @@ public class MockPersistenceManager implements PersistenceManager {
 		return null;
 	}
 
+	public void loadField(Object obj, String... fieldNames) {
+		// TODO Auto-generated method stub
+	}
+
 	@Override
 	public <T> void nextPage(Query<T> query) {
 		// TODO Auto-generated method stub